@@ -0,0 +1,28 @@
+package com.substring.chat.config;
+
+import com.substring.chat.services.RoomExportService;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * StreamingResponseBody runs on the MVC async executor. Exports are the only responses that
+ * use it (history and search streams push from their own virtual threads), so that executor is
+ * the export pool: a slow or huge export ties up one of its few low-priority threads instead of
+ * a request or broker thread.
+ */
+@Configuration
+public class ExportAsyncConfig implements WebMvcConfigurer {
+
+    private final RoomExportService roomExportService;
+
+    public ExportAsyncConfig(RoomExportService roomExportService) {
+        this.roomExportService = roomExportService;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(roomExportService.getExecutor());
+        configurer.setDefaultTimeout(roomExportService.getTimeoutMillis());
+    }
+}
@@ -0,0 +1,96 @@
+package com.substring.chat.config;
+
+import com.substring.chat.services.TokenBucketRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Throttles inbound STOMP SEND frames per user and per room before they reach any
+ * @MessageMapping handler, so a flooding client never touches the repository.
+ * Throttled frames are dropped by returning null from preSend.
+ */
+@Component
+public class RateLimitChannelInterceptor implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitChannelInterceptor.class);
+
+    private final boolean enabled;
+    private final TokenBucketRateLimiter userLimiter;
+    private final TokenBucketRateLimiter roomLimiter;
+
+    public RateLimitChannelInterceptor(@Value("${chat.ratelimit.enabled:true}") boolean enabled,
+                                       @Value("${chat.ratelimit.user.burst:20}") int userBurst,
+                                       @Value("${chat.ratelimit.user.refill-per-second:5}") int userRefill,
+                                       @Value("${chat.ratelimit.room.burst:200}") int roomBurst,
+                                       @Value("${chat.ratelimit.room.refill-per-second:50}") int roomRefill,
+                                       @Value("${chat.ratelimit.idle-eviction-ms:600000}") long idleMillis) {
+        this.enabled = enabled;
+        this.userLimiter = new TokenBucketRateLimiter("user", userBurst, userRefill, idleMillis);
+        this.roomLimiter = new TokenBucketRateLimiter("room", roomBurst, roomRefill, idleMillis);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!enabled) {
+            return message;
+        }
+
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.SEND.equals(accessor.getCommand())) {
+            return message;
+        }
+
+        Principal user = accessor.getUser();
+        String userKey = user != null ? user.getName() : accessor.getSessionId();
+        if (userKey != null && !userLimiter.tryAcquire(userKey)) {
+            logger.debug("Throttled SEND from user {} to {}", userKey, accessor.getDestination());
+            return null;
+        }
+
+        String roomId = StompRoomIdResolver.resolve(accessor.getDestination(), message.getPayload());
+        if (roomId != null && !roomLimiter.tryAcquire(roomId)) {
+            logger.debug("Throttled SEND to room {} from user {}", roomId, userKey);
+            return null;
+        }
+
+        return message;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.ratelimit.eviction-interval-ms:60000}")
+    public void evictIdleBuckets() {
+        int removed = userLimiter.evictIdle() + roomLimiter.evictIdle();
+        if (removed > 0) {
+            logger.debug("Evicted {} idle rate limit buckets", removed);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("user", limiterStats(userLimiter));
+        stats.put("room", limiterStats(roomLimiter));
+        return stats;
+    }
+
+    private Map<String, Object> limiterStats(TokenBucketRateLimiter limiter) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buckets", limiter.size());
+        stats.put("granted", limiter.getGranted());
+        stats.put("throttled", limiter.getThrottled());
+        stats.put("evicted", limiter.getEvicted());
+        return stats;
+    }
+}
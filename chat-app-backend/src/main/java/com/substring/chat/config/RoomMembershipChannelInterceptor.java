@@ -0,0 +1,112 @@
+package com.substring.chat.config;
+
+import com.substring.chat.services.RoomMembershipService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Only members may send to a room or subscribe to its topics. Runs after the rate limiter,
+ * so a flood is throttled before it costs a membership lookup. Denied frames are dropped by
+ * returning null from preSend, like throttled ones. A SEND to an application destination
+ * whose room cannot be resolved is dropped too, unless the destination carries no room.
+ *
+ * <p>The room here is read from the raw frame, which is only an early filter: handlers check
+ * the room their bound payload actually names through {@link #permits(String, Principal)}.
+ *
+ * <p>The check reads the cached per-room bitset in RoomMembershipService; only a cold room
+ * costs a query.
+ */
+@Component
+public class RoomMembershipChannelInterceptor implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomMembershipChannelInterceptor.class);
+
+    private static final String APP_PREFIX = "/app/";
+    // Application destinations whose payload names no room
+    private static final Set<String> ROOMLESS_DESTINATIONS = Set.of("/app/dm.send");
+
+    private final boolean enforce;
+    // Looked up lazily: membership changes reach the mailbox, which needs the messaging template
+    private final ObjectProvider<RoomMembershipService> membershipService;
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+
+    public RoomMembershipChannelInterceptor(@Value("${chat.membership.enforce:true}") boolean enforce,
+                                            ObjectProvider<RoomMembershipService> membershipService) {
+        this.enforce = enforce;
+        this.membershipService = membershipService;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!enforce) {
+            return message;
+        }
+
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !(StompCommand.SEND.equals(accessor.getCommand())
+                || StompCommand.SUBSCRIBE.equals(accessor.getCommand()))) {
+            return message;
+        }
+
+        String destination = accessor.getDestination();
+        String roomId = StompRoomIdResolver.resolve(destination, message.getPayload());
+        if (roomId == null) {
+            if (StompCommand.SEND.equals(accessor.getCommand()) && destination != null
+                    && destination.startsWith(APP_PREFIX) && !ROOMLESS_DESTINATIONS.contains(destination)) {
+                denied.increment();
+                logger.debug("Denied SEND to {} without a resolvable room", destination);
+                return null;
+            }
+            return message;
+        }
+
+        Principal user = accessor.getUser();
+        if (!permits(roomId, user)) {
+            logger.debug("Denied {} to {} for non-member {}", accessor.getCommand(), destination,
+                    user != null ? user.getName() : accessor.getSessionId());
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * Whether the user may act in the room. Message handlers call this with the room of the
+     * payload they bound, since that is the room the action really targets.
+     */
+    public boolean permits(String roomId, Principal user) {
+        if (!enforce) {
+            return true;
+        }
+        checked.increment();
+        if (roomId == null || user == null || !membershipService.getObject().isMember(roomId.trim(), user.getName())) {
+            denied.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enforce", enforce);
+        stats.put("checked", checked.sum());
+        stats.put("denied", denied.sum());
+        return stats;
+    }
+}
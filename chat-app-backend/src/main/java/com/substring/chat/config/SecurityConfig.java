@@ -2,6 +2,7 @@ package com.substring.chat.config;
 
 import com.substring.chat.services.JwtAuthenticationFilter;
 import com.substring.chat.services.JwtUtil;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -15,15 +16,22 @@ import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
     private final JwtUtil jwtUtil;
+    private final Set<String> adminUsernames;
 
-    public SecurityConfig(JwtUtil jwtUtil) {
+    public SecurityConfig(JwtUtil jwtUtil, @Value("${chat.admin.usernames:}") String adminUsernames) {
         this.jwtUtil = jwtUtil;
+        this.adminUsernames = Arrays.stream(adminUsernames.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
     }
 
     @Bean
@@ -33,7 +41,7 @@ public class SecurityConfig {
 
     @Bean
     public JwtAuthenticationFilter jwtAuthenticationFilter() {
-        return new JwtAuthenticationFilter(jwtUtil);
+        return new JwtAuthenticationFilter(jwtUtil, adminUsernames);
     }
 
     @Bean
@@ -49,6 +57,8 @@ public class SecurityConfig {
                         .requestMatchers("/api/v1/files/download/**").permitAll()
                         .requestMatchers("/files/**").permitAll()
                         .requestMatchers("/error").permitAll()
+                        // Migrations, benchmarks, membership and moderation changes
+                        .requestMatchers("/api/v1/admin/**").hasRole("ADMIN")
                         .anyRequest().authenticated()
                 )
                 .addFilterBefore(jwtAuthenticationFilter(), UsernamePasswordAuthenticationFilter.class);
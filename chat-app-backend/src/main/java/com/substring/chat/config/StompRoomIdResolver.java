@@ -0,0 +1,80 @@
+package com.substring.chat.config;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Works out which room an inbound STOMP frame targets without deserializing the payload.
+ *
+ * "/app/sendMessage/{roomId}" and "/topic/room/{roomId}" carry the room in the destination,
+ * while "/app/sendMessage" and "/app/chat.*" carry it as the "roomId" field of the JSON body.
+ */
+public final class StompRoomIdResolver {
+
+    private static final String SEND_PREFIX = "/app/sendMessage/";
+    private static final String TOPIC_PREFIX = "/topic/room/";
+    private static final byte[] ROOM_ID_KEY = "\"roomId\"".getBytes(StandardCharsets.US_ASCII);
+
+    private StompRoomIdResolver() {}
+
+    public static String resolve(String destination, Object payload) {
+        String fromDestination = fromDestination(destination);
+        if (fromDestination != null) {
+            return fromDestination;
+        }
+        if (payload instanceof byte[] bytes) {
+            return fromJson(bytes);
+        }
+        return null;
+    }
+
+    public static String fromDestination(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        String prefix = destination.startsWith(SEND_PREFIX) ? SEND_PREFIX
+                : destination.startsWith(TOPIC_PREFIX) ? TOPIC_PREFIX : null;
+        if (prefix == null) {
+            return null;
+        }
+        int end = destination.indexOf('/', prefix.length());
+        String roomId = end < 0 ? destination.substring(prefix.length()) : destination.substring(prefix.length(), end);
+        return roomId.isEmpty() ? null : roomId;
+    }
+
+    // Scans for "roomId" : "<value>" in the raw body. Only a pre-filter: escaped or nested keys
+    // can make it disagree with the bound payload, so handlers re-check the room they bind
+    static String fromJson(byte[] body) {
+        int keyAt = indexOf(body, ROOM_ID_KEY, 0);
+        if (keyAt < 0) {
+            return null;
+        }
+        int i = keyAt + ROOM_ID_KEY.length;
+        while (i < body.length && (body[i] == ' ' || body[i] == ':' || body[i] == '\t' || body[i] == '\n' || body[i] == '\r')) {
+            i++;
+        }
+        if (i >= body.length || body[i] != '"') {
+            return null;
+        }
+        int start = ++i;
+        while (i < body.length && body[i] != '"') {
+            i++;
+        }
+        if (i >= body.length || i == start) {
+            return null;
+        }
+        return new String(body, start, i - start, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -1,14 +1,18 @@
 package com.substring.chat.config;
 
 import com.substring.chat.services.JwtUtil;
+import com.substring.chat.services.OfflineMailboxService;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
-import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
@@ -21,19 +25,32 @@ import java.security.Principal;
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final JwtUtil jwtUtil;
-
-    public WebSocketConfig(JwtUtil jwtUtil) {
+    private final RateLimitChannelInterceptor rateLimitChannelInterceptor;
+    private final RoomMembershipChannelInterceptor roomMembershipChannelInterceptor;
+    // Looked up lazily: the mailbox needs the messaging template this configuration builds
+    private final ObjectProvider<OfflineMailboxService> offlineMailboxService;
+
+    public WebSocketConfig(JwtUtil jwtUtil,
+                           RateLimitChannelInterceptor rateLimitChannelInterceptor,
+                           RoomMembershipChannelInterceptor roomMembershipChannelInterceptor,
+                           ObjectProvider<OfflineMailboxService> offlineMailboxService) {
         this.jwtUtil = jwtUtil;
+        this.rateLimitChannelInterceptor = rateLimitChannelInterceptor;
+        this.roomMembershipChannelInterceptor = roomMembershipChannelInterceptor;
+        this.offlineMailboxService = offlineMailboxService;
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        // /queue carries per-user replies (send acks), addressed through /user/queue/...
+        config.enableSimpleBroker("/topic", "/queue");
         config.setApplicationDestinationPrefixes("/app");
+        config.setUserDestinationPrefix("/user");
 
         System.out.println("=== WEBSOCKET MESSAGE BROKER CONFIGURED ===");
-        System.out.println("Simple broker enabled for: /topic");
+        System.out.println("Simple broker enabled for: /topic, /queue");
         System.out.println("Application destination prefix: /app");
+        System.out.println("User destination prefix: /user");
     }
 
     @Override
@@ -50,7 +67,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(new ChannelInterceptor() {
+        registration.interceptors(new ExecutorChannelInterceptor() {
             @Override
             public Message<?> preSend(Message<?> message, MessageChannel channel) {
                 StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
@@ -61,9 +78,10 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                     if (authHeader != null && authHeader.startsWith("Bearer ")) {
                         String token = authHeader.substring(7);
 
+                        String username;
                         try {
                             if (jwtUtil.validateToken(token)) {
-                                String username = jwtUtil.getUsernameFromToken(token);
+                                username = jwtUtil.getUsernameFromToken(token);
 
                                 // Create a principal for the authenticated user
                                 Principal principal = () -> username;
@@ -78,6 +96,14 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                             System.err.println("WebSocket authentication failed: " + e.getMessage());
                             throw new IllegalArgumentException("Authentication failed");
                         }
+
+                        // Stop recording into the offline mailbox; it is delivered on subscribe.
+                        // A failure here must not refuse an authenticated connection
+                        try {
+                            offlineMailboxService.getObject().connected(username);
+                        } catch (Exception e) {
+                            System.err.println("Failed to mark " + username + " online in the offline mailbox: " + e.getMessage());
+                        }
                     } else {
                         System.err.println("No Authorization header found for WebSocket connection");
                         throw new IllegalArgumentException("Missing Authorization header");
@@ -86,6 +112,23 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
                 return message;
             }
-        });
+
+            @Override
+            public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+                // Runs once the broker has registered the subscription, so the one batched
+                // mailbox delivery for this CONNECT cannot overtake it
+                StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+                if (ex == null && accessor != null && StompCommand.SUBSCRIBE.equals(accessor.getCommand())
+                        && accessor.getUser() != null
+                        && ("/user" + OfflineMailboxService.MAILBOX_DESTINATION).equals(accessor.getDestination())
+                        && handler instanceof UserDestinationMessageHandler) {
+                    try {
+                        offlineMailboxService.getObject().deliver(accessor.getUser().getName());
+                    } catch (Exception e) {
+                        System.err.println("Offline mailbox delivery failed: " + e.getMessage());
+                    }
+                }
+            }
+        }, rateLimitChannelInterceptor, roomMembershipChannelInterceptor);
     }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.entities.ModerationRule;
+import com.substring.chat.repositories.MessageStore;
+import com.substring.chat.services.MessageArchiveService;
+import com.substring.chat.services.MessageEditService;
+import com.substring.chat.services.MessageStorageMigrationService;
+import com.substring.chat.services.ModerationService;
+import com.substring.chat.services.RoomMembershipService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/admin")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class AdminController {
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MessageStorageMigrationService messageStorageMigrationService;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @Autowired
+    private MessageEditService messageEditService;
+
+    @Autowired
+    private ModerationService moderationService;
+
+    @GetMapping("/storage")
+    public ResponseEntity<?> getStorageLayout() {
+        return ResponseEntity.ok(Map.of("layout", messageStore.getLayout()));
+    }
+
+    @PostMapping("/storage/migrate-to-buckets")
+    public ResponseEntity<?> migrateToBuckets() {
+        try {
+            System.out.println("=== MIGRATING MESSAGES TO BUCKETS ===");
+            return ResponseEntity.ok(messageStorageMigrationService.migrateToBuckets());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("=== MIGRATION ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Migration failed: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/archive/run")
+    public ResponseEntity<?> runArchive() {
+        try {
+            System.out.println("=== RUNNING MESSAGE ARCHIVAL ===");
+            return ResponseEntity.ok(messageArchiveService.archiveOldMessages());
+        } catch (Exception e) {
+            System.err.println("=== ARCHIVE ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Archive run failed: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/messages/purge")
+    public ResponseEntity<?> purgeDeletedMessages() {
+        try {
+            System.out.println("=== PURGING DELETED MESSAGES ===");
+            return ResponseEntity.ok(messageEditService.purgeTombstones());
+        } catch (Exception e) {
+            System.err.println("=== PURGE ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Purge failed: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/rooms/{roomId}/members")
+    public ResponseEntity<?> addMembers(@PathVariable String roomId, @RequestBody List<String> usernames) {
+        try {
+            System.out.println("=== ADDING " + usernames.size() + " MEMBERS TO ROOM " + roomId + " ===");
+            return ResponseEntity.ok(Map.of("added", roomMembershipService.addMembers(roomId, usernames)));
+        } catch (Exception e) {
+            System.err.println("=== ADD MEMBERS ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Adding members failed: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/rooms/{roomId}/members/remove")
+    public ResponseEntity<?> removeMembers(@PathVariable String roomId, @RequestBody List<String> usernames) {
+        try {
+            System.out.println("=== REMOVING " + usernames.size() + " MEMBERS FROM ROOM " + roomId + " ===");
+            return ResponseEntity.ok(Map.of("removed", roomMembershipService.removeMembers(roomId, usernames)));
+        } catch (Exception e) {
+            System.err.println("=== REMOVE MEMBERS ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Removing members failed: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/membership/backfill")
+    public ResponseEntity<?> backfillMemberships() {
+        try {
+            System.out.println("=== BACKFILLING ROOM MEMBERSHIPS ===");
+            return ResponseEntity.ok(roomMembershipService.backfill());
+        } catch (Exception e) {
+            System.err.println("=== MEMBERSHIP BACKFILL ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Backfill failed: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/moderation/rules")
+    public ResponseEntity<?> getModerationRules() {
+        return ResponseEntity.ok(moderationService.listRules());
+    }
+
+    // Takes [{kind: "word"|"domain", pattern, action: "mask"|"reject"|"flag"}]; the new rules go live after a background rebuild
+    @PostMapping("/moderation/rules")
+    public ResponseEntity<?> addModerationRules(@RequestBody List<ModerationRule> rules, Principal principal) {
+        try {
+            System.out.println("=== ADDING " + rules.size() + " MODERATION RULES ===");
+            String createdBy = principal != null ? principal.getName() : null;
+            return ResponseEntity.ok(Map.of("added", moderationService.addRules(rules, createdBy)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("=== ADD MODERATION RULES ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Adding rules failed: " + e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/moderation/rules/{ruleId}")
+    public ResponseEntity<?> removeModerationRule(@PathVariable String ruleId) {
+        if (!moderationService.removeRule(ruleId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Rule not found"));
+        }
+        return ResponseEntity.ok(Map.of("removed", true));
+    }
+
+    @GetMapping("/moderation/flags")
+    public ResponseEntity<?> getRecentFlags() {
+        return ResponseEntity.ok(moderationService.getRecentFlags());
+    }
+}
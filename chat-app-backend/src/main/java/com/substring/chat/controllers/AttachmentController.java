@@ -0,0 +1,66 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.services.AttachmentService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping("/files")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class AttachmentController {
+
+    // The URL changes whenever the content does, so a response never needs revalidating
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @GetMapping("/{fingerprint}/{filename}")
+    public ResponseEntity<Resource> getAttachment(@PathVariable String fingerprint,
+                                                  @PathVariable String filename,
+                                                  @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        AttachmentService.Asset asset = attachmentService.resolve(filename);
+        if (asset == null || !asset.fingerprint().equals(fingerprint)) {
+            return ResponseEntity.notFound().build();
+        }
+        AttachmentService.Variant variant = attachmentService.select(asset, acceptEncoding);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl(IMMUTABLE);
+        headers.setETag(variant.etag());
+        if (asset.encoded()) {
+            headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        }
+        if (AttachmentService.notModified(ifNoneMatch, variant.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+        if (variant.encoding() != null) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, variant.encoding());
+        }
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+        return ResponseEntity.ok()
+                .headers(headers)
+                .contentType(MediaType.parseMediaType(asset.contentType()))
+                .body(variant.resource());
+    }
+
+    // Unversioned links from before fingerprinting; sent on to the current URL
+    @GetMapping("/{filename}")
+    public ResponseEntity<Void> redirectToFingerprint(@PathVariable String filename) {
+        String url = attachmentService.urlFor(filename);
+        if (url == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.status(HttpStatus.MOVED_PERMANENTLY).header(HttpHeaders.LOCATION, url).build();
+    }
+}
@@ -1,50 +1,55 @@
 package com.substring.chat.controllers;
 
+import com.substring.chat.config.RoomMembershipChannelInterceptor;
 import com.substring.chat.entities.Message;
+import com.substring.chat.payload.DirectMessageRequest;
 import com.substring.chat.payload.MessageRequest;
-import com.substring.chat.repositories.MessageRepository;
+import com.substring.chat.payload.ReactionRequest;
+import com.substring.chat.services.DirectMessageService;
+import com.substring.chat.services.IngestionContext;
+import com.substring.chat.services.MessageAcknowledger;
+import com.substring.chat.services.MessageIngestionPipeline;
+import com.substring.chat.services.MessageReactionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
-import java.time.LocalDateTime;
+import java.security.Principal;
 
 @Controller
 public class ChatController {
 
     @Autowired
-    private MessageRepository messageRepository;
+    private MessageIngestionPipeline messageIngestionPipeline;
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private MessageAcknowledger messageAcknowledger;
+
+    @Autowired
+    private DirectMessageService directMessageService;
+
+    @Autowired
+    private MessageReactionService messageReactionService;
+
+    @Autowired
+    private RoomMembershipChannelInterceptor roomMembershipChannelInterceptor;
 
     @MessageMapping("/sendMessage/{roomId}")
-    public void sendMessage(@DestinationVariable String roomId, MessageRequest messageRequest) {
+    public void sendMessage(@DestinationVariable String roomId, MessageRequest messageRequest, Principal principal) {
         try {
             System.out.println("=== RECEIVED MESSAGE FOR ROOM: " + roomId + " ===");
             System.out.println("Message Request: " + messageRequest);
 
-            // Create Message entity from request
-            Message message = new Message();
-            message.setSender(messageRequest.getSender());
-            message.setContent(messageRequest.getContent());
-            message.setRoomId(roomId);
-            message.setTimeStamp(messageRequest.getTimeStamp() != null ?
-                    messageRequest.getTimeStamp() : LocalDateTime.now().toString());
-            message.setAttachment(messageRequest.getAttachment());
-
-            System.out.println("Created message entity: " + message);
-
-            // Save message to MongoDB
-            Message savedMessage = messageRepository.save(message);
-            System.out.println("=== MESSAGE SAVED TO DATABASE ===");
-            System.out.println("Saved message ID: " + savedMessage.getId());
-
-            // Broadcast message to all subscribers of this room
-            messagingTemplate.convertAndSend("/topic/room/" + roomId, savedMessage);
-            System.out.println("=== MESSAGE BROADCASTED TO: /topic/room/" + roomId + " ===");
+            Message message = messageIngestionPipeline.fromRequest(messageRequest, roomId, principal);
+            if (!mayPost(message, messageRequest, principal)) {
+                return;
+            }
+            messageIngestionPipeline.ingestAsync(message, "stomp:/sendMessage/{roomId}")
+                    .whenComplete((result, error) -> {
+                        logResult(result, error);
+                        messageAcknowledger.acknowledge(principal, messageRequest.getClientMessageId(), result, error);
+                    });
 
         } catch (Exception e) {
             System.err.println("=== ERROR PROCESSING MESSAGE ===");
@@ -55,30 +60,20 @@ public class ChatController {
     }
 
     @MessageMapping("/sendMessage")
-    public void sendMessageAlternative(MessageRequest messageRequest) {
+    public void sendMessageAlternative(MessageRequest messageRequest, Principal principal) {
         try {
             System.out.println("=== RECEIVED MESSAGE (ALTERNATIVE ENDPOINT) ===");
             System.out.println("Message Request: " + messageRequest);
 
-            // Create Message entity from request
-            Message message = new Message();
-            message.setSender(messageRequest.getSender());
-            message.setContent(messageRequest.getContent());
-            message.setRoomId(messageRequest.getRoomId());
-            message.setTimeStamp(messageRequest.getTimeStamp() != null ?
-                    messageRequest.getTimeStamp() : LocalDateTime.now().toString());
-            message.setAttachment(messageRequest.getAttachment());
-
-            System.out.println("Created message entity: " + message);
-
-            // Save message to MongoDB
-            Message savedMessage = messageRepository.save(message);
-            System.out.println("=== MESSAGE SAVED TO DATABASE ===");
-            System.out.println("Saved message ID: " + savedMessage.getId());
-
-            // Broadcast message to all subscribers of this room
-            messagingTemplate.convertAndSend("/topic/room/" + messageRequest.getRoomId(), savedMessage);
-            System.out.println("=== MESSAGE BROADCASTED TO: /topic/room/" + messageRequest.getRoomId() + " ===");
+            Message message = messageIngestionPipeline.fromRequest(messageRequest, null, principal);
+            if (!mayPost(message, messageRequest, principal)) {
+                return;
+            }
+            messageIngestionPipeline.ingestAsync(message, "stomp:/sendMessage")
+                    .whenComplete((result, error) -> {
+                        logResult(result, error);
+                        messageAcknowledger.acknowledge(principal, messageRequest.getClientMessageId(), result, error);
+                    });
 
         } catch (Exception e) {
             System.err.println("=== ERROR PROCESSING MESSAGE (ALTERNATIVE) ===");
@@ -86,4 +81,67 @@ public class ChatController {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    @MessageMapping("/dm.send")
+    public void sendDirectMessage(DirectMessageRequest request, Principal principal) {
+        if (principal == null) {
+            System.err.println("=== DIRECT MESSAGE FROM UNAUTHENTICATED SESSION DROPPED ===");
+            return;
+        }
+        try {
+            // The sender is always the authenticated principal, never a payload field
+            directMessageService.send(principal.getName(), request.getRecipient(), request.getContent(),
+                    request.getClientMessageId());
+        } catch (IllegalArgumentException e) {
+            System.err.println("=== DIRECT MESSAGE REJECTED: " + e.getMessage() + " ===");
+            messageAcknowledger.reject(principal, request.getClientMessageId(), e.getMessage());
+        } catch (Exception e) {
+            System.err.println("=== ERROR PROCESSING DIRECT MESSAGE ===");
+            System.err.println("Error: " + e.getMessage());
+            messageAcknowledger.reject(principal, request.getClientMessageId(), "Failed to send message");
+        }
+    }
+
+    @MessageMapping("/reaction.toggle")
+    public void toggleReaction(ReactionRequest request, Principal principal) {
+        if (principal == null) {
+            System.err.println("=== REACTION FROM UNAUTHENTICATED SESSION DROPPED ===");
+            return;
+        }
+        if (!roomMembershipChannelInterceptor.permits(request.getRoomId(), principal)) {
+            System.err.println("=== REACTION FROM NON-MEMBER DROPPED: " + principal.getName() + " ===");
+            return;
+        }
+        try {
+            // Counts reach the room in the next coalesced "reactions" event, not per click
+            messageReactionService.toggle(request.getRoomId(), request.getMessageId(), principal.getName(), request.getEmoji());
+        } catch (IllegalArgumentException e) {
+            System.err.println("=== REACTION REJECTED: " + e.getMessage() + " ===");
+        } catch (Exception e) {
+            System.err.println("=== ERROR PROCESSING REACTION ===");
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Checked against the room the bound payload names, which the frame-level check may have misread
+    private boolean mayPost(Message message, MessageRequest messageRequest, Principal principal) {
+        if (roomMembershipChannelInterceptor.permits(message.getRoomId(), principal)) {
+            return true;
+        }
+        System.err.println("=== MESSAGE FROM NON-MEMBER DROPPED: ROOM " + message.getRoomId() + " ===");
+        messageAcknowledger.reject(principal, messageRequest.getClientMessageId(), "Not a member of this room");
+        return false;
+    }
+
+    private void logResult(IngestionContext result, Throwable error) {
+        if (error != null) {
+            System.err.println("=== ERROR PROCESSING MESSAGE ===");
+            System.err.println("Error: " + error.getMessage());
+        } else if (result.isRejected()) {
+            System.err.println("=== MESSAGE REJECTED: " + result.getRejectReason() + " ===");
+        } else {
+            System.out.println("=== MESSAGE BROADCASTED TO: "
+                    + MessageIngestionPipeline.roomTopic(result.getMessage().getRoomId()) + " ===");
+        }
+    }
+}
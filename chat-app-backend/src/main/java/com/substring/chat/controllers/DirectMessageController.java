@@ -0,0 +1,86 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.entities.DirectMessage;
+import com.substring.chat.payload.DirectMessageRequest;
+import com.substring.chat.services.DirectMessageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/dm")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class DirectMessageController {
+
+    @Autowired
+    private DirectMessageService directMessageService;
+
+    @GetMapping("/conversations")
+    public ResponseEntity<?> recentConversations(Principal principal,
+                                                 @RequestParam(defaultValue = "20") int limit) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            return ResponseEntity.ok(directMessageService.recentConversations(principal.getName(),
+                    Math.max(1, Math.min(limit, 100))));
+        } catch (Exception e) {
+            System.err.println("=== ERROR LOADING CONVERSATIONS ===");
+            System.err.println("Error: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to load conversations"));
+        }
+    }
+
+    @GetMapping("/{username}/messages")
+    public ResponseEntity<?> history(Principal principal,
+                                     @PathVariable String username,
+                                     @RequestParam(required = false) String before,
+                                     @RequestParam(defaultValue = "50") int limit) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            return ResponseEntity.ok(directMessageService.history(principal.getName(), username, before,
+                    Math.max(1, Math.min(limit, 500))));
+        } catch (Exception e) {
+            System.err.println("=== ERROR LOADING DIRECT MESSAGES ===");
+            System.err.println("Error: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to load messages"));
+        }
+    }
+
+    @PostMapping("/{username}")
+    public ResponseEntity<?> send(Principal principal,
+                                  @PathVariable String username,
+                                  @RequestBody DirectMessageRequest request) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== DIRECT MESSAGE: " + principal.getName() + " -> " + username + " ===");
+            DirectMessage message = directMessageService.send(principal.getName(), username, request.getContent(),
+                    request.getClientMessageId());
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", message);
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("=== DIRECT MESSAGE ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("success", false, "error", "Failed to send message"));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.services.RoomCache;
+import com.substring.chat.services.RoomExportService;
+import com.substring.chat.services.RoomMembershipService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.security.Principal;
+import java.time.LocalDateTime;
+
+@RestController
+@RequestMapping("/api/v1/rooms")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class ExportController {
+
+    @Autowired
+    private RoomExportService roomExportService;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @Autowired
+    private RoomCache roomCache;
+
+    // Gzip NDJSON of the room's history, optionally limited to [from, to) by creation time.
+    // The body is streamed, so errors are reported by status only.
+    @GetMapping("/{roomId}/export")
+    public ResponseEntity<StreamingResponseBody> exportRoom(@PathVariable String roomId,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                            @RequestParam(defaultValue = "true") boolean attachments,
+                                                            Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        System.out.println("=== EXPORT ROOM " + roomId + " FOR " + principal.getName() + " ===");
+        if (roomCache.get(roomId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!roomMembershipService.isMember(roomId, principal.getName())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        StreamingResponseBody body;
+        try {
+            body = roomExportService.export(roomId, from, to, attachments);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (body == null) {
+            System.out.println("=== EXPORT REJECTED, ALL EXPORT SLOTS BUSY ===");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "30").build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/gzip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"room-" + roomId + "-export.ndjson.gz\"")
+                .body(body);
+    }
+}
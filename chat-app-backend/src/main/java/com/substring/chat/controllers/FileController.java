@@ -1,15 +1,20 @@
 package com.substring.chat.controllers;
 
 import com.substring.chat.entities.Message;
-import com.substring.chat.repositories.MessageRepository;
+import com.substring.chat.services.AttachmentService;
+import com.substring.chat.services.IdGenerator;
+import com.substring.chat.services.IngestionContext;
+import com.substring.chat.services.MessageDeduplicator;
+import com.substring.chat.services.MessageIngestionPipeline;
+import com.substring.chat.services.ThumbnailService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -18,11 +23,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/v1/files")
@@ -30,10 +33,16 @@ import java.util.UUID;
 public class FileController {
 
     @Autowired
-    private MessageRepository messageRepository;
+    private MessageIngestionPipeline messageIngestionPipeline;
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private IdGenerator idGenerator;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private AttachmentService attachmentService;
 
     @Value("${file.upload.dir:./uploads}")
     private String uploadDir;
@@ -43,7 +52,8 @@ public class FileController {
             @RequestParam("file") MultipartFile file,
             @RequestParam("sender") String sender,
             @RequestParam("senderFullName") String senderFullName,
-            @RequestParam("roomId") String roomId) {
+            @RequestParam("roomId") String roomId,
+            @RequestParam(value = "clientMessageId", required = false) String clientMessageId) {
 
         System.out.println("=== FILE UPLOAD MESSAGE REQUEST ===");
         System.out.println("File: " + file.getOriginalFilename());
@@ -73,7 +83,7 @@ public class FileController {
             String fileExtension = originalFileName != null && originalFileName.contains(".")
                     ? originalFileName.substring(originalFileName.lastIndexOf("."))
                     : "";
-            String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
+            String uniqueFileName = idGenerator.nextIdString() + fileExtension;
 
             // Save file to disk
             Path filePath = uploadPath.resolve(uniqueFileName);
@@ -96,30 +106,41 @@ public class FileController {
             // For file messages, store original filename as content for display
             message.setContent(originalFileName);
 
-            // Set file-related fields
-            message.setFileUrl("/api/v1/files/download/" + uniqueFileName);
+            // Set file-related fields; the URL carries a content fingerprint so it can be cached forever
+            AttachmentService.Asset asset = attachmentService.register(uniqueFileName, contentType);
+            message.setFileUrl(asset.url());
             message.setFileName(uniqueFileName);
             message.setOriginalFileName(originalFileName);
             message.setFileType(contentType);
             message.setFileSize(file.getSize());
-
-            // Set timestamps
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSS"));
-            message.setTimeStamp(timestamp);
-            message.setCreatedAt(LocalDateTime.now());
+            message.setClientMessageId(clientMessageId);
 
             System.out.println("Saving message to database...");
-            // Save to database
-            Message savedMessage = messageRepository.save(message);
+            IngestionContext result = messageIngestionPipeline.ingestAsync(message, "http:/upload-message").join();
+            if (result.getAttribute(MessageDeduplicator.DUPLICATE_OF) instanceof MessageDeduplicator.Ack original) {
+                // A retried upload: keep the first copy and answer with its ids
+                attachmentService.forget(uniqueFileName);
+                Files.deleteIfExists(filePath);
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", true);
+                response.put("duplicate", true);
+                response.put("messageId", original.messageId());
+                response.put("sequence", original.sequence());
+                response.put("clientMessageId", clientMessageId);
+                return ResponseEntity.ok(response);
+            }
+            if (result.isRejected()) {
+                attachmentService.forget(uniqueFileName);
+                Files.deleteIfExists(filePath);
+                return ResponseEntity.badRequest()
+                        .body(Map.of("success", false, "error", result.getRejectReason()));
+            }
+            Message savedMessage = result.getMessage();
             System.out.println("Message saved with ID: " + savedMessage.getId());
 
-            // Broadcast to WebSocket
-            try {
-                messagingTemplate.convertAndSend("/topic/messages/" + roomId, savedMessage);
-                System.out.println("Message broadcasted to WebSocket");
-            } catch (Exception e) {
-                System.out.println("WARNING: Failed to broadcast to WebSocket: " + e.getMessage());
-                // Continue anyway - file upload succeeded
+            // Thumbnails are generated in the background; the upload does not wait for them
+            if ("image".equals(savedMessage.getMessageType())) {
+                thumbnailService.submit(savedMessage, filePath);
             }
 
             // Return success response
@@ -127,6 +148,8 @@ public class FileController {
             response.put("success", true);
             response.put("message", "File uploaded successfully");
             response.put("messageId", savedMessage.getId());
+            response.put("sequence", savedMessage.getSequence());
+            response.put("clientMessageId", clientMessageId);
             response.put("fileUrl", message.getFileUrl());
             response.put("fileName", originalFileName);
             response.put("messageType", messageType);
@@ -148,30 +171,31 @@ public class FileController {
         }
     }
 
+    // Links from before fingerprinted URLs; resolved from the attachment map like /files/**
     @GetMapping("/download/{filename}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String filename) {
+    public ResponseEntity<Resource> downloadFile(@PathVariable String filename,
+                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            Path filePath = Paths.get(uploadDir).toAbsolutePath().normalize().resolve(filename);
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists() && resource.isReadable()) {
-                String contentType;
-                try {
-                    contentType = Files.probeContentType(filePath);
-                    if (contentType == null) {
-                        contentType = "application/octet-stream";
-                    }
-                } catch (IOException e) {
-                    contentType = "application/octet-stream";
-                }
-
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                        .body(resource);
-            } else {
+            AttachmentService.Asset asset = attachmentService.resolve(filename);
+            if (asset == null) {
                 return ResponseEntity.notFound().build();
             }
+            AttachmentService.Variant original = asset.identity();
+
+            // Stored names are unique per upload and never rewritten, so clients can cache forever
+            CacheControl cacheControl = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+            if (AttachmentService.notModified(ifNoneMatch, original.etag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .cacheControl(cacheControl)
+                        .eTag(original.etag())
+                        .build();
+            }
+            return ResponseEntity.ok()
+                    .cacheControl(cacheControl)
+                    .eTag(original.etag())
+                    .contentType(MediaType.parseMediaType(asset.contentType()))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
+                    .body(original.resource());
         } catch (Exception e) {
             System.err.println("Error downloading file: " + e.getMessage());
             e.printStackTrace();
@@ -1,5 +1,8 @@
 package com.substring.chat.controllers;
 
+import com.substring.chat.services.AttachmentService;
+import com.substring.chat.services.IdGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,13 +17,18 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/v1")
 @CrossOrigin(origins = "*")
 public class FileUploadController {
 
+    @Autowired
+    private IdGenerator idGenerator;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
     @Value("${file.upload.dir:uploads}")
     private String uploadDir;
 
@@ -64,7 +72,7 @@ public class FileUploadController {
             if (originalName != null && originalName.contains(".")) {
                 fileExtension = originalName.substring(originalName.lastIndexOf("."));
             }
-            String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
+            String uniqueFileName = idGenerator.nextIdString() + fileExtension;
 
             // Save file
             Path filePath = uploadPath.resolve(uniqueFileName);
@@ -74,8 +82,8 @@ public class FileUploadController {
 
             // Create response
             Map<String, Object> response = new HashMap<>();
-            response.put("id", UUID.randomUUID().toString());
-            response.put("url", "/api/v1/files/" + uniqueFileName);
+            response.put("id", idGenerator.nextIdString());
+            response.put("url", attachmentService.register(uniqueFileName, contentType).url());
             response.put("originalName", originalName);
             response.put("mime", contentType);
             response.put("size", file.getSize());
@@ -92,31 +100,14 @@ public class FileUploadController {
         }
     }
 
+    // Old upload URLs; the file itself is served from its fingerprinted URL under /files/
     @GetMapping("/files/{filename}")
     public ResponseEntity<?> getFile(@PathVariable String filename) {
-        try {
-            Path filePath = Paths.get(uploadDir).resolve(filename);
-
-            if (!Files.exists(filePath)) {
-                return ResponseEntity.notFound().build();
-            }
-
-            byte[] fileContent = Files.readAllBytes(filePath);
-            String contentType = Files.probeContentType(filePath);
-
-            if (contentType == null) {
-                contentType = "application/octet-stream";
-            }
-
-            return ResponseEntity.ok()
-                    .header("Content-Type", contentType)
-                    .header("Content-Disposition", "inline; filename=\"" + filename + "\"")
-                    .body(fileContent);
-
-        } catch (IOException e) {
-            System.err.println("Error serving file: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        String url = attachmentService.urlFor(filename);
+        if (url == null) {
+            return ResponseEntity.notFound().build();
         }
+        return ResponseEntity.status(HttpStatus.MOVED_PERMANENTLY).header("Location", url).build();
     }
 
     private boolean isAllowedFileType(String contentType) {
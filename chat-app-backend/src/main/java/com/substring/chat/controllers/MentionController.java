@@ -0,0 +1,40 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.services.MentionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/mentions")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class MentionController {
+
+    @Autowired
+    private MentionService mentionService;
+
+    // Mentions of the caller, newest first; pass the returned "next" as before= for older ones
+    @GetMapping
+    public ResponseEntity<?> getMentions(@RequestParam(value = "roomId", required = false) String roomId,
+                                         @RequestParam(value = "before", required = false) String before,
+                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                         Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== GET MENTIONS: " + principal.getName() + " ===");
+            return ResponseEntity.ok(mentionService.mentionsOf(principal.getName(), roomId, before, limit));
+        } catch (Exception e) {
+            System.err.println("=== GET MENTIONS ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to load mentions"));
+        }
+    }
+}
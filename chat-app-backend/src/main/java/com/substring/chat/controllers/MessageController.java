@@ -1,51 +1,56 @@
 package com.substring.chat.controllers;
 
+import com.substring.chat.config.RoomMembershipChannelInterceptor;
 import com.substring.chat.entities.Message;
 import com.substring.chat.payload.MessageRequest;
-import com.substring.chat.repositories.MessageRepository;
+import com.substring.chat.services.MessageAcknowledger;
+import com.substring.chat.services.MessageIngestionPipeline;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
-import java.time.LocalDateTime;
+import java.security.Principal;
 
 @Controller
 public class MessageController {
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private MessageIngestionPipeline messageIngestionPipeline;
 
     @Autowired
-    private MessageRepository messageRepository;
+    private MessageAcknowledger messageAcknowledger;
+
+    @Autowired
+    private RoomMembershipChannelInterceptor roomMembershipChannelInterceptor;
 
     @MessageMapping("/chat.sendMessage")
-    public void sendMessage(@Payload MessageRequest messageRequest) {
+    public void sendMessage(@Payload MessageRequest messageRequest, Principal principal) {
         try {
             System.out.println("=== RECEIVED MESSAGE ===");
-            System.out.println("From: " + messageRequest.getSender());
+            System.out.println("From: " + (principal != null ? principal.getName() : null));
             System.out.println("Room: " + messageRequest.getRoomId());
             System.out.println("Content: " + messageRequest.getContent());
 
-            // Create and save message
-            Message message = new Message();
-            message.setSender(messageRequest.getSender());
-            message.setContent(messageRequest.getContent());
-            message.setRoomId(messageRequest.getRoomId());
-            message.setTimeStamp(LocalDateTime.now().toString());
-            message.setAttachment(messageRequest.getAttachment());
-
-            Message savedMessage = messageRepository.save(message);
-
-            System.out.println("=== MESSAGE SAVED ===");
-            System.out.println("Message ID: " + savedMessage.getId());
-
-            // Send to all subscribers of the room
-            messagingTemplate.convertAndSend("/topic/room/" + messageRequest.getRoomId(), savedMessage);
-
-            System.out.println("=== MESSAGE SENT TO TOPIC ===");
-            System.out.println("Topic: /topic/room/" + messageRequest.getRoomId());
+            Message message = messageIngestionPipeline.fromRequest(messageRequest, null, principal);
+            // Checked against the room the bound payload names, which the frame-level check may have misread
+            if (!roomMembershipChannelInterceptor.permits(message.getRoomId(), principal)) {
+                System.err.println("=== MESSAGE FROM NON-MEMBER DROPPED ===");
+                messageAcknowledger.reject(principal, messageRequest.getClientMessageId(), "Not a member of this room");
+                return;
+            }
+            messageIngestionPipeline.ingestAsync(message, "stomp:/chat.sendMessage")
+                    .whenComplete((result, error) -> {
+                        messageAcknowledger.acknowledge(principal, messageRequest.getClientMessageId(), result, error);
+                        if (error != null) {
+                            System.err.println("=== MESSAGE PROCESSING ERROR: " + error.getMessage() + " ===");
+                        } else if (result.isRejected()) {
+                            System.err.println("=== MESSAGE REJECTED: " + result.getRejectReason() + " ===");
+                        } else {
+                            System.out.println("=== MESSAGE SENT TO TOPIC ===");
+                            System.out.println("Message ID: " + result.getMessage().getId());
+                        }
+                    });
 
         } catch (Exception e) {
             System.err.println("=== MESSAGE PROCESSING ERROR ===");
@@ -54,23 +59,18 @@ public class MessageController {
     }
 
     @MessageMapping("/chat.addUser")
-    public void addUser(@Payload MessageRequest messageRequest) {
+    public void addUser(@Payload MessageRequest messageRequest, Principal principal) {
+        if (!roomMembershipChannelInterceptor.permits(messageRequest.getRoomId(), principal)) {
+            System.err.println("=== JOIN NOTICE FROM NON-MEMBER DROPPED ===");
+            return;
+        }
         try {
             System.out.println("=== USER JOINED ROOM ===");
             System.out.println("User: " + messageRequest.getSender());
             System.out.println("Room: " + messageRequest.getRoomId());
 
-            // Create join message
-            Message joinMessage = new Message();
-            joinMessage.setSender("System");
-            joinMessage.setContent(messageRequest.getSender() + " joined the chat");
-            joinMessage.setRoomId(messageRequest.getRoomId());
-            joinMessage.setTimeStamp(LocalDateTime.now().toString());
-
-            Message savedMessage = messageRepository.save(joinMessage);
-
-            // Broadcast join message
-            messagingTemplate.convertAndSend("/topic/room/" + messageRequest.getRoomId(), savedMessage);
+            messageIngestionPipeline.ingestAsync(messageIngestionPipeline.systemMessage(
+                    messageRequest.getRoomId(), messageRequest.getSender() + " joined the chat"), "stomp:/chat.addUser");
 
             System.out.println("=== JOIN MESSAGE SENT ===");
 
@@ -81,23 +81,18 @@ public class MessageController {
     }
 
     @MessageMapping("/chat.leaveUser")
-    public void leaveUser(@Payload MessageRequest messageRequest) {
+    public void leaveUser(@Payload MessageRequest messageRequest, Principal principal) {
+        if (!roomMembershipChannelInterceptor.permits(messageRequest.getRoomId(), principal)) {
+            System.err.println("=== LEAVE NOTICE FROM NON-MEMBER DROPPED ===");
+            return;
+        }
         try {
             System.out.println("=== USER LEFT ROOM ===");
             System.out.println("User: " + messageRequest.getSender());
             System.out.println("Room: " + messageRequest.getRoomId());
 
-            // Create leave message
-            Message leaveMessage = new Message();
-            leaveMessage.setSender("System");
-            leaveMessage.setContent(messageRequest.getSender() + " left the chat");
-            leaveMessage.setRoomId(messageRequest.getRoomId());
-            leaveMessage.setTimeStamp(LocalDateTime.now().toString());
-
-            Message savedMessage = messageRepository.save(leaveMessage);
-
-            // Broadcast leave message
-            messagingTemplate.convertAndSend("/topic/room/" + messageRequest.getRoomId(), savedMessage);
+            messageIngestionPipeline.ingestAsync(messageIngestionPipeline.systemMessage(
+                    messageRequest.getRoomId(), messageRequest.getSender() + " left the chat"), "stomp:/chat.leaveUser");
 
             System.out.println("=== LEAVE MESSAGE SENT ===");
 
@@ -106,4 +101,4 @@ public class MessageController {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.payload.MessageEditRequest;
+import com.substring.chat.services.MessageEditService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/rooms")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class MessageEditController {
+
+    @Autowired
+    private MessageEditService messageEditService;
+
+    @PatchMapping("/{roomId}/messages/{messageId}")
+    public ResponseEntity<?> editMessage(@PathVariable String roomId,
+                                         @PathVariable String messageId,
+                                         @RequestBody MessageEditRequest request,
+                                         Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== EDIT MESSAGE " + messageId + " IN ROOM " + roomId + " ===");
+            Message message = messageEditService.edit(roomId, messageId, principal.getName(), request.getContent());
+            return ResponseEntity.ok(Map.of("success", true, "message", message));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("success", false, "error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("=== EDIT MESSAGE ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("success", false, "error", "Failed to edit message"));
+        }
+    }
+
+    @DeleteMapping("/{roomId}/messages/{messageId}")
+    public ResponseEntity<?> deleteMessage(@PathVariable String roomId,
+                                           @PathVariable String messageId,
+                                           Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== DELETE MESSAGE " + messageId + " IN ROOM " + roomId + " ===");
+            Message message = messageEditService.delete(roomId, messageId, principal.getName());
+            return ResponseEntity.ok(Map.of("success", true, "message", message));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("success", false, "error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("success", false, "error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("=== DELETE MESSAGE ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("success", false, "error", "Failed to delete message"));
+        }
+    }
+}
@@ -2,23 +2,29 @@ package com.substring.chat.controllers;
 
 import com.substring.chat.entities.Message;
 import com.substring.chat.entities.Room;
+import com.substring.chat.entities.RoomMembership;
 import com.substring.chat.entities.User;
-import com.substring.chat.repositories.MessageRepository;
 import com.substring.chat.repositories.RoomRepository;
 import com.substring.chat.repositories.UserRepository;
+import com.substring.chat.services.IdGenerator;
+import com.substring.chat.services.MessageHistoryService;
+import com.substring.chat.services.MessageReactionService;
+import com.substring.chat.services.RoomCache;
+import com.substring.chat.services.RoomMembershipService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
+import java.security.Principal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/v1/rooms")
@@ -29,11 +35,23 @@ public class RoomController {
     private RoomRepository roomRepository;
 
     @Autowired
-    private MessageRepository messageRepository;
+    private MessageHistoryService messageHistoryService;
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private RoomCache roomCache;
+
+    @Autowired
+    private IdGenerator idGenerator;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @Autowired
+    private MessageReactionService messageReactionService;
+
     // Inner classes for request DTOs
     public static class CreateRoomRequest {
         private String roomName;
@@ -68,13 +86,18 @@ public class RoomController {
     }
 
     @PostMapping("/create")
-    public ResponseEntity<Map<String, Object>> createRoom(@RequestBody CreateRoomRequest request) {
+    public ResponseEntity<Map<String, Object>> createRoom(@RequestBody CreateRoomRequest request, Principal principal) {
         Map<String, Object> response = new HashMap<>();
+        if (principal == null) {
+            response.put("success", false);
+            response.put("message", "Authentication required");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(response);
+        }
 
         try {
             System.out.println("=== CREATE ROOM REQUEST ===");
             System.out.println("Room Name: " + request.getRoomName());
-            System.out.println("Created By: " + request.getCreatedBy());
+            System.out.println("Created By: " + principal.getName());
             System.out.println("Has Password: " + (request.getPassword() != null && !request.getPassword().isEmpty()));
 
             // Validation
@@ -84,12 +107,6 @@ public class RoomController {
                 return ResponseEntity.badRequest().body(response);
             }
 
-            if (request.getCreatedBy() == null || request.getCreatedBy().trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Creator username is required");
-                return ResponseEntity.badRequest().body(response);
-            }
-
             // Check if room name already exists
             if (roomRepository.existsByRoomName(request.getRoomName())) {
                 response.put("success", false);
@@ -97,17 +114,15 @@ public class RoomController {
                 return ResponseEntity.badRequest().body(response);
             }
 
-            // Generate unique room ID
-            String roomId;
-            do {
-                roomId = UUID.randomUUID().toString().substring(0, 8).toUpperCase();
-            } while (roomRepository.existsByRoomId(roomId));
+            // Generate unique room ID (no database check needed)
+            String roomId = idGenerator.nextIdString();
 
             // Create new room
             Room room = new Room();
             room.setRoomId(roomId);
             room.setRoomName(request.getRoomName().trim());
-            room.setCreatedBy(request.getCreatedBy().trim());
+            // Always the caller: the createdBy in the body is not trusted
+            room.setCreatedBy(principal.getName());
             room.setCreatedAt(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
 
             // Set password if provided
@@ -116,6 +131,8 @@ public class RoomController {
             }
 
             Room savedRoom = roomRepository.save(room);
+            roomCache.put(savedRoom);
+            roomMembershipService.join(savedRoom.getRoomId(), savedRoom.getCreatedBy(), RoomMembership.ROLE_OWNER);
             System.out.println("=== ROOM CREATED SUCCESSFULLY ===");
             System.out.println("Room ID: " + savedRoom.getRoomId());
 
@@ -145,13 +162,18 @@ public class RoomController {
     }
 
     @PostMapping("/join")
-    public ResponseEntity<Map<String, Object>> joinRoom(@RequestBody JoinRoomRequest request) {
+    public ResponseEntity<Map<String, Object>> joinRoom(@RequestBody JoinRoomRequest request, Principal principal) {
         Map<String, Object> response = new HashMap<>();
+        if (principal == null) {
+            response.put("success", false);
+            response.put("message", "Authentication required");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(response);
+        }
 
         try {
             System.out.println("=== JOIN ROOM REQUEST ===");
             System.out.println("Room ID: " + request.getRoomId());
-            System.out.println("Username: " + request.getUsername());
+            System.out.println("Username: " + principal.getName());
 
             // Validation
             if (request.getRoomId() == null || request.getRoomId().trim().isEmpty()) {
@@ -160,14 +182,8 @@ public class RoomController {
                 return ResponseEntity.badRequest().body(response);
             }
 
-            if (request.getUsername() == null || request.getUsername().trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Username is required");
-                return ResponseEntity.badRequest().body(response);
-            }
-
             // Find room
-            Room room = roomRepository.findByRoomId(request.getRoomId());
+            Room room = roomCache.get(request.getRoomId());
             if (room == null) {
                 response.put("success", false);
                 response.put("message", "Room not found");
@@ -183,6 +199,10 @@ public class RoomController {
                 }
             }
 
+            // Membership also records what the user misses in this room while they're offline.
+            // Always the caller: the username in the body is not trusted
+            roomMembershipService.join(room.getRoomId(), principal.getName(), RoomMembership.ROLE_MEMBER);
+
             System.out.println("=== ROOM JOIN SUCCESSFUL ===");
 
             // Create room data for response
@@ -208,13 +228,98 @@ public class RoomController {
         }
     }
 
+    @GetMapping("/mine")
+    public ResponseEntity<?> getMyRooms(Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== GET MY ROOMS: " + principal.getName() + " ===");
+
+            List<Map<String, Object>> rooms = new ArrayList<>();
+            for (RoomMembership membership : roomMembershipService.roomsOf(principal.getName())) {
+                Room room = roomCache.get(membership.getRoomId());
+                if (room == null) {
+                    continue;
+                }
+                Map<String, Object> roomData = new HashMap<>();
+                roomData.put("roomId", room.getRoomId());
+                roomData.put("roomName", room.getRoomName());
+                roomData.put("createdBy", room.getCreatedBy());
+                roomData.put("role", membership.getRole());
+                roomData.put("joinedAt", membership.getJoinedAt());
+                rooms.add(roomData);
+            }
+            return ResponseEntity.ok(Map.of("rooms", rooms));
+
+        } catch (Exception e) {
+            System.err.println("=== GET MY ROOMS ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to get rooms"));
+        }
+    }
+
+    @PostMapping("/{roomId}/leave")
+    public ResponseEntity<?> leaveRoom(@PathVariable String roomId, Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== LEAVE ROOM: " + principal.getName() + " -> " + roomId + " ===");
+            boolean left = roomMembershipService.leave(roomId, principal.getName());
+            return ResponseEntity.ok(Map.of("success", true, "left", left));
+
+        } catch (Exception e) {
+            System.err.println("=== LEAVE ROOM ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("success", false, "error", "Failed to leave room"));
+        }
+    }
+
+    @GetMapping("/{roomId}/members")
+    public ResponseEntity<?> getRoomMembers(@PathVariable String roomId,
+                                            @RequestParam(required = false) String after,
+                                            @RequestParam(defaultValue = "100") int limit,
+                                            Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            if (!roomMembershipService.isMember(roomId, principal.getName())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Not a member of this room"));
+            }
+            int pageSize = Math.max(1, Math.min(limit, 1000));
+            List<RoomMembership> members = roomMembershipService.membersOf(roomId, after, pageSize);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("members", members);
+            // Cursor for the next page; absent on the last one
+            response.put("next", members.size() < pageSize ? null : members.get(members.size() - 1).getUsername());
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            System.err.println("=== GET ROOM MEMBERS ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to get members"));
+        }
+    }
+
     @GetMapping("/{roomId}")
     public ResponseEntity<Map<String, Object>> getRoomInfo(@PathVariable String roomId) {
         try {
             System.out.println("=== GET ROOM INFO ===");
             System.out.println("Room ID: " + roomId);
 
-            Room room = roomRepository.findByRoomId(roomId);
+            Room room = roomCache.get(roomId);
             if (room == null) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                         .body(Map.of("error", "Room not found"));
@@ -242,22 +347,35 @@ public class RoomController {
     }
 
     @GetMapping("/{roomId}/messages")
-    public ResponseEntity<?> getRoomMessages(@PathVariable String roomId) {
+    public ResponseEntity<?> getRoomMessages(@PathVariable String roomId,
+                                             @RequestParam(required = false) Long before,
+                                             @RequestParam(required = false) Integer limit,
+                                             Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
         try {
             System.out.println("=== GET ROOM MESSAGES ===");
             System.out.println("Room ID: " + roomId);
 
             // Check if room exists
-            Room room = roomRepository.findByRoomId(roomId);
+            Room room = roomCache.get(roomId);
             if (room == null) {
                 System.err.println("Room not found: " + roomId);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                         .body(Map.of("error", "Room not found"));
             }
 
-            // Get messages ordered by timestamp
-            List<Message> messages = messageRepository.findByRoomIdOrderByTimeStampAsc(roomId);
+            if (!roomMembershipService.isMember(roomId, principal.getName())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Not a member of this room"));
+            }
+
+            // Whole history unless a page was asked for; pages fall through to the archive
+            List<Message> messages = before == null && limit == null
+                    ? messageHistoryService.all(roomId)
+                    : messageHistoryService.page(roomId, before, Math.max(1, Math.min(limit != null ? limit : 50, 500)));
             System.out.println("Found " + messages.size() + " messages for room: " + roomId);
+            messageReactionService.attach(messages);
 
             return ResponseEntity.ok(messages);
 
@@ -0,0 +1,74 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.services.MessageSearchService;
+import com.substring.chat.services.RoomCache;
+import com.substring.chat.services.RoomMembershipService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/rooms")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class SearchController {
+
+    @Autowired
+    private MessageSearchService messageSearchService;
+
+    @Autowired
+    private RoomCache roomCache;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @GetMapping("/{roomId}/search")
+    public ResponseEntity<?> searchMessages(@PathVariable String roomId,
+                                            @RequestParam("q") String query,
+                                            @RequestParam(defaultValue = "20") int limit,
+                                            @RequestParam(required = false) String cursor,
+                                            Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== SEARCH ROOM MESSAGES ===");
+            System.out.println("Room ID: " + roomId + ", Query: " + query);
+
+            if (query == null || query.trim().isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Query is required"));
+            }
+
+            if (!roomCache.exists(roomId)) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Room not found"));
+            }
+
+            if (!roomMembershipService.isMember(roomId, principal.getName())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(Map.of("error", "Not a member of this room"));
+            }
+
+            MessageSearchService.SearchResult result = messageSearchService.search(roomId, query, limit, cursor);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("hits", result.hits());
+            response.put("nextCursor", result.nextCursor());
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("=== SEARCH ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to search messages"));
+        }
+    }
+}
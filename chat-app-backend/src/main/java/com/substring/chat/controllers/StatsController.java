@@ -0,0 +1,159 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.config.RateLimitChannelInterceptor;
+import com.substring.chat.config.RoomMembershipChannelInterceptor;
+import com.substring.chat.repositories.MessageStore;
+import com.substring.chat.services.AttachmentService;
+import com.substring.chat.services.BootstrapService;
+import com.substring.chat.services.DirectMessageService;
+import com.substring.chat.services.MentionService;
+import com.substring.chat.services.MessageAcknowledger;
+import com.substring.chat.services.MessageArchiveService;
+import com.substring.chat.services.MessageDeduplicator;
+import com.substring.chat.services.MessageEditService;
+import com.substring.chat.services.MessageIngestionPipeline;
+import com.substring.chat.services.MessageReactionService;
+import com.substring.chat.services.MessageSearchService;
+import com.substring.chat.services.MessageStreamService;
+import com.substring.chat.services.ModerationService;
+import com.substring.chat.services.OfflineMailboxService;
+import com.substring.chat.services.RoomActorExecutor;
+import com.substring.chat.services.RoomCache;
+import com.substring.chat.services.RoomExportService;
+import com.substring.chat.services.RoomMembershipService;
+import com.substring.chat.services.SpillJournal;
+import com.substring.chat.services.ThreadService;
+import com.substring.chat.services.ThumbnailService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/stats")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class StatsController {
+
+    @Autowired
+    private RateLimitChannelInterceptor rateLimitChannelInterceptor;
+
+    @Autowired
+    private MessageIngestionPipeline messageIngestionPipeline;
+
+    @Autowired
+    private RoomActorExecutor roomActorExecutor;
+
+    @Autowired
+    private RoomCache roomCache;
+
+    @Autowired
+    private MessageSearchService messageSearchService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private SpillJournal spillJournal;
+
+    @Autowired
+    private MessageDeduplicator messageDeduplicator;
+
+    @Autowired
+    private MessageAcknowledger messageAcknowledger;
+
+    @Autowired
+    private DirectMessageService directMessageService;
+
+    @Autowired
+    private OfflineMailboxService offlineMailboxService;
+
+    @Autowired
+    private BootstrapService bootstrapService;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @Autowired
+    private RoomMembershipChannelInterceptor roomMembershipChannelInterceptor;
+
+    @Autowired
+    private MessageEditService messageEditService;
+
+    @Autowired
+    private MessageReactionService messageReactionService;
+
+    @Autowired
+    private ThreadService threadService;
+
+    @Autowired
+    private RoomExportService roomExportService;
+
+    @Autowired
+    private MessageStreamService messageStreamService;
+
+    @Autowired
+    private MentionService mentionService;
+
+    @Autowired
+    private ModerationService moderationService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getStats(@RequestParam(defaultValue = "10") int hotRooms) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rateLimit", rateLimitChannelInterceptor.getStats());
+        stats.put("ingestion", messageIngestionPipeline.getStats());
+        stats.put("roomActors", roomActorExecutor.getStats(hotRooms));
+        stats.put("roomCache", roomCache.getStats());
+        stats.put("search", messageSearchService.getStats());
+        stats.put("thumbnails", thumbnailService.getStats());
+        stats.put("archive", messageArchiveService.getStats());
+        stats.put("storage", messageStore.getStats());
+        stats.put("journal", spillJournal.getStats());
+        Map<String, Object> dedupe = new LinkedHashMap<>(messageDeduplicator.getStats());
+        dedupe.put("acksSent", messageAcknowledger.getSentCount());
+        stats.put("dedupe", dedupe);
+        stats.put("directMessages", directMessageService.getStats());
+        stats.put("mailbox", offlineMailboxService.getStats());
+        stats.put("sync", bootstrapService.getStats());
+        Map<String, Object> membership = new LinkedHashMap<>(roomMembershipService.getStats());
+        membership.put("authorization", roomMembershipChannelInterceptor.getStats());
+        stats.put("membership", membership);
+        stats.put("edits", messageEditService.getStats());
+        stats.put("reactions", messageReactionService.getStats());
+        stats.put("threads", threadService.getStats());
+        stats.put("exports", roomExportService.getStats());
+        stats.put("streams", messageStreamService.getStats());
+        stats.put("mentions", mentionService.getStats());
+        stats.put("moderation", moderationService.getStats());
+        stats.put("attachments", attachmentService.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Degraded-mode health: journal backlog and how far behind replay is. Still 200 while
+     * degraded, since messages keep flowing.
+     */
+    @GetMapping("/health")
+    public ResponseEntity<Map<String, Object>> getHealth() {
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("status", spillJournal.isDegraded() ? "DEGRADED" : "UP");
+        health.put("journal", spillJournal.getHealth());
+        return ResponseEntity.ok(health);
+    }
+
+    @GetMapping("/hot-rooms")
+    public ResponseEntity<?> getHotRooms(@RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(Map.of("hotRooms", roomActorExecutor.getHotRooms(limit)));
+    }
+}
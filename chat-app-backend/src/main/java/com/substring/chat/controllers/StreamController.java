@@ -0,0 +1,108 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.services.MessageStreamService;
+import com.substring.chat.services.RoomCache;
+import com.substring.chat.services.RoomMembershipService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.security.Principal;
+import java.time.LocalDateTime;
+
+// Streaming counterparts of the history and search endpoints: NDJSON by default, Server-Sent
+// Events with format=sse or "Accept: text/event-stream". Bodies are streamed, so errors are
+// reported by status only.
+@RestController
+@RequestMapping("/api/v1/rooms")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class StreamController {
+
+    @Autowired
+    private MessageStreamService messageStreamService;
+
+    @Autowired
+    private RoomCache roomCache;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    @GetMapping("/{roomId}/messages/stream")
+    public ResponseEntity<ResponseBodyEmitter> streamMessages(@PathVariable String roomId,
+                                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                              @RequestParam(required = false) String format,
+                                                              @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                              Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        System.out.println("=== STREAM ROOM MESSAGES " + roomId + " FOR " + principal.getName() + " ===");
+        ResponseEntity<ResponseBodyEmitter> denied = checkAccess(roomId, principal);
+        if (denied != null) {
+            return denied;
+        }
+        boolean sse = wantsSse(format, accept);
+        try {
+            return respond(messageStreamService.streamHistory(roomId, from, to, sse), sse);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/{roomId}/search/stream")
+    public ResponseEntity<ResponseBodyEmitter> streamSearch(@PathVariable String roomId,
+                                                            @RequestParam("q") String query,
+                                                            @RequestParam(defaultValue = "1000") int limit,
+                                                            @RequestParam(required = false) String format,
+                                                            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                            Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        System.out.println("=== STREAM SEARCH ROOM " + roomId + " FOR " + principal.getName() + ", Query: " + query + " ===");
+        ResponseEntity<ResponseBodyEmitter> denied = checkAccess(roomId, principal);
+        if (denied != null) {
+            return denied;
+        }
+        boolean sse = wantsSse(format, accept);
+        try {
+            return respond(messageStreamService.streamSearch(roomId, query, Math.max(1, limit), sse), sse);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    // Same rule as the export: only members may read a room's history
+    private ResponseEntity<ResponseBodyEmitter> checkAccess(String roomId, Principal principal) {
+        if (!roomCache.exists(roomId)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!roomMembershipService.isMember(roomId, principal.getName())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return null;
+    }
+
+    private static boolean wantsSse(String format, String accept) {
+        return format != null ? "sse".equalsIgnoreCase(format)
+                : accept != null && accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE);
+    }
+
+    private static ResponseEntity<ResponseBodyEmitter> respond(ResponseBodyEmitter emitter, boolean sse) {
+        if (emitter == null) {
+            System.out.println("=== STREAM REJECTED, ALL STREAM SLOTS BUSY ===");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "5").build();
+        }
+        return ResponseEntity.ok()
+                .contentType(sse ? MediaType.TEXT_EVENT_STREAM : MessageStreamService.NDJSON)
+                // Keeps buffering proxies from holding back the first lines
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+}
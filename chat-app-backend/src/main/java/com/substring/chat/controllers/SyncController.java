@@ -0,0 +1,36 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.services.BootstrapService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/sync")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class SyncController {
+
+    @Autowired
+    private BootstrapService bootstrapService;
+
+    @GetMapping
+    public ResponseEntity<?> bootstrap(Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== BOOTSTRAP SYNC: " + principal.getName() + " ===");
+            return ResponseEntity.ok(bootstrapService.bootstrap(principal.getName()));
+        } catch (Exception e) {
+            System.err.println("=== BOOTSTRAP SYNC ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to load startup data"));
+        }
+    }
+}
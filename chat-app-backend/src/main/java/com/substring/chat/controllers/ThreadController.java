@@ -0,0 +1,53 @@
+package com.substring.chat.controllers;
+
+import com.substring.chat.services.RoomMembershipService;
+import com.substring.chat.services.ThreadService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/rooms")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"})
+public class ThreadController {
+
+    @Autowired
+    private ThreadService threadService;
+
+    @Autowired
+    private RoomMembershipService roomMembershipService;
+
+    // Replies of one thread, newest page first; pass the returned "next" as before= for older ones
+    @GetMapping("/{roomId}/threads/{rootId}")
+    public ResponseEntity<?> getThread(@PathVariable String roomId,
+                                       @PathVariable String rootId,
+                                       @RequestParam(value = "before", required = false) Long before,
+                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                       Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("success", false, "error", "Authentication required"));
+        }
+        try {
+            System.out.println("=== GET THREAD " + rootId + " IN ROOM " + roomId + " ===");
+            if (!roomMembershipService.isMember(roomId, principal.getName())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(Map.of("success", false, "error", "Not a member of this room"));
+            }
+            return ResponseEntity.ok(threadService.page(roomId, rootId, before, limit));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("success", false, "error", e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("=== GET THREAD ERROR ===");
+            System.err.println("Error: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("success", false, "error", "Failed to load thread"));
+        }
+    }
+}
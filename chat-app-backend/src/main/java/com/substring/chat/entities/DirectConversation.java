@@ -0,0 +1,53 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Summary of a 1:1 conversation, keyed by the sorted participant pair so both sides resolve
+ * to the same document. Upserted on every message; the multikey (participants, lastMessageAt)
+ * index serves a user's "recent conversations" list without touching direct_messages.
+ */
+@Document(collection = "direct_conversations")
+@CompoundIndexes({
+        @CompoundIndex(name = "participant_recent", def = "{'participants': 1, 'lastMessageAt': -1}")
+})
+public class DirectConversation {
+    @Id
+    private String id;
+    private List<String> participants;
+    private String lastMessageId;
+    private String lastSender;
+    private String lastMessagePreview;
+    private LocalDateTime lastMessageAt;
+    private long messageCount;
+
+    public DirectConversation() {}
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public List<String> getParticipants() { return participants; }
+    public void setParticipants(List<String> participants) { this.participants = participants; }
+
+    public String getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(String lastMessageId) { this.lastMessageId = lastMessageId; }
+
+    public String getLastSender() { return lastSender; }
+    public void setLastSender(String lastSender) { this.lastSender = lastSender; }
+
+    public String getLastMessagePreview() { return lastMessagePreview; }
+    public void setLastMessagePreview(String lastMessagePreview) { this.lastMessagePreview = lastMessagePreview; }
+
+    public LocalDateTime getLastMessageAt() { return lastMessageAt; }
+    public void setLastMessageAt(LocalDateTime lastMessageAt) { this.lastMessageAt = lastMessageAt; }
+
+    public long getMessageCount() { return messageCount; }
+    public void setMessageCount(long messageCount) { this.messageCount = messageCount; }
+}
@@ -0,0 +1,57 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * One message between two users. Ids are time-ordered snowflakes, so a conversation's
+ * history pages on (conversationId, _id) without a separate sequence.
+ */
+@Document(collection = "direct_messages")
+@CompoundIndexes({
+        @CompoundIndex(name = "conversation_id", def = "{'conversationId': 1, '_id': -1}"),
+        @CompoundIndex(name = "conversation_client_id", def = "{'conversationId': 1, 'sender': 1, 'clientMessageId': 1}",
+                unique = true, partialFilter = "{'clientMessageId': {'$exists': true}}")
+})
+public class DirectMessage {
+    @Id
+    private String id;
+    private String conversationId;
+    private String sender;
+    private String recipient;
+    private String content;
+    private String timeStamp;
+    private String clientMessageId;
+    private LocalDateTime createdAt;
+
+    public DirectMessage() {}
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
+
+    public String getSender() { return sender; }
+    public void setSender(String sender) { this.sender = sender; }
+
+    public String getRecipient() { return recipient; }
+    public void setRecipient(String recipient) { this.recipient = recipient; }
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+
+    public String getTimeStamp() { return timeStamp; }
+    public void setTimeStamp(String timeStamp) { this.timeStamp = timeStamp; }
+
+    public String getClientMessageId() { return clientMessageId; }
+    public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
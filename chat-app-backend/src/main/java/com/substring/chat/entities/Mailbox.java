@@ -0,0 +1,78 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One document per user holding what happened while they had no connected session: per
+ * room, a count plus the sequences of the most recent messages (pointers, not copies), and
+ * the same for direct messages. The rooms a user follows live here too, so a room message
+ * reaches every offline follower with a single update on the (watching, online) index.
+ */
+@Document(collection = "mailboxes")
+@CompoundIndexes({
+        @CompoundIndex(name = "watching_online", def = "{'watching': 1, 'online': 1}")
+})
+public class Mailbox {
+    @Id
+    private String id; // username
+    private boolean online;
+    private List<String> watching = new ArrayList<>();
+    private Map<String, RoomPointers> rooms = new LinkedHashMap<>();
+    private long directCount;
+    private List<String> directSenders = new ArrayList<>();
+    private LocalDateTime updatedAt;
+
+    public Mailbox() {}
+
+    /**
+     * Unread pointers for one room. Only the newest sequences are kept; once count exceeds
+     * them the room is reported as a collapsed "N new messages" summary.
+     */
+    public static class RoomPointers {
+        private String roomId;
+        private long count;
+        private List<Long> sequences = new ArrayList<>();
+
+        public RoomPointers() {}
+
+        public String getRoomId() { return roomId; }
+        public void setRoomId(String roomId) { this.roomId = roomId; }
+
+        public long getCount() { return count; }
+        public void setCount(long count) { this.count = count; }
+
+        public List<Long> getSequences() { return sequences; }
+        public void setSequences(List<Long> sequences) { this.sequences = sequences; }
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public boolean isOnline() { return online; }
+    public void setOnline(boolean online) { this.online = online; }
+
+    public List<String> getWatching() { return watching; }
+    public void setWatching(List<String> watching) { this.watching = watching; }
+
+    public Map<String, RoomPointers> getRooms() { return rooms; }
+    public void setRooms(Map<String, RoomPointers> rooms) { this.rooms = rooms; }
+
+    public long getDirectCount() { return directCount; }
+    public void setDirectCount(long directCount) { this.directCount = directCount; }
+
+    public List<String> getDirectSenders() { return directSenders; }
+    public void setDirectSenders(List<String> directSenders) { this.directSenders = directSenders; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,66 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * One user mentioned in one room message: a pointer to the message plus a short excerpt, so
+ * "mentions of me" is a single range scan on (username, messageId) with no message lookups.
+ * Message ids are time-ordered, so that index is also newest-first order. Written in batches
+ * by MentionService.
+ */
+@Document(collection = "mentions")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_message", def = "{'username': 1, 'messageId': -1}"),
+        @CompoundIndex(name = "user_room_message", def = "{'username': 1, 'roomId': 1, 'messageId': -1}")
+})
+public class Mention {
+    @Id
+    private String id; // messageId + ":" + username, so replays insert nothing new
+    private String username;
+    private String roomId;
+    private String messageId;
+    private Long sequence;
+    private String threadRootId;
+    private String sender;
+    private String excerpt;
+    private LocalDateTime createdAt;
+
+    public Mention() {}
+
+    public static String idFor(String messageId, String username) {
+        return messageId + ":" + username;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    public String getRoomId() { return roomId; }
+    public void setRoomId(String roomId) { this.roomId = roomId; }
+
+    public String getMessageId() { return messageId; }
+    public void setMessageId(String messageId) { this.messageId = messageId; }
+
+    public Long getSequence() { return sequence; }
+    public void setSequence(Long sequence) { this.sequence = sequence; }
+
+    public String getThreadRootId() { return threadRootId; }
+    public void setThreadRootId(String threadRootId) { this.threadRootId = threadRootId; }
+
+    public String getSender() { return sender; }
+    public void setSender(String sender) { this.sender = sender; }
+
+    public String getExcerpt() { return excerpt; }
+    public void setExcerpt(String excerpt) { this.excerpt = excerpt; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -1,11 +1,25 @@
 package com.substring.chat.entities;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.annotation.CreatedDate;
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Document(collection = "messages")
+@CompoundIndexes({
+        @CompoundIndex(name = "room_time", def = "{'roomId': 1, 'timeStamp': 1}"),
+        @CompoundIndex(name = "room_sequence", def = "{'roomId': 1, 'sequence': 1}"),
+        // Only tombstones are indexed, so the purge job's scan stays proportional to deletes
+        @CompoundIndex(name = "tombstones", def = "{'deletedAt': 1}", partialFilter = "{'deleted': true}"),
+        // Replies only: one thread's page is a range scan, top-level messages add nothing to it
+        @CompoundIndex(name = "thread_sequence", def = "{'threadRootId': 1, 'sequence': 1}",
+                partialFilter = "{'threadRootId': {$exists: true}}")
+})
 public class Message {
     @Id
     private String id;
@@ -15,6 +29,12 @@ public class Message {
     private String timeStamp;
     private Object attachment;
 
+    // Per-room ordering assigned by the ingestion pipeline
+    private Long sequence;
+
+    // Id the sending client generated, so it can match the broadcast to its optimistic copy
+    private String clientMessageId;
+
     // Enhanced file support fields
     private String fileUrl;
     private String fileType;
@@ -23,6 +43,33 @@ public class Message {
     private Long fileSize;
     private String senderFullName;
 
+    // Downscaled image variants ("thumb", "preview") -> URL, filled in after upload
+    private Map<String, String> variants;
+
+    // Set by edits; deletes leave a tombstone (deleted, no content) until the purge job
+    // removes what is left of the attachment and stamps purgedAt.
+    // Flags and counters below stay null until set, so ordinary messages carry none of them
+    private LocalDateTime editedAt;
+    private Boolean deleted;
+    private LocalDateTime deletedAt;
+    private LocalDateTime purgedAt;
+
+    // Replies point at the message they answer and at the first message of the thread; the
+    // root carries the reply count and newest reply, folded in batches by ThreadService
+    private String parentId;
+    private String threadRootId;
+    private Long replyCount;
+    private String lastReplyId;
+    private String lastReplySender;
+    private LocalDateTime lastReplyAt;
+
+    // Set when a moderation "flag" rule matched; the message is still delivered
+    private Boolean flagged;
+
+    // Reaction counts by emoji; stored in message_reactions and filled in on read
+    @Transient
+    private Map<String, Long> reactions;
+
     // Message type to distinguish between text, file, image, etc.
     private String messageType; // "text", "image", "video", "audio", "document"
 
@@ -169,6 +216,14 @@ public class Message {
         this.senderFullName = senderFullName;
     }
 
+    public Map<String, String> getVariants() {
+        return variants;
+    }
+
+    public void setVariants(Map<String, String> variants) {
+        this.variants = variants;
+    }
+
     public String getMessageType() {
         return messageType;
     }
@@ -177,6 +232,121 @@ public class Message {
         this.messageType = messageType;
     }
 
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public LocalDateTime getEditedAt() {
+        return editedAt;
+    }
+
+    public void setEditedAt(LocalDateTime editedAt) {
+        this.editedAt = editedAt;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public boolean isDeleted() {
+        return deleted != null && deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted ? Boolean.TRUE : null;
+    }
+
+    public LocalDateTime getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(LocalDateTime deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+
+    public LocalDateTime getPurgedAt() {
+        return purgedAt;
+    }
+
+    public void setPurgedAt(LocalDateTime purgedAt) {
+        this.purgedAt = purgedAt;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(String parentId) {
+        this.parentId = parentId;
+    }
+
+    public String getThreadRootId() {
+        return threadRootId;
+    }
+
+    public void setThreadRootId(String threadRootId) {
+        this.threadRootId = threadRootId;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public long getReplyCount() {
+        return replyCount != null ? replyCount : 0L;
+    }
+
+    public void setReplyCount(long replyCount) {
+        this.replyCount = replyCount != 0 ? replyCount : null;
+    }
+
+    public String getLastReplyId() {
+        return lastReplyId;
+    }
+
+    public void setLastReplyId(String lastReplyId) {
+        this.lastReplyId = lastReplyId;
+    }
+
+    public String getLastReplySender() {
+        return lastReplySender;
+    }
+
+    public void setLastReplySender(String lastReplySender) {
+        this.lastReplySender = lastReplySender;
+    }
+
+    public LocalDateTime getLastReplyAt() {
+        return lastReplyAt;
+    }
+
+    public void setLastReplyAt(LocalDateTime lastReplyAt) {
+        this.lastReplyAt = lastReplyAt;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public boolean isFlagged() {
+        return flagged != null && flagged;
+    }
+
+    public void setFlagged(boolean flagged) {
+        this.flagged = flagged ? Boolean.TRUE : null;
+    }
+
+    public Map<String, Long> getReactions() {
+        return reactions;
+    }
+
+    public void setReactions(Map<String, Long> reactions) {
+        this.reactions = reactions;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -193,6 +363,7 @@ public class Message {
                 ", content='" + content + '\'' +
                 ", roomId='" + roomId + '\'' +
                 ", timeStamp='" + timeStamp + '\'' +
+                ", sequence=" + sequence +
                 ", messageType='" + messageType + '\'' +
                 ", fileUrl='" + fileUrl + '\'' +
                 ", fileType='" + fileType + '\'' +
@@ -200,6 +371,7 @@ public class Message {
                 ", originalFileName='" + originalFileName + '\'' +
                 ", fileSize=" + fileSize +
                 ", senderFullName='" + senderFullName + '\'' +
+                ", deleted=" + isDeleted() +
                 ", createdAt=" + createdAt +
                 '}';
     }
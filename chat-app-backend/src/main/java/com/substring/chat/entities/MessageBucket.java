@@ -0,0 +1,65 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One document per (room, time window) holding up to a fixed number of messages, used by
+ * the "bucketed" storage layout. New messages are appended to the open bucket with $push.
+ */
+@Document(collection = "message_buckets")
+@CompoundIndexes({
+        @CompoundIndex(name = "room_window", def = "{'roomId': 1, 'windowStart': 1, 'count': 1}"),
+        @CompoundIndex(name = "room_last_sequence", def = "{'roomId': 1, 'lastSequence': -1}"),
+        // Only buckets that hold replies are indexed
+        @CompoundIndex(name = "thread_roots", def = "{'messages.threadRootId': 1, 'lastSequence': -1}",
+                partialFilter = "{'messages.threadRootId': {$exists: true}}")
+})
+public class MessageBucket {
+    @Id
+    private String id;
+    private String roomId;
+    private LocalDateTime windowStart;
+    private long firstSequence;
+    private long lastSequence;
+    private int count;
+
+    @Indexed(name = "message_ids")
+    private List<String> messageIds = new ArrayList<>();
+
+    private List<Message> messages = new ArrayList<>();
+
+    public MessageBucket() {}
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getRoomId() { return roomId; }
+    public void setRoomId(String roomId) { this.roomId = roomId; }
+
+    public LocalDateTime getWindowStart() { return windowStart; }
+    public void setWindowStart(LocalDateTime windowStart) { this.windowStart = windowStart; }
+
+    public long getFirstSequence() { return firstSequence; }
+    public void setFirstSequence(long firstSequence) { this.firstSequence = firstSequence; }
+
+    public long getLastSequence() { return lastSequence; }
+    public void setLastSequence(long lastSequence) { this.lastSequence = lastSequence; }
+
+    public int getCount() { return count; }
+    public void setCount(int count) { this.count = count; }
+
+    public List<String> getMessageIds() { return messageIds; }
+    public void setMessageIds(List<String> messageIds) { this.messageIds = messageIds; }
+
+    public List<Message> getMessages() { return messages; }
+    public void setMessages(List<Message> messages) { this.messages = messages; }
+}
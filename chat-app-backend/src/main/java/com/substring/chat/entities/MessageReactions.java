@@ -0,0 +1,44 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reactions on one message, kept apart from the message so they work the same in every
+ * storage layout and a burst of reactions never rewrites message documents or buckets.
+ * Written only by MessageReactionService's periodic flush.
+ */
+@Document(collection = "message_reactions")
+public class MessageReactions {
+    @Id
+    private String id; // message id
+    @Indexed(name = "room")
+    private String roomId;
+    private Map<String, Long> counts = new LinkedHashMap<>();
+    private Map<String, List<String>> reactors = new LinkedHashMap<>();
+    private LocalDateTime updatedAt;
+
+    public MessageReactions() {}
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getRoomId() { return roomId; }
+    public void setRoomId(String roomId) { this.roomId = roomId; }
+
+    public Map<String, Long> getCounts() { return counts; }
+    public void setCounts(Map<String, Long> counts) { this.counts = counts; }
+
+    public Map<String, List<String>> getReactors() { return reactors; }
+    public void setReactors(Map<String, List<String>> reactors) { this.reactors = reactors; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
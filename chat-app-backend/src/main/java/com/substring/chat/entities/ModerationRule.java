@@ -0,0 +1,57 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * One moderation rule: a blocked word or phrase, or a banned domain, and what happens to a
+ * message that contains it. Patterns are stored lower-case and match case-insensitively on
+ * word boundaries; a domain also matches its subdomains. ModerationService compiles the
+ * whole collection into one automaton.
+ */
+@Document(collection = "moderation_rules")
+@CompoundIndexes({
+        @CompoundIndex(name = "kind_pattern", def = "{'kind': 1, 'pattern': 1}", unique = true)
+})
+public class ModerationRule {
+
+    public static final String KIND_WORD = "word";
+    public static final String KIND_DOMAIN = "domain";
+
+    public static final String ACTION_FLAG = "flag";
+    public static final String ACTION_MASK = "mask";
+    public static final String ACTION_REJECT = "reject";
+
+    @Id
+    private String id;
+    private String kind;
+    private String pattern;
+    private String action; // null: chat.moderation.default-action
+    private String createdBy;
+    private LocalDateTime createdAt;
+
+    public ModerationRule() {}
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getKind() { return kind; }
+    public void setKind(String kind) { this.kind = kind; }
+
+    public String getPattern() { return pattern; }
+    public void setPattern(String pattern) { this.pattern = pattern; }
+
+    public String getAction() { return action; }
+    public void setAction(String action) { this.action = action; }
+
+    public String getCreatedBy() { return createdBy; }
+    public void setCreatedBy(String createdBy) { this.createdBy = createdBy; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -1,14 +1,20 @@
 package com.substring.chat.entities;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "rooms")
 public class Room {
     @Id
     private String id;
+
+    @Indexed(unique = true)
     private String roomId;
+
+    @Indexed
     private String roomName;
+
     private String password;
     private String createdBy;
     private String createdAt;
@@ -0,0 +1,48 @@
+package com.substring.chat.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * One user's membership of one room. Indexed both ways: (roomId, username) for member lists
+ * and membership checks, (username, roomId) for a user's rooms.
+ */
+@Document(collection = "room_memberships")
+@CompoundIndexes({
+        @CompoundIndex(name = "room_user", def = "{'roomId': 1, 'username': 1}", unique = true),
+        @CompoundIndex(name = "user_room", def = "{'username': 1, 'roomId': 1}")
+})
+public class RoomMembership {
+
+    public static final String ROLE_OWNER = "owner";
+    public static final String ROLE_MEMBER = "member";
+
+    @Id
+    private String id;
+    private String roomId;
+    private String username;
+    private String role;
+    private LocalDateTime joinedAt;
+
+    public RoomMembership() {}
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getRoomId() { return roomId; }
+    public void setRoomId(String roomId) { this.roomId = roomId; }
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    public String getRole() { return role; }
+    public void setRole(String role) { this.role = role; }
+
+    public LocalDateTime getJoinedAt() { return joinedAt; }
+    public void setJoinedAt(LocalDateTime joinedAt) { this.joinedAt = joinedAt; }
+}
@@ -0,0 +1,27 @@
+package com.substring.chat.payload;
+
+public class DirectMessageRequest {
+    private String recipient;
+    private String content;
+    // Generated by the client and reused on retries so the server can drop duplicates
+    private String clientMessageId;
+
+    public DirectMessageRequest() {}
+
+    public String getRecipient() { return recipient; }
+    public void setRecipient(String recipient) { this.recipient = recipient; }
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+
+    public String getClientMessageId() { return clientMessageId; }
+    public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
+
+    @Override
+    public String toString() {
+        return "DirectMessageRequest{" +
+                "recipient='" + recipient + '\'' +
+                ", clientMessageId='" + clientMessageId + '\'' +
+                '}';
+    }
+}
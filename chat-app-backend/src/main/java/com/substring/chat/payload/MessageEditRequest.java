@@ -0,0 +1,10 @@
+package com.substring.chat.payload;
+
+public class MessageEditRequest {
+    private String content;
+
+    public MessageEditRequest() {}
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+}
@@ -6,6 +6,10 @@ public class MessageRequest {
     private String roomId;
     private String timeStamp;
     private Object attachment;
+    // Generated by the client and reused on retries so the server can drop duplicates
+    private String clientMessageId;
+    // Set when the message is a reply in a thread
+    private String parentId;
 
     // Default constructor
     public MessageRequest() {}
@@ -60,6 +64,22 @@ public class MessageRequest {
         this.attachment = attachment;
     }
 
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(String parentId) {
+        this.parentId = parentId;
+    }
+
     @Override
     public String toString() {
         return "MessageRequest{" +
@@ -68,6 +88,8 @@ public class MessageRequest {
                 ", roomId='" + roomId + '\'' +
                 ", timeStamp='" + timeStamp + '\'' +
                 ", attachment=" + attachment +
+                ", clientMessageId='" + clientMessageId + '\'' +
+                ", parentId='" + parentId + '\'' +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.substring.chat.payload;
+
+public class ReactionRequest {
+    private String roomId;
+    private String messageId;
+    private String emoji;
+
+    public ReactionRequest() {}
+
+    public String getRoomId() { return roomId; }
+    public void setRoomId(String roomId) { this.roomId = roomId; }
+
+    public String getMessageId() { return messageId; }
+    public void setMessageId(String messageId) { this.messageId = messageId; }
+
+    public String getEmoji() { return emoji; }
+    public void setEmoji(String emoji) { this.emoji = emoji; }
+
+    @Override
+    public String toString() {
+        return "ReactionRequest{" +
+                "roomId='" + roomId + '\'' +
+                ", messageId='" + messageId + '\'' +
+                ", emoji='" + emoji + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,295 @@
+package com.substring.chat.repositories;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.MessageBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Bucketed layout: messages are appended with $push into one "message_buckets" document per
+ * (room, time window), capped at a fixed number of messages per bucket. This trades one index
+ * entry and one document header per message for one per bucket, and a history page becomes a
+ * handful of sequential document reads.
+ */
+@Repository
+@ConditionalOnProperty(name = "chat.storage.layout", havingValue = "bucketed")
+public class BucketedMessageStore implements MessageStore {
+
+    private final MongoTemplate mongoTemplate;
+    private final long windowMinutes;
+    private final int maxMessagesPerBucket;
+
+    public BucketedMessageStore(MongoTemplate mongoTemplate,
+                                @Value("${chat.storage.bucket.window-minutes:60}") long windowMinutes,
+                                @Value("${chat.storage.bucket.max-messages:200}") int maxMessagesPerBucket) {
+        this.mongoTemplate = mongoTemplate;
+        this.windowMinutes = windowMinutes;
+        this.maxMessagesPerBucket = maxMessagesPerBucket;
+    }
+
+    public LocalDateTime windowStart(LocalDateTime createdAt) {
+        LocalDateTime time = createdAt != null ? createdAt : LocalDateTime.now();
+        long epochMinutes = time.toEpochSecond(ZoneOffset.UTC) / 60;
+        return LocalDateTime.ofEpochSecond((epochMinutes - epochMinutes % windowMinutes) * 60, 0, ZoneOffset.UTC);
+    }
+
+    public int getMaxMessagesPerBucket() {
+        return maxMessagesPerBucket;
+    }
+
+    @Override
+    public Message insert(Message message) {
+        return insert(message, mongoTemplate.getCollectionName(MessageBucket.class));
+    }
+
+    /**
+     * Appends to the buckets in {@code collection}; used to fill a staging collection.
+     */
+    public Message insert(Message message, String collection) {
+        long sequence = message.getSequence() != null ? message.getSequence() : 0L;
+        // Equality fields in the query seed new buckets on upsert; a full bucket no longer
+        // matches "count < max", so the upsert opens the next one
+        Query open = Query.query(Criteria.where("roomId").is(message.getRoomId())
+                .and("windowStart").is(windowStart(message.getCreatedAt()))
+                .and("count").lt(maxMessagesPerBucket));
+        Update append = new Update()
+                .push("messages", message)
+                .push("messageIds", message.getId())
+                .inc("count", 1)
+                .min("firstSequence", sequence)
+                .max("lastSequence", sequence);
+        mongoTemplate.upsert(open, append, MessageBucket.class, collection);
+        return message;
+    }
+
+    @Override
+    public List<Message> findByRoom(String roomId) {
+        Query query = Query.query(Criteria.where("roomId").is(roomId))
+                .with(Sort.by("windowStart", "firstSequence"));
+        return flatten(mongoTemplate.find(query, MessageBucket.class), null);
+    }
+
+    @Override
+    public List<Message> findByRoomAfterSequence(String roomId, long sequence) {
+        Query query = Query.query(Criteria.where("roomId").is(roomId).and("lastSequence").gt(sequence))
+                .with(Sort.by("firstSequence"));
+        List<Message> messages = new ArrayList<>();
+        for (Message message : flatten(mongoTemplate.find(query, MessageBucket.class), null)) {
+            if (message.getSequence() != null && message.getSequence() > sequence) {
+                messages.add(message);
+            }
+        }
+        messages.sort(Comparator.comparing(Message::getSequence));
+        return messages;
+    }
+
+    @Override
+    public Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) {
+        Criteria criteria = Criteria.where("roomId").is(roomId);
+        if (from != null || to != null) {
+            Criteria window = criteria.and("windowStart");
+            if (from != null) {
+                window.gte(windowStart(from));
+            }
+            if (to != null) {
+                window.lt(to);
+            }
+        }
+        // A cursor batch counts buckets, not messages
+        Query query = Query.query(criteria).with(Sort.by("firstSequence"))
+                .cursorBatchSize(Math.max(1, batchSize / maxMessagesPerBucket));
+        return mongoTemplate.stream(query, MessageBucket.class)
+                .flatMap(bucket -> bucket.getMessages().stream())
+                .filter(message -> message.getSequence() != null && message.getCreatedAt() != null
+                        && (from == null || !message.getCreatedAt().isBefore(from))
+                        && (to == null || message.getCreatedAt().isBefore(to)));
+    }
+
+    @Override
+    public List<Message> findPage(String roomId, Long beforeSequence, int limit) {
+        Criteria criteria = Criteria.where("roomId").is(roomId);
+        if (beforeSequence != null) {
+            criteria = criteria.and("firstSequence").lt(beforeSequence);
+        }
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.DESC, "lastSequence"));
+
+        // Walk buckets newest first and stop as soon as the page is full
+        List<Message> page = new ArrayList<>();
+        try (Stream<MessageBucket> buckets = mongoTemplate.stream(query, MessageBucket.class)) {
+            for (MessageBucket bucket : (Iterable<MessageBucket>) buckets::iterator) {
+                for (Message message : bucket.getMessages()) {
+                    Long sequence = message.getSequence();
+                    if (sequence != null && (beforeSequence == null || sequence < beforeSequence)) {
+                        page.add(message);
+                    }
+                }
+                if (page.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        page.sort(Comparator.comparing(Message::getSequence));
+        return page.size() > limit ? new ArrayList<>(page.subList(page.size() - limit, page.size())) : page;
+    }
+
+    @Override
+    public List<Message> findThreadPage(String roomId, String rootId, Long beforeSequence, int limit) {
+        // "thread_roots" finds the buckets holding replies; walk them newest first like findPage
+        Criteria criteria = Criteria.where("roomId").is(roomId).and("messages.threadRootId").is(rootId);
+        if (beforeSequence != null) {
+            criteria = criteria.and("firstSequence").lt(beforeSequence);
+        }
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.DESC, "lastSequence"));
+
+        List<Message> page = new ArrayList<>();
+        try (Stream<MessageBucket> buckets = mongoTemplate.stream(query, MessageBucket.class)) {
+            for (MessageBucket bucket : (Iterable<MessageBucket>) buckets::iterator) {
+                for (Message message : bucket.getMessages()) {
+                    Long sequence = message.getSequence();
+                    if (rootId.equals(message.getThreadRootId()) && sequence != null
+                            && (beforeSequence == null || sequence < beforeSequence)) {
+                        page.add(message);
+                    }
+                }
+                if (page.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        page.sort(Comparator.comparing(Message::getSequence));
+        return page.size() > limit ? new ArrayList<>(page.subList(page.size() - limit, page.size())) : page;
+    }
+
+    @Override
+    public Message findLatest(String roomId) {
+        Query query = Query.query(Criteria.where("roomId").is(roomId))
+                .with(Sort.by(Sort.Direction.DESC, "lastSequence"))
+                .limit(1);
+        MessageBucket bucket = mongoTemplate.findOne(query, MessageBucket.class);
+        if (bucket == null) {
+            return null;
+        }
+        return bucket.getMessages().stream()
+                .filter(m -> m.getSequence() != null)
+                .max(Comparator.comparing(Message::getSequence))
+                .orElse(null);
+    }
+
+    @Override
+    public List<Message> findAllById(Collection<String> ids) {
+        Query query = Query.query(Criteria.where("messageIds").in(ids));
+        return flatten(mongoTemplate.find(query, MessageBucket.class), new HashSet<>(ids));
+    }
+
+    @Override
+    public void update(Message message, Map<String, Object> changes) {
+        Update update = new Update();
+        changes.forEach((field, value) -> update.set("messages.$[m]." + field, value));
+        update.filterArray(Criteria.where("m._id").is(message.getId()));
+        mongoTemplate.updateFirst(Query.query(Criteria.where("messageIds").is(message.getId())), update, MessageBucket.class);
+    }
+
+    @Override
+    public void increment(Message message, Map<String, Long> increments, Map<String, Object> changes) {
+        Update update = new Update();
+        increments.forEach((field, delta) -> update.inc("messages.$[m]." + field, delta));
+        changes.forEach((field, value) -> update.set("messages.$[m]." + field, value));
+        update.filterArray(Criteria.where("m._id").is(message.getId()));
+        mongoTemplate.updateFirst(Query.query(Criteria.where("messageIds").is(message.getId())), update, MessageBucket.class);
+    }
+
+    @Override
+    public List<String> findRoomsWithMessagesBefore(LocalDateTime cutoff) {
+        Query query = Query.query(Criteria.where("windowStart").lt(cutoff));
+        return mongoTemplate.findDistinct(query, "roomId", MessageBucket.class, String.class);
+    }
+
+    @Override
+    public List<Message> findByRoomBefore(String roomId, LocalDateTime cutoff, int limit) {
+        Query query = Query.query(Criteria.where("roomId").is(roomId).and("windowStart").lt(cutoff))
+                .with(Sort.by("firstSequence"));
+        List<Message> messages = new ArrayList<>();
+        try (Stream<MessageBucket> buckets = mongoTemplate.stream(query, MessageBucket.class)) {
+            for (MessageBucket bucket : (Iterable<MessageBucket>) buckets::iterator) {
+                for (Message message : bucket.getMessages()) {
+                    if (message.getSequence() != null && message.getCreatedAt() != null && message.getCreatedAt().isBefore(cutoff)) {
+                        messages.add(message);
+                    }
+                }
+                if (messages.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        messages.sort(Comparator.comparing(Message::getSequence));
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    @Override
+    public List<Message> findTombstones(LocalDateTime deletedBefore, int limit) {
+        Criteria tombstone = Criteria.where("deleted").is(true).and("deletedAt").lt(deletedBefore).and("purgedAt").is(null);
+        Query query = Query.query(Criteria.where("messages").elemMatch(tombstone));
+        List<Message> messages = new ArrayList<>();
+        try (Stream<MessageBucket> buckets = mongoTemplate.stream(query, MessageBucket.class)) {
+            for (MessageBucket bucket : (Iterable<MessageBucket>) buckets::iterator) {
+                for (Message message : bucket.getMessages()) {
+                    if (message.isDeleted() && message.getPurgedAt() == null
+                            && message.getDeletedAt() != null && message.getDeletedAt().isBefore(deletedBefore)) {
+                        messages.add(message);
+                    }
+                }
+                if (messages.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    @Override
+    public long deleteByIds(Collection<String> ids) {
+        Query query = Query.query(Criteria.where("messageIds").in(ids));
+        Update update = new Update()
+                .pull("messages", Query.query(Criteria.where("_id").in(ids)).getQueryObject())
+                .pullAll("messageIds", ids.toArray());
+        mongoTemplate.updateMulti(query, update, MessageBucket.class);
+        // "count" is left as is: it only caps appends, and emptied windows are in the past.
+        // Buckets with nothing left in them are dropped outright.
+        mongoTemplate.remove(Query.query(Criteria.where("messageIds").size(0)), MessageBucket.class);
+        return ids.size();
+    }
+
+    @Override
+    public String getLayout() {
+        return "bucketed";
+    }
+
+    private List<Message> flatten(List<MessageBucket> buckets, Set<String> onlyIds) {
+        List<Message> messages = new ArrayList<>();
+        for (MessageBucket bucket : buckets) {
+            for (Message message : bucket.getMessages()) {
+                if (onlyIds == null || onlyIds.contains(message.getId())) {
+                    messages.add(message);
+                }
+            }
+        }
+        return messages;
+    }
+}
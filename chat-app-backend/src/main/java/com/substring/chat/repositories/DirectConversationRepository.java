@@ -0,0 +1,13 @@
+package com.substring.chat.repositories;
+
+import com.substring.chat.entities.DirectConversation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface DirectConversationRepository extends MongoRepository<DirectConversation, String> {
+    List<DirectConversation> findByParticipantsOrderByLastMessageAtDesc(String participant, Pageable pageable);
+}
@@ -0,0 +1,15 @@
+package com.substring.chat.repositories;
+
+import com.substring.chat.entities.DirectMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface DirectMessageRepository extends MongoRepository<DirectMessage, String> {
+    List<DirectMessage> findByConversationIdOrderByIdDesc(String conversationId, Pageable pageable);
+    List<DirectMessage> findByConversationIdAndIdLessThanOrderByIdDesc(String conversationId, String beforeId, Pageable pageable);
+    DirectMessage findByConversationIdAndSenderAndClientMessageId(String conversationId, String sender, String clientMessageId);
+}
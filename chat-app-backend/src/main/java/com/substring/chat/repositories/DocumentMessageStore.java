@@ -0,0 +1,165 @@
+package com.substring.chat.repositories;
+
+import com.substring.chat.entities.Message;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The original layout: one document per message in the "messages" collection.
+ */
+@Repository
+@ConditionalOnProperty(name = "chat.storage.layout", havingValue = "document", matchIfMissing = true)
+public class DocumentMessageStore implements MessageStore {
+
+    private final MessageRepository messageRepository;
+    private final MongoTemplate mongoTemplate;
+
+    public DocumentMessageStore(MessageRepository messageRepository, MongoTemplate mongoTemplate) {
+        this.messageRepository = messageRepository;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Message insert(Message message) {
+        return messageRepository.insert(message);
+    }
+
+    @Override
+    public int insertMissing(List<Message> messages) {
+        // Unordered bulk insert: duplicates fail individually and the rest still go in
+        try {
+            return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Message.class)
+                    .insert(messages)
+                    .execute()
+                    .getInsertedCount();
+        } catch (BulkOperationException e) {
+            boolean onlyDuplicates = e.getErrors().stream().allMatch(error -> error.getCode() == 11000);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+            return e.getResult().getInsertedCount();
+        }
+    }
+
+    @Override
+    public List<Message> findByRoom(String roomId) {
+        return messageRepository.findByRoomIdOrderByTimeStampAsc(roomId);
+    }
+
+    @Override
+    public List<Message> findByRoomAfterSequence(String roomId, long sequence) {
+        return messageRepository.findByRoomIdAndSequenceGreaterThanOrderBySequenceAsc(roomId, sequence);
+    }
+
+    @Override
+    public Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) {
+        Criteria criteria = Criteria.where("roomId").is(roomId).and("sequence").ne(null);
+        if (from != null || to != null) {
+            Criteria created = criteria.and("createdAt");
+            if (from != null) {
+                created.gte(from);
+            }
+            if (to != null) {
+                created.lt(to);
+            }
+        }
+        // Walks room_sequence with a server cursor; only one batch is held at a time
+        Query query = Query.query(criteria).with(Sort.by("sequence")).cursorBatchSize(batchSize);
+        return mongoTemplate.stream(query, Message.class);
+    }
+
+    @Override
+    public List<Message> findPage(String roomId, Long beforeSequence, int limit) {
+        Criteria criteria = Criteria.where("roomId").is(roomId).and("sequence");
+        criteria = beforeSequence != null ? criteria.lt(beforeSequence) : criteria.ne(null);
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.DESC, "sequence")).limit(limit);
+        List<Message> messages = new ArrayList<>(mongoTemplate.find(query, Message.class));
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    @Override
+    public List<Message> findThreadPage(String roomId, String rootId, Long beforeSequence, int limit) {
+        // Served by the partial "thread_sequence" index; the room is checked on the fetched replies
+        Criteria criteria = Criteria.where("threadRootId").is(rootId).and("roomId").is(roomId).and("sequence");
+        criteria = beforeSequence != null ? criteria.lt(beforeSequence) : criteria.ne(null);
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.DESC, "sequence")).limit(limit);
+        List<Message> messages = new ArrayList<>(mongoTemplate.find(query, Message.class));
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    @Override
+    public Message findLatest(String roomId) {
+        return messageRepository.findTopByRoomIdOrderBySequenceDesc(roomId);
+    }
+
+    @Override
+    public List<Message> findAllById(Collection<String> ids) {
+        List<Message> messages = new ArrayList<>();
+        messageRepository.findAllById(ids).forEach(messages::add);
+        return messages;
+    }
+
+    @Override
+    public void update(Message message, Map<String, Object> changes) {
+        Update update = new Update();
+        changes.forEach(update::set);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(message.getId())), update, Message.class);
+    }
+
+    @Override
+    public void increment(Message message, Map<String, Long> increments, Map<String, Object> changes) {
+        Update update = new Update();
+        increments.forEach(update::inc);
+        changes.forEach(update::set);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(message.getId())), update, Message.class);
+    }
+
+    @Override
+    public List<String> findRoomsWithMessagesBefore(LocalDateTime cutoff) {
+        Query query = Query.query(Criteria.where("createdAt").lt(cutoff).and("sequence").ne(null));
+        return mongoTemplate.findDistinct(query, "roomId", Message.class, String.class);
+    }
+
+    @Override
+    public List<Message> findByRoomBefore(String roomId, LocalDateTime cutoff, int limit) {
+        Query query = Query.query(Criteria.where("roomId").is(roomId).and("createdAt").lt(cutoff).and("sequence").ne(null))
+                .with(Sort.by("sequence"))
+                .limit(limit);
+        return mongoTemplate.find(query, Message.class);
+    }
+
+    @Override
+    public List<Message> findTombstones(LocalDateTime deletedBefore, int limit) {
+        // Matches the partial "tombstones" index
+        Query query = Query.query(Criteria.where("deleted").is(true).and("deletedAt").lt(deletedBefore).and("purgedAt").is(null))
+                .limit(limit);
+        return mongoTemplate.find(query, Message.class);
+    }
+
+    @Override
+    public long deleteByIds(Collection<String> ids) {
+        return mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), Message.class).getDeletedCount();
+    }
+
+    @Override
+    public String getLayout() {
+        return "document";
+    }
+}
@@ -0,0 +1,488 @@
+package com.substring.chat.repositories;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Embedded layout: each room's messages live in a local {@link RoomLog} of memory-mapped
+ * segment files instead of Mongo. Selected with chat.storage.layout=log.
+ *
+ * <p>Durability is set by chat.storage.log.fsync:
+ * <ul>
+ *   <li>{@code always} forces every append before returning;</li>
+ *   <li>{@code group} returns once a shared flusher thread has forced the write; appends that
+ *       arrive while a force is in flight all ride on the next one;</li>
+ *   <li>{@code interval} returns immediately and the flusher forces every fsync-interval-ms.</li>
+ * </ul>
+ */
+@Repository
+@ConditionalOnProperty(name = "chat.storage.layout", havingValue = "log")
+public class LogMessageStore implements MessageStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogMessageStore.class);
+    private static final String ROOM_ID_FILE = "room.id";
+
+    public enum FsyncPolicy { ALWAYS, GROUP, INTERVAL }
+
+    private final ObjectMapper objectMapper;
+    private final Path baseDir;
+    private final int segmentBytes;
+    private final int indexInterval;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final int compactionDeadPercent;
+
+    private final ConcurrentHashMap<String, RoomLog> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MessageRef> ids = new ConcurrentHashMap<>();
+
+    private final Set<MappedByteBuffer> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicLong requested = new AtomicLong();
+    private volatile long flushed;
+    private volatile boolean closed;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition workAvailable = flushLock.newCondition();
+    private final Condition flushDone = flushLock.newCondition();
+    private final Thread flusher;
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder compactedBytes = new LongAdder();
+
+    public LogMessageStore(ObjectMapper objectMapper,
+                           @Value("${chat.storage.log.dir:./message-log}") String baseDir,
+                           @Value("${chat.storage.log.segment-bytes:8388608}") int segmentBytes,
+                           @Value("${chat.storage.log.index-interval:64}") int indexInterval,
+                           @Value("${chat.storage.log.fsync:group}") String fsyncPolicy,
+                           @Value("${chat.storage.log.fsync-interval-ms:10}") long fsyncIntervalMillis,
+                           @Value("${chat.storage.log.compaction-dead-percent:30}") int compactionDeadPercent) throws IOException {
+        this.objectMapper = objectMapper;
+        this.baseDir = Paths.get(baseDir).toAbsolutePath().normalize();
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+        this.fsyncPolicy = FsyncPolicy.valueOf(fsyncPolicy.toUpperCase(Locale.ROOT));
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.compactionDeadPercent = compactionDeadPercent;
+
+        recover();
+        this.flusher = new Thread(this::flushLoop, "message-log-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(baseDir);
+        long start = System.currentTimeMillis();
+        try (Stream<Path> listing = Files.list(baseDir)) {
+            for (Path dir : (Iterable<Path>) listing::iterator) {
+                Path idFile = dir.resolve(ROOM_ID_FILE);
+                if (!Files.isRegularFile(idFile)) {
+                    continue;
+                }
+                String roomId = Files.readString(idFile, StandardCharsets.UTF_8);
+                RoomLog log = new RoomLog(roomId, dir, objectMapper, segmentBytes, indexInterval);
+                log.recover((id, sequence) -> ids.put(id, new MessageRef(roomId, sequence)), ids::remove);
+                rooms.put(roomId, log);
+            }
+        }
+        logger.info("Recovered message log: {} rooms, {} messages in {} ms", rooms.size(), ids.size(), System.currentTimeMillis() - start);
+    }
+
+    private RoomLog room(String roomId) {
+        return rooms.computeIfAbsent(roomId, id -> {
+            // Directory names are sanitized, so the real id is kept next to the segments
+            Path dir = baseDir.resolve(id.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + Integer.toHexString(id.hashCode()));
+            try {
+                Files.createDirectories(dir);
+                Files.writeString(dir.resolve(ROOM_ID_FILE), id, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create message log for room " + id, e);
+            }
+            return new RoomLog(id, dir, objectMapper, segmentBytes, indexInterval);
+        });
+    }
+
+    @Override
+    public Message insert(Message message) {
+        if (message.getId() == null || message.getSequence() == null) {
+            throw new IllegalArgumentException("The log layout only stores messages with an id and a sequence");
+        }
+        if (ids.putIfAbsent(message.getId(), new MessageRef(message.getRoomId(), message.getSequence())) != null) {
+            throw new DuplicateKeyException("Message " + message.getId() + " already exists");
+        }
+        try {
+            commit(room(message.getRoomId()).append(message));
+        } catch (IOException | RuntimeException e) {
+            ids.remove(message.getId());
+            throw e instanceof IOException io ? new UncheckedIOException(io) : (RuntimeException) e;
+        }
+        appends.increment();
+        return message;
+    }
+
+    private void commit(RoomLog.Written written) {
+        if (written == null) {
+            return;
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            written.buffer().force(written.offset(), written.length());
+            fsyncs.increment();
+            return;
+        }
+
+        dirty.add(written.buffer());
+        long ticket = requested.incrementAndGet();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            workAvailable.signal();
+            while (flushed < ticket && !closed) {
+                flushDone.awaitUninterruptibly();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            flushLock.lock();
+            try {
+                if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                    workAvailable.await(fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    while (requested.get() == flushed && !closed) {
+                        workAvailable.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                flushLock.unlock();
+            }
+            flushDirty();
+        }
+    }
+
+    // Everything appended before `target` was requested is already in the dirty set
+    private void flushDirty() {
+        long target = requested.get();
+        if (target == flushed) {
+            return;
+        }
+        for (MappedByteBuffer buffer : dirty) {
+            dirty.remove(buffer);
+            buffer.force();
+        }
+        fsyncs.increment();
+        flushLock.lock();
+        try {
+            flushed = target;
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> findByRoom(String roomId) {
+        return findByRoomAfterSequence(roomId, 0);
+    }
+
+    @Override
+    public List<Message> findByRoomAfterSequence(String roomId, long sequence) {
+        RoomLog log = rooms.get(roomId);
+        if (log == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return log.readFrom(sequence + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) {
+        RoomLog log = rooms.get(roomId);
+        if (log == null) {
+            return Stream.empty();
+        }
+        return MessageStore.paged(last -> {
+            try {
+                return log.readFrom(last + 1, batchSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).filter(message -> message.getCreatedAt() != null
+                && (from == null || !message.getCreatedAt().isBefore(from))
+                && (to == null || message.getCreatedAt().isBefore(to)));
+    }
+
+    @Override
+    public List<Message> findPage(String roomId, Long beforeSequence, int limit) {
+        RoomLog log = rooms.get(roomId);
+        if (log == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return log.readBefore(beforeSequence, limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public List<Message> findThreadPage(String roomId, String rootId, Long beforeSequence, int limit) {
+        // No secondary index in the log: scans the room and keeps the newest matching replies
+        RoomLog log = rooms.get(roomId);
+        if (log == null) {
+            return new ArrayList<>();
+        }
+        try {
+            List<Message> page = new ArrayList<>();
+            for (Message message : log.readFrom(1)) {
+                if (rootId.equals(message.getThreadRootId())
+                        && (beforeSequence == null || message.getSequence() < beforeSequence)) {
+                    page.add(message);
+                }
+            }
+            return page.size() > limit ? new ArrayList<>(page.subList(page.size() - limit, page.size())) : page;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Message findLatest(String roomId) {
+        List<Message> latest = findPage(roomId, null, 1);
+        return latest.isEmpty() ? null : latest.get(0);
+    }
+
+    @Override
+    public List<Message> findAllById(Collection<String> messageIds) {
+        List<Message> messages = new ArrayList<>();
+        try {
+            for (String id : messageIds) {
+                MessageRef ref = ids.get(id);
+                RoomLog log = ref != null ? rooms.get(ref.roomId()) : null;
+                Message message = log != null ? log.get(ref.sequence()) : null;
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return messages;
+    }
+
+    @Override
+    public void update(Message message, Map<String, Object> changes) {
+        MessageRef ref = ids.get(message.getId());
+        if (ref == null) {
+            return;
+        }
+        try {
+            commit(rooms.get(ref.roomId()).replace(ref.sequence(), changes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void increment(Message message, Map<String, Long> increments, Map<String, Object> changes) {
+        MessageRef ref = ids.get(message.getId());
+        if (ref == null) {
+            return;
+        }
+        try {
+            // Read-modify-write; callers batch increments on one thread, so nothing races the read
+            Message current = rooms.get(ref.roomId()).get(ref.sequence());
+            if (current == null) {
+                return;
+            }
+            Map<String, Object> values = objectMapper.convertValue(current, new TypeReference<Map<String, Object>>() {});
+            Map<String, Object> merged = new LinkedHashMap<>(changes);
+            increments.forEach((field, delta) -> {
+                Object value = values.get(field);
+                merged.put(field, (value instanceof Number number ? number.longValue() : 0L) + delta);
+            });
+            update(message, merged);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public List<String> findRoomsWithMessagesBefore(LocalDateTime cutoff) {
+        List<String> result = new ArrayList<>();
+        for (RoomLog log : rooms.values()) {
+            try {
+                if (!log.readCreatedBefore(cutoff, 1).isEmpty()) {
+                    result.add(log.getRoomId());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Message> findByRoomBefore(String roomId, LocalDateTime cutoff, int limit) {
+        RoomLog log = rooms.get(roomId);
+        if (log == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return log.readCreatedBefore(cutoff, limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public List<Message> findTombstones(LocalDateTime deletedBefore, int limit) {
+        // No secondary index in the log: scans each room, which is fine for a background job
+        List<Message> messages = new ArrayList<>();
+        for (RoomLog log : rooms.values()) {
+            try {
+                for (Message message : log.readFrom(1)) {
+                    if (message.isDeleted() && message.getPurgedAt() == null
+                            && message.getDeletedAt() != null && message.getDeletedAt().isBefore(deletedBefore)) {
+                        messages.add(message);
+                        if (messages.size() >= limit) {
+                            return messages;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public long deleteByIds(Collection<String> messageIds) {
+        long removed = 0;
+        try {
+            for (String id : messageIds) {
+                MessageRef ref = ids.remove(id);
+                RoomLog log = ref != null ? rooms.get(ref.roomId()) : null;
+                if (log != null) {
+                    commit(log.delete(ref.sequence(), id));
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return removed;
+    }
+
+    @Override
+    public String getLayout() {
+        return "log";
+    }
+
+    @Scheduled(fixedDelayString = "${chat.storage.log.compaction-interval-ms:600000}")
+    public void compact() {
+        for (RoomLog log : rooms.values()) {
+            try {
+                long reclaimed = log.compact(compactionDeadPercent);
+                if (reclaimed > 0) {
+                    compactedBytes.add(reclaimed);
+                    logger.info("Compacted message log for room {}: {} bytes reclaimed", log.getRoomId(), reclaimed);
+                }
+            } catch (IOException e) {
+                logger.error("Compaction failed for room {}: {}", log.getRoomId(), e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+        flushLock.lock();
+        try {
+            workAvailable.signalAll();
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (MappedByteBuffer buffer : dirty) {
+            buffer.force();
+        }
+        dirty.clear();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        long bytes = 0;
+        long segments = 0;
+        long deadRecords = 0;
+        for (RoomLog log : rooms.values()) {
+            Map<String, Long> roomStats = log.getStats();
+            bytes += roomStats.get("bytes");
+            segments += roomStats.get("segments");
+            deadRecords += roomStats.get("deadRecords");
+        }
+        long syncs = fsyncs.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("layout", getLayout());
+        stats.put("fsyncPolicy", fsyncPolicy.name().toLowerCase(Locale.ROOT));
+        stats.put("rooms", rooms.size());
+        stats.put("messages", ids.size());
+        stats.put("segments", segments);
+        stats.put("bytes", bytes);
+        stats.put("deadRecords", deadRecords);
+        stats.put("appends", appends.sum());
+        stats.put("fsyncs", syncs);
+        stats.put("appendsPerFsync", syncs == 0 ? 0 : appends.sum() / syncs);
+        stats.put("compactedBytes", compactedBytes.sum());
+        return stats;
+    }
+
+    private record MessageRef(String roomId, long sequence) {}
+}
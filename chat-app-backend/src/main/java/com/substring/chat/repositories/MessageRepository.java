@@ -10,4 +10,6 @@ import java.util.List;
 public interface MessageRepository extends MongoRepository<Message, String> {
     List<Message> findByRoomIdOrderByTimeStampAsc(String roomId);
     List<Message> findByRoomId(String roomId);
+    Message findTopByRoomIdOrderBySequenceDesc(String roomId);
+    List<Message> findByRoomIdAndSequenceGreaterThanOrderBySequenceAsc(String roomId, Long sequence);
 }
\ No newline at end of file
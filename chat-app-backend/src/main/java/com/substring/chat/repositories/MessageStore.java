@@ -0,0 +1,154 @@
+package com.substring.chat.repositories;
+
+import com.substring.chat.entities.Message;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Storage-layout-neutral access to chat messages. Everything that reads or writes room history
+ * goes through this interface, so the physical layout (one document per message, time buckets,
+ * ...) can be chosen with chat.storage.layout without touching controllers or services.
+ */
+public interface MessageStore {
+
+    Message insert(Message message);
+
+    /**
+     * Inserts the messages whose ids are not stored yet, so replaying a batch twice is harmless.
+     * Returns how many were inserted.
+     */
+    default int insertMissing(List<Message> messages) {
+        Set<String> existing = new HashSet<>();
+        findAllById(messages.stream().map(Message::getId).toList()).forEach(m -> existing.add(m.getId()));
+        int inserted = 0;
+        for (Message message : messages) {
+            if (existing.add(message.getId())) {
+                insert(message);
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * All messages of a room, oldest first.
+     */
+    List<Message> findByRoom(String roomId);
+
+    /**
+     * Messages of a room with a sequence greater than {@code sequence}, in sequence order.
+     */
+    List<Message> findByRoomAfterSequence(String roomId, long sequence);
+
+    /**
+     * Sequenced messages of a room created in [{@code from}, {@code to}) (either bound may be
+     * null), in sequence order. Read lazily about {@code batchSize} at a time, so memory does not
+     * grow with the room; the stream may hold a cursor and must be closed.
+     */
+    Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize);
+
+    /**
+     * Up to {@code limit} messages with a sequence below {@code beforeSequence} (the newest
+     * ones if null), oldest first. Unsequenced legacy messages are not included.
+     */
+    List<Message> findPage(String roomId, Long beforeSequence, int limit);
+
+    /**
+     * The message with the highest sequence in a room, or null.
+     */
+    Message findLatest(String roomId);
+
+    /**
+     * Up to {@code limit} replies in the thread started by {@code rootId} with a sequence below
+     * {@code beforeSequence} (the newest ones if null), oldest first. The root itself is not included.
+     */
+    List<Message> findThreadPage(String roomId, String rootId, Long beforeSequence, int limit);
+
+    List<Message> findAllById(Collection<String> ids);
+
+    /**
+     * Applies a partial update ($set of each field) to one message.
+     */
+    void update(Message message, Map<String, Object> changes);
+
+    /**
+     * Adds {@code increments} to numeric fields of one message and sets {@code changes} in the
+     * same write.
+     */
+    void increment(Message message, Map<String, Long> increments, Map<String, Object> changes);
+
+    /**
+     * Rooms that have sequenced messages created before {@code cutoff}.
+     */
+    List<String> findRoomsWithMessagesBefore(LocalDateTime cutoff);
+
+    /**
+     * Up to {@code limit} sequenced messages of a room created before {@code cutoff}, in sequence order.
+     */
+    List<Message> findByRoomBefore(String roomId, LocalDateTime cutoff, int limit);
+
+    /**
+     * Up to {@code limit} deleted messages whose tombstone is older than {@code deletedBefore}
+     * and has not been purged yet.
+     */
+    List<Message> findTombstones(LocalDateTime deletedBefore, int limit);
+
+    /**
+     * Removes messages by id and returns how many were removed.
+     */
+    long deleteByIds(Collection<String> ids);
+
+    String getLayout();
+
+    /**
+     * Lazily chains keyset pages: {@code page} is given the last sequence returned so far (0 at
+     * first) and returns the next batch in sequence order; an empty batch ends the stream.
+     */
+    static Stream<Message> paged(LongFunction<List<Message>> page) {
+        Iterator<Message> iterator = new Iterator<>() {
+            private long lastSequence;
+            private Iterator<Message> batch = Collections.emptyIterator();
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                while (!batch.hasNext() && !done) {
+                    List<Message> next = page.apply(lastSequence);
+                    if (next.isEmpty()) {
+                        done = true;
+                    } else {
+                        lastSequence = next.get(next.size() - 1).getSequence();
+                        batch = next.iterator();
+                    }
+                }
+                return batch.hasNext();
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    default Map<String, Object> getStats() {
+        return Map.of("layout", getLayout());
+    }
+}
@@ -0,0 +1,10 @@
+package com.substring.chat.repositories;
+
+import com.substring.chat.entities.ModerationRule;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ModerationRuleRepository extends MongoRepository<ModerationRule, String> {
+    boolean existsByKindAndPattern(String kind, String pattern);
+}
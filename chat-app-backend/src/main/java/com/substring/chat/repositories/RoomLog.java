@@ -0,0 +1,677 @@
+package com.substring.chat.repositories;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of one room's messages, stored as memory-mapped segment files.
+ *
+ * <p>Each record is {@code [length][type][crc32][sequence][id length][id][json]}. The length
+ * is written last, so a record torn by a crash reads as length 0 (or fails its checksum) and
+ * recovery treats it as the end of the log. Edits and deletes never rewrite in place: they
+ * append a replacement or tombstone record, and compaction later folds them back into the
+ * segment that holds the original.
+ *
+ * <p>Each segment keeps a sparse index of every Nth message record (sequence → offset), so
+ * seeking to a sequence is a binary search plus a short forward scan.
+ */
+public class RoomLog {
+
+    static final byte MESSAGE = 1;
+    static final byte REPLACEMENT = 2;
+    static final byte TOMBSTONE = 3;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    // length, type, crc, sequence, id length
+    private static final int HEADER_BYTES = 4 + 1 + 4 + 8 + 1;
+
+    private final String roomId;
+    private final Path dir;
+    private final ObjectMapper objectMapper;
+    private final int segmentBytes;
+    private final int indexInterval;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<Segment> segments = new ArrayList<>();
+    // Where the current version of a rewritten message lives, keyed by sequence
+    private final Map<Long, Location> overrides = new HashMap<>();
+    private final Set<Long> deleted = new HashSet<>();
+    private long lastSequence;
+
+    public RoomLog(String roomId, Path dir, ObjectMapper objectMapper, int segmentBytes, int indexInterval) {
+        this.roomId = roomId;
+        this.dir = dir;
+        this.objectMapper = objectMapper;
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+    }
+
+    public String getRoomId() { return roomId; }
+
+    /**
+     * Maps every segment and scans it to rebuild the sparse indexes, stopping the last segment
+     * at the first torn or corrupt record. {@code live} receives (id, sequence) of every message
+     * and {@code removed} the id of every tombstone, in log order.
+     */
+    public void recover(BiConsumer<String, Long> live, Consumer<String> removed) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> listing = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) listing::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(".tmp")) {
+                        // Compaction output that never got renamed into place
+                        Files.delete(file);
+                    } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                        files.add(file);
+                    }
+                }
+            }
+            files.sort(Comparator.comparingLong(RoomLog::baseOf).thenComparingInt(RoomLog::generationOf));
+
+            // Compaction leaves an older generation behind if it could not be deleted in use
+            for (int i = 0; i < files.size(); i++) {
+                if (i + 1 < files.size() && baseOf(files.get(i)) == baseOf(files.get(i + 1))) {
+                    Files.delete(files.get(i));
+                    continue;
+                }
+                boolean last = i == files.size() - 1;
+                Segment segment = last ? Segment.openWritable(files.get(i), segmentBytes) : Segment.openSealed(files.get(i));
+                scan(segment, live, removed);
+                if (last) {
+                    segment.clearTail();
+                }
+                segments.add(segment);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void scan(Segment segment, BiConsumer<String, Long> live, Consumer<String> removed) {
+        int position = 0;
+        CRC32 crc = new CRC32();
+        while (true) {
+            Record record = segment.read(position, crc);
+            if (record == null) {
+                break;
+            }
+            switch (record.type) {
+                case MESSAGE -> {
+                    segment.noteMessage(record.sequence, position, indexInterval);
+                    lastSequence = Math.max(lastSequence, record.sequence);
+                    live.accept(record.id, record.sequence);
+                }
+                case REPLACEMENT -> {
+                    markDead(record.sequence);
+                    overrides.put(record.sequence, new Location(segment, position));
+                }
+                case TOMBSTONE -> {
+                    markDead(record.sequence);
+                    overrides.remove(record.sequence);
+                    deleted.add(record.sequence);
+                    removed.accept(record.id);
+                }
+                default -> { }
+            }
+            segment.records++;
+            position = record.next;
+        }
+        segment.position = position;
+    }
+
+    /**
+     * Appends a new message. The caller is responsible for making the returned range durable.
+     */
+    public Written append(Message message) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Written written = write(MESSAGE, message.getSequence(), message.getId(), objectMapper.writeValueAsBytes(message));
+            written.segment.noteMessage(message.getSequence(), written.offset, indexInterval);
+            lastSequence = Math.max(lastSequence, message.getSequence());
+            return written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a new version of an existing message with {@code changes} applied to it, or
+     * returns null if there is no live message with that sequence.
+     */
+    public Written replace(long sequence, Map<String, Object> changes) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Message current = get(sequence);
+            if (current == null) {
+                return null;
+            }
+            Message updated = objectMapper.updateValue(current, changes);
+            Written written = write(REPLACEMENT, sequence, updated.getId(), objectMapper.writeValueAsBytes(updated));
+            markDead(sequence);
+            overrides.put(sequence, new Location(written.segment, written.offset));
+            return written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Written delete(long sequence, String id) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (deleted.contains(sequence)) {
+                return null;
+            }
+            Written written = write(TOMBSTONE, sequence, id, new byte[0]);
+            markDead(sequence);
+            overrides.remove(sequence);
+            deleted.add(sequence);
+            return written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void markDead(long sequence) {
+        if (overrides.containsKey(sequence) || deleted.contains(sequence)) {
+            return;
+        }
+        Segment home = segmentFor(sequence);
+        if (home != null) {
+            home.dead++;
+        }
+    }
+
+    private Written write(byte type, long sequence, String id, byte[] payload) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 255) {
+            throw new IllegalArgumentException("Message id too long for the log layout: " + id);
+        }
+        int size = HEADER_BYTES + idBytes.length + payload.length;
+
+        Segment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || active.sealed || active.position + size > active.capacity) {
+            active = roll(active, sequence, size);
+        }
+
+        int offset = active.position;
+        MappedByteBuffer buffer = active.buffer;
+        buffer.putLong(offset + 9, sequence);
+        buffer.put(offset + 17, (byte) idBytes.length);
+        buffer.put(offset + HEADER_BYTES, idBytes);
+        buffer.put(offset + HEADER_BYTES + idBytes.length, payload);
+        buffer.put(offset + 4, type);
+        buffer.putInt(offset + 5, checksum(buffer, offset, type, size, new CRC32()));
+        // Length goes in last: until it is written the record does not exist
+        buffer.putInt(offset, size - 4);
+
+        active.position += size;
+        active.records++;
+        return new Written(active, buffer, offset, size);
+    }
+
+    private Segment roll(Segment previous, long sequence, int recordSize) throws IOException {
+        // File names only order segments; they must keep increasing even when the record that
+        // triggers the roll is an edit of an old message
+        long base = Math.max(sequence, lastSequence + 1);
+        if (previous != null) {
+            previous.buffer.force();
+            previous.sealed = true;
+            base = Math.max(base, baseOf(previous.file) + 1);
+        }
+        Files.createDirectories(dir);
+        Path file = dir.resolve(segmentName(base, 0));
+        Segment segment = Segment.openWritable(file, Math.max(segmentBytes, recordSize));
+        segments.add(segment);
+        return segment;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, byte type, int size, CRC32 crc) {
+        crc.reset();
+        crc.update(type);
+        crc.update(buffer.slice(offset + 9, size - 9));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The live message with this sequence, or null.
+     */
+    public Message get(long sequence) throws IOException {
+        lock.readLock().lock();
+        try {
+            Message[] found = new Message[1];
+            scanRange(sequence, sequence + 1, message -> {
+                found[0] = message;
+                return false;
+            });
+            return found[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Message> readFrom(long fromSequence) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            scanRange(fromSequence, Long.MAX_VALUE, messages::add);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    /**
+     * Up to {@code limit} live messages from {@code fromSequence} on, oldest first.
+     */
+    public List<Message> readFrom(long fromSequence, int limit) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            scanRange(fromSequence, Long.MAX_VALUE, message -> {
+                messages.add(message);
+                return messages.size() < limit;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    /**
+     * Up to {@code limit} live messages below {@code beforeSequence} (the newest if null), oldest first.
+     */
+    public List<Message> readBefore(Long beforeSequence, int limit) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (segments.isEmpty()) {
+                return List.of();
+            }
+            long first = segments.get(0).firstSequence;
+            long upper = beforeSequence != null ? beforeSequence : lastSequence + 1;
+            // Sequences are nearly dense, so start exactly one page back and widen only if
+            // deletes or gaps left the window short
+            long from = Math.max(first, upper - limit);
+            List<Message> window = new ArrayList<>();
+            while (true) {
+                window.clear();
+                scanRange(from, upper, window::add);
+                if (window.size() >= limit || from <= first) {
+                    break;
+                }
+                from = Math.max(first, upper - 2 * (upper - from));
+            }
+            return window.size() > limit ? new ArrayList<>(window.subList(window.size() - limit, window.size())) : window;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Live messages from the start of the log for as long as they were created before
+     * {@code cutoff}, at most {@code limit}.
+     */
+    public List<Message> readCreatedBefore(LocalDateTime cutoff, int limit) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            scanRange(Long.MIN_VALUE, Long.MAX_VALUE, message -> {
+                if (message.getCreatedAt() == null || !message.getCreatedAt().isBefore(cutoff)) {
+                    return false;
+                }
+                messages.add(message);
+                return messages.size() < limit;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    // Visits live messages with fromSequence <= sequence < toSequence until the visitor returns false
+    private void scanRange(long fromSequence, long toSequence, Predicate<Message> visitor) throws IOException {
+        int start = Math.max(0, segmentIndexFor(fromSequence));
+        CRC32 crc = new CRC32();
+        for (int s = start; s < segments.size(); s++) {
+            Segment segment = segments.get(s);
+            int position = s == start ? segment.floorOffset(fromSequence) : 0;
+            while (position < segment.position) {
+                Record record = segment.read(position, crc);
+                if (record == null) {
+                    break;
+                }
+                position = record.next;
+                if (record.type != MESSAGE || record.sequence < fromSequence || deleted.contains(record.sequence)) {
+                    continue;
+                }
+                if (record.sequence >= toSequence) {
+                    return;
+                }
+                Location override = overrides.get(record.sequence);
+                Message message = override != null
+                        ? decode(override.segment.read(override.offset, crc), override.segment)
+                        : decode(record, segment);
+                if (!visitor.test(message)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private Message decode(Record record, Segment segment) throws IOException {
+        byte[] json = new byte[record.payloadLength];
+        segment.buffer.get(record.payloadOffset, json);
+        return objectMapper.readValue(json, Message.class);
+    }
+
+    private Segment segmentFor(long sequence) {
+        int index = segmentIndexFor(sequence);
+        return index >= 0 ? segments.get(index) : null;
+    }
+
+    // Index of the last segment whose first message sequence is <= sequence, or -1
+    private int segmentIndexFor(long sequence) {
+        int low = 0;
+        int high = segments.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (segments.get(mid).firstSequence <= sequence) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Rewrites sealed segments whose share of dead records (superseded or deleted) is at least
+     * {@code deadPercent}, folding replacements back in and dropping tombstoned messages.
+     * Returns the number of bytes reclaimed.
+     */
+    public long compact(int deadPercent) throws IOException {
+        lock.writeLock().lock();
+        try {
+            long reclaimed = 0;
+            for (int s = 0; s < segments.size(); s++) {
+                Segment segment = segments.get(s);
+                if (!segment.sealed || segment.dead == 0 || segment.dead * 100L < (long) segment.messages * deadPercent) {
+                    continue;
+                }
+                long before = segment.fileSize;
+                Segment compacted = rewrite(s, segment);
+                if (compacted == null) {
+                    segments.remove(s--);
+                } else {
+                    segments.set(s, compacted);
+                    reclaimed -= compacted.fileSize;
+                }
+                reclaimed += before;
+            }
+            return reclaimed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Segment rewrite(int index, Segment segment) throws IOException {
+        long nextFirst = index + 1 < segments.size() ? segments.get(index + 1).firstSequence : Long.MAX_VALUE;
+        CRC32 crc = new CRC32();
+        ByteBuffer out = ByteBuffer.allocate(Math.max(segment.position, 64));
+        Set<Long> folded = new HashSet<>();
+
+        int position = 0;
+        while (position < segment.position) {
+            Record record = segment.read(position, crc);
+            if (record == null) {
+                break;
+            }
+            boolean ownTarget = record.sequence >= segment.firstSequence && record.sequence < nextFirst;
+            if (record.type == MESSAGE) {
+                folded.add(record.sequence);
+                if (!deleted.contains(record.sequence)) {
+                    Location override = overrides.get(record.sequence);
+                    Segment source = override != null ? override.segment : segment;
+                    int sourceOffset = override != null ? override.offset : position;
+                    out = copy(source, sourceOffset, out, MESSAGE, crc);
+                }
+            } else if (!ownTarget && isCurrent(record, segment, position)) {
+                // Edits and deletes of messages that live in another segment must survive
+                out = copy(segment, position, out, record.type, crc);
+            }
+            position = record.next;
+        }
+
+        // Messages of this segment now hold their latest version inline (or are gone)
+        for (Long sequence : folded) {
+            overrides.remove(sequence);
+            deleted.remove(sequence);
+        }
+
+        Path target = dir.resolve(segmentName(baseOf(segment.file), generationOf(segment.file) + 1));
+        Segment compacted = null;
+        if (out.position() > 0) {
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            out.flip();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            compacted = Segment.openSealed(target);
+            // Rebuilds the sparse index and repoints overrides at the surviving edit records
+            scan(compacted, (id, sequence) -> { }, id -> { });
+            compacted.dead = 0;
+        }
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            // Still mapped on some platforms; recovery removes the older generation
+        }
+        return compacted;
+    }
+
+    private boolean isCurrent(Record record, Segment segment, int offset) {
+        if (record.type == TOMBSTONE) {
+            return deleted.contains(record.sequence);
+        }
+        Location override = overrides.get(record.sequence);
+        return override != null && override.segment == segment && override.offset == offset;
+    }
+
+    // Copies a record, retyping it (a folded replacement becomes a message); returns the possibly grown buffer
+    private static ByteBuffer copy(Segment source, int offset, ByteBuffer out, byte type, CRC32 crc) {
+        int size = source.buffer.getInt(offset) + 4;
+        if (out.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + size));
+            out.flip();
+            out = grown.put(out);
+        }
+        int start = out.position();
+        out.put(source.buffer.slice(offset, size));
+        out.put(start + 4, type);
+        out.putInt(start + 5, checksum(out, start, type, size, crc));
+        return out;
+    }
+
+    public long getLastSequence() {
+        lock.readLock().lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            long records = 0;
+            long dead = 0;
+            for (Segment segment : segments) {
+                bytes += segment.position;
+                records += segment.records;
+                dead += segment.dead;
+            }
+            Map<String, Long> stats = new HashMap<>();
+            stats.put("segments", (long) segments.size());
+            stats.put("bytes", bytes);
+            stats.put("records", records);
+            stats.put("deadRecords", dead);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String segmentName(long firstSequence, int generation) {
+        return String.format("%020d-%d", firstSequence, generation) + SEGMENT_SUFFIX;
+    }
+
+    private static long baseOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('-')));
+    }
+
+    private static int generationOf(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(name.indexOf('-') + 1, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A range of a segment written by an append, to be forced according to the fsync policy.
+     */
+    public record Written(Segment segment, MappedByteBuffer buffer, int offset, int length) {}
+
+    private record Location(Segment segment, int offset) {}
+
+    private record Record(byte type, long sequence, String id, int payloadOffset, int payloadLength, int next) {}
+
+    static final class Segment {
+        final Path file;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final long fileSize;
+        int position;
+        boolean sealed;
+        // Lowest message sequence in the segment, starting from the file's base so that
+        // segments holding only edit records still sort correctly
+        long firstSequence;
+        int records;
+        int messages;
+        int dead;
+
+        private long[] indexSequences = new long[16];
+        private int[] indexOffsets = new int[16];
+        private int indexSize;
+
+        private Segment(Path file, MappedByteBuffer buffer, boolean sealed) throws IOException {
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.fileSize = Files.size(file);
+            this.sealed = sealed;
+            this.firstSequence = baseOf(file);
+        }
+
+        static Segment openWritable(Path file, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = Math.max(channel.size(), capacity);
+                return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), false);
+            }
+        }
+
+        static Segment openSealed(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true);
+            }
+        }
+
+        void noteMessage(long sequence, int offset, int indexInterval) {
+            if (messages % indexInterval == 0) {
+                if (indexSize == indexSequences.length) {
+                    indexSequences = Arrays.copyOf(indexSequences, indexSize * 2);
+                    indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+                }
+                indexSequences[indexSize] = sequence;
+                indexOffsets[indexSize] = offset;
+                indexSize++;
+            }
+            firstSequence = Math.min(firstSequence, sequence);
+            messages++;
+        }
+
+        // Offset of the last indexed message at or before sequence, or the start of the segment
+        int floorOffset(long sequence) {
+            int index = Arrays.binarySearch(indexSequences, 0, indexSize, sequence);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index >= 0 ? indexOffsets[index] : 0;
+        }
+
+        // The record at offset, or null at the end of the log (zero length, torn or corrupt)
+        Record read(int offset, CRC32 crc) {
+            if (offset + HEADER_BYTES > capacity) {
+                return null;
+            }
+            int length = buffer.getInt(offset);
+            int size = length + 4;
+            if (length <= 0 || offset + size > capacity) {
+                return null;
+            }
+            byte type = buffer.get(offset + 4);
+            if (buffer.getInt(offset + 5) != checksum(buffer, offset, type, size, crc)) {
+                return null;
+            }
+            int idLength = buffer.get(offset + 17) & 0xFF;
+            byte[] id = new byte[idLength];
+            buffer.get(offset + HEADER_BYTES, id);
+            int payloadOffset = offset + HEADER_BYTES + idLength;
+            return new Record(type, buffer.getLong(offset + 9), new String(id, StandardCharsets.UTF_8),
+                    payloadOffset, offset + size - payloadOffset, offset + size);
+        }
+
+        // Zero whatever a crash left after the last good record so it can't be mistaken for data later
+        void clearTail() {
+            int end = capacity;
+            while (end > position && buffer.get(end - 1) == 0) {
+                end--;
+            }
+            for (int i = position; i < end; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.substring.chat.repositories;
+
+import com.substring.chat.entities.RoomMembership;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface RoomMembershipRepository extends MongoRepository<RoomMembership, String> {
+    List<RoomMembership> findByUsernameOrderByRoomIdAsc(String username);
+    List<RoomMembership> findByRoomIdAndUsernameGreaterThanOrderByUsernameAsc(String roomId, String afterUsername, Pageable pageable);
+    boolean existsByRoomIdAndUsername(String roomId, String username);
+    long countByRoomId(String roomId);
+    long deleteByRoomIdAndUsername(String roomId, String username);
+
+    // Covered by the room_user index: only usernames come back
+    @Query(value = "{ 'roomId': ?0 }", fields = "{ 'username': 1, '_id': 0 }")
+    List<RoomMembership> findUsernamesByRoomId(String roomId);
+}
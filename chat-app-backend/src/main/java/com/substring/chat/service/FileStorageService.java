@@ -1,18 +1,21 @@
 package com.substring.chat.service;
 
+import com.substring.chat.services.IdGenerator;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.UUID;
 
 @Service
 public class FileStorageService {
 
     private final Path uploadDir = Paths.get("uploads").toAbsolutePath().normalize();
 
-    public FileStorageService() throws IOException {
+    private final IdGenerator idGenerator;
+
+    public FileStorageService(IdGenerator idGenerator) throws IOException {
+        this.idGenerator = idGenerator;
         if (!Files.exists(uploadDir)) {
             Files.createDirectories(uploadDir);
         }
@@ -27,7 +30,7 @@ public class FileStorageService {
             extension = originalFilename.substring(index);
         }
 
-        String filename = UUID.randomUUID().toString() + extension;
+        String filename = idGenerator.nextIdString() + extension;
         Path targetLocation = uploadDir.resolve(filename);
         Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
 
@@ -0,0 +1,234 @@
+package com.substring.chat.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable Aho-Corasick automaton over a fixed set of patterns: one pass over the text
+ * finds every occurrence of every pattern, whatever the number of patterns.
+ *
+ * <p>The trie is flattened into arrays once built. Each state's outgoing edges are a sorted
+ * slice of {@code labels}/{@code targets}, found by binary search, and failure and output
+ * links are plain int arrays, so {@link #scan} allocates nothing of its own. Matching is
+ * optionally case-insensitive (per char, {@link Character#toLowerCase(char)}).
+ *
+ * <p>Callers that cannot afford even the handler can drive the automaton themselves with
+ * {@link #step} and walk the patterns ending at each state with {@link #outputState} and
+ * {@link #nextOutputState}.
+ *
+ * <p>Instances are built once and shared between threads; rebuild to change the patterns.
+ */
+public final class AhoCorasick {
+
+    /**
+     * Receives matches in order of their end position. Return false to stop the scan.
+     */
+    @FunctionalInterface
+    public interface MatchHandler {
+        boolean onMatch(int pattern, int start, int end);
+    }
+
+    private final String[] patterns;
+    private final boolean ignoreCase;
+    // Edges of state s are labels/targets[edgeStart[s] .. edgeStart[s + 1]), sorted by label
+    private final int[] edgeStart;
+    private final char[] labels;
+    private final int[] targets;
+    private final int[] fail;
+    // Pattern ending exactly at a state, or -1; the next state down the failure chain that has one
+    private final int[] output;
+    private final int[] outputLink;
+
+    private AhoCorasick(String[] patterns, boolean ignoreCase, List<TreeMap<Character, Integer>> trie, int[] output) {
+        this.patterns = patterns;
+        this.ignoreCase = ignoreCase;
+        this.output = output;
+
+        int states = trie.size();
+        int edges = 0;
+        for (TreeMap<Character, Integer> children : trie) {
+            edges += children.size();
+        }
+        this.edgeStart = new int[states + 1];
+        this.labels = new char[edges];
+        this.targets = new int[edges];
+        int edge = 0;
+        for (int s = 0; s < states; s++) {
+            edgeStart[s] = edge;
+            for (Map.Entry<Character, Integer> child : trie.get(s).entrySet()) {
+                labels[edge] = child.getKey();
+                targets[edge] = child.getValue();
+                edge++;
+            }
+        }
+        edgeStart[states] = edge;
+
+        // Breadth-first, so a state's failure target is always finished before the state itself
+        this.fail = new int[states];
+        this.outputLink = new int[states];
+        outputLink[0] = -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            fail[targets[e]] = 0;
+            outputLink[targets[e]] = -1;
+            queue.add(targets[e]);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                int child = targets[e];
+                int f = fail[state];
+                int next;
+                while ((next = child(f, labels[e])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next >= 0 ? next : 0;
+                outputLink[child] = output[fail[child]] >= 0 ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Builds the automaton. Empty patterns are ignored and a repeated pattern is only
+     * reported under its first index; indexes passed to the handler are positions in
+     * {@code patterns}.
+     */
+    public static AhoCorasick build(Collection<String> patterns, boolean ignoreCase) {
+        String[] indexed = patterns.toArray(new String[0]);
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        outputs.add(-1);
+        for (int p = 0; p < indexed.length; p++) {
+            String pattern = indexed[p];
+            if (pattern == null || pattern.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = ignoreCase ? Character.toLowerCase(pattern.charAt(i)) : pattern.charAt(i);
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(c, next);
+                    trie.add(new TreeMap<>());
+                    outputs.add(-1);
+                }
+                state = next;
+            }
+            if (outputs.get(state) < 0) {
+                outputs.set(state, p);
+            }
+        }
+        int[] output = outputs.stream().mapToInt(Integer::intValue).toArray();
+        return new AhoCorasick(indexed, ignoreCase, trie, output);
+    }
+
+    /**
+     * Reports every match in {@code text[from, to)}, including overlapping ones, and returns
+     * how many were reported.
+     */
+    public int scan(CharSequence text, int from, int to, MatchHandler handler) {
+        int state = 0;
+        int matches = 0;
+        for (int i = from; i < to; i++) {
+            state = step(state, text.charAt(i));
+            for (int found = outputState(state); found > 0; found = outputLink[found]) {
+                int pattern = output[found];
+                matches++;
+                if (!handler.onMatch(pattern, i + 1 - patterns[pattern].length(), i + 1)) {
+                    return matches;
+                }
+            }
+        }
+        return matches;
+    }
+
+    public int scan(CharSequence text, MatchHandler handler) {
+        return scan(text, 0, text.length(), handler);
+    }
+
+    /**
+     * True if any pattern occurs in the text; stops at the first match.
+     */
+    public boolean matches(CharSequence text) {
+        return scan(text, 0, text.length(), (pattern, start, end) -> false) > 0;
+    }
+
+    /**
+     * The state after reading {@code c} in {@code state}; scans start in state 0.
+     */
+    public int step(int state, char c) {
+        return next(state, ignoreCase ? Character.toLowerCase(c) : c);
+    }
+
+    /**
+     * The first state on {@code state}'s failure chain (itself included) at which a pattern
+     * ends, or -1 if no pattern ends at the current position.
+     */
+    public int outputState(int state) {
+        return output[state] >= 0 ? state : outputLink[state];
+    }
+
+    /**
+     * The next state after {@code outputState} down the failure chain at which a pattern
+     * ends (a shorter one), or -1.
+     */
+    public int nextOutputState(int outputState) {
+        return outputLink[outputState];
+    }
+
+    /**
+     * The index of the pattern that ends at an output state.
+     */
+    public int patternAt(int outputState) {
+        return output[outputState];
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = child(state, c);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private int child(int state, char c) {
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return targets[mid];
+            }
+        }
+        return -1;
+    }
+
+    public String pattern(int index) {
+        return patterns[index];
+    }
+
+    public int patternCount() {
+        return patterns.length;
+    }
+
+    public int stateCount() {
+        return fail.length;
+    }
+}
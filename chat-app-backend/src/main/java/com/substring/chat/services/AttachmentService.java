@@ -0,0 +1,386 @@
+package com.substring.chat.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves uploaded files as immutable, content-addressed assets. Each stored file is hashed
+ * (SHA-256) once and kept in an in-memory map by name with everything a response needs:
+ * its fingerprinted URL /files/{fingerprint}/{name}, content type, length, strong ETag and
+ * any precompressed variants. Requests resolve against the map, not the filesystem; only
+ * the first request for a file not seen since startup (older uploads) looks at the disk, and
+ * that registers it.
+ *
+ * <p>Compressible uploads (text, JSON, XML, SVG, CSV, old Office formats and the like) get a
+ * gzip copy under uploads/.encoded/, written in the background; until it exists the file is
+ * served as is. There is no Brotli encoder in the JDK, so a "{name}.br" in the same
+ * directory is only served if something else (a deploy step, say) put it there.
+ */
+@Service
+public class AttachmentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentService.class);
+
+    public static final String URL_PREFIX = "/files/";
+    public static final String GZIP = "gzip";
+    public static final String BROTLI = "br";
+
+    private static final int FINGERPRINT_LENGTH = 16;
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "application/json", "application/xml", "application/javascript", "application/rtf",
+            "application/msword", "application/vnd.ms-excel", "application/vnd.ms-powerpoint",
+            "application/x-sh", "application/sql", "image/svg+xml", "image/bmp");
+
+    private final Path uploadDir;
+    private final Path encodedDir;
+    private final boolean precompress;
+    private final long compressMinBytes;
+    private final long compressMaxBytes;
+    private final int maxEntries;
+    private final ThreadPoolExecutor compressor;
+
+    private final ConcurrentHashMap<String, Asset> assets = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder compressionDropped = new LongAdder();
+    private final LongAdder servedGzip = new LongAdder();
+    private final LongAdder servedBrotli = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    public AttachmentService(@Value("${file.upload.dir:./uploads}") String uploadDir,
+                             @Value("${chat.attachments.precompress:true}") boolean precompress,
+                             @Value("${chat.attachments.compress-min-bytes:1024}") long compressMinBytes,
+                             @Value("${chat.attachments.compress-max-bytes:20971520}") long compressMaxBytes,
+                             @Value("${chat.attachments.max-entries:100000}") int maxEntries,
+                             @Value("${chat.attachments.compress-queue-capacity:100}") int queueCapacity) {
+        this.uploadDir = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.encodedDir = this.uploadDir.resolve(".encoded");
+        this.precompress = precompress;
+        this.compressMinBytes = compressMinBytes;
+        this.compressMaxBytes = compressMaxBytes;
+        this.maxEntries = maxEntries;
+        this.compressor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "attachment-compressor");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Registers a file just stored in the upload directory and returns it; its
+     * {@link Asset#url()} is what messages should link to.
+     */
+    public Asset register(String name, String contentType) throws IOException {
+        Path file = pathOf(name);
+        if (file == null) {
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        }
+        Asset asset = load(name, file, contentType);
+        store(asset);
+        return asset;
+    }
+
+    /**
+     * The asset behind a stored name, or null if there is no such file.
+     */
+    public Asset resolve(String name) {
+        Asset asset = assets.get(name);
+        if (asset != null) {
+            hits.increment();
+            return asset;
+        }
+        Path file = pathOf(name);
+        if (file == null || !Files.isRegularFile(file)) {
+            notFound.increment();
+            return null;
+        }
+        misses.increment();
+        try {
+            asset = load(name, file, null);
+        } catch (IOException e) {
+            logger.warn("Failed to register attachment {}: {}", name, e.getMessage());
+            return null;
+        }
+        Asset raced = assets.putIfAbsent(name, asset);
+        if (raced != null) {
+            return raced;
+        }
+        store(asset);
+        return asset;
+    }
+
+    /**
+     * The stored URL for a name, fingerprinted if the file exists, or null.
+     */
+    public String urlFor(String name) {
+        Asset asset = resolve(name);
+        return asset != null ? asset.url() : null;
+    }
+
+    /**
+     * Drops a file from the map and removes its encoded copies; the caller deletes the file.
+     */
+    public void forget(String name) {
+        assets.remove(name);
+        Path gzip = encodedDir.resolve(name + ".gz");
+        Path brotli = encodedDir.resolve(name + ".br");
+        for (Path encoded : new Path[]{gzip, brotli}) {
+            try {
+                Files.deleteIfExists(encoded);
+            } catch (IOException e) {
+                logger.warn("Failed to remove {}: {}", encoded, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Picks the smallest variant the client accepts: Brotli, then gzip, then the file itself.
+     */
+    public Variant select(Asset asset, String acceptEncoding) {
+        if (acceptEncoding != null) {
+            if (asset.brotli() != null && accepts(acceptEncoding, BROTLI)) {
+                servedBrotli.increment();
+                bytesSaved.add(asset.identity().length() - asset.brotli().length());
+                return asset.brotli();
+            }
+            if (asset.gzip() != null && accepts(acceptEncoding, GZIP)) {
+                servedGzip.increment();
+                bytesSaved.add(asset.identity().length() - asset.gzip().length());
+                return asset.gzip();
+            }
+        }
+        return asset.identity();
+    }
+
+    static boolean accepts(String acceptEncoding, String coding) {
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String token = params[0].trim().toLowerCase(Locale.ROOT);
+            if (!token.equals(coding) && !token.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * If-None-Match against a strong ETag; uses weak comparison, as the header requires.
+     */
+    public static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path pathOf(String name) {
+        if (name == null || name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains("\\")) {
+            return null;
+        }
+        Path file = uploadDir.resolve(name).normalize();
+        return file.startsWith(uploadDir) ? file : null;
+    }
+
+    private Asset load(String name, Path file, String contentType) throws IOException {
+        String hash = sha256(file);
+        long length = Files.size(file);
+        String type = contentType != null && !contentType.isBlank() ? contentType
+                : MediaTypeFactory.getMediaType(name).map(MediaType::toString).orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        boolean compressible = isCompressible(type) && length >= compressMinBytes && length <= compressMaxBytes;
+
+        Variant identity = new Variant(file, length, null, "\"" + hash + "\"");
+        // Encoded copies from an earlier run are reused; they can only be of this same content
+        Variant gzip = existing(encodedDir.resolve(name + ".gz"), GZIP, hash);
+        Variant brotli = existing(encodedDir.resolve(name + ".br"), BROTLI, hash);
+        return new Asset(name, hash.substring(0, FINGERPRINT_LENGTH), type, compressible, identity, gzip, brotli);
+    }
+
+    private static Variant existing(Path encoded, String encoding, String hash) throws IOException {
+        if (!Files.isRegularFile(encoded)) {
+            return null;
+        }
+        return new Variant(encoded, Files.size(encoded), encoding, "\"" + hash + "-" + encoding + "\"");
+    }
+
+    private void store(Asset asset) {
+        if (assets.size() >= maxEntries && !assets.containsKey(asset.name())) {
+            // Evicted entries come back on their next request
+            var keys = assets.keySet().iterator();
+            while (assets.size() >= maxEntries && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        assets.put(asset.name(), asset);
+        if (precompress && asset.compressible() && asset.gzip() == null) {
+            try {
+                compressor.execute(() -> compress(asset));
+            } catch (RejectedExecutionException e) {
+                // Served uncompressed; retried when the entry is next loaded
+                compressionDropped.increment();
+            }
+        }
+    }
+
+    private void compress(Asset asset) {
+        try {
+            Files.createDirectories(encodedDir);
+            Path target = encodedDir.resolve(asset.name() + ".gz");
+            Path temp = Files.createTempFile(encodedDir, asset.name(), ".tmp");
+            try (InputStream in = Files.newInputStream(asset.identity().path());
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                in.transferTo(out);
+            }
+            long length = Files.size(temp);
+            if (length >= asset.identity().length() * 9 / 10) {
+                // Not worth a Content-Encoding; keep serving the original
+                Files.deleteIfExists(temp);
+                return;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Variant gzip = new Variant(target, length, GZIP, "\"" + asset.identity().etag().replace("\"", "") + "-" + GZIP + "\"");
+            assets.computeIfPresent(asset.name(), (name, current) -> current.withGzip(gzip));
+            compressed.increment();
+        } catch (IOException e) {
+            logger.warn("Failed to precompress {}: {}", asset.name(), e.getMessage());
+        }
+    }
+
+    static boolean isCompressible(String contentType) {
+        String type = contentType.toLowerCase(Locale.ROOT);
+        int params = type.indexOf(';');
+        if (params >= 0) {
+            type = type.substring(0, params).trim();
+        }
+        return type.startsWith("text/") || type.endsWith("+json") || type.endsWith("+xml")
+                || COMPRESSIBLE_TYPES.contains(type);
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compressor.shutdownNow();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("assets", assets.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("notFound", notFound.sum());
+        stats.put("compressed", compressed.sum());
+        stats.put("compressionDropped", compressionDropped.sum());
+        stats.put("servedGzip", servedGzip.sum());
+        stats.put("servedBrotli", servedBrotli.sum());
+        stats.put("bytesSaved", bytesSaved.sum());
+        return stats;
+    }
+
+    /**
+     * One stored upload and its encoded variants.
+     */
+    public record Asset(String name, String fingerprint, String contentType, boolean compressible,
+                        Variant identity, Variant gzip, Variant brotli) {
+
+        public String url() {
+            return URL_PREFIX + fingerprint + "/" + name;
+        }
+
+        /**
+         * Whether responses differ by Accept-Encoding (and so need "Vary").
+         */
+        public boolean encoded() {
+            return gzip != null || brotli != null;
+        }
+
+        Asset withGzip(Variant variant) {
+            return new Asset(name, fingerprint, contentType, compressible, identity, variant, brotli);
+        }
+    }
+
+    /**
+     * One representation of an asset: the file to send, its length, its Content-Encoding
+     * (null for the original) and its strong ETag.
+     */
+    public record Variant(Path path, long length, String encoding, String etag) {
+
+        /**
+         * The file as a response body, with the length already known so sending it does not
+         * stat the file again.
+         */
+        public Resource resource() {
+            return new FileSystemResource(path) {
+                @Override
+                public long contentLength() {
+                    return length;
+                }
+            };
+        }
+    }
+}
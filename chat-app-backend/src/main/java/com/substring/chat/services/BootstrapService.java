@@ -0,0 +1,187 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Mailbox;
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.Room;
+import com.substring.chat.entities.RoomMembership;
+import com.substring.chat.entities.User;
+import com.substring.chat.repositories.UserRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Everything the client needs to draw its room list, in one request: the user's rooms, and
+ * for each the latest message, the unread count and how many people are in it now, plus
+ * profiles for every sender shown.
+ *
+ * <p>One read of the user_room index gets the user's rooms; the per-room latest-message
+ * reads then run in parallel on virtual threads, capped at chat.sync.parallelism, alongside
+ * the mailbox read for unread counts; one $in query fetches the profiles. Presence comes from the
+ * in-memory session registry. So the critical path is three round-trips deep whatever the
+ * room count, where the old client did 1 + 2 per room + 1 per sender one after another.
+ */
+@Service
+public class BootstrapService {
+
+    private final RoomMembershipService roomMembershipService;
+    private final OfflineMailboxService offlineMailboxService;
+    private final MessageHistoryService messageHistoryService;
+    private final RoomCache roomCache;
+    private final UserRepository userRepository;
+    private final UserSessionRegistry userSessionRegistry;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public BootstrapService(RoomMembershipService roomMembershipService,
+                            OfflineMailboxService offlineMailboxService,
+                            MessageHistoryService messageHistoryService,
+                            RoomCache roomCache,
+                            UserRepository userRepository,
+                            UserSessionRegistry userSessionRegistry,
+                            @Value("${chat.sync.parallelism:16}") int parallelism) {
+        this.roomMembershipService = roomMembershipService;
+        this.offlineMailboxService = offlineMailboxService;
+        this.messageHistoryService = messageHistoryService;
+        this.roomCache = roomCache;
+        this.userRepository = userRepository;
+        this.userSessionRegistry = userSessionRegistry;
+        this.permits = new Semaphore(parallelism);
+    }
+
+    public Map<String, Object> bootstrap(String username) {
+        long start = System.nanoTime();
+        CompletableFuture<Mailbox> mailboxFuture =
+                CompletableFuture.supplyAsync(() -> offlineMailboxService.peek(username), executor);
+        List<String> roomIds = roomIds(username);
+
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>(roomIds.size());
+        for (String roomId : roomIds) {
+            futures.add(CompletableFuture.supplyAsync(() -> withPermit(() -> loadRoom(roomId)), executor));
+        }
+        Mailbox mailbox = mailboxFuture.join();
+
+        List<String> topics = roomIds.stream().map(MessageIngestionPipeline::roomTopic).toList();
+        Map<String, Integer> presence = userSessionRegistry.subscriberCounts(topics);
+
+        List<Map<String, Object>> rooms = new ArrayList<>();
+        Set<String> usernames = new LinkedHashSet<>();
+        usernames.add(username);
+        for (CompletableFuture<Map<String, Object>> future : futures) {
+            Map<String, Object> room = future.join();
+            if (room == null) {
+                continue; // deleted since the user joined
+            }
+            String roomId = (String) room.get("roomId");
+            room.put("unreadCount", unreadCount(mailbox, roomId));
+            room.put("onlineCount", presence.getOrDefault(MessageIngestionPipeline.roomTopic(roomId), 0));
+            if (room.get("latestMessage") instanceof Message latest && latest.getSender() != null) {
+                usernames.add(latest.getSender());
+            }
+            rooms.add(room);
+        }
+
+        Map<String, Object> users = new LinkedHashMap<>();
+        for (User user : userRepository.findByUsernameIn(usernames)) {
+            users.put(user.getUsername(), profile(user));
+        }
+
+        Map<String, Object> directMessages = new LinkedHashMap<>();
+        directMessages.put("unreadCount", mailbox != null ? mailbox.getDirectCount() : 0);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("username", username);
+        result.put("rooms", rooms);
+        result.put("users", users);
+        result.put("directMessages", directMessages);
+        result.put("serverTime", LocalDateTime.now().format(MessageIngestionPipeline.TIMESTAMP_FORMAT));
+        record(System.nanoTime() - start);
+        return result;
+    }
+
+    private List<String> roomIds(String username) {
+        return roomMembershipService.roomsOf(username).stream().map(RoomMembership::getRoomId).toList();
+    }
+
+    private Map<String, Object> loadRoom(String roomId) {
+        Room room = roomCache.get(roomId);
+        if (room == null) {
+            return null;
+        }
+        List<Message> latest = messageHistoryService.page(roomId, null, 1);
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("roomId", room.getRoomId());
+        entry.put("roomName", room.getRoomName());
+        entry.put("createdBy", room.getCreatedBy());
+        entry.put("latestMessage", latest.isEmpty() ? null : latest.get(latest.size() - 1));
+        return entry;
+    }
+
+    private <T> T withPermit(Supplier<T> task) {
+        permits.acquireUninterruptibly();
+        try {
+            return task.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static long unreadCount(Mailbox mailbox, String roomId) {
+        if (mailbox == null || mailbox.getRooms() == null) {
+            return 0;
+        }
+        for (Mailbox.RoomPointers pointers : mailbox.getRooms().values()) {
+            if (roomId.equals(pointers.getRoomId())) {
+                return pointers.getCount();
+            }
+        }
+        return 0;
+    }
+
+    private static Map<String, Object> profile(User user) {
+        Map<String, Object> profile = new LinkedHashMap<>();
+        profile.put("username", user.getUsername());
+        profile.put("fullName", user.getFullName());
+        return profile;
+    }
+
+    private void record(long nanos) {
+        requests.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public Map<String, Object> getStats() {
+        long count = requests.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", count);
+        stats.put("avgMillis", count == 0 ? 0 : totalNanos.sum() / count / 1_000_000.0);
+        stats.put("maxMillis", maxNanos.get() / 1_000_000.0);
+        stats.put("availablePermits", permits.availablePermits());
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+}
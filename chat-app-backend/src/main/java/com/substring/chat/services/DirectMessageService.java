@@ -0,0 +1,210 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.DirectConversation;
+import com.substring.chat.entities.DirectMessage;
+import com.substring.chat.repositories.DirectConversationRepository;
+import com.substring.chat.repositories.DirectMessageRepository;
+import com.substring.chat.repositories.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 1:1 messages. Each message is stored once in direct_messages, the pair's
+ * {@link DirectConversation} summary is upserted, and the message is pushed to
+ * /user/queue/dm on every session of both participants (so the sender's other devices stay
+ * in sync too). Nothing is broadcast on a topic and no room is created per pair.
+ */
+@Service
+public class DirectMessageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectMessageService.class);
+
+    public static final String DM_DESTINATION = "/queue/dm";
+    private static final int PREVIEW_LENGTH = 120;
+
+    private final DirectMessageRepository directMessageRepository;
+    private final DirectConversationRepository directConversationRepository;
+    private final UserRepository userRepository;
+    private final MongoTemplate mongoTemplate;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final IdGenerator idGenerator;
+    private final UserSessionRegistry userSessionRegistry;
+    private final OfflineMailboxService offlineMailboxService;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder deliveredOnline = new LongAdder();
+    private final LongAdder recipientOffline = new LongAdder();
+    private final LongAdder sendNanos = new LongAdder();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+
+    public DirectMessageService(DirectMessageRepository directMessageRepository,
+                                DirectConversationRepository directConversationRepository,
+                                UserRepository userRepository,
+                                MongoTemplate mongoTemplate,
+                                SimpMessagingTemplate messagingTemplate,
+                                IdGenerator idGenerator,
+                                UserSessionRegistry userSessionRegistry,
+                                OfflineMailboxService offlineMailboxService) {
+        this.directMessageRepository = directMessageRepository;
+        this.directConversationRepository = directConversationRepository;
+        this.userRepository = userRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.messagingTemplate = messagingTemplate;
+        this.idGenerator = idGenerator;
+        this.userSessionRegistry = userSessionRegistry;
+        this.offlineMailboxService = offlineMailboxService;
+    }
+
+    /**
+     * Same id for (a, b) and (b, a). The lower name is length-prefixed because usernames are
+     * free-form and may themselves contain the separator.
+     */
+    public static String conversationId(String first, String second) {
+        String low = first.compareTo(second) <= 0 ? first : second;
+        String high = low == first ? second : first;
+        return low.length() + ":" + low + ":" + high;
+    }
+
+    /**
+     * Stores and delivers a message. A retry carrying an already-used client message id is not
+     * stored again; the original is returned and re-delivered to the sender only.
+     */
+    public DirectMessage send(String sender, String recipient, String content, String clientMessageId) {
+        if (sender == null || sender.isBlank()) {
+            throw new IllegalArgumentException("Sender is required");
+        }
+        if (recipient == null || recipient.isBlank()) {
+            throw new IllegalArgumentException("Recipient is required");
+        }
+        if (content == null || content.trim().isEmpty()) {
+            throw new IllegalArgumentException("Message content is required");
+        }
+        String to = recipient.trim();
+        if (!userRepository.existsByUsername(to)) {
+            throw new IllegalArgumentException("User not found: " + to);
+        }
+
+        long start = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        DirectMessage message = new DirectMessage();
+        message.setId(idGenerator.nextIdString());
+        message.setConversationId(conversationId(sender, to));
+        message.setSender(sender);
+        message.setRecipient(to);
+        message.setContent(content);
+        message.setTimeStamp(now.format(MessageIngestionPipeline.TIMESTAMP_FORMAT));
+        message.setCreatedAt(now);
+        message.setClientMessageId(clientMessageId == null || clientMessageId.isBlank() ? null : clientMessageId);
+
+        try {
+            directMessageRepository.insert(message);
+        } catch (DuplicateKeyException e) {
+            DirectMessage original = directMessageRepository.findByConversationIdAndSenderAndClientMessageId(
+                    message.getConversationId(), sender, message.getClientMessageId());
+            if (original == null) {
+                throw e;
+            }
+            duplicates.increment();
+            deliver(sender, original);
+            return original;
+        }
+        touchConversation(message, sender, to, now);
+
+        deliver(to, message);
+        if (!to.equals(sender)) {
+            deliver(sender, message);
+        }
+        sent.increment();
+        long nanos = System.nanoTime() - start;
+        sendNanos.add(nanos);
+        maxSendNanos.accumulateAndGet(nanos, Math::max);
+        return message;
+    }
+
+    private void touchConversation(DirectMessage message, String sender, String recipient, LocalDateTime now) {
+        String preview = message.getContent().length() > PREVIEW_LENGTH
+                ? message.getContent().substring(0, PREVIEW_LENGTH)
+                : message.getContent();
+        List<String> participants = sender.compareTo(recipient) <= 0 ? List.of(sender, recipient) : List.of(recipient, sender);
+        Update update = new Update()
+                .setOnInsert("participants", participants)
+                .set("lastMessageId", message.getId())
+                .set("lastSender", sender)
+                .set("lastMessagePreview", preview)
+                .set("lastMessageAt", now)
+                .inc("messageCount", 1);
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(message.getConversationId())), update, DirectConversation.class);
+    }
+
+    private void deliver(String username, DirectMessage message) {
+        if (!userSessionRegistry.isOnline(username)) {
+            // No sessions to resolve /user/queue/dm to; the mailbox tells them on next connect
+            if (username.equals(message.getRecipient())) {
+                recipientOffline.increment();
+                offlineMailboxService.recordDirectMessage(username, message.getSender());
+            }
+            return;
+        }
+        try {
+            messagingTemplate.convertAndSendToUser(username, DM_DESTINATION, message);
+            if (username.equals(message.getRecipient())) {
+                deliveredOnline.increment();
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to deliver direct message {} to {}: {}", message.getId(), username, e.getMessage());
+        }
+    }
+
+    /**
+     * Up to {@code limit} messages between two users with an id below {@code beforeId} (or the
+     * newest if null), oldest first.
+     */
+    public List<DirectMessage> history(String user, String other, String beforeId, int limit) {
+        String conversationId = conversationId(user, other);
+        PageRequest page = PageRequest.of(0, limit);
+        List<DirectMessage> newestFirst = beforeId == null
+                ? directMessageRepository.findByConversationIdOrderByIdDesc(conversationId, page)
+                : directMessageRepository.findByConversationIdAndIdLessThanOrderByIdDesc(conversationId, beforeId, page);
+        List<DirectMessage> messages = new ArrayList<>(newestFirst);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * A user's conversations, most recently active first.
+     */
+    public List<DirectConversation> recentConversations(String user, int limit) {
+        return directConversationRepository.findByParticipantsOrderByLastMessageAtDesc(user, PageRequest.of(0, limit));
+    }
+
+    public Map<String, Object> getStats() {
+        long count = sent.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sent", count);
+        stats.put("duplicatesDropped", duplicates.sum());
+        stats.put("deliveredOnline", deliveredOnline.sum());
+        stats.put("recipientOffline", recipientOffline.sum());
+        stats.put("avgSendMicros", count == 0 ? 0 : sendNanos.sum() / count / 1000);
+        stats.put("maxSendMicros", maxSendNanos.get() / 1000);
+        stats.put("sessions", userSessionRegistry.getStats());
+        return stats;
+    }
+}
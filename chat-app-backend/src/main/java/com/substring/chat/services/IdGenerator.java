@@ -0,0 +1,33 @@
+package com.substring.chat.services;
+
+/**
+ * Source of unique, roughly time-ordered ids for rooms, messages and stored files.
+ */
+public interface IdGenerator {
+
+    long nextId();
+
+    /**
+     * The next id rendered as fixed-width Crockford base32, so string order matches numeric order.
+     */
+    default String nextIdString() {
+        return Base32.encode(nextId());
+    }
+
+    final class Base32 {
+        private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+        // 64 bits need 13 five-bit digits
+        private static final int WIDTH = 13;
+
+        private Base32() {}
+
+        public static String encode(long value) {
+            char[] out = new char[WIDTH];
+            for (int i = WIDTH - 1; i >= 0; i--) {
+                out[i] = ALPHABET[(int) (value & 31)];
+                value >>>= 5;
+            }
+            return new String(out);
+        }
+    }
+}
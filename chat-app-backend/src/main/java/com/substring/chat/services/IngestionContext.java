@@ -0,0 +1,50 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State carried through one run of the ingestion pipeline.
+ */
+public class IngestionContext {
+
+    private final String source;
+    private Message message;
+    private String rejectReason;
+    private Map<String, Object> attributes;
+
+    public IngestionContext(Message message, String source) {
+        this.message = message;
+        this.source = source;
+    }
+
+    public void reject(String reason) {
+        if (rejectReason == null) {
+            rejectReason = reason;
+        }
+    }
+
+    public boolean isRejected() {
+        return rejectReason != null;
+    }
+
+    public String getRejectReason() { return rejectReason; }
+
+    public String getSource() { return source; }
+
+    public Message getMessage() { return message; }
+    public void setMessage(Message message) { this.message = message; }
+
+    public Object getAttribute(String name) {
+        return attributes != null ? attributes.get(name) : null;
+    }
+
+    public void setAttribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        attributes.put(name, value);
+    }
+}
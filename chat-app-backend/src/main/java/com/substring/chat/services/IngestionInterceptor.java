@@ -0,0 +1,14 @@
+package com.substring.chat.services;
+
+/**
+ * Hook into the message ingestion pipeline. Implementations are picked up as Spring beans
+ * (ordered by @Order) and called around every stage; call {@link IngestionContext#reject(String)}
+ * to stop a message from going any further. Once the message is persisted, exceptions thrown by
+ * a hook are logged and the message is still broadcast.
+ */
+public interface IngestionInterceptor {
+
+    default void beforeStage(IngestionStage stage, IngestionContext context) {}
+
+    default void afterStage(IngestionStage stage, IngestionContext context) {}
+}
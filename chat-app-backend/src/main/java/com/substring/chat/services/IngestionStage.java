@@ -0,0 +1,12 @@
+package com.substring.chat.services;
+
+/**
+ * Stages every inbound chat message passes through, in order.
+ */
+public enum IngestionStage {
+    VALIDATE,
+    ENRICH,
+    SEQUENCE,
+    PERSIST,
+    FAN_OUT
+}
@@ -7,20 +7,30 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
+    private static final List<GrantedAuthority> ADMIN = List.of(new SimpleGrantedAuthority("ROLE_ADMIN"));
+
     private final JwtUtil jwtUtil;
+    private final Set<String> adminUsernames;
 
-    public JwtAuthenticationFilter(JwtUtil jwtUtil) {
+    /**
+     * @param adminUsernames users granted ROLE_ADMIN, which /api/v1/admin/** requires
+     */
+    public JwtAuthenticationFilter(JwtUtil jwtUtil, Set<String> adminUsernames) {
         this.jwtUtil = jwtUtil;
+        this.adminUsernames = adminUsernames;
     }
 
     @Override
@@ -38,7 +48,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
                     if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
                         UsernamePasswordAuthenticationToken authToken =
-                                new UsernamePasswordAuthenticationToken(username, null, new ArrayList<>());
+                                new UsernamePasswordAuthenticationToken(username, null,
+                                        adminUsernames.contains(username) ? ADMIN : List.of());
 
                         authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                         SecurityContextHolder.getContext().setAuthentication(authToken);
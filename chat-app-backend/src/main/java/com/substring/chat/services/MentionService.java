@@ -0,0 +1,316 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Mention;
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.RoomMembership;
+import com.substring.chat.repositories.RoomMembershipRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @mentions in room messages. Each room gets an {@link AhoCorasick} automaton over
+ * "@" + every member's username, built on first use and dropped whenever the membership
+ * changes (RoomMembershipService calls {@link #invalidate}), so finding the mentions in a
+ * message is one pass over its content whatever the size of the room. Messages without an
+ * '@' never touch the automaton.
+ *
+ * <p>Mentioned members get a small notification on /user/queue/mentions straight away,
+ * whether or not they follow the room. The mentions themselves are queued and written in
+ * batches every chat.mentions.flush-interval-ms to the mentions collection, which is indexed
+ * by (username, messageId) for the "mentions of me" list; a mention shows up there after the
+ * next flush.
+ */
+@Service
+@Order(30)
+public class MentionService implements IngestionInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MentionService.class);
+
+    public static final String MENTIONS_DESTINATION = "/queue/mentions";
+    public static final String MENTION_TYPE = "mention";
+
+    private final RoomMembershipRepository membershipRepository;
+    private final MongoTemplate mongoTemplate;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int maxPerMessage;
+    private final int excerptLength;
+    private final int maxCachedRooms;
+    private final long ttlMillis;
+    private final int flushBatchSize;
+    private final int maxPageSize;
+
+    private final ConcurrentHashMap<String, RoomMentions> matchers = new ConcurrentHashMap<>();
+    // Per room, bumped on every invalidation; a build only installs its result if its room did not change meanwhile
+    private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Mention> pending = new ConcurrentLinkedQueue<>();
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder mentions = new LongAdder();
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+    private final LongAdder buildNanos = new LongAdder();
+    private final LongAdder scanNanos = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    public MentionService(RoomMembershipRepository membershipRepository,
+                          MongoTemplate mongoTemplate,
+                          SimpMessagingTemplate messagingTemplate,
+                          @Value("${chat.mentions.max-per-message:20}") int maxPerMessage,
+                          @Value("${chat.mentions.excerpt-length:140}") int excerptLength,
+                          @Value("${chat.mentions.max-cached-rooms:1000}") int maxCachedRooms,
+                          @Value("${chat.mentions.matcher-ttl-ms:600000}") long ttlMillis,
+                          @Value("${chat.mentions.flush-batch-size:1000}") int flushBatchSize,
+                          @Value("${chat.mentions.max-page-size:50}") int maxPageSize) {
+        this.membershipRepository = membershipRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.messagingTemplate = messagingTemplate;
+        this.maxPerMessage = maxPerMessage;
+        this.excerptLength = excerptLength;
+        this.maxCachedRooms = maxCachedRooms;
+        this.ttlMillis = ttlMillis;
+        this.flushBatchSize = flushBatchSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Override
+    public void afterStage(IngestionStage stage, IngestionContext context) {
+        Message message = context.getMessage();
+        if (stage != IngestionStage.FAN_OUT || MessageIngestionPipeline.SYSTEM_SENDER.equals(message.getSender())) {
+            return;
+        }
+        String content = message.getContent();
+        if (content == null || content.indexOf('@') < 0) {
+            return;
+        }
+        scanned.increment();
+        long start = System.nanoTime();
+        List<String> mentioned = matcher(message.getRoomId()).find(content, message.getSender(), maxPerMessage);
+        scanNanos.add(System.nanoTime() - start);
+        for (String username : mentioned) {
+            Mention mention = toMention(message, username);
+            pending.add(mention);
+            notify(mention);
+        }
+        mentions.add(mentioned.size());
+    }
+
+    private RoomMentions matcher(String roomId) {
+        long now = System.currentTimeMillis();
+        RoomMentions cached = matchers.get(roomId);
+        if (cached != null && cached.expiresAt > now) {
+            return cached;
+        }
+        long seen = versions.getOrDefault(roomId, 0L);
+        long start = System.nanoTime();
+        List<String> usernames = new ArrayList<>();
+        for (RoomMembership membership : membershipRepository.findUsernamesByRoomId(roomId)) {
+            usernames.add(membership.getUsername());
+        }
+        RoomMentions built = RoomMentions.of(usernames, now + ttlMillis);
+        builds.increment();
+        buildNanos.add(System.nanoTime() - start);
+        if (matchers.size() >= maxCachedRooms && !matchers.containsKey(roomId)) {
+            evict(now);
+        }
+        // Re-checked under the entry's lock, which invalidate() also bumps the version under
+        matchers.compute(roomId, (id, current) -> versions.getOrDefault(id, 0L) == seen ? built : current);
+        return built;
+    }
+
+    /**
+     * Drops a room's automaton; the next message with an '@' rebuilds it.
+     */
+    public void invalidate(String roomId) {
+        matchers.compute(roomId, (id, current) -> {
+            versions.merge(id, 1L, Long::sum);
+            return null;
+        });
+    }
+
+    private void evict(long now) {
+        matchers.values().removeIf(matcher -> matcher.expiresAt <= now);
+        var keys = matchers.keySet().iterator();
+        while (matchers.size() >= maxCachedRooms && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private Mention toMention(Message message, String username) {
+        Mention mention = new Mention();
+        mention.setId(Mention.idFor(message.getId(), username));
+        mention.setUsername(username);
+        mention.setRoomId(message.getRoomId());
+        mention.setMessageId(message.getId());
+        mention.setSequence(message.getSequence());
+        mention.setThreadRootId(message.getThreadRootId());
+        mention.setSender(message.getSender());
+        String content = message.getContent();
+        mention.setExcerpt(content.length() <= excerptLength ? content : content.substring(0, excerptLength) + "…");
+        mention.setCreatedAt(message.getCreatedAt());
+        return mention;
+    }
+
+    private void notify(Mention mention) {
+        Map<String, Object> notification = new LinkedHashMap<>();
+        notification.put("type", MENTION_TYPE);
+        notification.put("roomId", mention.getRoomId());
+        notification.put("messageId", mention.getMessageId());
+        notification.put("sequence", mention.getSequence());
+        notification.put("threadRootId", mention.getThreadRootId());
+        notification.put("sender", mention.getSender());
+        notification.put("excerpt", mention.getExcerpt());
+        notification.put("createdAt", mention.getCreatedAt());
+        try {
+            messagingTemplate.convertAndSendToUser(mention.getUsername(), MENTIONS_DESTINATION, notification);
+            notifications.increment();
+        } catch (Exception e) {
+            // Still recorded; the user finds it in their mentions list
+            logger.warn("Failed to notify {} of a mention in room {}: {}", mention.getUsername(), mention.getRoomId(), e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.mentions.flush-interval-ms:500}")
+    public void flush() {
+        while (!pending.isEmpty()) {
+            List<Mention> batch = new ArrayList<>();
+            Mention next;
+            while (batch.size() < flushBatchSize && (next = pending.poll()) != null) {
+                batch.add(next);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                // Unordered: a duplicate from a replayed message fails alone, the rest still go in
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Mention.class).insert(batch).execute();
+                written.add(batch.size());
+            } catch (BulkOperationException e) {
+                written.add(e.getResult().getInsertedCount());
+            } catch (Exception e) {
+                // Put them back; they go out with the next flush
+                flushFailures.increment();
+                pending.addAll(batch);
+                logger.warn("Failed to write {} mentions: {}", batch.size(), e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * One page of a user's mentions, newest first, optionally in one room only. Pass the
+     * last messageId back as {@code before} for the next page.
+     */
+    public Map<String, Object> mentionsOf(String username, String roomId, String before, Integer limit) {
+        int size = limit == null || limit <= 0 ? maxPageSize : Math.min(limit, maxPageSize);
+        Criteria criteria = Criteria.where("username").is(username);
+        if (roomId != null && !roomId.isBlank()) {
+            criteria = criteria.and("roomId").is(roomId);
+        }
+        if (before != null && !before.isBlank()) {
+            criteria = criteria.and("messageId").lt(before);
+        }
+        Query query = Query.query(criteria).with(Sort.by(Sort.Direction.DESC, "messageId")).limit(size);
+        List<Mention> page = mongoTemplate.find(query, Mention.class);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mentions", page);
+        result.put("next", page.size() == size ? page.get(page.size() - 1).getMessageId() : null);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("scanned", scanned.sum());
+        stats.put("mentions", mentions.sum());
+        stats.put("notifications", notifications.sum());
+        stats.put("pending", pending.size());
+        stats.put("written", written.sum());
+        stats.put("flushFailures", flushFailures.sum());
+        stats.put("cachedRooms", matchers.size());
+        stats.put("automatonStates", matchers.values().stream().mapToLong(m -> m.automaton.stateCount()).sum());
+        stats.put("builds", builds.sum());
+        long builtCount = builds.sum();
+        stats.put("avgBuildMicros", builtCount == 0 ? 0 : buildNanos.sum() / builtCount / 1000);
+        long scannedCount = scanned.sum();
+        stats.put("avgScanNanos", scannedCount == 0 ? 0 : scanNanos.sum() / scannedCount);
+        return stats;
+    }
+
+    /**
+     * The mention automaton of one room. A match only counts on word boundaries, so
+     * "bob@alice.com" and "@alicesmith" do not mention alice, and when one member's name is a
+     * prefix of another's ("@al" and "@al.ex") the longest match at a position wins.
+     */
+    static final class RoomMentions {
+        final AhoCorasick automaton;
+        final long expiresAt;
+
+        private RoomMentions(AhoCorasick automaton, long expiresAt) {
+            this.automaton = automaton;
+            this.expiresAt = expiresAt;
+        }
+
+        static RoomMentions of(Collection<String> usernames, long expiresAt) {
+            List<String> patterns = new ArrayList<>(usernames.size());
+            for (String username : usernames) {
+                patterns.add("@" + username);
+            }
+            return new RoomMentions(AhoCorasick.build(patterns, true), expiresAt);
+        }
+
+        /**
+         * The members mentioned in {@code content}, in order of first mention, without
+         * duplicates or {@code sender}, at most {@code max}.
+         */
+        List<String> find(String content, String sender, int max) {
+            List<String> found = new ArrayList<>(2);
+            // Start of the last accepted match, and whether it added a name not seen before
+            int[] lastStart = {-1};
+            boolean[] lastAdded = {false};
+            automaton.scan(content, (pattern, start, end) -> {
+                if (start > 0 && isWordChar(content.charAt(start - 1))
+                        || end < content.length() && isWordChar(content.charAt(end))) {
+                    return true;
+                }
+                // Matches arrive by end position, so a longer match at the same start replaces the shorter
+                if (start == lastStart[0] && lastAdded[0]) {
+                    found.remove(found.size() - 1);
+                }
+                String username = automaton.pattern(pattern).substring(1);
+                lastStart[0] = start;
+                lastAdded[0] = !found.contains(username);
+                if (lastAdded[0]) {
+                    found.add(username);
+                }
+                return true;
+            });
+            found.remove(sender);
+            return found.size() > max ? found.subList(0, max) : found;
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+    }
+}
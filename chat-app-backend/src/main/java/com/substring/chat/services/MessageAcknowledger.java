@@ -0,0 +1,98 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tells the sender of a STOMP message what became of it, on their private
+ * /user/queue/acks destination: the server id and sequence it was stored under (also for a
+ * dropped retry, which gets the original's), or why it was rejected. Only sends that carry a
+ * client message id are acknowledged, since there is nothing for the client to match otherwise.
+ */
+@Service
+public class MessageAcknowledger {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageAcknowledger.class);
+
+    public static final String ACK_DESTINATION = "/queue/acks";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final LongAdder sent = new LongAdder();
+
+    public MessageAcknowledger(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    public void acknowledge(Principal principal, String clientMessageId, IngestionContext result, Throwable error) {
+        if (principal == null || clientMessageId == null || clientMessageId.isBlank()) {
+            return;
+        }
+        send(principal, clientMessageId, toAck(clientMessageId, result, error));
+    }
+
+    /**
+     * For send paths that fail before reaching the ingestion pipeline.
+     */
+    public void reject(Principal principal, String clientMessageId, String reason) {
+        if (principal == null || clientMessageId == null || clientMessageId.isBlank()) {
+            return;
+        }
+        Map<String, Object> ack = new LinkedHashMap<>();
+        ack.put("clientMessageId", clientMessageId);
+        ack.put("status", "rejected");
+        ack.put("reason", reason);
+        send(principal, clientMessageId, ack);
+    }
+
+    private void send(Principal principal, String clientMessageId, Map<String, Object> ack) {
+        try {
+            messagingTemplate.convertAndSendToUser(principal.getName(), ACK_DESTINATION, ack);
+            sent.increment();
+        } catch (Exception e) {
+            logger.warn("Failed to acknowledge message {} to {}: {}", clientMessageId, principal.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Ack body: status is one of accepted, duplicate, rejected or failed.
+     */
+    public static Map<String, Object> toAck(String clientMessageId, IngestionContext result, Throwable error) {
+        Map<String, Object> ack = new LinkedHashMap<>();
+        ack.put("clientMessageId", clientMessageId);
+        if (error != null) {
+            ack.put("status", "failed");
+            ack.put("reason", error.getMessage());
+            return ack;
+        }
+        Message message = result.getMessage();
+        Object original = result.getAttribute(MessageDeduplicator.DUPLICATE_OF);
+        if (original instanceof MessageDeduplicator.Ack duplicateOf) {
+            ack.put("status", "duplicate");
+            ack.put("messageId", duplicateOf.messageId());
+            ack.put("sequence", duplicateOf.sequence());
+        } else if (result.isRejected()) {
+            ack.put("status", "rejected");
+            ack.put("reason", result.getRejectReason());
+        } else {
+            ack.put("status", "accepted");
+            ack.put("messageId", message.getId());
+            ack.put("sequence", message.getSequence());
+        }
+        if (message != null) {
+            ack.put("roomId", message.getRoomId());
+        }
+        return ack;
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+}
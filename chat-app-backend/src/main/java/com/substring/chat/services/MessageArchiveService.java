@@ -0,0 +1,253 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves messages older than chat.archive.max-age out of the hot store into per-room
+ * {@link RoomArchive} segment files. Messages are only deleted from Mongo after the block
+ * holding them has been forced to disk; if a run dies in between, the next run finds them
+ * again, skips re-archiving by sequence and just finishes the delete.
+ */
+@Service
+public class MessageArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiveService.class);
+
+    private final MessageStore messageStore;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path archiveDir;
+    private final Duration maxAge;
+    private final int batchSize;
+    private final int messagesPerBlock;
+    private final long maxSegmentBytes;
+
+    private final ConcurrentHashMap<String, RoomArchive> archives = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final LongAdder archivedMessages = new LongAdder();
+    private final LongAdder hotBytesRemoved = new LongAdder();
+    private final LongAdder archiveBytesWritten = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final AtomicLong maxReadNanos = new AtomicLong();
+    private volatile String lastRun;
+
+    public MessageArchiveService(MessageStore messageStore,
+                                 ObjectMapper objectMapper,
+                                 @Value("${chat.archive.enabled:false}") boolean enabled,
+                                 @Value("${chat.archive.dir:./archive}") String archiveDir,
+                                 @Value("${chat.archive.max-age-days:90}") long maxAgeDays,
+                                 @Value("${chat.archive.batch-size:1000}") int batchSize,
+                                 @Value("${chat.archive.messages-per-block:256}") int messagesPerBlock,
+                                 @Value("${chat.archive.max-segment-bytes:67108864}") long maxSegmentBytes) {
+        this.messageStore = messageStore;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.archiveDir = Paths.get(archiveDir).toAbsolutePath().normalize();
+        this.maxAge = Duration.ofDays(maxAgeDays);
+        this.batchSize = batchSize;
+        this.messagesPerBlock = messagesPerBlock;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.archive.interval-ms:3600000}", initialDelayString = "${chat.archive.initial-delay-ms:60000}")
+    public void scheduledRun() {
+        if (enabled) {
+            archiveOldMessages();
+        }
+    }
+
+    /**
+     * Archives everything older than the configured age. Returns what this run moved; a run
+     * that is already in progress makes this a no-op.
+     */
+    public Map<String, Object> archiveOldMessages() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!running.compareAndSet(false, true)) {
+            result.put("skipped", "Archive run already in progress");
+            return result;
+        }
+        long start = System.currentTimeMillis();
+        long messages = 0;
+        long removedBytes = 0;
+        long writtenBytes = 0;
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minus(maxAge);
+            for (String roomId : messageStore.findRoomsWithMessagesBefore(cutoff)) {
+                RoomArchive archive = archive(roomId);
+                while (true) {
+                    List<Message> batch = messageStore.findByRoomBefore(roomId, cutoff, batchSize);
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    List<Message> fresh = new ArrayList<>();
+                    List<String> ids = new ArrayList<>();
+                    for (Message message : batch) {
+                        if (message.getSequence() > archive.getLastSequence()) {
+                            fresh.add(message);
+                            // JSON size is a close stand-in for the BSON document size
+                            removedBytes += objectMapper.writeValueAsBytes(message).length;
+                        }
+                        ids.add(message.getId());
+                    }
+                    writtenBytes += archive.append(fresh);
+                    messageStore.deleteByIds(ids);
+                    messages += fresh.size();
+                    if (batch.size() < batchSize) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Archive run failed: {}", e.getMessage());
+            result.put("error", e.getMessage());
+        } finally {
+            running.set(false);
+        }
+
+        archivedMessages.add(messages);
+        hotBytesRemoved.add(removedBytes);
+        archiveBytesWritten.add(writtenBytes);
+        lastRun = LocalDateTime.now().toString();
+        if (messages > 0) {
+            logger.info("Archived {} messages ({} bytes hot, {} bytes archived)", messages, removedBytes, writtenBytes);
+        }
+
+        result.put("messages", messages);
+        result.put("hotBytesRemoved", removedBytes);
+        result.put("archiveBytesWritten", writtenBytes);
+        result.put("bytesReclaimed", removedBytes - writtenBytes);
+        result.put("millis", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Archived messages of a room below {@code beforeSequence}, oldest first; empty if the
+     * room has never been archived.
+     */
+    public List<Message> readBefore(String roomId, Long beforeSequence, int limit) {
+        RoomArchive archive = existingArchive(roomId);
+        if (archive == null || limit <= 0) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        try {
+            return archive.readBefore(beforeSequence, limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive for room " + roomId, e);
+        } finally {
+            recordRead(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Up to {@code limit} archived messages of a room from {@code fromSequence} on, oldest first.
+     */
+    public List<Message> readFrom(String roomId, long fromSequence, int limit) {
+        RoomArchive archive = existingArchive(roomId);
+        if (archive == null || limit <= 0) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        try {
+            return archive.readFrom(fromSequence, limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive for room " + roomId, e);
+        } finally {
+            recordRead(System.nanoTime() - start);
+        }
+    }
+
+    public List<Message> readAll(String roomId) {
+        RoomArchive archive = existingArchive(roomId);
+        if (archive == null) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        try {
+            return archive.readAll();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive for room " + roomId, e);
+        } finally {
+            recordRead(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Highest archived sequence of a room, or 0.
+     */
+    public long lastSequence(String roomId) {
+        RoomArchive archive = existingArchive(roomId);
+        return archive != null ? archive.getLastSequence() : 0L;
+    }
+
+    private void recordRead(long nanos) {
+        reads.increment();
+        readNanos.add(nanos);
+        maxReadNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private RoomArchive existingArchive(String roomId) {
+        RoomArchive archive = archives.get(roomId);
+        if (archive != null || !Files.isDirectory(roomDir(roomId))) {
+            return archive;
+        }
+        return archive(roomId);
+    }
+
+    private RoomArchive archive(String roomId) {
+        return archives.computeIfAbsent(roomId, id -> {
+            try {
+                return new RoomArchive(roomDir(id), objectMapper, messagesPerBlock, maxSegmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open archive for room " + id, e);
+            }
+        });
+    }
+
+    private Path roomDir(String roomId) {
+        // Same rule as search snapshots: never let a room id escape the archive directory
+        return archiveDir.resolve(roomId.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+
+    public Map<String, Object> getStats() {
+        long readCount = reads.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("openArchives", archives.size());
+        stats.put("archivedMessages", archivedMessages.sum());
+        stats.put("hotBytesRemoved", hotBytesRemoved.sum());
+        stats.put("archiveBytesWritten", archiveBytesWritten.sum());
+        stats.put("bytesReclaimed", hotBytesRemoved.sum() - archiveBytesWritten.sum());
+        stats.put("archiveBytesOnDisk", archives.values().stream().mapToLong(RoomArchive::getSizeBytes).sum());
+        stats.put("reads", readCount);
+        stats.put("avgReadMicros", readCount == 0 ? 0 : readNanos.sum() / readCount / 1000);
+        stats.put("maxReadMicros", maxReadNanos.get() / 1000);
+        stats.put("lastRun", lastRun);
+        return stats;
+    }
+}
@@ -0,0 +1,154 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops client retries before they are sequenced or stored. Every accepted message that
+ * carries a client message id is remembered per room for chat.dedupe.window-ms (at most
+ * chat.dedupe.max-per-room entries); a second message with the same sender and client id
+ * inside the window is rejected and the original server id and sequence are left on the
+ * context under {@link #DUPLICATE_OF} so the sender can still be acknowledged.
+ *
+ * <p>Messages of a room are ingested one at a time on its actor, so a retry can never race
+ * the original through the pipeline.
+ */
+@Component
+@Order(10)
+public class MessageDeduplicator implements IngestionInterceptor {
+
+    public static final String DUPLICATE_OF = "duplicateOf";
+    public static final String DUPLICATE_REASON = "Duplicate message";
+
+    private final long windowMillis;
+    private final int maxPerRoom;
+
+    private final ConcurrentHashMap<String, DedupeWindow> windows = new ConcurrentHashMap<>();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    public MessageDeduplicator(@Value("${chat.dedupe.window-ms:300000}") long windowMillis,
+                               @Value("${chat.dedupe.max-per-room:10000}") int maxPerRoom) {
+        this.windowMillis = windowMillis;
+        this.maxPerRoom = maxPerRoom;
+    }
+
+    /**
+     * Server-side identity of an accepted message, as acknowledged to its sender.
+     */
+    public record Ack(String messageId, long sequence) {}
+
+    @Override
+    public void afterStage(IngestionStage stage, IngestionContext context) {
+        String key = key(context.getMessage());
+        if (key == null) {
+            return;
+        }
+        String roomId = context.getMessage().getRoomId().trim();
+        long now = System.currentTimeMillis();
+        if (stage == IngestionStage.VALIDATE) {
+            DedupeWindow window = windows.get(roomId);
+            Ack original = window != null ? window.find(key, now) : null;
+            if (original != null) {
+                duplicates.increment();
+                context.setAttribute(DUPLICATE_OF, original);
+                context.reject(DUPLICATE_REASON);
+            }
+        } else if (stage == IngestionStage.PERSIST) {
+            // Only remembered once stored (or journaled), so a failed send can be retried
+            Ack ack = new Ack(context.getMessage().getId(), context.getMessage().getSequence());
+            // compute() rather than computeIfAbsent() so the sweep can't drop the window mid-put
+            windows.compute(roomId, (id, window) -> {
+                DedupeWindow target = window != null ? window : new DedupeWindow(windowMillis, maxPerRoom);
+                target.put(key, ack, now);
+                return target;
+            });
+            recorded.increment();
+        }
+    }
+
+    private static String key(Message message) {
+        if (message == null || message.getClientMessageId() == null || message.getClientMessageId().isBlank()
+                || message.getRoomId() == null || message.getSender() == null) {
+            return null;
+        }
+        return message.getSender().trim() + '\u0000' + message.getClientMessageId();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.dedupe.sweep-interval-ms:60000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (String roomId : windows.keySet()) {
+            windows.computeIfPresent(roomId, (id, window) -> window.expire(now) ? null : window);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMillis", windowMillis);
+        stats.put("maxPerRoom", maxPerRoom);
+        stats.put("rooms", windows.size());
+        stats.put("entries", windows.values().stream().mapToInt(DedupeWindow::size).sum());
+        stats.put("recorded", recorded.sum());
+        stats.put("duplicatesDropped", duplicates.sum());
+        return stats;
+    }
+
+    /**
+     * Insertion-ordered map of recent keys for one room. Entries are appended in time order,
+     * so expiring and trimming to size only ever touch the head.
+     */
+    static final class DedupeWindow {
+
+        private final long windowMillis;
+        private final int maxEntries;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+        private record Entry(Ack ack, long recordedAt) {}
+
+        DedupeWindow(long windowMillis, int maxEntries) {
+            this.windowMillis = windowMillis;
+            this.maxEntries = maxEntries;
+        }
+
+        synchronized Ack find(String key, long now) {
+            expire(now);
+            Entry entry = entries.get(key);
+            return entry != null ? entry.ack() : null;
+        }
+
+        synchronized void put(String key, Ack ack, long now) {
+            expire(now);
+            entries.put(key, new Entry(ack, now));
+            Iterator<Entry> oldest = entries.values().iterator();
+            while (entries.size() > maxEntries) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+
+        /**
+         * Drops entries older than the window; returns true if nothing is left.
+         */
+        synchronized boolean expire(long now) {
+            Iterator<Entry> oldest = entries.values().iterator();
+            while (oldest.hasNext() && now - oldest.next().recordedAt() > windowMillis) {
+                oldest.remove();
+            }
+            return entries.isEmpty();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
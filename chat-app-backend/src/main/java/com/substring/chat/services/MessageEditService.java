@@ -0,0 +1,285 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.Room;
+import com.substring.chat.repositories.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Edits and deletes of stored messages. Both are partial updates of the changed fields
+ * only, run on the room's actor so they are ordered with new messages, and are announced on
+ * the room topic as a small patch ({@code type: "patch"}, the message id and the changed
+ * fields) that clients merge into the copy they already have. Patches to replies go to the
+ * thread topic instead, like the replies themselves.
+ *
+ * <p>A delete leaves a tombstone: the message keeps its id and sequence so history and
+ * pagination stay stable, and its content and attachment links are cleared at once. The
+ * stored file and its variants are removed later by {@link #purgeTombstones}, in batches,
+ * once the tombstone is older than chat.messages.purge-after-ms.
+ *
+ * <p>Only messages still in the hot store can be changed; archived history is read-only.
+ */
+@Service
+public class MessageEditService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageEditService.class);
+
+    public static final String PATCH_TYPE = "patch";
+
+    private final MessageStore messageStore;
+    private final RoomActorExecutor roomActorExecutor;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MessageSearchService messageSearchService;
+    private final RoomCache roomCache;
+    private final ModerationService moderationService;
+    private final AttachmentService attachmentService;
+    private final Path uploadDir;
+    private final Duration purgeAfter;
+    private final int purgeBatchSize;
+
+    private final AtomicBoolean purging = new AtomicBoolean();
+    private final LongAdder edits = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder purged = new LongAdder();
+    private final LongAdder filesRemoved = new LongAdder();
+
+    public MessageEditService(MessageStore messageStore,
+                              RoomActorExecutor roomActorExecutor,
+                              SimpMessagingTemplate messagingTemplate,
+                              MessageSearchService messageSearchService,
+                              RoomCache roomCache,
+                              ModerationService moderationService,
+                              AttachmentService attachmentService,
+                              @Value("${file.upload.dir:./uploads}") String uploadDir,
+                              @Value("${chat.messages.purge-after-ms:3600000}") long purgeAfterMillis,
+                              @Value("${chat.messages.purge-batch-size:500}") int purgeBatchSize) {
+        this.messageStore = messageStore;
+        this.roomActorExecutor = roomActorExecutor;
+        this.messagingTemplate = messagingTemplate;
+        this.messageSearchService = messageSearchService;
+        this.roomCache = roomCache;
+        this.moderationService = moderationService;
+        this.attachmentService = attachmentService;
+        this.uploadDir = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.purgeAfter = Duration.ofMillis(purgeAfterMillis);
+        this.purgeBatchSize = purgeBatchSize;
+    }
+
+    /**
+     * Replaces the content of one of the user's own messages.
+     */
+    public Message edit(String roomId, String messageId, String username, String content) {
+        if (content == null || content.trim().isEmpty()) {
+            throw new IllegalArgumentException("Message content is required");
+        }
+        // Edits go through the same rules as new messages
+        ModerationService.Verdict verdict = moderationService.check(content);
+        if (verdict.reject()) {
+            throw new IllegalArgumentException(ModerationService.REJECT_REASON);
+        }
+        String moderated = verdict.content() != null ? verdict.content() : content;
+        return onRoomActor(roomId, () -> {
+            Message message = load(roomId, messageId);
+            if (!message.getSender().equals(username)) {
+                throw new AccessDeniedException("Only the sender can edit a message");
+            }
+            if (message.isDeleted()) {
+                throw new IllegalArgumentException("Message was deleted");
+            }
+            if (moderated.equals(message.getContent())) {
+                return message;
+            }
+
+            Map<String, Object> changes = new LinkedHashMap<>();
+            changes.put("content", moderated);
+            changes.put("editedAt", LocalDateTime.now());
+            if (verdict.flag()) {
+                changes.put("flagged", true);
+            }
+            messageStore.update(message, changes);
+            message.setContent(moderated);
+            message.setEditedAt((LocalDateTime) changes.get("editedAt"));
+            message.setFlagged(message.isFlagged() || verdict.flag());
+
+            messageSearchService.reindex(message);
+            broadcast(message, changes);
+            edits.increment();
+            return message;
+        });
+    }
+
+    /**
+     * Turns a message into a tombstone. Allowed for the sender and the room's creator;
+     * deleting a tombstone again is a no-op.
+     */
+    public Message delete(String roomId, String messageId, String username) {
+        return onRoomActor(roomId, () -> {
+            Message message = load(roomId, messageId);
+            Room room = roomCache.get(roomId);
+            boolean owner = room != null && username.equals(room.getCreatedBy());
+            if (!message.getSender().equals(username) && !owner) {
+                throw new AccessDeniedException("Only the sender or the room owner can delete a message");
+            }
+            if (message.isDeleted()) {
+                return message;
+            }
+
+            // HashMap: the cleared fields are sent as explicit nulls
+            Map<String, Object> changes = new HashMap<>();
+            changes.put("deleted", true);
+            changes.put("deletedAt", LocalDateTime.now());
+            changes.put("content", null);
+            changes.put("fileUrl", null);
+            changes.put("variants", null);
+            changes.put("attachment", null);
+            messageStore.update(message, changes);
+            message.setDeleted(true);
+            message.setDeletedAt((LocalDateTime) changes.get("deletedAt"));
+            message.setContent(null);
+            message.setFileUrl(null);
+            message.setVariants(null);
+            message.setAttachment(null);
+
+            messageSearchService.reindex(message);
+            broadcast(message, changes);
+            deletes.increment();
+            return message;
+        });
+    }
+
+    private Message load(String roomId, String messageId) {
+        List<Message> found = messageStore.findAllById(List.of(messageId));
+        if (found.isEmpty() || !roomId.equals(found.get(0).getRoomId())) {
+            throw new IllegalArgumentException("Message not found");
+        }
+        return found.get(0);
+    }
+
+    private void broadcast(Message message, Map<String, Object> changes) {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        patch.put("type", PATCH_TYPE);
+        patch.put("id", message.getId());
+        patch.put("roomId", message.getRoomId());
+        patch.put("sequence", message.getSequence());
+        patch.put("changes", changes);
+        try {
+            messagingTemplate.convertAndSend(MessageIngestionPipeline.topicFor(message), patch);
+        } catch (Exception e) {
+            // Stored already; clients see the change the next time they load history
+            logger.warn("Failed to broadcast patch for message {}: {}", message.getId(), e.getMessage());
+        }
+    }
+
+    private <T> T onRoomActor(String roomId, Supplier<T> task) {
+        try {
+            return roomActorExecutor.submit(roomId, task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.messages.purge-interval-ms:600000}", initialDelayString = "${chat.messages.purge-initial-delay-ms:60000}")
+    public void scheduledPurge() {
+        purgeTombstones();
+    }
+
+    /**
+     * Removes the stored files behind tombstones older than the purge delay and clears their
+     * remaining attachment fields, a batch at a time until none are left.
+     */
+    public Map<String, Object> purgeTombstones() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!purging.compareAndSet(false, true)) {
+            result.put("skipped", "Purge already in progress");
+            return result;
+        }
+        long messages = 0;
+        long files = 0;
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minus(purgeAfter);
+            List<Message> batch;
+            do {
+                batch = messageStore.findTombstones(cutoff, purgeBatchSize);
+                for (Message message : batch) {
+                    files += removeFiles(message);
+                    Map<String, Object> changes = new HashMap<>();
+                    changes.put("fileName", null);
+                    changes.put("originalFileName", null);
+                    changes.put("fileType", null);
+                    changes.put("fileSize", null);
+                    changes.put("purgedAt", LocalDateTime.now());
+                    messageStore.update(message, changes);
+                    messages++;
+                }
+            } while (batch.size() == purgeBatchSize);
+        } finally {
+            purging.set(false);
+            purged.add(messages);
+            filesRemoved.add(files);
+        }
+        if (messages > 0) {
+            logger.info("Purged {} deleted messages, removed {} files", messages, files);
+        }
+        result.put("purged", messages);
+        result.put("filesRemoved", files);
+        return result;
+    }
+
+    private int removeFiles(Message message) {
+        if (message.getFileName() == null) {
+            return 0;
+        }
+        int removed = 0;
+        List<String> names = List.of(message.getFileName(),
+                ThumbnailService.variantFileName(message.getFileName(), "thumb"),
+                ThumbnailService.variantFileName(message.getFileName(), "preview"));
+        for (String name : names) {
+            Path file = uploadDir.resolve(name).normalize();
+            if (!file.startsWith(uploadDir)) {
+                continue;
+            }
+            attachmentService.forget(name);
+            try {
+                if (Files.deleteIfExists(file)) {
+                    removed++;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to remove {} of deleted message {}: {}", file, message.getId(), e.getMessage());
+            }
+        }
+        return removed;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("edits", edits.sum());
+        stats.put("deletes", deletes.sum());
+        stats.put("purged", purged.sum());
+        stats.put("filesRemoved", filesRemoved.sum());
+        return stats;
+    }
+}
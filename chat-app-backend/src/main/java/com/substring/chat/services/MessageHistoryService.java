@@ -0,0 +1,133 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads room history across tiers: the hot store first, then the cold archive once a page
+ * reaches past the oldest message still in Mongo.
+ */
+@Service
+public class MessageHistoryService {
+
+    private final MessageStore messageStore;
+    private final MessageArchiveService messageArchiveService;
+
+    public MessageHistoryService(MessageStore messageStore, MessageArchiveService messageArchiveService) {
+        this.messageStore = messageStore;
+        this.messageArchiveService = messageArchiveService;
+    }
+
+    /**
+     * Up to {@code limit} messages older than {@code beforeSequence} (the newest if null),
+     * oldest first. Pass the first message's sequence back as {@code beforeSequence} for the
+     * next page; a short page means the start of the room has been reached.
+     */
+    public List<Message> page(String roomId, Long beforeSequence, int limit) {
+        List<Message> hot = messageStore.findPage(roomId, beforeSequence, limit);
+        if (hot.size() >= limit) {
+            return hot;
+        }
+        Long coldBefore = hot.isEmpty() ? beforeSequence : hot.get(0).getSequence();
+        List<Message> page = new ArrayList<>(messageArchiveService.readBefore(roomId, coldBefore, limit - hot.size()));
+        page.addAll(hot);
+        return page;
+    }
+
+    /**
+     * The history of a room created in [{@code from}, {@code to}) (either bound may be null),
+     * oldest first, read lazily {@code batchSize} messages at a time: the archive, then the hot
+     * store past it. The stream holds a cursor and must be closed.
+     */
+    public Stream<Message> stream(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) {
+        Stream<Message> archived = MessageStore.paged(last -> messageArchiveService.readFrom(roomId, last + 1, batchSize))
+                .filter(message -> message.getCreatedAt() != null
+                        && (from == null || !message.getCreatedAt().isBefore(from))
+                        && (to == null || message.getCreatedAt().isBefore(to)));
+        // The hot cursor opens only once the archive is exhausted. Not flatMap: pulled through
+        // an iterator, flatMap buffers the whole inner stream
+        AtomicReference<Stream<Message>> cursor = new AtomicReference<>();
+        Spliterator<Message> lazyHot = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED) {
+            private Spliterator<Message> delegate;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Message> action) {
+                if (delegate == null) {
+                    cursor.set(messageStore.streamByRoom(roomId, from, to, batchSize));
+                    delegate = cursor.get().spliterator();
+                }
+                return delegate.tryAdvance(action);
+            }
+        };
+        Stream<Message> hot = StreamSupport.stream(lazyHot, false).onClose(() -> {
+            if (cursor.get() != null) {
+                cursor.get().close();
+            }
+        });
+        // Skips what an archive run moved while we were reading, by sequence
+        AtomicLong lastSequence = new AtomicLong();
+        return Stream.concat(archived, hot)
+                .filter(message -> message.getSequence() != null && message.getSequence() > lastSequence.get())
+                .peek(message -> lastSequence.set(message.getSequence()));
+    }
+
+    /**
+     * Messages of a room by id, wherever they live now: the hot store, or for ids it no longer
+     * has, the archive at the sequence given for the id (0 if unknown, which skips the archive).
+     * Ids found in neither tier are left out of the returned map.
+     */
+    public Map<String, Message> findByIds(String roomId, Map<String, Long> sequencesById) {
+        Map<String, Message> found = new HashMap<>();
+        messageStore.findAllById(sequencesById.keySet()).forEach(m -> found.put(m.getId(), m));
+        sequencesById.forEach((id, sequence) -> {
+            if (!found.containsKey(id) && sequence != null && sequence > 0) {
+                for (Message message : messageArchiveService.readFrom(roomId, sequence, 1)) {
+                    if (id.equals(message.getId())) {
+                        found.put(id, message);
+                    }
+                }
+            }
+        });
+        return found;
+    }
+
+    /**
+     * The whole history of a room, oldest first.
+     */
+    public List<Message> all(String roomId) {
+        List<Message> archived = messageArchiveService.readAll(roomId);
+        List<Message> hot = messageStore.findByRoom(roomId);
+        if (archived.isEmpty()) {
+            return hot;
+        }
+        // An interrupted archive run can leave a message in both tiers until the next run
+        Set<String> seen = new HashSet<>();
+        List<Message> messages = new ArrayList<>(archived.size() + hot.size());
+        for (Message message : archived) {
+            seen.add(message.getId());
+            messages.add(message);
+        }
+        for (Message message : hot) {
+            if (!seen.contains(message.getId())) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,286 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.payload.MessageRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.security.Principal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single path every chat message takes on its way in, whether it came from a STOMP send,
+ * a join/leave notice or a file upload: validate -> enrich -> sequence -> persist -> fan-out.
+ */
+@Service
+public class MessageIngestionPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageIngestionPipeline.class);
+
+    public static final String SYSTEM_SENDER = "System";
+    public static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final RoomSequencer roomSequencer;
+    private final RoomActorExecutor roomActorExecutor;
+    private final IdGenerator idGenerator;
+    private final SpillJournal spillJournal;
+    private final ObjectProvider<IngestionInterceptor> interceptorProvider;
+
+    private final Map<IngestionStage, StageMetrics> metrics = new EnumMap<>(IngestionStage.class);
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder fanOutFailures = new LongAdder();
+    private final LongAdder interceptorFailures = new LongAdder();
+
+    private volatile List<IngestionInterceptor> interceptors;
+
+    public MessageIngestionPipeline(SimpMessagingTemplate messagingTemplate,
+                                    RoomSequencer roomSequencer,
+                                    RoomActorExecutor roomActorExecutor,
+                                    IdGenerator idGenerator,
+                                    SpillJournal spillJournal,
+                                    ObjectProvider<IngestionInterceptor> interceptorProvider) {
+        this.messagingTemplate = messagingTemplate;
+        this.roomSequencer = roomSequencer;
+        this.roomActorExecutor = roomActorExecutor;
+        this.idGenerator = idGenerator;
+        this.spillJournal = spillJournal;
+        this.interceptorProvider = interceptorProvider;
+        for (IngestionStage stage : IngestionStage.values()) {
+            metrics.put(stage, new StageMetrics());
+        }
+    }
+
+    public static String roomTopic(String roomId) {
+        return "/topic/room/" + roomId;
+    }
+
+    /**
+     * Where replies of one thread are broadcast; only clients that opened the thread subscribe.
+     */
+    public static String threadTopic(String roomId, String rootId) {
+        return roomTopic(roomId) + "/thread/" + rootId;
+    }
+
+    /**
+     * The topic a message is broadcast on: its thread's for replies, the room's otherwise.
+     */
+    public static String topicFor(Message message) {
+        return message.getThreadRootId() != null
+                ? threadTopic(message.getRoomId(), message.getThreadRootId())
+                : roomTopic(message.getRoomId());
+    }
+
+    /**
+     * Builds a chat message from a client request. The sender is always the authenticated
+     * principal, never the payload's sender field; without a principal the message is
+     * rejected for having no sender.
+     */
+    public Message fromRequest(MessageRequest request, String roomId, Principal principal) {
+        Message message = new Message();
+        message.setSender(principal != null ? principal.getName() : null);
+        message.setContent(request.getContent());
+        message.setRoomId(roomId != null ? roomId : request.getRoomId());
+        message.setAttachment(request.getAttachment());
+        message.setClientMessageId(request.getClientMessageId());
+        message.setParentId(request.getParentId());
+        return message;
+    }
+
+    public Message systemMessage(String roomId, String content) {
+        Message message = new Message();
+        message.setSender(SYSTEM_SENDER);
+        message.setContent(content);
+        message.setRoomId(roomId);
+        return message;
+    }
+
+    /**
+     * Queues the message on its room's actor so sequencing, persistence and broadcast happen
+     * in the same order for everyone in the room. Messages without a room are rejected inline.
+     */
+    public CompletableFuture<IngestionContext> ingestAsync(Message message, String source) {
+        String roomId = message != null ? message.getRoomId() : null;
+        if (isBlank(roomId)) {
+            return CompletableFuture.completedFuture(ingest(message, source));
+        }
+        return roomActorExecutor.submit(roomId.trim(), () -> ingest(message, source));
+    }
+
+    /**
+     * Runs a message through every stage on the calling thread. Returns the context so callers can inspect the
+     * persisted message or the reason it was rejected.
+     */
+    public IngestionContext ingest(Message message, String source) {
+        IngestionContext context = new IngestionContext(message, source);
+
+        for (IngestionStage stage : IngestionStage.values()) {
+            long start = System.nanoTime();
+            try {
+                runInterceptors(stage, context, true);
+                if (!context.isRejected()) {
+                    runStage(stage, context);
+                }
+                if (!context.isRejected()) {
+                    runInterceptors(stage, context, false);
+                }
+            } finally {
+                metrics.get(stage).record(System.nanoTime() - start);
+            }
+
+            if (context.isRejected()) {
+                rejected.increment();
+                logger.debug("Message from {} rejected at {}: {}", source, stage, context.getRejectReason());
+                return context;
+            }
+        }
+
+        accepted.increment();
+        return context;
+    }
+
+    private void runStage(IngestionStage stage, IngestionContext context) {
+        switch (stage) {
+            case VALIDATE -> validate(context);
+            case ENRICH -> enrich(context);
+            case SEQUENCE -> sequence(context);
+            case PERSIST -> persist(context);
+            case FAN_OUT -> fanOut(context);
+        }
+    }
+
+    private void validate(IngestionContext context) {
+        Message message = context.getMessage();
+        if (message == null) {
+            context.reject("Message is required");
+        } else if (isBlank(message.getRoomId())) {
+            context.reject("Room ID is required");
+        } else if (isBlank(message.getSender())) {
+            context.reject("Sender is required");
+        } else if (isBlank(message.getContent()) && message.getFileUrl() == null && message.getAttachment() == null) {
+            context.reject("Message content is required");
+        }
+    }
+
+    private void enrich(IngestionContext context) {
+        Message message = context.getMessage();
+        LocalDateTime now = LocalDateTime.now();
+        message.setRoomId(message.getRoomId().trim());
+        message.setSender(message.getSender().trim());
+        // The server clock is authoritative so history sorts the same for every client
+        message.setTimeStamp(now.format(TIMESTAMP_FORMAT));
+        message.setCreatedAt(now);
+        if (message.getMessageType() == null) {
+            message.setMessageType("text");
+        }
+    }
+
+    private void sequence(IngestionContext context) {
+        Message message = context.getMessage();
+        if (message.getId() == null) {
+            // Time-ordered ids keep inserts at the right edge of the _id index
+            message.setId(idGenerator.nextIdString());
+        }
+        message.setSequence(roomSequencer.next(message.getRoomId()));
+    }
+
+    private void persist(IngestionContext context) {
+        // Falls back to the local journal when the store is down, so the message is still broadcast
+        if (spillJournal.persist(context.getMessage())) {
+            context.setAttribute("journaled", true);
+        }
+    }
+
+    private void fanOut(IngestionContext context) {
+        Message message = context.getMessage();
+        try {
+            messagingTemplate.convertAndSend(topicFor(message), message);
+        } catch (Exception e) {
+            // The message is already persisted; clients will pick it up from history
+            fanOutFailures.increment();
+            logger.warn("Failed to broadcast message {} to room {}: {}", message.getId(), message.getRoomId(), e.getMessage());
+        }
+    }
+
+    private void runInterceptors(IngestionStage stage, IngestionContext context, boolean before) {
+        // Once the message is persisted it must still reach FAN_OUT, whatever a hook does
+        boolean persisted = stage == IngestionStage.FAN_OUT || (stage == IngestionStage.PERSIST && !before);
+        for (IngestionInterceptor interceptor : interceptors()) {
+            try {
+                if (before) {
+                    interceptor.beforeStage(stage, context);
+                } else {
+                    interceptor.afterStage(stage, context);
+                }
+            } catch (RuntimeException e) {
+                if (!persisted) {
+                    throw e;
+                }
+                interceptorFailures.increment();
+                logger.warn("Interceptor {} failed {} {} for message {}: {}", interceptor.getClass().getSimpleName(),
+                        before ? "before" : "after", stage, context.getMessage().getId(), e.getMessage(), e);
+            }
+            if (context.isRejected()) {
+                return;
+            }
+        }
+    }
+
+    private List<IngestionInterceptor> interceptors() {
+        List<IngestionInterceptor> current = interceptors;
+        if (current == null) {
+            current = interceptorProvider.orderedStream().toList();
+            interceptors = current;
+        }
+        return current;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("accepted", accepted.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("fanOutFailures", fanOutFailures.sum());
+        stats.put("interceptorFailures", interceptorFailures.sum());
+        Map<String, Object> stages = new LinkedHashMap<>();
+        metrics.forEach((stage, stageMetrics) -> stages.put(stage.name(), stageMetrics.toMap()));
+        stats.put("stages", stages);
+        return stats;
+    }
+
+    private static class StageMetrics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            long calls = count.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", calls);
+            map.put("avgMicros", calls == 0 ? 0 : totalNanos.sum() / calls / 1000);
+            map.put("maxMicros", maxNanos.get() / 1000);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.MessageReactions;
+import com.substring.chat.repositories.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Emoji reactions. A click never writes to Mongo directly: each message's reactions live in
+ * memory as per-emoji reactor sets and {@link LongAdder} counters, so concurrent clicks on a
+ * popular message don't contend on one counter. Two timers then do the I/O:
+ * <ul>
+ *   <li>every chat.reactions.flush-interval-ms, the net change per message since the last
+ *       flush ($inc of each count, $addToSet/$pullAll of the reactors) goes out as one
+ *       unordered bulk write;</li>
+ *   <li>every chat.reactions.broadcast-interval-ms, each room with changes gets one
+ *       {@code type: "reactions"} event carrying the current counts of every changed message.</li>
+ * </ul>
+ * A user reacting and un-reacting within one interval nets out and writes nothing. Changes
+ * not yet flushed are lost if the process dies, at most one flush interval's worth.
+ */
+@Service
+public class MessageReactionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageReactionService.class);
+
+    public static final String REACTIONS_TYPE = "reactions";
+
+    private final MongoTemplate mongoTemplate;
+    private final MessageStore messageStore;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final int maxEmojisPerMessage;
+    private final long idleMillis;
+
+    private final ConcurrentHashMap<String, MessageState> states = new ConcurrentHashMap<>();
+    private final Set<String> unflushed = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Set<String>> unbroadcast = new ConcurrentHashMap<>();
+
+    private final LongAdder toggles = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder documentsWritten = new LongAdder();
+    private final LongAdder broadcasts = new LongAdder();
+
+    public MessageReactionService(MongoTemplate mongoTemplate,
+                                  MessageStore messageStore,
+                                  SimpMessagingTemplate messagingTemplate,
+                                  @Value("${chat.reactions.max-emojis-per-message:20}") int maxEmojisPerMessage,
+                                  @Value("${chat.reactions.idle-eviction-ms:600000}") long idleMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageStore = messageStore;
+        this.messagingTemplate = messagingTemplate;
+        this.maxEmojisPerMessage = maxEmojisPerMessage;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Adds the user's reaction, or removes it if they already reacted with that emoji.
+     * Returns the message's counts after the change.
+     */
+    public Map<String, Long> toggle(String roomId, String messageId, String username, String emoji) {
+        if (!isValidEmoji(emoji)) {
+            throw new IllegalArgumentException("Invalid reaction");
+        }
+        MessageState state = states.computeIfAbsent(messageId, id -> load(roomId, id));
+        if (!state.roomId.equals(roomId)) {
+            throw new IllegalArgumentException("Message not found");
+        }
+        if (!state.toggle(emoji, username, maxEmojisPerMessage)) {
+            throw new IllegalArgumentException("Too many different reactions on this message");
+        }
+        toggles.increment();
+        unflushed.add(messageId);
+        // compute() so a broadcast that just took the room's set can't miss this id
+        unbroadcast.compute(roomId, (id, ids) -> {
+            Set<String> target = ids != null ? ids : new HashSet<>();
+            target.add(messageId);
+            return target;
+        });
+        return state.counts();
+    }
+
+    private MessageState load(String roomId, String messageId) {
+        List<Message> found = messageStore.findAllById(List.of(messageId));
+        if (found.isEmpty() || !roomId.equals(found.get(0).getRoomId()) || found.get(0).isDeleted()) {
+            throw new IllegalArgumentException("Message not found");
+        }
+        return new MessageState(roomId, mongoTemplate.findById(messageId, MessageReactions.class));
+    }
+
+    // Emojis become field names in message_reactions, so keep them short and free of '.' and '$'
+    static boolean isValidEmoji(String emoji) {
+        if (emoji == null || emoji.isEmpty() || emoji.length() > 16) {
+            return false;
+        }
+        for (int i = 0; i < emoji.length(); i++) {
+            char c = emoji.charAt(i);
+            if (c == '.' || c == '$' || Character.isWhitespace(c) || Character.isISOControl(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills in {@link Message#getReactions()} for a page of messages: in-memory state where
+     * there is some (it includes unflushed clicks), one $in query for the rest.
+     */
+    public void attach(Collection<Message> messages) {
+        List<String> missing = new ArrayList<>();
+        for (Message message : messages) {
+            MessageState state = message.getId() != null ? states.get(message.getId()) : null;
+            if (state != null) {
+                message.setReactions(state.counts());
+            } else if (message.getId() != null) {
+                missing.add(message.getId());
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, Long>> stored = new HashMap<>();
+        for (MessageReactions reactions : mongoTemplate.find(Query.query(Criteria.where("_id").in(missing)), MessageReactions.class)) {
+            stored.put(reactions.getId(), withoutZeros(reactions.getCounts()));
+        }
+        for (Message message : messages) {
+            if (message.getReactions() == null && stored.containsKey(message.getId())) {
+                message.setReactions(stored.get(message.getId()));
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.reactions.flush-interval-ms:1000}")
+    public void flush() {
+        List<Drained> drained = new ArrayList<>();
+        for (String messageId : unflushed) {
+            unflushed.remove(messageId);
+            MessageState state = states.get(messageId);
+            if (state != null) {
+                Drained changes = state.drain(messageId);
+                if (!changes.isEmpty()) {
+                    drained.add(changes);
+                }
+            }
+        }
+        if (!drained.isEmpty()) {
+            try {
+                write(drained);
+                flushes.increment();
+                documentsWritten.add(drained.size());
+            } catch (Exception e) {
+                logger.warn("Failed to flush reactions for {} messages, retrying next time: {}", drained.size(), e.getMessage());
+                for (Drained changes : drained) {
+                    MessageState state = states.get(changes.messageId);
+                    if (state != null) {
+                        state.restore(changes);
+                        unflushed.add(changes.messageId);
+                    }
+                }
+            }
+        }
+        evictIdle();
+    }
+
+    private void write(List<Drained> drained) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MessageReactions.class);
+        LocalDateTime now = LocalDateTime.now();
+        for (Drained changes : drained) {
+            Query byId = Query.query(Criteria.where("_id").is(changes.messageId));
+            Update update = new Update()
+                    .setOnInsert("roomId", changes.roomId)
+                    .set("updatedAt", now);
+            changes.deltas.forEach((emoji, delta) -> update.inc("counts." + emoji, delta));
+            changes.added.forEach((emoji, users) -> update.addToSet("reactors." + emoji).each(users.toArray()));
+            // An emoji can't take $addToSet and $pullAll in one update; removals for those go second
+            Update removals = new Update();
+            changes.removed.forEach((emoji, users) -> {
+                if (changes.added.containsKey(emoji)) {
+                    removals.pullAll("reactors." + emoji, users.toArray());
+                } else {
+                    update.pullAll("reactors." + emoji, users.toArray());
+                }
+            });
+            bulk.upsert(byId, update);
+            if (!removals.getUpdateObject().isEmpty()) {
+                bulk.updateOne(byId, removals);
+            }
+        }
+        bulk.execute();
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        // A click racing the eviction can land on the evicted state; it is re-loaded on the next one
+        states.entrySet().removeIf(entry -> entry.getValue().lastTouched < cutoff
+                && !unflushed.contains(entry.getKey()) && !entry.getValue().hasPending());
+    }
+
+    @Scheduled(fixedDelayString = "${chat.reactions.broadcast-interval-ms:250}")
+    public void broadcast() {
+        for (String roomId : unbroadcast.keySet()) {
+            Set<String> messageIds = unbroadcast.remove(roomId);
+            if (messageIds == null || messageIds.isEmpty()) {
+                continue;
+            }
+            List<Map<String, Object>> messages = new ArrayList<>(messageIds.size());
+            for (String messageId : messageIds) {
+                MessageState state = states.get(messageId);
+                if (state != null) {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("id", messageId);
+                    entry.put("reactions", state.counts());
+                    messages.add(entry);
+                }
+            }
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("type", REACTIONS_TYPE);
+            event.put("roomId", roomId);
+            event.put("messages", messages);
+            try {
+                messagingTemplate.convertAndSend(MessageIngestionPipeline.roomTopic(roomId), event);
+                broadcasts.increment();
+            } catch (Exception e) {
+                logger.warn("Failed to broadcast reactions to room {}: {}", roomId, e.getMessage());
+            }
+        }
+    }
+
+    private static Map<String, Long> withoutZeros(Map<String, Long> counts) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        if (counts != null) {
+            counts.forEach((emoji, count) -> {
+                if (count != null && count > 0) {
+                    result.put(emoji, count);
+                }
+            });
+        }
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("messagesInMemory", states.size());
+        stats.put("toggles", toggles.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("documentsWritten", documentsWritten.sum());
+        stats.put("broadcasts", broadcasts.sum());
+        stats.put("pendingMessages", unflushed.size());
+        return stats;
+    }
+
+    /**
+     * Live reactions of one message plus what has changed since the last flush.
+     */
+    static final class MessageState {
+        private static final char SEPARATOR = '\u0000';
+
+        final String roomId;
+        private final ConcurrentHashMap<String, Set<String>> reactors = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, LongAdder> deltas = new ConcurrentHashMap<>();
+        // "emoji\0user" -> true for a pending add, false for a pending remove
+        private final ConcurrentHashMap<String, Boolean> changes = new ConcurrentHashMap<>();
+        volatile long lastTouched = System.currentTimeMillis();
+
+        MessageState(String roomId, MessageReactions stored) {
+            this.roomId = roomId;
+            if (stored != null && stored.getReactors() != null) {
+                stored.getReactors().forEach((emoji, users) -> {
+                    if (users != null && !users.isEmpty()) {
+                        Set<String> set = ConcurrentHashMap.newKeySet();
+                        set.addAll(users);
+                        reactors.put(emoji, set);
+                        LongAdder count = new LongAdder();
+                        count.add(set.size());
+                        counts.put(emoji, count);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Returns false only if this would add a new emoji past the per-message limit.
+         */
+        boolean toggle(String emoji, String username, int maxEmojis) {
+            lastTouched = System.currentTimeMillis();
+            Set<String> users = reactors.get(emoji);
+            if (users == null) {
+                if (reactors.size() >= maxEmojis) {
+                    return false;
+                }
+                users = reactors.computeIfAbsent(emoji, e -> ConcurrentHashMap.newKeySet());
+            }
+            boolean added = users.add(username);
+            if (!added) {
+                users.remove(username);
+            }
+            long delta = added ? 1 : -1;
+            counts.computeIfAbsent(emoji, e -> new LongAdder()).add(delta);
+            deltas.computeIfAbsent(emoji, e -> new LongAdder()).add(delta);
+            // The opposite change pending for the same user cancels out instead of stacking
+            changes.merge(emoji + SEPARATOR + username, added, (pending, now) -> null);
+            return true;
+        }
+
+        Map<String, Long> counts() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            counts.forEach((emoji, count) -> {
+                long value = count.sum();
+                if (value > 0) {
+                    result.put(emoji, value);
+                }
+            });
+            return result;
+        }
+
+        boolean hasPending() {
+            return !changes.isEmpty() || deltas.values().stream().anyMatch(delta -> delta.sum() != 0);
+        }
+
+        Drained drain(String messageId) {
+            Drained drained = new Drained(messageId, roomId);
+            deltas.forEach((emoji, delta) -> {
+                long value = delta.sumThenReset();
+                if (value != 0) {
+                    drained.deltas.put(emoji, value);
+                }
+            });
+            for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+                if (changes.remove(change.getKey(), change.getValue())) {
+                    int split = change.getKey().indexOf(SEPARATOR);
+                    String emoji = change.getKey().substring(0, split);
+                    String username = change.getKey().substring(split + 1);
+                    (change.getValue() ? drained.added : drained.removed)
+                            .computeIfAbsent(emoji, e -> new ArrayList<>()).add(username);
+                }
+            }
+            return drained;
+        }
+
+        void restore(Drained drained) {
+            drained.deltas.forEach((emoji, delta) -> deltas.computeIfAbsent(emoji, e -> new LongAdder()).add(delta));
+            drained.added.forEach((emoji, users) -> users.forEach(user ->
+                    changes.merge(emoji + SEPARATOR + user, true, (pending, now) -> null)));
+            drained.removed.forEach((emoji, users) -> users.forEach(user ->
+                    changes.merge(emoji + SEPARATOR + user, false, (pending, now) -> null)));
+        }
+    }
+
+    /**
+     * One message's net change between two flushes.
+     */
+    static final class Drained {
+        final String messageId;
+        final String roomId;
+        final Map<String, Long> deltas = new LinkedHashMap<>();
+        final Map<String, List<String>> added = new LinkedHashMap<>();
+        final Map<String, List<String>> removed = new LinkedHashMap<>();
+
+        Drained(String messageId, String roomId) {
+            this.messageId = messageId;
+            this.roomId = roomId;
+        }
+
+        boolean isEmpty() {
+            return deltas.isEmpty() && added.isEmpty() && removed.isEmpty();
+        }
+    }
+}
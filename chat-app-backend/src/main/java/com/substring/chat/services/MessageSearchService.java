@@ -0,0 +1,331 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full-text search over room history. Each room has its own in-memory shard that is built
+ * lazily (from a snapshot on disk if there is one, then caught up from Mongo by sequence) and
+ * kept current by indexing messages as the ingestion pipeline persists them.
+ *
+ * <p>Shards load on a small background pool, never on a room's actor: messages persisted
+ * while a shard is loading are queued and applied once it is ready, and a failed load is
+ * retried the next time the room is touched.
+ */
+@Service
+@Order(100)
+public class MessageSearchService implements IngestionInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchService.class);
+
+    private final MessageStore messageStore;
+    private final MessageArchiveService messageArchiveService;
+    private final MessageHistoryService messageHistoryService;
+    private final Path snapshotDir;
+    private final int maxPageSize;
+    private final int loadBatchSize;
+    private final ExecutorService loader;
+    private final ConcurrentHashMap<String, LoadingShard> shards = new ConcurrentHashMap<>();
+
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder indexFailures = new LongAdder();
+
+    public MessageSearchService(MessageStore messageStore,
+                                MessageArchiveService messageArchiveService,
+                                MessageHistoryService messageHistoryService,
+                                @Value("${chat.search.snapshot-dir:./search-index}") String snapshotDir,
+                                @Value("${chat.search.max-page-size:100}") int maxPageSize,
+                                @Value("${chat.search.load-batch-size:500}") int loadBatchSize,
+                                @Value("${chat.search.loader-threads:2}") int loaderThreads) {
+        this.messageStore = messageStore;
+        this.messageArchiveService = messageArchiveService;
+        this.messageHistoryService = messageHistoryService;
+        this.snapshotDir = Paths.get(snapshotDir).toAbsolutePath().normalize();
+        this.maxPageSize = maxPageSize;
+        this.loadBatchSize = loadBatchSize;
+        this.loader = Executors.newFixedThreadPool(loaderThreads);
+    }
+
+    @Override
+    public void afterStage(IngestionStage stage, IngestionContext context) {
+        if (stage == IngestionStage.PERSIST) {
+            Message message = context.getMessage();
+            try {
+                // A loading shard may or may not read this message from history; add() skips it by sequence if so
+                shard(message.getRoomId()).apply(shard -> shard.add(message));
+            } catch (RuntimeException e) {
+                // The message is persisted; the index catches up the next time the shard is rebuilt
+                indexFailures.increment();
+                logger.warn("Failed to index message {} in room {}: {}", message.getId(), message.getRoomId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Brings a loaded (or loading) shard in line with an edited or deleted message. Shards that
+     * are not loaded yet will read the current version from the store when they are.
+     */
+    public void reindex(Message message) {
+        LoadingShard shard = shards.get(message.getRoomId());
+        if (shard != null) {
+            shard.apply(loaded -> loaded.replace(message));
+        }
+    }
+
+    public SearchResult search(String roomId, String query, int limit, String cursor) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        RoomSearchShard.SearchPage page = shard(roomId).await().search(query, pageSize, cursor);
+
+        // Hits can be old enough to have moved to the archive since they were indexed
+        Map<String, Long> sequences = new LinkedHashMap<>();
+        page.hits().forEach(hit -> sequences.put(hit.messageId(), hit.sequence()));
+        Map<String, Message> messages = messageHistoryService.findByIds(roomId, sequences);
+
+        List<Map<String, Object>> hits = new ArrayList<>();
+        for (RoomSearchShard.Hit hit : page.hits()) {
+            Message message = messages.get(hit.messageId());
+            if (message == null || message.isDeleted()) {
+                continue;
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("score", hit.score());
+            result.put("message", message);
+            hits.add(result);
+        }
+        return new SearchResult(hits, page.nextCursor());
+    }
+
+    /**
+     * Up to {@code limit} hits, best first, as a stream that runs the next page of the search
+     * only when the previous one has been consumed.
+     */
+    public Stream<Map<String, Object>> streamSearch(String roomId, String query, int limit) {
+        Iterator<Map<String, Object>> iterator = new Iterator<>() {
+            private Iterator<Map<String, Object>> page = Collections.emptyIterator();
+            private String cursor;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !done) {
+                    SearchResult result = search(roomId, query, maxPageSize, cursor);
+                    page = result.hits().iterator();
+                    cursor = result.nextCursor();
+                    done = cursor == null;
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false).limit(limit);
+    }
+
+    private LoadingShard shard(String roomId) {
+        LoadingShard shard = shards.get(roomId);
+        if (shard != null) {
+            return shard;
+        }
+        return shards.computeIfAbsent(roomId, id -> {
+            LoadingShard loading = new LoadingShard(id);
+            loader.execute(loading::load);
+            return loading;
+        });
+    }
+
+    private RoomSearchShard load(String roomId) {
+        RoomSearchShard shard = readSnapshot(roomId);
+        List<Message> history;
+        if (shard == null) {
+            shard = new RoomSearchShard(roomId);
+            // Rebuilding from scratch: archived history first, a batch at a time, then the hot store
+            try (Stream<Message> archived = MessageStore.paged(last -> messageArchiveService.readFrom(roomId, last + 1, loadBatchSize))) {
+                archived.forEach(shard::add);
+            }
+            history = messageStore.findByRoom(roomId);
+        } else {
+            history = messageStore.findByRoomAfterSequence(roomId, shard.getLastSequence());
+        }
+        for (Message message : history) {
+            shard.add(message);
+        }
+        logger.info("Search shard for room {} ready: {} documents, {} terms", roomId, shard.getDocCount(), shard.getTermCount());
+        return shard;
+    }
+
+    private RoomSearchShard readSnapshot(String roomId) {
+        Path file = snapshotFile(roomId);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            return RoomSearchShard.readSnapshot(in);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable search snapshot {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.search.snapshot-interval-ms:300000}")
+    public void writeSnapshots() {
+        for (RoomSearchShard shard : loadedShards()) {
+            if (shard.isDirty()) {
+                writeSnapshot(shard);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flush() {
+        loader.shutdownNow();
+        writeSnapshots();
+    }
+
+    private List<RoomSearchShard> loadedShards() {
+        List<RoomSearchShard> loaded = new ArrayList<>();
+        for (LoadingShard shard : shards.values()) {
+            if (shard.shard != null) {
+                loaded.add(shard.shard);
+            }
+        }
+        return loaded;
+    }
+
+    private void writeSnapshot(RoomSearchShard shard) {
+        try {
+            Files.createDirectories(snapshotDir);
+            Path target = snapshotFile(shard.getRoomId());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                shard.writeSnapshot(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to write search snapshot for room {}: {}", shard.getRoomId(), e.getMessage());
+        }
+    }
+
+    private Path snapshotFile(String roomId) {
+        // Room ids are generated, but never let one escape the snapshot directory
+        String safe = roomId.replaceAll("[^A-Za-z0-9_-]", "_");
+        return snapshotDir.resolve(safe + ".idx.gz");
+    }
+
+    public Map<String, Object> getStats() {
+        List<RoomSearchShard> loaded = loadedShards();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shards", loaded.size());
+        stats.put("loading", shards.size() - loaded.size());
+        stats.put("documents", loaded.stream().mapToLong(RoomSearchShard::getDocCount).sum());
+        stats.put("terms", loaded.stream().mapToLong(RoomSearchShard::getTermCount).sum());
+        stats.put("loadFailures", loadFailures.sum());
+        stats.put("indexFailures", indexFailures.sum());
+        return stats;
+    }
+
+    public record SearchResult(List<Map<String, Object>> hits, String nextCursor) {}
+
+    /**
+     * A room's shard while it loads in the background, and after. Changes made before it is
+     * ready are queued in arrival order and replayed onto the loaded shard before anyone sees it.
+     */
+    private final class LoadingShard {
+        private final String roomId;
+        private final CompletableFuture<RoomSearchShard> ready = new CompletableFuture<>();
+        private final List<Consumer<RoomSearchShard>> backlog = new ArrayList<>();
+        private volatile RoomSearchShard shard;
+
+        LoadingShard(String roomId) {
+            this.roomId = roomId;
+        }
+
+        void apply(Consumer<RoomSearchShard> change) {
+            RoomSearchShard loaded = shard;
+            if (loaded == null) {
+                synchronized (this) {
+                    loaded = shard;
+                    if (loaded == null) {
+                        if (!ready.isCompletedExceptionally()) {
+                            backlog.add(change);
+                        }
+                        return;
+                    }
+                }
+            }
+            change.accept(loaded);
+        }
+
+        RoomSearchShard await() {
+            try {
+                return ready.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        void load() {
+            try {
+                RoomSearchShard loaded = MessageSearchService.this.load(roomId);
+                synchronized (this) {
+                    backlog.forEach(change -> change.accept(loaded));
+                    backlog.clear();
+                    shard = loaded;
+                }
+                ready.complete(loaded);
+            } catch (RuntimeException e) {
+                loadFailures.increment();
+                logger.error("Failed to load search shard for room {}: {}", roomId, e.getMessage());
+                // Unpublish first, so whoever sees the failure gets a fresh load on the next try
+                shards.remove(roomId, this);
+                synchronized (this) {
+                    // Dropped changes are persisted, so the retry reads them from history
+                    backlog.clear();
+                    ready.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
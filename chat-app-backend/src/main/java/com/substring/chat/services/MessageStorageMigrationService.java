@@ -0,0 +1,206 @@
+package com.substring.chat.services;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.MessageBucket;
+import com.substring.chat.repositories.BucketedMessageStore;
+import com.substring.chat.repositories.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Moves history from the one-document-per-message layout into time buckets.
+ *
+ * <p>The migration only runs while the document layout is live: buckets are built in a
+ * staging collection and renamed over "message_buckets" at the end, so neither live data
+ * nor a half-built bucket collection is ever exposed. Messages written while the staging
+ * collection was being built are copied in catch-up passes, past each room's highest
+ * migrated sequence, just before the rename. Messages written after the run still only go
+ * to "messages", so stop sending between the end of the run and the restart with
+ * chat.storage.layout=bucketed.
+ */
+@Service
+public class MessageStorageMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageStorageMigrationService.class);
+    private static final int INSERT_BATCH = 500;
+    private static final int CATCH_UP_PASSES = 5;
+    static final String BUCKETS = "message_buckets";
+    static final String STAGING = "message_buckets_migration";
+
+    private final MongoTemplate mongoTemplate;
+    private final MessageStore messageStore;
+    private final BucketedMessageStore bucketedStore;
+
+    public MessageStorageMigrationService(MongoTemplate mongoTemplate,
+                                          MessageStore messageStore,
+                                          @Value("${chat.storage.bucket.window-minutes:60}") long windowMinutes,
+                                          @Value("${chat.storage.bucket.max-messages:200}") int maxMessagesPerBucket) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageStore = messageStore;
+        this.bucketedStore = new BucketedMessageStore(mongoTemplate, windowMinutes, maxMessagesPerBucket);
+    }
+
+    /**
+     * Rebuilds "message_buckets" from "messages"; the source collection is left untouched.
+     * Throws IllegalStateException unless the document layout is the live one.
+     */
+    public Map<String, Object> migrateToBuckets() {
+        if (!"document".equals(messageStore.getLayout())) {
+            throw new IllegalStateException("Migration reads the document layout, but the live layout is '"
+                    + messageStore.getLayout() + "'; run it with chat.storage.layout=document");
+        }
+        long start = System.currentTimeMillis();
+        // Leftovers of an interrupted run
+        mongoTemplate.dropCollection(STAGING);
+
+        Query all = new Query().with(Sort.by("roomId", "createdAt", "sequence"));
+        BucketBuilder builder = new BucketBuilder(bucketedStore, INSERT_BATCH, batch -> mongoTemplate.insert(batch, STAGING));
+        try (Stream<Message> stream = mongoTemplate.stream(all, Message.class)) {
+            stream.forEach(builder::add);
+        }
+        builder.finish();
+
+        IndexOperations indexes = mongoTemplate.indexOps(STAGING);
+        IndexResolver.create(mongoTemplate.getConverter().getMappingContext())
+                .resolveIndexFor(MessageBucket.class)
+                .forEach(indexes::createIndex);
+
+        // Until a pass finds nothing new, or the room is too busy to ever settle
+        long caughtUp = 0;
+        for (int pass = 0; pass < CATCH_UP_PASSES; pass++) {
+            long copied = catchUp(builder.getHighWater());
+            caughtUp += copied;
+            if (copied == 0) {
+                break;
+            }
+        }
+        if (mongoTemplate.collectionExists(STAGING)) {
+            mongoTemplate.getCollection(STAGING).renameCollection(
+                    new MongoNamespace(mongoTemplate.getDb().getName(), BUCKETS),
+                    new RenameCollectionOptions().dropTarget(true));
+        }
+
+        logger.info("Migrated {} messages into {} buckets, {} caught up", builder.getMessages(), builder.getBuckets(), caughtUp);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("messages", builder.getMessages());
+        result.put("buckets", builder.getBuckets());
+        result.put("caughtUp", caughtUp);
+        result.put("millis", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Appends messages newer than each room's high-water sequence to the staging buckets, and
+     * every message of rooms that had none, raising the high-water marks as it goes.
+     */
+    private long catchUp(Map<String, Long> highWater) {
+        List<Criteria> newer = new ArrayList<>();
+        highWater.forEach((roomId, sequence) -> newer.add(Criteria.where("roomId").is(roomId).and("sequence").gt(sequence)));
+        newer.add(Criteria.where("roomId").nin(highWater.keySet()));
+        Query query = Query.query(new Criteria().orOperator(newer)).with(Sort.by("roomId", "sequence"));
+        long copied = 0;
+        try (Stream<Message> stream = mongoTemplate.stream(query, Message.class)) {
+            for (Message message : (Iterable<Message>) stream::iterator) {
+                bucketedStore.insert(message, STAGING);
+                highWater.merge(message.getRoomId(), message.getSequence() != null ? message.getSequence() : 0L, Math::max);
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Packs messages, sorted by room and creation time, into buckets and hands them to
+     * {@code sink} in batches. A bucket is only handed over once no later message can land in it.
+     */
+    static final class BucketBuilder {
+        private final BucketedMessageStore layout;
+        private final int batchSize;
+        private final Consumer<List<MessageBucket>> sink;
+        private final List<MessageBucket> pending = new ArrayList<>();
+        // Highest sequence added per room
+        private final Map<String, Long> highWater = new HashMap<>();
+        private MessageBucket current;
+        private long messages;
+        private long buckets;
+
+        BucketBuilder(BucketedMessageStore layout, int batchSize, Consumer<List<MessageBucket>> sink) {
+            this.layout = layout;
+            this.batchSize = batchSize;
+            this.sink = sink;
+        }
+
+        void add(Message message) {
+            LocalDateTime window = layout.windowStart(message.getCreatedAt());
+            if (current == null
+                    || !current.getRoomId().equals(message.getRoomId())
+                    || !current.getWindowStart().equals(window)
+                    || current.getCount() >= layout.getMaxMessagesPerBucket()) {
+                current = newBucket(message.getRoomId(), window);
+                pending.add(current);
+                buckets++;
+            }
+            append(current, message);
+            highWater.merge(message.getRoomId(), message.getSequence() != null ? message.getSequence() : 0L, Math::max);
+            messages++;
+
+            if (pending.size() >= batchSize) {
+                // Keep the open bucket; it may still receive messages
+                MessageBucket open = pending.remove(pending.size() - 1);
+                sink.accept(new ArrayList<>(pending));
+                pending.clear();
+                pending.add(open);
+            }
+        }
+
+        void finish() {
+            if (!pending.isEmpty()) {
+                sink.accept(new ArrayList<>(pending));
+                pending.clear();
+            }
+            current = null;
+        }
+
+        long getMessages() { return messages; }
+
+        long getBuckets() { return buckets; }
+
+        Map<String, Long> getHighWater() { return highWater; }
+
+        private static MessageBucket newBucket(String roomId, LocalDateTime window) {
+            MessageBucket bucket = new MessageBucket();
+            bucket.setRoomId(roomId);
+            bucket.setWindowStart(window);
+            bucket.setFirstSequence(Long.MAX_VALUE);
+            return bucket;
+        }
+
+        private static void append(MessageBucket bucket, Message message) {
+            long sequence = message.getSequence() != null ? message.getSequence() : 0L;
+            bucket.getMessages().add(message);
+            bucket.getMessageIds().add(message.getId());
+            bucket.setCount(bucket.getCount() + 1);
+            bucket.setFirstSequence(Math.min(bucket.getFirstSequence(), sequence));
+            bucket.setLastSequence(Math.max(bucket.getLastSequence(), sequence));
+        }
+    }
+}
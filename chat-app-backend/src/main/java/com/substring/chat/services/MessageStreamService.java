@@ -0,0 +1,223 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Streaming read path for history and search: results go out as NDJSON lines or Server-Sent
+ * Events while the query is still running, instead of as one JSON array once it is done.
+ *
+ * <p>There is no reactive driver in this build, so this does what a reactive pipeline would
+ * with blocking pieces: each stream is pulled from a store cursor (see
+ * {@link MessageHistoryService#stream}) on its own virtual thread and written with a
+ * {@link ResponseBodyEmitter}. A slow client blocks the write, which parks the virtual thread and
+ * stops the cursor from advancing; that is the backpressure, and at most one batch of
+ * chat.stream.batch-size items is held per stream. The first item is flushed on its own so the
+ * client can render before the rest is read.
+ *
+ * <p>Concurrent streams are capped at chat.stream.max-concurrent.
+ */
+@Service
+public class MessageStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageStreamService.class);
+
+    public static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final MessageHistoryService messageHistoryService;
+    private final MessageSearchService messageSearchService;
+    private final MessageReactionService messageReactionService;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final int maxConcurrent;
+    private final Semaphore slots;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder aborted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder itemsStreamed = new LongAdder();
+    private final LongAdder firstItems = new LongAdder();
+    private final LongAdder firstItemNanos = new LongAdder();
+    private final AtomicLong maxFirstItemNanos = new AtomicLong();
+
+    public MessageStreamService(MessageHistoryService messageHistoryService,
+                                MessageSearchService messageSearchService,
+                                MessageReactionService messageReactionService,
+                                ObjectMapper objectMapper,
+                                @Value("${chat.stream.batch-size:200}") int batchSize,
+                                @Value("${chat.stream.timeout-ms:600000}") long timeoutMillis,
+                                @Value("${chat.stream.max-concurrent:256}") int maxConcurrent) {
+        this.messageHistoryService = messageHistoryService;
+        this.messageSearchService = messageSearchService;
+        this.messageReactionService = messageReactionService;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+        this.maxConcurrent = maxConcurrent;
+        this.slots = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Streams a room's history created in [{@code from}, {@code to}), oldest first; null if
+     * every stream slot is taken.
+     */
+    public ResponseBodyEmitter streamHistory(String roomId, LocalDateTime from, LocalDateTime to, boolean sse) {
+        if (from != null && to != null && !from.isBefore(to)) {
+            throw new IllegalArgumentException("'from' must be before 'to'");
+        }
+        return start(() -> messageHistoryService.stream(roomId, from, to, batchSize),
+                messageReactionService::attach, sse, "message");
+    }
+
+    /**
+     * Streams up to {@code limit} search hits, best first, fetching result pages as the client
+     * reads; null if every stream slot is taken.
+     */
+    public ResponseBodyEmitter streamSearch(String roomId, String query, int limit, boolean sse) {
+        if (query == null || query.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query is required");
+        }
+        return start(() -> messageSearchService.streamSearch(roomId, query, limit), hits -> { }, sse, "hit");
+    }
+
+    private <T> ResponseBodyEmitter start(Supplier<Stream<T>> source, Consumer<List<T>> prepare,
+                                          boolean sse, String eventName) {
+        if (!slots.tryAcquire()) {
+            rejected.increment();
+            return null;
+        }
+        started.increment();
+        ResponseBodyEmitter emitter = emitter(sse);
+        long start = System.nanoTime();
+        executor.execute(() -> {
+            try (Stream<T> items = source.get()) {
+                write(emitter, items.iterator(), prepare, sse, eventName, start);
+                emitter.complete();
+                completed.increment();
+            } catch (IOException e) {
+                // The client went away; nothing left to send it
+                aborted.increment();
+                logger.debug("Stream aborted: {}", e.getMessage());
+                emitter.completeWithError(e);
+            } catch (Exception e) {
+                aborted.increment();
+                logger.warn("Stream failed: {}", e.getMessage());
+                emitter.completeWithError(e);
+            } finally {
+                slots.release();
+            }
+        });
+        return emitter;
+    }
+
+    ResponseBodyEmitter emitter(boolean sse) {
+        return sse ? new SseEmitter(timeoutMillis) : new ResponseBodyEmitter(timeoutMillis);
+    }
+
+    private <T> void write(ResponseBodyEmitter emitter, Iterator<T> items, Consumer<List<T>> prepare,
+                           boolean sse, String eventName, long start) throws IOException {
+        long sent = 0;
+        List<T> batch = new ArrayList<>();
+        while (items.hasNext()) {
+            batch.add(items.next());
+            // The first item goes out alone, then whole batches
+            if (sent == 0 || batch.size() >= batchSize) {
+                send(emitter, batch, prepare, sse, eventName);
+                if (sent == 0) {
+                    recordFirstItem(System.nanoTime() - start);
+                }
+                sent += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(emitter, batch, prepare, sse, eventName);
+            sent += batch.size();
+        }
+        if (sse) {
+            // Through SseEmitter's overload: send(Object) would wrap the builder itself as data
+            ((SseEmitter) emitter).send(SseEmitter.event().name("end").data(Map.of("count", sent), MediaType.APPLICATION_JSON));
+        }
+        itemsStreamed.add(sent);
+    }
+
+    // One flush per batch: several NDJSON lines in one chunk, or several SSE events in one send
+    private <T> void send(ResponseBodyEmitter emitter, List<T> batch, Consumer<List<T>> prepare,
+                          boolean sse, String eventName) throws IOException {
+        prepare.accept(batch);
+        if (!sse) {
+            StringBuilder lines = new StringBuilder();
+            for (T item : batch) {
+                lines.append(objectMapper.writeValueAsString(item)).append('\n');
+            }
+            emitter.send(lines.toString(), NDJSON);
+            return;
+        }
+        Set<ResponseBodyEmitter.DataWithMediaType> events = new LinkedHashSet<>();
+        for (T item : batch) {
+            SseEmitter.SseEventBuilder event = SseEmitter.event().name(eventName)
+                    .data(objectMapper.writeValueAsString(item), MediaType.APPLICATION_JSON);
+            if (item instanceof Message message && message.getSequence() != null) {
+                // Lets an EventSource resume after the last message it saw
+                event.id(String.valueOf(message.getSequence()));
+            }
+            events.addAll(event.build());
+        }
+        emitter.send(events);
+    }
+
+    private void recordFirstItem(long nanos) {
+        firstItems.increment();
+        firstItemNanos.add(nanos);
+        maxFirstItemNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public Map<String, Object> getStats() {
+        long firsts = firstItems.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", maxConcurrent - slots.availablePermits());
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("started", started.sum());
+        stats.put("completed", completed.sum());
+        stats.put("aborted", aborted.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("itemsStreamed", itemsStreamed.sum());
+        stats.put("avgFirstItemMs", firsts == 0 ? 0 : firstItemNanos.sum() / firsts / 1_000_000.0);
+        stats.put("maxFirstItemMs", maxFirstItemNanos.get() / 1_000_000.0);
+        return stats;
+    }
+}
@@ -0,0 +1,390 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.ModerationRule;
+import com.substring.chat.repositories.ModerationRuleRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content moderation for room messages. Every rule in moderation_rules (blocked words and
+ * banned domains) is compiled into one case-insensitive {@link AhoCorasick} automaton, so a
+ * message is checked in a single pass over its content however many rules there are. The
+ * check allocates nothing unless a rule matches.
+ *
+ * <p>Each rule has an action: "reject" turns the message away, "mask" overwrites the match
+ * with chat.moderation.mask-char, and "flag" delivers the message but marks it flagged and
+ * lists it under the admin's recent flags. When several rules match, a reject wins, and
+ * masks and flags are all applied.
+ *
+ * <p>The automaton is never changed in place. Rule changes (and a periodic reload, for rules
+ * added through another instance) queue a rebuild on a single background thread, which
+ * swaps the new rule set in atomically; messages keep being checked against the previous
+ * one meanwhile. Requests arriving while a rebuild is already queued fold into it.
+ */
+@Service
+@Order(5)
+public class ModerationService implements IngestionInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModerationService.class);
+
+    public static final String REJECT_REASON = "Message blocked by moderation";
+
+    private final ModerationRuleRepository ruleRepository;
+    private final boolean enabled;
+    private final String defaultAction;
+    private final char maskChar;
+    private final int maxRecentFlags;
+
+    private final AtomicReference<RuleSet> rules = new AtomicReference<>(RuleSet.EMPTY);
+    private final AtomicLong versions = new AtomicLong();
+    private final ThreadPoolExecutor rebuilder;
+    private final ArrayDeque<Map<String, Object>> recentFlags = new ArrayDeque<>();
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder checkNanos = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder masked = new LongAdder();
+    private final LongAdder flagged = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder rebuildFailures = new LongAdder();
+
+    public ModerationService(ModerationRuleRepository ruleRepository,
+                             @Value("${chat.moderation.enabled:true}") boolean enabled,
+                             @Value("${chat.moderation.default-action:mask}") String defaultAction,
+                             @Value("${chat.moderation.mask-char:*}") char maskChar,
+                             @Value("${chat.moderation.recent-flags:200}") int maxRecentFlags) {
+        this.ruleRepository = ruleRepository;
+        this.enabled = enabled;
+        this.defaultAction = normalizeAction(defaultAction);
+        this.maskChar = maskChar;
+        this.maxRecentFlags = maxRecentFlags;
+        // One running rebuild and at most one waiting; any further request is already covered by the waiting one
+        this.rebuilder = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), runnable -> {
+                    Thread thread = new Thread(runnable, "moderation-rebuild");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @Override
+    public void afterStage(IngestionStage stage, IngestionContext context) {
+        Message message = context.getMessage();
+        if (stage == IngestionStage.PERSIST && message.isFlagged()) {
+            recordFlag(message);
+            return;
+        }
+        if (stage != IngestionStage.VALIDATE || !enabled
+                || MessageIngestionPipeline.SYSTEM_SENDER.equals(message.getSender())) {
+            return;
+        }
+        Verdict verdict = check(message.getContent());
+        if (verdict.reject()) {
+            context.reject(REJECT_REASON);
+            return;
+        }
+        if (verdict.content() != null) {
+            message.setContent(verdict.content());
+        }
+        if (verdict.flag()) {
+            message.setFlagged(true);
+        }
+    }
+
+    /**
+     * Checks content against the current rule set; also used for edits.
+     */
+    public Verdict check(String content) {
+        if (content == null || content.isEmpty()) {
+            return Verdict.CLEAN;
+        }
+        long start = System.nanoTime();
+        Verdict verdict = rules.get().check(content);
+        checkNanos.add(System.nanoTime() - start);
+        checked.increment();
+        if (verdict.reject()) {
+            rejected.increment();
+        } else {
+            if (verdict.content() != null) {
+                masked.increment();
+            }
+            if (verdict.flag()) {
+                flagged.increment();
+            }
+        }
+        return verdict;
+    }
+
+    private void recordFlag(Message message) {
+        Map<String, Object> flag = new LinkedHashMap<>();
+        flag.put("messageId", message.getId());
+        flag.put("roomId", message.getRoomId());
+        flag.put("sequence", message.getSequence());
+        flag.put("sender", message.getSender());
+        flag.put("content", message.getContent());
+        flag.put("flaggedAt", LocalDateTime.now());
+        synchronized (recentFlags) {
+            if (recentFlags.size() >= maxRecentFlags) {
+                recentFlags.pollLast();
+            }
+            recentFlags.addFirst(flag);
+        }
+        logger.info("Flagged message {} from {} in room {}", message.getId(), message.getSender(), message.getRoomId());
+    }
+
+    public List<Map<String, Object>> getRecentFlags() {
+        synchronized (recentFlags) {
+            return new ArrayList<>(recentFlags);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        requestRebuild();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.moderation.reload-interval-ms:300000}", initialDelayString = "${chat.moderation.reload-interval-ms:300000}")
+    public void reload() {
+        requestRebuild();
+    }
+
+    public void requestRebuild() {
+        rebuilder.execute(this::rebuild);
+    }
+
+    private void rebuild() {
+        try {
+            long start = System.nanoTime();
+            List<ModerationRule> all = ruleRepository.findAll();
+            RuleSet next = RuleSet.of(all, defaultAction, maskChar, versions.incrementAndGet());
+            rules.set(next);
+            rebuilds.increment();
+            logger.info("Moderation rules v{} live: {} rules, {} states, built in {} ms",
+                    next.version, next.size, next.automaton.stateCount(), (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            // Keep checking against the previous rule set
+            rebuildFailures.increment();
+            logger.warn("Failed to rebuild moderation rules: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Adds rules that are not there yet and queues a rebuild. Returns how many were added.
+     */
+    public int addRules(Collection<ModerationRule> requested, String createdBy) {
+        List<ModerationRule> added = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (ModerationRule rule : requested) {
+            String kind = rule.getKind() == null ? ModerationRule.KIND_WORD : rule.getKind().trim().toLowerCase(Locale.ROOT);
+            if (!ModerationRule.KIND_WORD.equals(kind) && !ModerationRule.KIND_DOMAIN.equals(kind)) {
+                throw new IllegalArgumentException("Unknown rule kind: " + rule.getKind());
+            }
+            String pattern = normalizePattern(kind, rule.getPattern());
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("Rule pattern is required");
+            }
+            if (ruleRepository.existsByKindAndPattern(kind, pattern)) {
+                continue;
+            }
+            ModerationRule created = new ModerationRule();
+            created.setKind(kind);
+            created.setPattern(pattern);
+            created.setAction(rule.getAction() == null ? null : normalizeAction(rule.getAction()));
+            created.setCreatedBy(createdBy);
+            created.setCreatedAt(now);
+            added.add(created);
+        }
+        if (!added.isEmpty()) {
+            ruleRepository.saveAll(added);
+            requestRebuild();
+        }
+        return added.size();
+    }
+
+    public boolean removeRule(String id) {
+        if (!ruleRepository.existsById(id)) {
+            return false;
+        }
+        ruleRepository.deleteById(id);
+        requestRebuild();
+        return true;
+    }
+
+    public List<ModerationRule> listRules() {
+        return ruleRepository.findAll();
+    }
+
+    private static String normalizePattern(String kind, String pattern) {
+        if (pattern == null) {
+            return "";
+        }
+        String normalized = pattern.trim().toLowerCase(Locale.ROOT);
+        if (ModerationRule.KIND_DOMAIN.equals(kind)) {
+            normalized = normalized.replaceFirst("^[a-z]+://", "").replaceFirst("^www\\.", "");
+            int slash = normalized.indexOf('/');
+            if (slash >= 0) {
+                normalized = normalized.substring(0, slash);
+            }
+        }
+        return normalized;
+    }
+
+    private static String normalizeAction(String action) {
+        String normalized = action.trim().toLowerCase(Locale.ROOT);
+        if (!ModerationRule.ACTION_FLAG.equals(normalized) && !ModerationRule.ACTION_MASK.equals(normalized)
+                && !ModerationRule.ACTION_REJECT.equals(normalized)) {
+            throw new IllegalArgumentException("Unknown moderation action: " + action);
+        }
+        return normalized;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuilder.shutdownNow();
+    }
+
+    public Map<String, Object> getStats() {
+        RuleSet current = rules.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("rules", current.size);
+        stats.put("states", current.automaton.stateCount());
+        stats.put("version", current.version);
+        stats.put("builtAt", current.builtAt);
+        stats.put("checked", checked.sum());
+        long checks = checked.sum();
+        stats.put("avgCheckNanos", checks == 0 ? 0 : checkNanos.sum() / checks);
+        stats.put("rejected", rejected.sum());
+        stats.put("masked", masked.sum());
+        stats.put("flagged", flagged.sum());
+        stats.put("rebuilds", rebuilds.sum());
+        stats.put("rebuildFailures", rebuildFailures.sum());
+        return stats;
+    }
+
+    /**
+     * The outcome of a check. {@code content} is the masked text, or null if nothing was
+     * masked; a rejected message carries no content.
+     */
+    public record Verdict(boolean reject, String content, boolean flag) {
+        static final Verdict CLEAN = new Verdict(false, null, false);
+        static final Verdict REJECT = new Verdict(true, null, false);
+    }
+
+    /**
+     * One compiled, immutable generation of the rules. Patterns that appear more than once
+     * (as a word and a domain, say) keep the strictest action.
+     */
+    static final class RuleSet {
+        static final RuleSet EMPTY = of(List.of(), ModerationRule.ACTION_MASK, '*', 0);
+
+        private static final byte FLAG = 0;
+        private static final byte MASK = 1;
+        private static final byte REJECT = 2;
+
+        final AhoCorasick automaton;
+        final int size;
+        final long version;
+        final LocalDateTime builtAt;
+        private final byte[] actions;
+        private final char maskChar;
+
+        private RuleSet(AhoCorasick automaton, byte[] actions, int size, char maskChar, long version) {
+            this.automaton = automaton;
+            this.actions = actions;
+            this.size = size;
+            this.maskChar = maskChar;
+            this.version = version;
+            this.builtAt = LocalDateTime.now();
+        }
+
+        static RuleSet of(Collection<ModerationRule> rules, String defaultAction, char maskChar, long version) {
+            Map<String, Byte> strictest = new LinkedHashMap<>();
+            for (ModerationRule rule : rules) {
+                if (rule.getPattern() == null || rule.getPattern().isEmpty()) {
+                    continue;
+                }
+                String pattern = rule.getPattern().toLowerCase(Locale.ROOT);
+                byte action = code(rule.getAction() != null ? rule.getAction() : defaultAction);
+                strictest.merge(pattern, action, (a, b) -> (byte) Math.max(a, b));
+            }
+            byte[] actions = new byte[strictest.size()];
+            int i = 0;
+            for (byte action : strictest.values()) {
+                actions[i++] = action;
+            }
+            return new RuleSet(AhoCorasick.build(strictest.keySet(), true), actions, rules.size(), maskChar, version);
+        }
+
+        private static byte code(String action) {
+            return switch (action) {
+                case ModerationRule.ACTION_REJECT -> REJECT;
+                case ModerationRule.ACTION_FLAG -> FLAG;
+                default -> MASK;
+            };
+        }
+
+        /**
+         * One pass over the content. Nothing is allocated unless a rule matches; the copy to
+         * mask into is made at the first masked match.
+         */
+        Verdict check(String content) {
+            int state = 0;
+            char[] masked = null;
+            boolean flag = false;
+            int length = content.length();
+            for (int i = 0; i < length; i++) {
+                state = automaton.step(state, content.charAt(i));
+                for (int found = automaton.outputState(state); found > 0; found = automaton.nextOutputState(found)) {
+                    int pattern = automaton.patternAt(found);
+                    int end = i + 1;
+                    int start = end - automaton.pattern(pattern).length();
+                    if (start > 0 && Character.isLetterOrDigit(content.charAt(start - 1))
+                            || end < length && Character.isLetterOrDigit(content.charAt(end))) {
+                        continue;
+                    }
+                    byte action = actions[pattern];
+                    if (action == REJECT) {
+                        return Verdict.REJECT;
+                    }
+                    if (action == MASK) {
+                        if (masked == null) {
+                            masked = content.toCharArray();
+                        }
+                        Arrays.fill(masked, start, end, maskChar);
+                    } else {
+                        flag = true;
+                    }
+                }
+            }
+            if (masked == null && !flag) {
+                return Verdict.CLEAN;
+            }
+            return new Verdict(false, masked != null ? new String(masked) : null, flag);
+        }
+    }
+}
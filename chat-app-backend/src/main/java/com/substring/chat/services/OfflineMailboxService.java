@@ -0,0 +1,322 @@
+package com.substring.chat.services;
+
+import com.mongodb.client.result.UpdateResult;
+import com.substring.chat.entities.Mailbox;
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.Room;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-user record of what arrived while the user had no connected session, so a reconnecting
+ * client gets one summary instead of refetching every room.
+ *
+ * <p>Room messages are not written per message: sequences are coalesced per room in memory
+ * and flushed every chat.mailbox.flush-interval-ms as one update that hits every offline
+ * follower of the room at once. Each room keeps only the newest chat.mailbox.max-pointers-per-room
+ * sequences next to a running count; past that the room collapses to "N new messages".
+ *
+ * <p>The summary is claimed and cleared atomically when a session subscribes to
+ * /user/queue/mailbox after CONNECT (see WebSocketConfig), and pushed to all of the user's
+ * sessions. A message coalesced in the last flush interval before a user connects is not
+ * recorded for them; they receive it live or from history.
+ */
+@Service
+@Order(100)
+public class OfflineMailboxService implements IngestionInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineMailboxService.class);
+
+    public static final String MAILBOX_DESTINATION = "/queue/mailbox";
+
+    private final MongoTemplate mongoTemplate;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final UserSessionRegistry userSessionRegistry;
+    private final RoomCache roomCache;
+    private final int maxPointersPerRoom;
+    private final int maxDirectSenders;
+
+    private final ConcurrentHashMap<String, PendingRoom> pending = new ConcurrentHashMap<>();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder mailboxesUpdated = new LongAdder();
+    private final LongAdder directRecorded = new LongAdder();
+    private final LongAdder deliveries = new LongAdder();
+
+    public OfflineMailboxService(MongoTemplate mongoTemplate,
+                                 SimpMessagingTemplate messagingTemplate,
+                                 UserSessionRegistry userSessionRegistry,
+                                 RoomCache roomCache,
+                                 @Value("${chat.mailbox.max-pointers-per-room:50}") int maxPointersPerRoom,
+                                 @Value("${chat.mailbox.max-direct-senders:20}") int maxDirectSenders) {
+        this.mongoTemplate = mongoTemplate;
+        this.messagingTemplate = messagingTemplate;
+        this.userSessionRegistry = userSessionRegistry;
+        this.roomCache = roomCache;
+        this.maxPointersPerRoom = maxPointersPerRoom;
+        this.maxDirectSenders = maxDirectSenders;
+    }
+
+    @Override
+    public void afterStage(IngestionStage stage, IngestionContext context) {
+        Message message = context.getMessage();
+        if (stage != IngestionStage.FAN_OUT || MessageIngestionPipeline.SYSTEM_SENDER.equals(message.getSender())) {
+            return;
+        }
+        // compute() keeps the append and the flush's remove() from interleaving
+        pending.compute(message.getRoomId(), (roomId, room) -> {
+            PendingRoom target = room != null ? room : new PendingRoom(maxPointersPerRoom);
+            target.add(message.getSequence());
+            return target;
+        });
+        recorded.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.mailbox.flush-interval-ms:500}")
+    public void flush() {
+        for (String roomId : pending.keySet()) {
+            PendingRoom room = pending.remove(roomId);
+            if (room == null) {
+                continue;
+            }
+            String key = "rooms." + roomKey(roomId);
+            Update update = new Update()
+                    .set(key + ".roomId", roomId)
+                    .inc(key + ".count", room.count)
+                    .set("updatedAt", LocalDateTime.now());
+            update.push(key + ".sequences").slice(-maxPointersPerRoom).each(room.sequences.toArray());
+            try {
+                UpdateResult result = mongoTemplate.updateMulti(
+                        Query.query(Criteria.where("watching").is(roomId).and("online").is(false)), update, Mailbox.class);
+                mailboxesUpdated.add(result.getModifiedCount());
+                flushes.increment();
+            } catch (Exception e) {
+                logger.warn("Failed to update offline mailboxes for room {}: {}", roomId, e.getMessage());
+            }
+        }
+    }
+
+    public void recordDirectMessage(String recipient, String sender) {
+        Update update = new Update()
+                .inc("directCount", 1)
+                .set("updatedAt", LocalDateTime.now());
+        update.push("directSenders").slice(-maxDirectSenders).each(sender);
+        try {
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(recipient)), update, Mailbox.class);
+            directRecorded.increment();
+        } catch (Exception e) {
+            logger.warn("Failed to record direct message for {}: {}", recipient, e.getMessage());
+        }
+    }
+
+    /**
+     * The user's mailbox without claiming it, or null if they have none yet.
+     */
+    public Mailbox peek(String username) {
+        return mongoTemplate.findById(username, Mailbox.class);
+    }
+
+    /**
+     * Follow a room so its messages are recorded while the user is offline.
+     */
+    public void watch(String username, String roomId) {
+        Update update = new Update()
+                .addToSet("watching", roomId)
+                .setOnInsert("online", userSessionRegistry.isOnline(username));
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(username)), update, Mailbox.class);
+    }
+
+    public void unwatch(String username, String roomId) {
+        Update update = new Update()
+                .pull("watching", roomId)
+                .unset("rooms." + roomKey(roomId));
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(username)), update, Mailbox.class);
+    }
+
+    /**
+     * {@link #watch} for many users at once, as one unordered bulk write.
+     */
+    public void watchAll(String roomId, Collection<String> usernames) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Mailbox.class);
+        for (String username : usernames) {
+            bulk.upsert(Query.query(Criteria.where("_id").is(username)), new Update()
+                    .addToSet("watching", roomId)
+                    .setOnInsert("online", userSessionRegistry.isOnline(username)));
+        }
+        bulk.execute();
+    }
+
+    public void unwatchAll(String roomId, Collection<String> usernames) {
+        Update update = new Update()
+                .pull("watching", roomId)
+                .unset("rooms." + roomKey(roomId));
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(usernames)), update, Mailbox.class);
+    }
+
+    /**
+     * Called from the CONNECT interceptor: stop recording for this user.
+     */
+    public void connected(String username) {
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(username)),
+                new Update().set("online", true), Mailbox.class);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Principal user = event.getUser();
+        if (user == null || userSessionRegistry.hasOtherSessions(user.getName(), event.getSessionId())) {
+            return;
+        }
+        try {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(user.getName())),
+                    new Update().set("online", false), Mailbox.class);
+        } catch (Exception e) {
+            logger.warn("Failed to mark {} offline: {}", user.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Sessions do not survive a restart, so nobody is online until they reconnect.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resetOnlineFlags() {
+        try {
+            mongoTemplate.updateMulti(Query.query(Criteria.where("online").is(true)),
+                    new Update().set("online", false), Mailbox.class);
+        } catch (Exception e) {
+            logger.warn("Failed to reset mailbox online flags: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Claims and clears the user's mailbox and pushes it as one summary to /user/queue/mailbox.
+     */
+    public void deliver(String username) {
+        Update clear = new Update()
+                .unset("rooms")
+                .set("directCount", 0)
+                .set("directSenders", List.of());
+        Mailbox mailbox = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(username)), clear,
+                FindAndModifyOptions.options().returnNew(false), Mailbox.class);
+        messagingTemplate.convertAndSendToUser(username, MAILBOX_DESTINATION, summarize(mailbox));
+        deliveries.increment();
+    }
+
+    private Map<String, Object> summarize(Mailbox mailbox) {
+        List<Map<String, Object>> rooms = new ArrayList<>();
+        long directCount = 0;
+        List<String> directSenders = List.of();
+        if (mailbox != null) {
+            if (mailbox.getRooms() != null) {
+                for (Mailbox.RoomPointers pointers : mailbox.getRooms().values()) {
+                    rooms.add(summarizeRoom(pointers));
+                }
+            }
+            directCount = mailbox.getDirectCount();
+            if (mailbox.getDirectSenders() != null) {
+                directSenders = new ArrayList<>(new LinkedHashSet<>(mailbox.getDirectSenders()));
+            }
+        }
+        Map<String, Object> direct = new LinkedHashMap<>();
+        direct.put("count", directCount);
+        direct.put("from", directSenders);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("rooms", rooms);
+        summary.put("directMessages", direct);
+        return summary;
+    }
+
+    private Map<String, Object> summarizeRoom(Mailbox.RoomPointers pointers) {
+        Room room = roomCache.get(pointers.getRoomId());
+        String roomName = room != null ? room.getRoomName() : pointers.getRoomId();
+        List<Long> sequences = pointers.getSequences() != null ? pointers.getSequences() : List.of();
+
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("roomId", pointers.getRoomId());
+        entry.put("roomName", roomName);
+        entry.put("count", pointers.getCount());
+        entry.put("lastSequence", sequences.isEmpty() ? null : sequences.get(sequences.size() - 1));
+        if (pointers.getCount() > sequences.size()) {
+            // More than we kept pointers for: the client should page history from lastSequence
+            entry.put("collapsed", true);
+            entry.put("summary", pointers.getCount() + " new messages in " + roomName);
+        } else {
+            entry.put("collapsed", false);
+            entry.put("sequences", sequences);
+        }
+        return entry;
+    }
+
+    static String roomKey(String roomId) {
+        // Room ids become field names, where '.' and '$' are not allowed. Anything outside
+        // [A-Za-z0-9-], '_' included, is escaped as _<hex code point>_ so distinct ids never share a key
+        StringBuilder key = new StringBuilder(roomId.length());
+        roomId.codePoints().forEach(c -> {
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-') {
+                key.appendCodePoint(c);
+            } else {
+                key.append('_').append(Integer.toHexString(c)).append('_');
+            }
+        });
+        return key.toString();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingRooms", pending.size());
+        stats.put("recorded", recorded.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("mailboxesUpdated", mailboxesUpdated.sum());
+        stats.put("directRecorded", directRecorded.sum());
+        stats.put("deliveries", deliveries.sum());
+        return stats;
+    }
+
+    /**
+     * Sequences of one room waiting for the next flush; only the newest ones are kept.
+     */
+    private static final class PendingRoom {
+        private final int maxPointers;
+        private final ArrayDeque<Long> sequences = new ArrayDeque<>();
+        private long count;
+
+        PendingRoom(int maxPointers) {
+            this.maxPointers = maxPointers;
+        }
+
+        void add(long sequence) {
+            count++;
+            sequences.addLast(sequence);
+            if (sequences.size() > maxPointers) {
+                sequences.removeFirst();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.substring.chat.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs work for a room one task at a time, in submission order, while different rooms run
+ * in parallel on a shared pool of virtual threads. Each room gets a lightweight mailbox that
+ * is only scheduled when it has work, so idle rooms cost nothing but a map entry.
+ */
+@Service
+public class RoomActorExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomActorExecutor.class);
+
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final int maxMailboxDepth;
+    private final int batchSize;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public RoomActorExecutor(@Value("${chat.actors.max-mailbox-depth:10000}") int maxMailboxDepth,
+                             @Value("${chat.actors.batch-size:64}") int batchSize) {
+        this.maxMailboxDepth = maxMailboxDepth;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Queues a task on the room's mailbox. The returned future fails with a
+     * RejectedExecutionException if the mailbox is full.
+     */
+    public <T> CompletableFuture<T> submit(String roomId, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable runnable = () -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+                throw e;
+            }
+        };
+
+        // Enqueue inside compute so an idle sweep can never drop a mailbox we just added to
+        boolean[] accepted = new boolean[1];
+        Mailbox target = mailboxes.compute(roomId, (id, mailbox) -> {
+            Mailbox current = mailbox != null ? mailbox : new Mailbox(id);
+            accepted[0] = current.depth.get() < maxMailboxDepth && current.enqueue(runnable);
+            return current;
+        });
+
+        if (!accepted[0]) {
+            rejected.increment();
+            future.completeExceptionally(new RejectedExecutionException("Mailbox full for room " + roomId));
+            return future;
+        }
+
+        submitted.increment();
+        target.schedule();
+        return future;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.actors.idle-sweep-ms:60000}")
+    public void removeIdleMailboxes() {
+        for (String roomId : mailboxes.keySet()) {
+            mailboxes.computeIfPresent(roomId, (id, mailbox) -> mailbox.isIdle() ? null : mailbox);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    public Map<String, Object> getStats(int hotRoomLimit) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mailboxes", mailboxes.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("processed", processed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("failed", failed.sum());
+        stats.put("queued", mailboxes.values().stream().mapToInt(m -> m.depth.get()).sum());
+        stats.put("hotRooms", getHotRooms(hotRoomLimit));
+        return stats;
+    }
+
+    /**
+     * Rooms with the deepest mailboxes right now, ties broken by how much work they have processed.
+     */
+    public List<Map<String, Object>> getHotRooms(int limit) {
+        List<Mailbox> snapshot = new ArrayList<>(mailboxes.values());
+        snapshot.sort(Comparator.comparingInt((Mailbox m) -> m.depth.get())
+                .thenComparingLong(m -> m.processed.get())
+                .reversed());
+
+        List<Map<String, Object>> hotRooms = new ArrayList<>();
+        for (Mailbox mailbox : snapshot.subList(0, Math.min(limit, snapshot.size()))) {
+            Map<String, Object> room = new LinkedHashMap<>();
+            room.put("roomId", mailbox.roomId);
+            room.put("depth", mailbox.depth.get());
+            room.put("maxDepth", mailbox.maxDepth.get());
+            room.put("processed", mailbox.processed.get());
+            hotRooms.add(room);
+        }
+        return hotRooms;
+    }
+
+    private final class Mailbox implements Runnable {
+        private final String roomId;
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(String roomId) {
+            this.roomId = roomId;
+        }
+
+        boolean enqueue(Runnable task) {
+            queue.add(task);
+            maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+            return true;
+        }
+
+        boolean isIdle() {
+            return !scheduled.get() && queue.isEmpty();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Process a bounded batch, then yield the worker so one hot room can't hog it
+            for (int i = 0; i < batchSize; i++) {
+                Runnable task = queue.poll();
+                if (task == null) {
+                    break;
+                }
+                depth.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    failed.increment();
+                    logger.error("Task for room {} failed: {}", roomId, e.getMessage());
+                }
+                processed.incrementAndGet();
+                RoomActorExecutor.this.processed.increment();
+            }
+
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Cold storage for one room: append-only segment files of deflate-compressed blocks, each
+ * block holding a run of messages in sequence order. Every segment has a sidecar index with
+ * one fixed-size entry per block (first/last sequence, offset, length), so a history page
+ * only decompresses the one or two blocks that cover it.
+ *
+ * <p>Blocks are written and fsynced before their index entry, and opening an archive
+ * truncates any block that has no index entry, so a crash mid-append never leaves a
+ * half-written block visible to readers.
+ */
+public class RoomArchive {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_ENTRY_BYTES = 8 + 8 + 8 + 4;
+    private static final int BLOCK_HEADER_BYTES = 4 + 4;
+
+    private final Path dir;
+    private final ObjectMapper objectMapper;
+    private final int messagesPerBlock;
+    private final long maxSegmentBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<Segment> segments = new ArrayList<>();
+    private volatile long lastSequence;
+    private volatile long messageCount;
+
+    public RoomArchive(Path dir, ObjectMapper objectMapper, int messagesPerBlock, long maxSegmentBytes) throws IOException {
+        this.dir = dir;
+        this.objectMapper = objectMapper;
+        this.messagesPerBlock = messagesPerBlock;
+        this.maxSegmentBytes = maxSegmentBytes;
+        recover();
+    }
+
+    private void recover() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file);
+            if (segment.blockCount == 0) {
+                // Rolled but never written to; drop it so the name can be reused
+                Files.delete(segment.file);
+                Files.deleteIfExists(segment.indexFile);
+                continue;
+            }
+            segments.add(segment);
+            lastSequence = Math.max(lastSequence, segment.lastSequences[segment.blockCount - 1]);
+            for (int i = 0; i < segment.blockCount; i++) {
+                messageCount += segment.counts[i];
+            }
+        }
+    }
+
+    /**
+     * Appends messages (which must be in sequence order and newer than anything archived) and
+     * forces them to disk. Returns the number of bytes written to segment files.
+     */
+    public long append(List<Message> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        lock.writeLock().lock();
+        try {
+            Files.createDirectories(dir);
+            long written = 0;
+            for (int from = 0; from < messages.size(); from += messagesPerBlock) {
+                List<Message> block = messages.subList(from, Math.min(messages.size(), from + messagesPerBlock));
+                written += writeBlock(block);
+            }
+            return written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long writeBlock(List<Message> block) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(raw))) {
+            for (Message message : block) {
+                byte[] json = objectMapper.writeValueAsBytes(message);
+                out.writeInt(json.length);
+                out.write(json);
+            }
+        }
+        byte[] compressed = raw.toByteArray();
+
+        long first = block.get(0).getSequence();
+        long last = block.get(block.size() - 1).getSequence();
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.size >= maxSegmentBytes) {
+            segment = Segment.create(dir.resolve(String.format("%020d", first) + SEGMENT_SUFFIX));
+            segments.add(segment);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_BYTES + compressed.length);
+        buffer.putInt(compressed.length).putInt(block.size()).put(compressed).flip();
+        long offset = segment.size;
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.WRITE)) {
+            channel.position(offset);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        segment.addBlock(first, last, offset, buffer.limit(), block.size());
+
+        lastSequence = last;
+        messageCount += block.size();
+        return buffer.limit();
+    }
+
+    /**
+     * Up to {@code limit} messages with a sequence below {@code beforeSequence} (or the newest
+     * ones if null), oldest first.
+     */
+    public List<Message> readBefore(Long beforeSequence, int limit) throws IOException {
+        long bound = beforeSequence != null ? beforeSequence : Long.MAX_VALUE;
+        List<Message> newestFirst = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int s = segments.size() - 1; s >= 0 && newestFirst.size() < limit; s--) {
+                Segment segment = segments.get(s);
+                for (int b = segment.blockCount - 1; b >= 0 && newestFirst.size() < limit; b--) {
+                    if (segment.firstSequences[b] >= bound) {
+                        continue;
+                    }
+                    List<Message> block = segment.readBlock(b, objectMapper);
+                    for (int i = block.size() - 1; i >= 0 && newestFirst.size() < limit; i--) {
+                        if (block.get(i).getSequence() < bound) {
+                            newestFirst.add(block.get(i));
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    /**
+     * Up to {@code limit} messages with a sequence of at least {@code fromSequence}, oldest first.
+     */
+    public List<Message> readFrom(long fromSequence, int limit) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int s = 0; s < segments.size() && messages.size() < limit; s++) {
+                Segment segment = segments.get(s);
+                for (int b = 0; b < segment.blockCount && messages.size() < limit; b++) {
+                    // Only decode blocks that reach fromSequence
+                    if (segment.lastSequences[b] < fromSequence) {
+                        continue;
+                    }
+                    for (Message message : segment.readBlock(b, objectMapper)) {
+                        if (message.getSequence() >= fromSequence && messages.size() < limit) {
+                            messages.add(message);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    public List<Message> readAll() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                for (int b = 0; b < segment.blockCount; b++) {
+                    messages.addAll(segment.readBlock(b, objectMapper));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return messages;
+    }
+
+    public long getLastSequence() { return lastSequence; }
+
+    public long getMessageCount() { return messageCount; }
+
+    public int getSegmentCount() { return segments.size(); }
+
+    public long getSizeBytes() {
+        return segments.stream().mapToLong(s -> s.size).sum();
+    }
+
+    private static final class Segment {
+        final Path file;
+        final Path indexFile;
+        long size;
+        int blockCount;
+        long[] firstSequences = new long[16];
+        long[] lastSequences = new long[16];
+        long[] offsets = new long[16];
+        int[] lengths = new int[16];
+        int[] counts = new int[16];
+
+        private Segment(Path file) {
+            this.file = file;
+            String name = file.getFileName().toString();
+            this.indexFile = file.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+        }
+
+        static Segment create(Path file) throws IOException {
+            Segment segment = new Segment(file);
+            Files.createFile(file);
+            Files.createFile(segment.indexFile);
+            return segment;
+        }
+
+        static Segment open(Path file) throws IOException {
+            Segment segment = new Segment(file);
+            long fileSize = Files.size(file);
+            long validIndexBytes = 0;
+            if (Files.exists(segment.indexFile)) {
+                ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(segment.indexFile));
+                while (index.remaining() >= INDEX_ENTRY_BYTES) {
+                    long first = index.getLong();
+                    long last = index.getLong();
+                    long offset = index.getLong();
+                    int length = index.getInt();
+                    if (offset != segment.size || offset + length > fileSize) {
+                        // Torn tail: the block this entry points at never made it to disk
+                        break;
+                    }
+                    segment.put(first, last, offset, length, 0);
+                    segment.size = offset + length;
+                    validIndexBytes += INDEX_ENTRY_BYTES;
+                }
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(segment.size);
+            }
+            try (FileChannel channel = FileChannel.open(segment.indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.truncate(validIndexBytes);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+                for (int b = 0; b < segment.blockCount; b++) {
+                    header.clear();
+                    channel.read(header, segment.offsets[b]);
+                    segment.counts[b] = header.getInt(4);
+                }
+            }
+            return segment;
+        }
+
+        void addBlock(long first, long last, long offset, int length, int count) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            entry.putLong(first).putLong(last).putLong(offset).putInt(length).flip();
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(entry);
+                channel.force(false);
+            }
+            put(first, last, offset, length, count);
+            size = offset + length;
+        }
+
+        private void put(long first, long last, long offset, int length, int count) {
+            if (blockCount == offsets.length) {
+                int capacity = blockCount * 2;
+                firstSequences = Arrays.copyOf(firstSequences, capacity);
+                lastSequences = Arrays.copyOf(lastSequences, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            firstSequences[blockCount] = first;
+            lastSequences[blockCount] = last;
+            offsets[blockCount] = offset;
+            lengths[blockCount] = length;
+            counts[blockCount] = count;
+            blockCount++;
+        }
+
+        List<Message> readBlock(int block, ObjectMapper objectMapper) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(lengths[block]);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offsets[block] + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of archive segment " + file);
+                    }
+                }
+            }
+            buffer.flip();
+            int compressedLength = buffer.getInt();
+            int count = buffer.getInt();
+
+            List<Message> messages = new ArrayList<>(count);
+            try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                    new ByteArrayInputStream(buffer.array(), BLOCK_HEADER_BYTES, compressedLength)))) {
+                for (int i = 0; i < count; i++) {
+                    byte[] json = new byte[in.readInt()];
+                    in.readFully(json);
+                    messages.add(objectMapper.readValue(json, Message.class));
+                }
+            }
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Room;
+import com.substring.chat.repositories.RoomRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Near-cache of room metadata in front of RoomRepository. Unknown room ids are cached as
+ * misses for a shorter time so repeated lookups of a bad id don't keep hitting Mongo.
+ *
+ * <p>Expired entries are kept for chat.room-cache.stale-ms more: if reloading one fails, the
+ * stale value is served (and retried after the negative TTL) instead of failing the caller.
+ */
+@Service
+public class RoomCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomCache.class);
+
+    private final RoomRepository roomRepository;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final long staleMillis;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+
+    public RoomCache(RoomRepository roomRepository,
+                     @Value("${chat.room-cache.max-size:10000}") int maxSize,
+                     @Value("${chat.room-cache.ttl-ms:600000}") long ttlMillis,
+                     @Value("${chat.room-cache.negative-ttl-ms:30000}") long negativeTtlMillis,
+                     @Value("${chat.room-cache.stale-ms:3600000}") long staleMillis) {
+        this.roomRepository = roomRepository;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * Returns the room, or null if no room with that id exists. Throws only if the repository
+     * fails and nothing, not even a stale entry, is cached for the id.
+     */
+    public Room get(String roomId) {
+        if (roomId == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(roomId);
+        if (entry != null && entry.expiresAt > now) {
+            if (entry.room == null) {
+                negativeHits.increment();
+            } else {
+                hits.increment();
+            }
+            return entry.room;
+        }
+
+        misses.increment();
+        Room room;
+        try {
+            room = roomRepository.findByRoomId(roomId);
+        } catch (RuntimeException e) {
+            if (entry == null) {
+                throw e;
+            }
+            staleHits.increment();
+            logger.warn("Room lookup for {} failed, serving cached entry: {}", roomId, e.getMessage());
+            entries.put(roomId, new Entry(entry.room, now + negativeTtlMillis));
+            return entry.room;
+        }
+        store(roomId, room, now);
+        return room;
+    }
+
+    public boolean exists(String roomId) {
+        return get(roomId) != null;
+    }
+
+    /**
+     * Write-through for newly created or updated rooms; also clears any cached miss for the id.
+     */
+    public void put(Room room) {
+        store(room.getRoomId(), room, System.currentTimeMillis());
+    }
+
+    public void invalidate(String roomId) {
+        entries.remove(roomId);
+    }
+
+    private void store(String roomId, Room room, long now) {
+        if (entries.size() >= maxSize && !entries.containsKey(roomId)) {
+            makeRoom(now);
+        }
+        long ttl = room != null ? ttlMillis : negativeTtlMillis;
+        entries.put(roomId, new Entry(room, now + ttl));
+    }
+
+    // Drop expired entries first; if that isn't enough, drop misses and then arbitrary entries
+    private void makeRoom(long now) {
+        removeExpired(now);
+        if (entries.size() < maxSize) {
+            return;
+        }
+        entries.values().removeIf(entry -> entry.room == null);
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() >= maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.room-cache.sweep-ms:60000}")
+    public void sweep() {
+        // Keep recently expired entries as a fallback for when the repository is unreachable
+        removeExpired(System.currentTimeMillis() - staleMillis);
+    }
+
+    private void removeExpired(long now) {
+        entries.values().removeIf(entry -> entry.expiresAt <= now);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("hits", hits.sum());
+        stats.put("negativeHits", negativeHits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("staleHits", staleHits.sum());
+        return stats;
+    }
+
+    private record Entry(Room room, long expiresAt) {}
+}
@@ -0,0 +1,39 @@
+package com.substring.chat.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rejects messages addressed to rooms that don't exist, using the room cache so the check
+ * stays in memory for both known and unknown ids. A room that cannot be looked up because
+ * the store is down is let through; the journal keeps its messages until the store is back.
+ */
+@Component
+@Order(0)
+public class RoomExistsInterceptor implements IngestionInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomExistsInterceptor.class);
+
+    private final RoomCache roomCache;
+
+    public RoomExistsInterceptor(RoomCache roomCache) {
+        this.roomCache = roomCache;
+    }
+
+    @Override
+    public void afterStage(IngestionStage stage, IngestionContext context) {
+        if (stage != IngestionStage.VALIDATE) {
+            return;
+        }
+        String roomId = context.getMessage().getRoomId().trim();
+        try {
+            if (!roomCache.exists(roomId)) {
+                context.reject("Room not found");
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Cannot check that room {} exists, accepting the message: {}", roomId, e.getMessage());
+        }
+    }
+}
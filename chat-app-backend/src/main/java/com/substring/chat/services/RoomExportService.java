@@ -0,0 +1,226 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.substring.chat.entities.Message;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a room's history as gzip-compressed NDJSON for compliance exports. Messages are read
+ * through {@link MessageHistoryService#stream} (archive first, then a cursor over the hot store,
+ * a batch at a time) and written straight to the response, so memory stays flat however large
+ * the room is.
+ *
+ * <p>Each line is one JSON object with a "type": an "export" header with the filters, one
+ * "message" per message, an "attachment" manifest entry after each message that still has a
+ * stored file (when requested), and an "end" trailer with the counts. A file without the
+ * trailer was cut off.
+ *
+ * <p>Exports run on their own small pool (chat.export.threads, low priority), which is also the
+ * Spring MVC async executor that StreamingResponseBody runs on; see ExportAsyncConfig. Requests
+ * past chat.export.threads + chat.export.queue-capacity are turned away instead of queued.
+ */
+@Service
+public class RoomExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomExportService.class);
+
+    private final MessageHistoryService messageHistoryService;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final int capacity;
+    private final Semaphore slots;
+    private final ThreadPoolTaskExecutor executor;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder messagesExported = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public RoomExportService(MessageHistoryService messageHistoryService,
+                             ObjectMapper objectMapper,
+                             @Value("${chat.export.threads:2}") int threads,
+                             @Value("${chat.export.queue-capacity:4}") int queueCapacity,
+                             @Value("${chat.export.batch-size:500}") int batchSize,
+                             @Value("${chat.export.timeout-ms:1800000}") long timeoutMillis) {
+        this.messageHistoryService = messageHistoryService;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+        this.capacity = threads + queueCapacity;
+        this.slots = new Semaphore(capacity);
+
+        this.executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("room-export-");
+        executor.setThreadPriority(Thread.MIN_PRIORITY);
+        executor.setDaemon(true);
+        executor.initialize();
+    }
+
+    public AsyncTaskExecutor getExecutor() {
+        return executor;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Reserves an export slot and returns the body that writes the export, or null if every
+     * slot is taken. The slot is released when the body finishes.
+     */
+    public StreamingResponseBody export(String roomId, LocalDateTime from, LocalDateTime to, boolean attachments) {
+        if (from != null && to != null && !from.isBefore(to)) {
+            throw new IllegalArgumentException("'from' must be before 'to'");
+        }
+        if (!slots.tryAcquire()) {
+            rejected.increment();
+            return null;
+        }
+        started.increment();
+        return out -> {
+            long start = System.nanoTime();
+            try {
+                long messages = write(out, roomId, from, to, attachments);
+                completed.increment();
+                logger.info("Exported {} messages of room {} in {} ms", messages, roomId, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException | RuntimeException e) {
+                // Usually the client went away; the cursor is closed on the way out
+                failed.increment();
+                logger.warn("Export of room {} failed: {}", roomId, e.getMessage());
+                throw e;
+            } finally {
+                slots.release();
+            }
+        };
+    }
+
+    private long write(OutputStream target, String roomId, LocalDateTime from, LocalDateTime to,
+                       boolean attachments) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(target);
+        GZIPOutputStream gzip = new GZIPOutputStream(counting, 64 * 1024);
+
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("type", "export");
+        header.put("roomId", roomId);
+        header.put("from", from);
+        header.put("to", to);
+        header.put("attachments", attachments);
+        header.put("exportedAt", LocalDateTime.now());
+        writeLine(gzip, header);
+
+        long messages = 0;
+        long files = 0;
+        try (Stream<Message> history = messageHistoryService.stream(roomId, from, to, batchSize)) {
+            Iterator<Message> iterator = history.iterator();
+            while (iterator.hasNext()) {
+                Message message = iterator.next();
+                ObjectNode line = objectMapper.createObjectNode();
+                line.put("type", "message");
+                line.setAll((ObjectNode) objectMapper.valueToTree(message));
+                writeLine(gzip, line);
+                messages++;
+                if (attachments && message.getFileUrl() != null && !message.isDeleted()) {
+                    writeLine(gzip, manifestEntry(message));
+                    files++;
+                }
+            }
+        }
+
+        Map<String, Object> trailer = new LinkedHashMap<>();
+        trailer.put("type", "end");
+        trailer.put("messages", messages);
+        trailer.put("attachments", files);
+        writeLine(gzip, trailer);
+        gzip.finish();
+        gzip.flush();
+
+        messagesExported.add(messages);
+        bytesWritten.add(counting.count);
+        return messages;
+    }
+
+    private static Map<String, Object> manifestEntry(Message message) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("type", "attachment");
+        entry.put("messageId", message.getId());
+        entry.put("fileName", message.getFileName());
+        entry.put("originalFileName", message.getOriginalFileName());
+        entry.put("fileType", message.getFileType());
+        entry.put("fileSize", message.getFileSize());
+        entry.put("fileUrl", message.getFileUrl());
+        entry.put("variants", message.getVariants());
+        return entry;
+    }
+
+    private void writeLine(OutputStream out, Object value) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(value));
+        out.write('\n');
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", capacity - slots.availablePermits());
+        stats.put("capacity", capacity);
+        stats.put("started", started.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("messagesExported", messagesExported.sum());
+        stats.put("bytesWritten", bytesWritten.sum());
+        return stats;
+    }
+
+    /**
+     * Counts the compressed bytes that reach the response.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
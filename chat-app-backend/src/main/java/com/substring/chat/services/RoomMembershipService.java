@@ -0,0 +1,334 @@
+package com.substring.chat.services;
+
+import com.mongodb.client.result.DeleteResult;
+import com.substring.chat.entities.Room;
+import com.substring.chat.entities.RoomMembership;
+import com.substring.chat.repositories.RoomMembershipRepository;
+import com.substring.chat.repositories.RoomRepository;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Who is in which room. Memberships live in room_memberships; for the STOMP authorization
+ * check that runs on every SEND and SUBSCRIBE, each room's members are cached as a bitset
+ * over interned user ids, so a check is a map lookup and a bit test with no allocation.
+ *
+ * <p>A room's bitset is immutable and replaced as a whole when someone joins or leaves
+ * through this service, so readers never lock and a change is visible to the very next
+ * frame. A load that raced a change to its room is not cached. The TTL only bounds how long
+ * a change made outside this instance goes unseen.
+ *
+ * <p>Joining or leaving also follows or unfollows the room in the user's offline mailbox.
+ */
+@Service
+public class RoomMembershipService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomMembershipService.class);
+
+    private final RoomMembershipRepository membershipRepository;
+    private final RoomRepository roomRepository;
+    private final MongoTemplate mongoTemplate;
+    private final OfflineMailboxService offlineMailboxService;
+    private final MentionService mentionService;
+    private final int maxCachedRooms;
+    private final long ttlMillis;
+
+    private final ConcurrentHashMap<String, RoomAcl> cache = new ConcurrentHashMap<>();
+    // Usernames are interned to dense ints once and never released; ids index the ACL bitsets
+    private final ConcurrentHashMap<String, Integer> userIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUserId = new AtomicInteger();
+    // Per room, bumped on every change; a load only installs its result if its room did not change meanwhile
+    private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    public RoomMembershipService(RoomMembershipRepository membershipRepository,
+                                 RoomRepository roomRepository,
+                                 MongoTemplate mongoTemplate,
+                                 OfflineMailboxService offlineMailboxService,
+                                 MentionService mentionService,
+                                 @Value("${chat.membership.cache.max-rooms:10000}") int maxCachedRooms,
+                                 @Value("${chat.membership.cache.ttl-ms:600000}") long ttlMillis) {
+        this.membershipRepository = membershipRepository;
+        this.roomRepository = roomRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.offlineMailboxService = offlineMailboxService;
+        this.mentionService = mentionService;
+        this.maxCachedRooms = maxCachedRooms;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public boolean isMember(String roomId, String username) {
+        if (roomId == null || username == null) {
+            return false;
+        }
+        RoomAcl acl = acl(roomId);
+        Integer userId = userIds.get(username);
+        return userId != null && acl.contains(userId);
+    }
+
+    private RoomAcl acl(String roomId) {
+        long now = System.currentTimeMillis();
+        RoomAcl cached = cache.get(roomId);
+        if (cached != null && cached.expiresAt > now) {
+            hits.increment();
+            return cached;
+        }
+        loads.increment();
+        long seen = versions.getOrDefault(roomId, 0L);
+        BitSet members = new BitSet();
+        for (RoomMembership membership : membershipRepository.findUsernamesByRoomId(roomId)) {
+            members.set(intern(membership.getUsername()));
+        }
+        RoomAcl acl = new RoomAcl(members, now + ttlMillis);
+        if (cache.size() >= maxCachedRooms && !cache.containsKey(roomId)) {
+            evict(now);
+        }
+        // Re-checked under the entry's lock, which changed() also bumps the version under,
+        // so a change can never land between the check and the install
+        cache.compute(roomId, (id, current) -> versions.getOrDefault(id, 0L) == seen ? acl : current);
+        return acl;
+    }
+
+    private int intern(String username) {
+        return userIds.computeIfAbsent(username, name -> nextUserId.getAndIncrement());
+    }
+
+    /**
+     * Adds a member (idempotent). Returns true if they were not a member before.
+     */
+    public boolean join(String roomId, String username, String role) {
+        Update update = new Update()
+                .setOnInsert("roomId", roomId)
+                .setOnInsert("username", username)
+                .setOnInsert("role", role)
+                .setOnInsert("joinedAt", LocalDateTime.now());
+        boolean created = mongoTemplate.upsert(membershipQuery(roomId, username), update, RoomMembership.class)
+                .getUpsertedId() != null;
+        changed(roomId, List.of(username), true);
+        offlineMailboxService.watch(username, roomId);
+        return created;
+    }
+
+    public boolean leave(String roomId, String username) {
+        boolean removed = membershipRepository.deleteByRoomIdAndUsername(roomId, username) > 0;
+        changed(roomId, List.of(username), false);
+        offlineMailboxService.unwatch(username, roomId);
+        return removed;
+    }
+
+    /**
+     * Adds many members in one unordered bulk write; existing members are left untouched.
+     */
+    public int addMembers(String roomId, Collection<String> usernames) {
+        if (usernames.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RoomMembership.class);
+        LocalDateTime now = LocalDateTime.now();
+        for (String username : usernames) {
+            bulk.upsert(membershipQuery(roomId, username), new Update()
+                    .setOnInsert("roomId", roomId)
+                    .setOnInsert("username", username)
+                    .setOnInsert("role", RoomMembership.ROLE_MEMBER)
+                    .setOnInsert("joinedAt", now));
+        }
+        int added = bulk.execute().getUpserts().size();
+        changed(roomId, usernames, true);
+        offlineMailboxService.watchAll(roomId, usernames);
+        return added;
+    }
+
+    public long removeMembers(String roomId, Collection<String> usernames) {
+        if (usernames.isEmpty()) {
+            return 0;
+        }
+        DeleteResult result = mongoTemplate.remove(
+                Query.query(Criteria.where("roomId").is(roomId).and("username").in(usernames)), RoomMembership.class);
+        changed(roomId, usernames, false);
+        offlineMailboxService.unwatchAll(roomId, usernames);
+        return result.getDeletedCount();
+    }
+
+    private void changed(String roomId, Collection<String> usernames, boolean added) {
+        int[] ids = usernames.stream().mapToInt(this::intern).toArray();
+        cache.compute(roomId, (id, acl) -> {
+            versions.merge(id, 1L, Long::sum);
+            return acl == null ? null : added ? acl.with(ids) : acl.without(ids);
+        });
+        mentionService.invalidate(roomId);
+    }
+
+    /**
+     * A user's memberships, in room id (creation) order; read from the user_room index.
+     */
+    public List<RoomMembership> roomsOf(String username) {
+        return membershipRepository.findByUsernameOrderByRoomIdAsc(username);
+    }
+
+    /**
+     * One page of a room's members in username order; pass the last username back as
+     * {@code afterUsername} for the next page.
+     */
+    public List<RoomMembership> membersOf(String roomId, String afterUsername, int limit) {
+        return membershipRepository.findByRoomIdAndUsernameGreaterThanOrderByUsernameAsc(
+                roomId, afterUsername != null ? afterUsername : "", PageRequest.of(0, limit));
+    }
+
+    public long memberCount(String roomId) {
+        return membershipRepository.countByRoomId(roomId);
+    }
+
+    private static Query membershipQuery(String roomId, String username) {
+        return Query.query(Criteria.where("roomId").is(roomId).and("username").is(username));
+    }
+
+    /**
+     * Rooms existed before memberships did, so an empty collection is seeded once at startup.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        try {
+            if (membershipRepository.count() == 0) {
+                Map<String, Object> result = backfill();
+                logger.info("Backfilled room memberships: {}", result);
+            }
+        } catch (Exception e) {
+            logger.warn("Room membership backfill failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Derives memberships from what already records them implicitly: room creators (as
+     * owners), rooms followed in offline mailboxes, and everyone who has sent to a room.
+     */
+    public Map<String, Object> backfill() {
+        Map<String, Set<String>> byRoom = new LinkedHashMap<>();
+        int owners = 0;
+        for (Room room : roomRepository.findAll()) {
+            if (room.getCreatedBy() != null) {
+                join(room.getRoomId(), room.getCreatedBy(), RoomMembership.ROLE_OWNER);
+                owners++;
+            }
+        }
+        for (Document mailbox : mongoTemplate.getCollection("mailboxes").find()) {
+            List<String> watching = mailbox.getList("watching", String.class);
+            if (watching != null) {
+                for (String roomId : watching) {
+                    byRoom.computeIfAbsent(roomId, id -> new LinkedHashSet<>()).add(mailbox.getString("_id"));
+                }
+            }
+        }
+        Aggregation senders = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("sender").ne(MessageIngestionPipeline.SYSTEM_SENDER)),
+                Aggregation.group("roomId", "sender"));
+        for (Document pair : mongoTemplate.aggregate(senders, "messages", Document.class)) {
+            Document id = pair.get("_id", Document.class);
+            if (id.getString("roomId") != null && id.getString("sender") != null) {
+                byRoom.computeIfAbsent(id.getString("roomId"), key -> new LinkedHashSet<>()).add(id.getString("sender"));
+            }
+        }
+        long members = 0;
+        for (Map.Entry<String, Set<String>> entry : byRoom.entrySet()) {
+            members += addMembers(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("owners", owners);
+        result.put("rooms", byRoom.size());
+        result.put("membersAdded", members);
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.membership.cache.sweep-ms:60000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(acl -> acl.expiresAt <= now);
+    }
+
+    private void evict(long now) {
+        cache.values().removeIf(acl -> acl.expiresAt <= now);
+        var keys = cache.keySet().iterator();
+        while (cache.size() >= maxCachedRooms && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cachedRooms", cache.size());
+        stats.put("cachedMembers", cache.values().stream().mapToLong(RoomAcl::size).sum());
+        stats.put("aclBytes", cache.values().stream().mapToLong(RoomAcl::sizeInBytes).sum());
+        stats.put("internedUsers", userIds.size());
+        stats.put("hits", hits.sum());
+        stats.put("loads", loads.sum());
+        return stats;
+    }
+
+    /**
+     * An immutable member bitset; changes produce a copy, so readers need no lock.
+     */
+    static final class RoomAcl {
+        private final BitSet members;
+        final long expiresAt;
+
+        RoomAcl(BitSet members, long expiresAt) {
+            this.members = members;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean contains(int userId) {
+            return members.get(userId);
+        }
+
+        RoomAcl with(int... userIds) {
+            BitSet copy = (BitSet) members.clone();
+            for (int userId : userIds) {
+                copy.set(userId);
+            }
+            return new RoomAcl(copy, expiresAt);
+        }
+
+        RoomAcl without(int... userIds) {
+            BitSet copy = (BitSet) members.clone();
+            for (int userId : userIds) {
+                copy.clear(userId);
+            }
+            return new RoomAcl(copy, expiresAt);
+        }
+
+        int size() {
+            return members.cardinality();
+        }
+
+        long sizeInBytes() {
+            return members.size() / 8;
+        }
+    }
+}
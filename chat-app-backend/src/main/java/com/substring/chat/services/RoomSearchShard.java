@@ -0,0 +1,386 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index for one room. Documents get dense int ids in ingestion order,
+ * and each term's posting list is a pair of growable primitive arrays (doc ids ascending,
+ * term frequencies), so a room with millions of messages stays compact and merges are
+ * linear scans.
+ */
+public class RoomSearchShard {
+
+    private static final int SNAPSHOT_MAGIC = 0x43485358; // "CHSX"
+    // Version 2 adds each document's sequence; version 1 snapshots still load, with sequences unknown (0)
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final float K1 = 1.2f;
+
+    private final String roomId;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private String[] messageIds = new String[64];
+    private long[] createdAt = new long[64];
+    private long[] sequences = new long[64];
+    private int docCount;
+    private final Map<String, Postings> terms = new HashMap<>();
+    private long lastSequence;
+    private volatile boolean dirty;
+
+    public RoomSearchShard(String roomId) {
+        this.roomId = roomId;
+    }
+
+    /**
+     * Adds a message. Messages with a sequence at or below the last indexed one are skipped,
+     * which makes replaying history over a restored snapshot idempotent. Deleted messages
+     * only advance the sequence.
+     */
+    public boolean add(Message message) {
+        lock.writeLock().lock();
+        try {
+            Long sequence = message.getSequence();
+            if (sequence != null && sequence <= lastSequence) {
+                return false;
+            }
+            if (sequence != null) {
+                lastSequence = sequence;
+            }
+            if (message.isDeleted()) {
+                return false;
+            }
+            append(message);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Re-indexes an edited or deleted message: its current document stops matching, and
+     * unless the message is now deleted, the new content is indexed as a fresh document.
+     * Dead postings stay until the shard is rebuilt from history. Returns false if the
+     * message was never indexed here.
+     */
+    public boolean replace(Message message) {
+        lock.writeLock().lock();
+        try {
+            // Edits are almost always of recent messages, so search from the newest end
+            int doc = docCount - 1;
+            while (doc >= 0 && !message.getId().equals(messageIds[doc])) {
+                doc--;
+            }
+            if (doc < 0) {
+                return false;
+            }
+            messageIds[doc] = null;
+            if (!message.isDeleted()) {
+                append(message);
+            }
+            dirty = true;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(Message message) {
+        int doc = docCount;
+        if (doc == messageIds.length) {
+            messageIds = Arrays.copyOf(messageIds, doc * 2);
+            createdAt = Arrays.copyOf(createdAt, doc * 2);
+            sequences = Arrays.copyOf(sequences, doc * 2);
+        }
+        messageIds[doc] = message.getId();
+        createdAt[doc] = message.getCreatedAt() != null ? message.getCreatedAt().toInstant(ZoneOffset.UTC).toEpochMilli() : 0L;
+        sequences[doc] = message.getSequence() != null ? message.getSequence() : 0L;
+        docCount++;
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        tokenize(message.getContent(), frequencies);
+        tokenize(message.getOriginalFileName(), frequencies);
+        tokenize(message.getSender(), frequencies);
+        frequencies.forEach((term, tf) -> terms.computeIfAbsent(term, t -> new Postings()).add(doc, tf));
+        dirty = true;
+    }
+
+    /**
+     * Ranked OR search. Scores are computed against the index as it stood when the first page
+     * was requested (the cursor remembers that size), so pages stay consistent while new
+     * messages keep arriving.
+     */
+    public SearchPage search(String query, int limit, String cursor) {
+        List<String> queryTerms = new ArrayList<>(tokenize(query, new LinkedHashMap<>()).keySet());
+
+        lock.readLock().lock();
+        try {
+            Cursor after = Cursor.decode(cursor);
+            int snapshot = after != null ? Math.min(after.snapshot, docCount) : docCount;
+
+            List<Postings> lists = new ArrayList<>();
+            List<Float> idfs = new ArrayList<>();
+            for (String term : queryTerms) {
+                Postings postings = terms.get(term);
+                if (postings == null) {
+                    continue;
+                }
+                int df = postings.countBelow(snapshot);
+                if (df == 0) {
+                    continue;
+                }
+                lists.add(postings);
+                idfs.add((float) Math.log(1 + (snapshot - df + 0.5) / (df + 0.5)));
+            }
+
+            // Min-heap of the best `limit` hits after the cursor, ordered by (score, doc)
+            PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, Hit.RANK.reversed());
+            int[] heads = new int[lists.size()];
+            while (true) {
+                int doc = Integer.MAX_VALUE;
+                for (int i = 0; i < lists.size(); i++) {
+                    Postings postings = lists.get(i);
+                    if (heads[i] < postings.size && postings.docs[heads[i]] < doc) {
+                        doc = postings.docs[heads[i]];
+                    }
+                }
+                if (doc >= snapshot) {
+                    break;
+                }
+
+                float score = 0f;
+                for (int i = 0; i < lists.size(); i++) {
+                    Postings postings = lists.get(i);
+                    if (heads[i] < postings.size && postings.docs[heads[i]] == doc) {
+                        int tf = postings.freqs[heads[i]] & 0xFF;
+                        score += idfs.get(i) * (tf * (K1 + 1)) / (tf + K1);
+                        heads[i]++;
+                    }
+                }
+
+                if (after != null && !after.precedes(score, doc)) {
+                    continue;
+                }
+                if (messageIds[doc] == null || messageIds[doc].isEmpty()) {
+                    continue; // superseded by an edit, or deleted
+                }
+                top.add(new Hit(doc, messageIds[doc], score, createdAt[doc], sequences[doc]));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>(top);
+            hits.sort(Hit.RANK);
+            String next = null;
+            if (hits.size() == limit) {
+                Hit last = hits.get(hits.size() - 1);
+                next = new Cursor(snapshot, last.score, last.doc).encode();
+            }
+            return new SearchPage(hits, next);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void writeSnapshot(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(roomId);
+            out.writeLong(lastSequence);
+            out.writeInt(docCount);
+            for (int doc = 0; doc < docCount; doc++) {
+                out.writeUTF(messageIds[doc] != null ? messageIds[doc] : "");
+                out.writeLong(createdAt[doc]);
+                out.writeLong(sequences[doc]);
+            }
+            out.writeInt(terms.size());
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                Postings postings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(postings.size);
+                int previous = 0;
+                for (int i = 0; i < postings.size; i++) {
+                    // Doc ids are ascending, so deltas are small and varint-encode to a byte or two
+                    writeVarInt(out, postings.docs[i] - previous);
+                    previous = postings.docs[i];
+                    out.writeByte(postings.freqs[i]);
+                }
+            }
+            dirty = false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static RoomSearchShard readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Unrecognized search snapshot");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported search snapshot version " + version);
+        }
+        RoomSearchShard shard = new RoomSearchShard(in.readUTF());
+        shard.lastSequence = in.readLong();
+        int docs = in.readInt();
+        shard.messageIds = new String[Math.max(64, docs)];
+        shard.createdAt = new long[Math.max(64, docs)];
+        shard.sequences = new long[Math.max(64, docs)];
+        for (int doc = 0; doc < docs; doc++) {
+            shard.messageIds[doc] = in.readUTF();
+            shard.createdAt[doc] = in.readLong();
+            if (version >= 2) {
+                shard.sequences[doc] = in.readLong();
+            }
+        }
+        shard.docCount = docs;
+        int termCount = in.readInt();
+        for (int t = 0; t < termCount; t++) {
+            String term = in.readUTF();
+            int size = in.readInt();
+            Postings postings = new Postings(size);
+            int doc = 0;
+            for (int i = 0; i < size; i++) {
+                doc += readVarInt(in);
+                postings.docs[i] = doc;
+                postings.freqs[i] = in.readByte();
+            }
+            postings.size = size;
+            shard.terms.put(term, postings);
+        }
+        return shard;
+    }
+
+    static Map<String, Integer> tokenize(String text, Map<String, Integer> into) {
+        if (text == null) {
+            return into;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                into.merge(text.substring(start, i).toLowerCase(Locale.ROOT), 1, Integer::sum);
+                start = -1;
+            }
+        }
+        return into;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    public String getRoomId() { return roomId; }
+
+    public boolean isDirty() { return dirty; }
+
+    public int getDocCount() { return docCount; }
+
+    public int getTermCount() { return terms.size(); }
+
+    public long getLastSequence() { return lastSequence; }
+
+    private static final class Postings {
+        int[] docs;
+        byte[] freqs;
+        int size;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            docs = new int[Math.max(4, capacity)];
+            freqs = new byte[Math.max(4, capacity)];
+        }
+
+        void add(int doc, int tf) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = (byte) Math.min(tf, 255);
+            size++;
+        }
+
+        // Number of postings with doc < bound
+        int countBelow(int bound) {
+            int index = Arrays.binarySearch(docs, 0, size, bound);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    /**
+     * One ranked document; {@code sequence} is 0 when unknown (legacy messages, version 1 snapshots).
+     */
+    public record Hit(int doc, String messageId, float score, long createdAt, long sequence) {
+        // Best first: higher score, then newer document
+        static final Comparator<Hit> RANK = Comparator
+                .comparingDouble((Hit h) -> -h.score)
+                .thenComparingInt(h -> -h.doc);
+    }
+
+    public record SearchPage(List<Hit> hits, String nextCursor) {}
+
+    private record Cursor(int snapshot, float score, int doc) {
+
+        boolean precedes(float otherScore, int otherDoc) {
+            return otherScore < score || (otherScore == score && otherDoc < doc);
+        }
+
+        String encode() {
+            String raw = snapshot + ":" + Float.floatToIntBits(score) + ":" + doc;
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        static Cursor decode(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+                String[] parts = raw.split(":");
+                return new Cursor(Integer.parseInt(parts[0]), Float.intBitsToFloat(Integer.parseInt(parts[1])), Integer.parseInt(parts[2]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid search cursor");
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out a monotonically increasing sequence number per room.
+ *
+ * <p>Sequences are reserved in blocks of chat.sequencer.reserve: before a room issues a number
+ * past its reservation, the new ceiling is written to a local state file. A room is then
+ * seeded from that ceiling (or the journal or archive, if either is ahead) without asking the
+ * message store, so a slow or unreachable store never stalls sequencing; a restart may skip
+ * up to one block. Only rooms this node has no record of are seeded from the store.
+ */
+@Component
+public class RoomSequencer {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomSequencer.class);
+
+    private final MessageStore messageStore;
+    private final MessageArchiveService messageArchiveService;
+    private final SpillJournal spillJournal;
+    private final Path stateFile;
+    private final long reserve;
+    private final ConcurrentHashMap<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+    // Per room, a ceiling no issued sequence exceeds
+    private final ConcurrentHashMap<String, Long> reserved = new ConcurrentHashMap<>();
+
+    public RoomSequencer(MessageStore messageStore,
+                         MessageArchiveService messageArchiveService,
+                         SpillJournal spillJournal,
+                         @Value("${chat.sequencer.state-file:./journal/sequences}") String stateFile,
+                         @Value("${chat.sequencer.reserve:1000}") long reserve) throws IOException {
+        this.messageStore = messageStore;
+        this.messageArchiveService = messageArchiveService;
+        this.spillJournal = spillJournal;
+        this.stateFile = Paths.get(stateFile).toAbsolutePath().normalize();
+        this.reserve = Math.max(1, reserve);
+        readState();
+    }
+
+    public long next(String roomId) {
+        long next = sequences.computeIfAbsent(roomId, this::seed).incrementAndGet();
+        if (next > reserved.getOrDefault(roomId, 0L)) {
+            reserve(roomId, next);
+        }
+        return next;
+    }
+
+    public long current(String roomId) {
+        AtomicLong sequence = sequences.get(roomId);
+        return sequence != null ? sequence.get() : seed(roomId).get();
+    }
+
+    private AtomicLong seed(String roomId) {
+        // A room whose history has been fully archived has nothing left in the hot store,
+        // and one written during an outage may only exist in the journal so far
+        long start = Math.max(messageArchiveService.lastSequence(roomId), spillJournal.pendingSequence(roomId));
+        Long ceiling = reserved.get(roomId);
+        if (ceiling != null) {
+            return new AtomicLong(Math.max(start, ceiling));
+        }
+        Message latest = messageStore.findLatest(roomId);
+        if (latest != null && latest.getSequence() != null) {
+            start = Math.max(start, latest.getSequence());
+        }
+        return new AtomicLong(start);
+    }
+
+    private synchronized void reserve(String roomId, long sequence) {
+        if (sequence <= reserved.getOrDefault(roomId, 0L)) {
+            return;
+        }
+        reserved.put(roomId, sequence + reserve - 1);
+        try {
+            writeState();
+        } catch (IOException e) {
+            // A stale file would let a restart reuse sequences; without one it seeds from the
+            // store instead, until a later write succeeds
+            logger.error("Failed to save sequence reservations to {}: {}", stateFile, e.getMessage());
+            try {
+                Files.deleteIfExists(stateFile);
+            } catch (IOException ignored) {
+                logger.error("Failed to remove stale sequence reservations {}", stateFile);
+            }
+        }
+    }
+
+    private void readState() throws IOException {
+        if (!Files.exists(stateFile)) {
+            return;
+        }
+        for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+            int separator = line.lastIndexOf(' ');
+            if (separator > 0) {
+                try {
+                    reserved.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring malformed sequence reservation: {}", line);
+                }
+            }
+        }
+    }
+
+    private void writeState() throws IOException {
+        List<String> lines = new ArrayList<>(reserved.size());
+        for (Map.Entry<String, Long> entry : reserved.entrySet()) {
+            lines.add(entry.getKey() + " " + entry.getValue());
+        }
+        Files.createDirectories(stateFile.getParent());
+        Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,73 @@
+package com.substring.chat.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snowflake-style ids: 41 bits of milliseconds since 2024-01-01, 10 bits of node id and
+ * 12 bits of per-millisecond sequence. Unique across nodes without any database check,
+ * and increasing over time so index inserts stay append-friendly.
+ *
+ * <p>Uniqueness across nodes depends on every instance having its own node id, so when more
+ * than one instance runs (chat.id.instances) each must be given chat.id.node-id explicitly.
+ */
+@Service
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    // Last issued (timestamp << SEQUENCE_BITS | sequence)
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdGenerator(@Value("${chat.id.node-id:-1}") long nodeId,
+                                @Value("${chat.id.instances:1}") int instances) {
+        if (nodeId > MAX_NODE || nodeId < -1) {
+            throw new IllegalArgumentException("chat.id.node-id must be between 0 and " + MAX_NODE + ", got " + nodeId);
+        }
+        if (nodeId < 0 && instances > 1) {
+            throw new IllegalStateException("chat.id.node-id must be set to a distinct value on each instance when chat.id.instances is " + instances);
+        }
+        // A lone instance cannot collide with anyone, so it simply takes node 0
+        this.node = nodeId >= 0 ? nodeId : 0;
+    }
+
+    @Override
+    public long nextId() {
+        while (true) {
+            long now = System.currentTimeMillis() - EPOCH_MILLIS;
+            long last = state.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+
+            long timestamp;
+            long sequence;
+            if (now > lastTimestamp) {
+                timestamp = now;
+                sequence = 0;
+            } else {
+                // Same millisecond, or the clock moved backwards: keep counting from the last
+                // timestamp and borrow the next millisecond when the sequence runs out
+                timestamp = lastTimestamp;
+                sequence = (last & SEQUENCE_MASK) + 1;
+                if (sequence > SEQUENCE_MASK) {
+                    timestamp++;
+                    sequence = 0;
+                }
+            }
+
+            if (state.compareAndSet(last, (timestamp << SEQUENCE_BITS) | sequence)) {
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+
+    public long getNode() {
+        return node;
+    }
+}
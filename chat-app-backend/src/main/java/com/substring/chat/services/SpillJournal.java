@@ -0,0 +1,491 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Local write-ahead journal that keeps chat working while the message store is slow or down.
+ *
+ * <p>Once a persist fails (or takes longer than chat.journal.slow-threshold-ms) the journal
+ * switches the pipeline into degraded mode: messages are appended here instead of the store
+ * and still broadcast. A scheduled replayer drains the journal into the store in batches,
+ * oldest first, and leaves degraded mode once it has caught up. Replays are idempotent by
+ * message id, so a message that did reach the store before a timeout is not written twice.
+ *
+ * <p>Records are {@code [length][crc32][journaled-at millis][json]}, appended sequentially to
+ * numbered segment files. Appenders share fsyncs: whoever takes the sync lock forces
+ * everything written so far, and writers that were waiting behind it find their data already
+ * covered. Replay progress is a (segment, offset) checkpoint written atomically.
+ */
+@Service
+public class SpillJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillJournal.class);
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = 4 + 4 + 8;
+
+    private final MessageStore messageStore;
+    private final ObjectMapper objectMapper;
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final int replayBatchSize;
+    private final long slowThresholdMillis;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    private long segmentNumber;
+    private long segmentSize;
+    // Monotonic byte counters across segments, for group fsync
+    private volatile long writtenPosition;
+    private volatile long syncedPosition;
+
+    // Replay position: next record to hand to the store
+    private long checkpointSegment;
+    private long checkpointOffset;
+    private final ConcurrentHashMap<String, Long> pendingSequences = new ConcurrentHashMap<>();
+    private volatile long pendingMessages;
+    private volatile long oldestPendingAt;
+    private volatile boolean degraded;
+
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder replayFailures = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private volatile String lastReplayError;
+    // Where replay found a record it cannot read past, if it has
+    private volatile String corruptRecord;
+
+    public SpillJournal(MessageStore messageStore,
+                        ObjectMapper objectMapper,
+                        @Value("${chat.journal.dir:./journal}") String dir,
+                        @Value("${chat.journal.max-segment-bytes:67108864}") long maxSegmentBytes,
+                        @Value("${chat.journal.replay-batch-size:500}") int replayBatchSize,
+                        @Value("${chat.journal.slow-threshold-ms:2000}") long slowThresholdMillis) throws IOException {
+        this.messageStore = messageStore;
+        this.objectMapper = objectMapper;
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.replayBatchSize = replayBatchSize;
+        this.slowThresholdMillis = slowThresholdMillis;
+        recover();
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(dir);
+        Path checkpoint = dir.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            String[] parts = Files.readString(checkpoint, StandardCharsets.US_ASCII).trim().split(":");
+            checkpointSegment = Long.parseLong(parts[0]);
+            checkpointOffset = Long.parseLong(parts[1]);
+        }
+
+        List<Long> segments = segmentNumbers();
+        for (long number : segments) {
+            if (number < checkpointSegment) {
+                Files.deleteIfExists(segmentFile(number));
+            }
+        }
+        segments.removeIf(number -> number < checkpointSegment);
+        if (segments.isEmpty()) {
+            segments.add(Math.max(checkpointSegment, 1));
+        }
+        if (checkpointSegment < segments.get(0)) {
+            checkpointSegment = segments.get(0);
+            checkpointOffset = 0;
+        }
+
+        // Count what still has to be replayed and cut off a torn tail
+        for (long number : segments) {
+            long from = number == checkpointSegment ? checkpointOffset : 0;
+            long end = scan(number, from, Long.MAX_VALUE, Integer.MAX_VALUE, null);
+            if (!Files.exists(segmentFile(number))) {
+                continue;
+            }
+            try (FileChannel file = FileChannel.open(segmentFile(number), StandardOpenOption.WRITE)) {
+                if (file.size() > end) {
+                    logger.warn("Truncating torn journal tail in segment {} at {}", number, end);
+                    file.truncate(end);
+                }
+            }
+        }
+        segmentNumber = segments.get(segments.size() - 1);
+        channel = FileChannel.open(segmentFile(segmentNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = channel.size();
+
+        if (pendingMessages > 0) {
+            degraded = true;
+            logger.warn("Journal holds {} messages that have not reached the message store yet", pendingMessages);
+        }
+    }
+
+    /**
+     * True while messages must go to the journal instead of the store.
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * Persists a message through the store unless degraded, falling back to the journal when
+     * the store fails. Slow-but-successful writes also switch to degraded mode so the next
+     * messages stop queueing behind the store. Returns true if the message was journaled.
+     */
+    public boolean persist(Message message) {
+        if (!degraded) {
+            long start = System.currentTimeMillis();
+            try {
+                messageStore.insert(message);
+                long millis = System.currentTimeMillis() - start;
+                if (millis > slowThresholdMillis) {
+                    logger.warn("Message store took {} ms to persist a message, switching to the journal", millis);
+                    degraded = true;
+                }
+                return false;
+            } catch (DuplicateKeyException e) {
+                // The store answered; this is a caller bug, not an outage
+                throw e;
+            } catch (RuntimeException e) {
+                logger.warn("Message store unavailable, journaling message {}: {}", message.getId(), e.getMessage());
+            }
+        }
+        append(message);
+        return true;
+    }
+
+    /**
+     * Durably appends a message; returns once the record has been forced to disk.
+     */
+    public void append(Message message) {
+        long position;
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(message);
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+            CRC32 crc = new CRC32();
+            long now = System.currentTimeMillis();
+            record.putInt(payload.length).putInt(0).putLong(now).put(payload);
+            crc.update(record.array(), 8, record.capacity() - 8);
+            record.putInt(4, (int) crc.getValue()).flip();
+
+            writeLock.lock();
+            try {
+                if (segmentSize > 0 && segmentSize + record.limit() > maxSegmentBytes) {
+                    roll();
+                }
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                segmentSize += record.limit();
+                writtenPosition += record.limit();
+                position = writtenPosition;
+
+                if (pendingMessages == 0) {
+                    oldestPendingAt = now;
+                }
+                pendingMessages++;
+                pendingSequences.merge(message.getRoomId(), message.getSequence() != null ? message.getSequence() : 0L, Math::max);
+                degraded = true;
+            } finally {
+                writeLock.unlock();
+            }
+            sync(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to journal message " + message.getId(), e);
+        }
+        spilled.increment();
+    }
+
+    private void sync(long position) throws IOException {
+        if (syncedPosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                // The writer ahead of us forced our bytes along with its own
+                return;
+            }
+            long target = writtenPosition;
+            FileChannel current;
+            writeLock.lock();
+            try {
+                current = channel;
+            } finally {
+                writeLock.unlock();
+            }
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                // Rolled over meanwhile; roll() forced the old segment before closing it
+            }
+            fsyncs.increment();
+            syncedPosition = target;
+        }
+    }
+
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.close();
+        segmentNumber++;
+        channel = FileChannel.open(segmentFile(segmentNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = 0;
+    }
+
+    /**
+     * Highest journaled sequence of a room that has not been replayed yet, or 0.
+     */
+    public long pendingSequence(String roomId) {
+        return pendingSequences.getOrDefault(roomId, 0L);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.journal.replay-interval-ms:1000}")
+    public void replay() {
+        if (!degraded) {
+            return;
+        }
+        if (pendingMessages == 0) {
+            // Switched over because the store was slow; probe it before switching back
+            try {
+                messageStore.findLatest("");
+                degraded = false;
+                logger.info("Message store reachable again, leaving degraded mode");
+            } catch (RuntimeException e) {
+                lastReplayError = e.getMessage();
+            }
+            return;
+        }
+
+        try {
+            String corrupt = null;
+            while (pendingMessages > 0) {
+                List<Message> batch = new ArrayList<>(replayBatchSize);
+                long segment;
+                long next;
+                long end;
+                writeLock.lock();
+                try {
+                    segment = checkpointSegment;
+                    end = segment == segmentNumber ? segmentSize : Long.MAX_VALUE;
+                } finally {
+                    writeLock.unlock();
+                }
+                // Only read what appenders have finished writing and counted
+                next = scan(segment, checkpointOffset, end, replayBatchSize, batch);
+                if (batch.isEmpty() && next >= end) {
+                    break;
+                }
+                if (batch.isEmpty() && next < readableBytes(segment, end)) {
+                    // A record that fails its length or CRC check with data after it. Skipping
+                    // it could lose or misorder messages, so replay stops here for an operator
+                    corrupt = "segment " + segment + " offset " + next;
+                    break;
+                }
+                if (!batch.isEmpty()) {
+                    messageStore.insertMissing(batch);
+                    replayed.add(batch.size());
+                }
+                advance(segment, next, batch);
+            }
+            if (corrupt != null) {
+                if (!corrupt.equals(corruptRecord)) {
+                    logger.error("Corrupt journal record at {}; replay stopped there with {} messages pending", corrupt, pendingMessages);
+                }
+                corruptRecord = corrupt;
+                lastReplayError = "Corrupt journal record at " + corrupt;
+            } else {
+                corruptRecord = null;
+                lastReplayError = null;
+            }
+        } catch (RuntimeException | IOException e) {
+            replayFailures.increment();
+            lastReplayError = e.getMessage();
+            logger.debug("Journal replay deferred: {}", e.getMessage());
+        }
+    }
+
+    private void advance(long segment, long offset, List<Message> batch) throws IOException {
+        writeLock.lock();
+        try {
+            Path file = segmentFile(segment);
+            boolean exhausted = segment < segmentNumber && (!Files.exists(file) || offset >= Files.size(file));
+            checkpointSegment = exhausted ? segment + 1 : segment;
+            checkpointOffset = exhausted ? 0 : offset;
+            writeCheckpoint();
+            if (exhausted) {
+                Files.deleteIfExists(file);
+            }
+
+            pendingMessages -= batch.size();
+            if (pendingMessages == 0) {
+                pendingSequences.clear();
+                degraded = false;
+                logger.info("Journal drained, leaving degraded mode");
+            } else {
+                oldestPendingAt = peekJournaledAt();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private long readableBytes(long segment, long limit) throws IOException {
+        Path file = segmentFile(segment);
+        return Files.exists(file) ? Math.min(Files.size(file), limit) : 0;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(temp, checkpointSegment + ":" + checkpointOffset, StandardCharsets.US_ASCII);
+        Files.move(temp, dir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private long peekJournaledAt() throws IOException {
+        try (FileChannel file = FileChannel.open(segmentFile(checkpointSegment), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (file.read(header, checkpointOffset) < HEADER_BYTES) {
+                return System.currentTimeMillis();
+            }
+            return header.getLong(8);
+        }
+    }
+
+    /**
+     * Reads up to {@code max} valid records of a segment between {@code offset} and
+     * {@code limit}, adding them to {@code into} (or only counting them during recovery).
+     * Returns the offset after the last valid record.
+     */
+    private long scan(long segment, long offset, long limit, int max, List<Message> into) throws IOException {
+        Path file = segmentFile(segment);
+        if (!Files.exists(file)) {
+            return offset;
+        }
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(reader.size(), limit);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            int read = 0;
+            while (read < max && offset + HEADER_BYTES <= size) {
+                header.clear();
+                reader.read(header, offset);
+                int length = header.getInt(0);
+                if (length <= 0 || offset + HEADER_BYTES + length > size) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+                reader.read(record, offset);
+                crc.reset();
+                crc.update(record.array(), 8, record.capacity() - 8);
+                if ((int) crc.getValue() != record.getInt(4)) {
+                    break;
+                }
+                Message message = objectMapper.readValue(record.array(), HEADER_BYTES, length, Message.class);
+                if (into != null) {
+                    into.add(message);
+                } else {
+                    if (pendingMessages == 0) {
+                        oldestPendingAt = record.getLong(8);
+                    }
+                    pendingMessages++;
+                    pendingSequences.merge(message.getRoomId(), message.getSequence() != null ? message.getSequence() : 0L, Math::max);
+                }
+                offset += HEADER_BYTES + length;
+                read++;
+            }
+        }
+        return offset;
+    }
+
+    private List<Long> segmentNumbers() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) listing::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    numbers.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private Path segmentFile(long number) {
+        return dir.resolve(String.format("%020d", number) + SEGMENT_SUFFIX);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Map<String, Object> getHealth() {
+        long lagMillis = pendingMessages == 0 ? 0 : System.currentTimeMillis() - oldestPendingAt;
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("status", degraded ? "DEGRADED" : "UP");
+        health.put("pendingMessages", pendingMessages);
+        health.put("journalBytes", journalBytes());
+        health.put("replayLagMillis", lagMillis);
+        health.put("lastReplayError", lastReplayError);
+        return health;
+    }
+
+    private long journalBytes() {
+        writeLock.lock();
+        try {
+            long bytes = 0;
+            for (long number = checkpointSegment; number <= segmentNumber; number++) {
+                Path file = segmentFile(number);
+                bytes += Files.exists(file) ? Files.size(file) : 0;
+            }
+            return Math.max(0, bytes - checkpointOffset);
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = getHealth();
+        stats.put("spilled", spilled.sum());
+        stats.put("replayed", replayed.sum());
+        stats.put("replayFailures", replayFailures.sum());
+        stats.put("fsyncs", fsyncs.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,228 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Threaded replies. A message sent with a parentId is a reply: it is checked against its
+ * parent while validating, stamped with the thread's root (the parent's root, or the parent
+ * itself), and broadcast on the thread topic /topic/room/{roomId}/thread/{rootId} instead of
+ * the room topic, so only clients that opened the thread receive it.
+ *
+ * <p>The root carries a reply count and a pointer to the newest reply. Neither is written per
+ * reply: replies are counted per root in memory and folded in every
+ * chat.threads.flush-interval-ms as one $inc/$set, followed by a single {@code type: "thread"}
+ * summary on the room topic so the room view can update its "N replies" line.
+ */
+@Service
+@Order(20)
+public class ThreadService implements IngestionInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadService.class);
+
+    public static final String THREAD_TYPE = "thread";
+
+    private final MessageStore messageStore;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MessageReactionService messageReactionService;
+    private final int maxPageSize;
+
+    private final ConcurrentHashMap<String, PendingThread> pending = new ConcurrentHashMap<>();
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder rejectedReplies = new LongAdder();
+    private final LongAdder rootsUpdated = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    public ThreadService(MessageStore messageStore,
+                         SimpMessagingTemplate messagingTemplate,
+                         MessageReactionService messageReactionService,
+                         @Value("${chat.threads.max-page-size:100}") int maxPageSize) {
+        this.messageStore = messageStore;
+        this.messagingTemplate = messagingTemplate;
+        this.messageReactionService = messageReactionService;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Override
+    public void afterStage(IngestionStage stage, IngestionContext context) {
+        Message message = context.getMessage();
+        if (stage == IngestionStage.VALIDATE) {
+            resolveThread(context, message);
+        } else if (stage == IngestionStage.PERSIST && message.getThreadRootId() != null) {
+            // compute() keeps the add and the flush's remove() from interleaving
+            pending.compute(message.getThreadRootId(), (rootId, thread) -> {
+                PendingThread target = thread != null ? thread : new PendingThread(message.getRoomId());
+                target.add(message);
+                return target;
+            });
+            replies.increment();
+        }
+    }
+
+    private void resolveThread(IngestionContext context, Message message) {
+        String parentId = message.getParentId();
+        if (parentId == null || parentId.trim().isEmpty()) {
+            message.setParentId(null);
+            message.setThreadRootId(null);
+            return;
+        }
+        List<Message> found;
+        try {
+            found = messageStore.findAllById(List.of(parentId));
+        } catch (Exception e) {
+            logger.warn("Failed to look up parent {} of a reply in room {}: {}", parentId, message.getRoomId(), e.getMessage());
+            context.reject("Thread is unavailable");
+            rejectedReplies.increment();
+            return;
+        }
+        Message parent = found.isEmpty() ? null : found.get(0);
+        if (parent == null || !message.getRoomId().trim().equals(parent.getRoomId())) {
+            context.reject("Parent message not found");
+            rejectedReplies.increment();
+        } else if (parent.isDeleted()) {
+            context.reject("Cannot reply to a deleted message");
+            rejectedReplies.increment();
+        } else {
+            // Replies to replies join the same thread; threads stay one level deep
+            message.setThreadRootId(parent.getThreadRootId() != null ? parent.getThreadRootId() : parent.getId());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.threads.flush-interval-ms:500}")
+    public void flush() {
+        for (String rootId : pending.keySet()) {
+            PendingThread thread = pending.remove(rootId);
+            if (thread == null) {
+                continue;
+            }
+            Message root = new Message();
+            root.setId(rootId);
+            root.setRoomId(thread.roomId);
+
+            Map<String, Object> lastReply = new LinkedHashMap<>();
+            lastReply.put("lastReplyId", thread.lastReplyId);
+            lastReply.put("lastReplySender", thread.lastReplySender);
+            lastReply.put("lastReplyAt", thread.lastReplyAt);
+            try {
+                messageStore.increment(root, Map.of("replyCount", thread.count), lastReply);
+                rootsUpdated.increment();
+            } catch (Exception e) {
+                // Put the counts back; they go out with the next flush
+                flushFailures.increment();
+                pending.merge(rootId, thread, PendingThread::merge);
+                logger.warn("Failed to update thread root {}: {}", rootId, e.getMessage());
+                continue;
+            }
+            broadcast(rootId, thread);
+        }
+    }
+
+    private void broadcast(String rootId, PendingThread thread) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("type", THREAD_TYPE);
+        summary.put("roomId", thread.roomId);
+        summary.put("rootId", rootId);
+        summary.put("newReplies", thread.count);
+        summary.put("lastReplyId", thread.lastReplyId);
+        summary.put("lastReplySender", thread.lastReplySender);
+        summary.put("lastReplyAt", thread.lastReplyAt);
+        try {
+            messagingTemplate.convertAndSend(MessageIngestionPipeline.roomTopic(thread.roomId), summary);
+        } catch (Exception e) {
+            logger.warn("Failed to broadcast thread summary for {}: {}", rootId, e.getMessage());
+        }
+    }
+
+    /**
+     * One page of a thread: the root (first page only) and up to {@code limit} replies before
+     * {@code beforeSequence}, oldest first, with the cursor for the next older page.
+     */
+    public Map<String, Object> page(String roomId, String rootId, Long beforeSequence, Integer limit) {
+        List<Message> found = messageStore.findAllById(List.of(rootId));
+        Message root = found.isEmpty() ? null : found.get(0);
+        if (root == null || !roomId.equals(root.getRoomId()) || root.getThreadRootId() != null) {
+            throw new IllegalArgumentException("Thread not found");
+        }
+        int size = limit == null || limit <= 0 ? maxPageSize : Math.min(limit, maxPageSize);
+        List<Message> page = messageStore.findThreadPage(roomId, rootId, beforeSequence, size);
+
+        // Replies not folded into the root yet still count
+        PendingThread unflushed = pending.get(rootId);
+        if (unflushed != null) {
+            root.setReplyCount(root.getReplyCount() + unflushed.count);
+        }
+        List<Message> shown = new ArrayList<>(page);
+        shown.add(root);
+        messageReactionService.attach(shown);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("root", beforeSequence == null ? root : null);
+        result.put("replyCount", root.getReplyCount());
+        result.put("replies", page);
+        result.put("next", page.size() == size ? page.get(0).getSequence() : null);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("replies", replies.sum());
+        stats.put("rejectedReplies", rejectedReplies.sum());
+        stats.put("pendingRoots", pending.size());
+        stats.put("rootsUpdated", rootsUpdated.sum());
+        stats.put("flushFailures", flushFailures.sum());
+        return stats;
+    }
+
+    /**
+     * Replies to one root since the last flush: how many, and the newest of them.
+     */
+    static final class PendingThread {
+        final String roomId;
+        long count;
+        String lastReplyId;
+        String lastReplySender;
+        LocalDateTime lastReplyAt;
+        long lastSequence = -1;
+
+        PendingThread(String roomId) {
+            this.roomId = roomId;
+        }
+
+        void add(Message reply) {
+            count++;
+            long sequence = reply.getSequence() != null ? reply.getSequence() : 0L;
+            if (sequence >= lastSequence) {
+                lastSequence = sequence;
+                lastReplyId = reply.getId();
+                lastReplySender = reply.getSender();
+                lastReplyAt = reply.getCreatedAt();
+            }
+        }
+
+        PendingThread merge(PendingThread other) {
+            PendingThread merged = new PendingThread(roomId);
+            merged.count = count + other.count;
+            PendingThread last = other.lastSequence >= lastSequence ? other : this;
+            merged.lastSequence = last.lastSequence;
+            merged.lastReplyId = last.lastReplyId;
+            merged.lastReplySender = last.lastReplySender;
+            merged.lastReplyAt = last.lastReplyAt;
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates downscaled variants of uploaded images in the background. Variants are written
+ * next to the original as "{name}_thumb.jpg" / "{name}_preview.jpg" and their URLs are set on
+ * the message's "variants" field once they exist. Uploads never wait on this work: when the
+ * queue is full the job is dropped and the client keeps using the original.
+ *
+ * <p>Dimensions are read from the image header before anything is decoded, and images larger
+ * than chat.thumbnails.max-pixels are skipped: a few KB of compressed pixels can otherwise
+ * expand into gigabytes of heap.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private final MessageStore messageStore;
+    private final AttachmentService attachmentService;
+    private final boolean enabled;
+    private final long maxPixels;
+    private final Map<String, Integer> sizes = new LinkedHashMap<>();
+    private final ThreadPoolExecutor workers;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public ThumbnailService(MessageStore messageStore,
+                            AttachmentService attachmentService,
+                            @Value("${chat.thumbnails.enabled:true}") boolean enabled,
+                            @Value("${chat.thumbnails.thumb-size:256}") int thumbSize,
+                            @Value("${chat.thumbnails.preview-size:1024}") int previewSize,
+                            @Value("${chat.thumbnails.workers:2}") int workerCount,
+                            @Value("${chat.thumbnails.queue-capacity:200}") int queueCapacity,
+                            @Value("${chat.thumbnails.max-pixels:40000000}") long maxPixels) {
+        this.messageStore = messageStore;
+        this.attachmentService = attachmentService;
+        this.enabled = enabled;
+        this.maxPixels = maxPixels;
+        this.sizes.put("thumb", thumbSize);
+        this.sizes.put("preview", previewSize);
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-worker");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static String variantFileName(String fileName, String variant) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return base + "_" + variant + ".jpg";
+    }
+
+    /**
+     * Queues variant generation for an image message whose original is stored at {@code original}.
+     */
+    public void submit(Message message, Path original) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            workers.execute(() -> generate(message, original));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            logger.warn("Thumbnail queue full, skipping variants for {}", message.getFileName());
+        }
+    }
+
+    private void generate(Message message, Path original) {
+        long start = System.nanoTime();
+        try {
+            BufferedImage source = read(original);
+            if (source == null) {
+                return;
+            }
+
+            Map<String, String> variants = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> size : sizes.entrySet()) {
+                String variantName = variantFileName(message.getFileName(), size.getKey());
+                Path target = original.resolveSibling(variantName);
+                write(scale(source, size.getValue()), target);
+                variants.put(size.getKey(), attachmentService.register(variantName, "image/jpeg").url());
+            }
+
+            messageStore.update(message, Map.of("variants", variants));
+            message.setVariants(variants);
+            generated.increment();
+
+        } catch (Exception e) {
+            failed.increment();
+            logger.error("Failed to generate variants for {}: {}", original, e.getMessage());
+        } finally {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            totalMillis.add(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+    }
+
+    /**
+     * Decodes the first image in the file, or returns null if ImageIO cannot decode the
+     * format (e.g. webp, svg) or the header declares more than {@code maxPixels} pixels.
+     */
+    private BufferedImage read(Path original) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(original.toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    oversized.increment();
+                    logger.warn("Skipping variants for {}: {}x{} exceeds {} pixels",
+                            original.getFileName(), reader.getWidth(0), reader.getHeight(0), maxPixels);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source, int maxDimension) {
+        double ratio = Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // JPEG has no alpha channel, so flatten transparent PNG/GIF onto white
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private void write(BufferedImage image, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        if (!ImageIO.write(image, "jpg", temp.toFile())) {
+            throw new IOException("No JPEG writer available");
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stops taking jobs and gives the queued ones a few seconds to finish.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+            logger.warn("Thumbnail workers still busy at shutdown, {} jobs abandoned", workers.shutdownNow().size());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long done = generated.sum() + failed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("queueDepth", workers.getQueue().size());
+        stats.put("active", workers.getActiveCount());
+        stats.put("generated", generated.sum());
+        stats.put("failed", failed.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("oversized", oversized.sum());
+        stats.put("avgMillis", done == 0 ? 0 : totalMillis.sum() / done);
+        stats.put("maxMillis", maxMillis.get());
+        return stats;
+    }
+}
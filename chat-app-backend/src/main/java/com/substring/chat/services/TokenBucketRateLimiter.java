@@ -0,0 +1,122 @@
+package com.substring.chat.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free token buckets keyed by an arbitrary string (username, room id, ...).
+ *
+ * Each bucket is a single AtomicLong: the upper 40 bits hold the last refill time in
+ * milliseconds since this limiter was created, the lower 24 bits hold the available
+ * tokens in thousandths. Acquiring a token is one CAS loop, and a bucket costs one
+ * map entry plus one AtomicLong, which keeps 100k+ keys cheap.
+ */
+public class TokenBucketRateLimiter {
+
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long MILLI = 1000L;
+
+    private final String name;
+    private final long capacityMilli;
+    private final long refillPerSecond;
+    private final long idleMillis;
+    private final long originNanos = System.nanoTime();
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final LongAdder granted = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public TokenBucketRateLimiter(String name, int burst, int refillPerSecond, long idleMillis) {
+        if (burst <= 0 || burst * MILLI > TOKEN_MASK) {
+            throw new IllegalArgumentException("Burst for " + name + " must be between 1 and " + (TOKEN_MASK / MILLI));
+        }
+        if (refillPerSecond <= 0) {
+            throw new IllegalArgumentException("Refill rate for " + name + " must be positive");
+        }
+        this.name = name;
+        this.capacityMilli = burst * MILLI;
+        // Tokens per second == thousandths of a token per millisecond
+        this.refillPerSecond = refillPerSecond;
+        // Never evict a bucket before it could have refilled, otherwise eviction hands out free tokens
+        this.idleMillis = Math.max(idleMillis, capacityMilli / refillPerSecond + 1);
+    }
+
+    public boolean tryAcquire(String key) {
+        long now = nowMillis();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(pack(now, capacityMilli)));
+        }
+
+        while (true) {
+            long state = bucket.get();
+            long last = state >>> TOKEN_BITS;
+            long tokens = refill(state & TOKEN_MASK, now - last);
+
+            if (tokens < MILLI) {
+                // Leave the state untouched so the refill is computed from the original timestamp next time
+                throttled.increment();
+                return false;
+            }
+
+            long next = pack(Math.max(now, last), tokens - MILLI);
+            if (bucket.compareAndSet(state, next)) {
+                granted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops buckets that have been idle long enough to be full again. A sender racing with
+     * eviction can at worst get one extra token from a fresh bucket.
+     */
+    public int evictIdle() {
+        long now = nowMillis();
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> now - (bucket.get() >>> TOKEN_BITS) > idleMillis);
+        int removed = Math.max(0, before - buckets.size());
+        evicted.add(removed);
+        return removed;
+    }
+
+    private long refill(long tokens, long elapsedMillis) {
+        if (elapsedMillis <= 0) {
+            return tokens;
+        }
+        // Clamp first so elapsed * rate cannot overflow after long idle periods
+        long cappedElapsed = Math.min(elapsedMillis, capacityMilli / refillPerSecond + 1);
+        return Math.min(capacityMilli, tokens + cappedElapsed * refillPerSecond);
+    }
+
+    private long nowMillis() {
+        return (System.nanoTime() - originNanos) / 1_000_000L;
+    }
+
+    private static long pack(long millis, long tokens) {
+        return (millis << TOKEN_BITS) | tokens;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    public long getGranted() {
+        return granted.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public long getEvicted() {
+        return evicted.sum();
+    }
+}
@@ -0,0 +1,89 @@
+package com.substring.chat.services;
+
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Who is connected right now, by principal name. Backed by the broker's own
+ * {@link SimpUserRegistry} (username -> STOMP sessions, kept current from connect and
+ * disconnect events), which is the same index convertAndSendToUser resolves through, so a
+ * user on several devices gets every per-user message on each of their sessions.
+ */
+@Service
+public class UserSessionRegistry {
+
+    private final SimpUserRegistry simpUserRegistry;
+
+    public UserSessionRegistry(SimpUserRegistry simpUserRegistry) {
+        this.simpUserRegistry = simpUserRegistry;
+    }
+
+    public boolean isOnline(String username) {
+        return sessionCount(username) > 0;
+    }
+
+    public int sessionCount(String username) {
+        SimpUser user = username != null ? simpUserRegistry.getUser(username) : null;
+        return user != null ? user.getSessions().size() : 0;
+    }
+
+    /**
+     * True if the user has a session other than {@code sessionId}; used while that session is
+     * going away, when the registry may or may not have dropped it yet.
+     */
+    public boolean hasOtherSessions(String username, String sessionId) {
+        SimpUser user = username != null ? simpUserRegistry.getUser(username) : null;
+        return user != null && user.getSessions().stream().anyMatch(session -> !session.getId().equals(sessionId));
+    }
+
+    /**
+     * Number of distinct connected users subscribed to each of the given destinations, in one
+     * pass over the registry.
+     */
+    public Map<String, Integer> subscriberCounts(Collection<String> destinations) {
+        Map<String, Set<String>> users = new HashMap<>();
+        for (String destination : destinations) {
+            users.put(destination, new HashSet<>());
+        }
+        for (SimpUser user : simpUserRegistry.getUsers()) {
+            for (SimpSession session : user.getSessions()) {
+                for (SimpSubscription subscription : session.getSubscriptions()) {
+                    Set<String> subscribers = users.get(subscription.getDestination());
+                    if (subscribers != null) {
+                        subscribers.add(user.getName());
+                    }
+                }
+            }
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        users.forEach((destination, subscribers) -> counts.put(destination, subscribers.size()));
+        return counts;
+    }
+
+    public Map<String, Object> getStats() {
+        int sessions = 0;
+        int multiDevice = 0;
+        for (SimpUser user : simpUserRegistry.getUsers()) {
+            int count = user.getSessions().size();
+            sessions += count;
+            if (count > 1) {
+                multiDevice++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("onlineUsers", simpUserRegistry.getUserCount());
+        stats.put("sessions", sessions);
+        stats.put("multiDeviceUsers", multiDevice);
+        return stats;
+    }
+}
@@ -0,0 +1,129 @@
+package com.substring.chat.config;
+
+import com.substring.chat.services.RoomMembershipService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomMembershipChannelInterceptorTests {
+
+	private final List<String> checks = new ArrayList<>();
+	// Only the membership check is used; nothing else is wired
+	private final RoomMembershipService membershipService = new RoomMembershipService(null, null, null, null, null, 0, 0) {
+		@Override
+		public boolean isMember(String roomId, String username) {
+			checks.add(roomId + "/" + username);
+			return Set.of("ROOM/alice").contains(roomId + "/" + username);
+		}
+	};
+
+	private RoomMembershipChannelInterceptor interceptor(boolean enforce) {
+		return new RoomMembershipChannelInterceptor(enforce, new ObjectProvider<>() {
+			@Override
+			public RoomMembershipService getObject(Object... args) { return membershipService; }
+
+			@Override
+			public RoomMembershipService getObject() { return membershipService; }
+
+			@Override
+			public RoomMembershipService getIfAvailable() { return membershipService; }
+
+			@Override
+			public RoomMembershipService getIfUnique() { return membershipService; }
+		});
+	}
+
+	private static Message<byte[]> frame(StompCommand command, String destination, String user, String body) {
+		StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+		accessor.setDestination(destination);
+		accessor.setSessionId("s1");
+		if (user != null) {
+			Principal principal = () -> user;
+			accessor.setUser(principal);
+		}
+		accessor.setLeaveMutable(true);
+		return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+	}
+
+	@Test
+	void membersMaySendAndSubscribeOthersAreDropped() {
+		RoomMembershipChannelInterceptor interceptor = interceptor(true);
+		Message<byte[]> send = frame(StompCommand.SEND, "/app/sendMessage/ROOM", "alice", "{}");
+		Message<byte[]> subscribe = frame(StompCommand.SUBSCRIBE, "/topic/room/ROOM", "alice", "");
+
+		assertSame(send, interceptor.preSend(send, null));
+		assertSame(subscribe, interceptor.preSend(subscribe, null));
+		assertNull(interceptor.preSend(frame(StompCommand.SEND, "/app/sendMessage/ROOM", "mallory", "{}"), null));
+		assertNull(interceptor.preSend(frame(StompCommand.SUBSCRIBE, "/topic/room/ROOM/typing", "mallory", ""), null));
+
+		assertEquals(4L, interceptor.getStats().get("checked"));
+		assertEquals(2L, interceptor.getStats().get("denied"));
+	}
+
+	@Test
+	void resolvesTheRoomFromTheBodyWhenTheDestinationHasNone() {
+		RoomMembershipChannelInterceptor interceptor = interceptor(true);
+
+		assertNotNull(interceptor.preSend(frame(StompCommand.SEND, "/app/sendMessage", "alice", "{\"roomId\": \"ROOM\", \"content\": \"hi\"}"), null));
+		assertNull(interceptor.preSend(frame(StompCommand.SEND, "/app/chat.typing", "alice", "{\"roomId\":\"OTHER\"}"), null));
+		assertEquals(List.of("ROOM/alice", "OTHER/alice"), checks);
+	}
+
+	@Test
+	void anonymousFramesForARoomAreDropped() {
+		assertNull(interceptor(true).preSend(frame(StompCommand.SEND, "/app/sendMessage/ROOM", null, "{}"), null));
+		assertTrue(checks.isEmpty());
+	}
+
+	@Test
+	void applicationSendsWithoutAResolvableRoomAreDropped() {
+		RoomMembershipChannelInterceptor interceptor = interceptor(true);
+		// Jackson binds this as roomId=ROOM, but the raw frame names no room
+		String escaped = "{\"room\\u0049d\":\"ROOM\",\"content\":\"hi\"}";
+
+		assertNull(interceptor.preSend(frame(StompCommand.SEND, "/app/chat.sendMessage", "mallory", escaped), null));
+		assertNull(interceptor.preSend(frame(StompCommand.SEND, "/app/reaction.toggle", "mallory", "{}"), null));
+		Message<byte[]> direct = frame(StompCommand.SEND, "/app/dm.send", "mallory", "{\"recipient\":\"alice\"}");
+		assertSame(direct, interceptor.preSend(direct, null));
+		assertTrue(checks.isEmpty());
+		assertEquals(2L, interceptor.getStats().get("denied"));
+	}
+
+	@Test
+	void handlersCheckTheRoomTheyBound() {
+		RoomMembershipChannelInterceptor interceptor = interceptor(true);
+		Principal alice = () -> "alice";
+
+		assertTrue(interceptor.permits(" ROOM ", alice));
+		assertFalse(interceptor.permits("OTHER", alice));
+		assertFalse(interceptor.permits(null, alice));
+		assertFalse(interceptor.permits("ROOM", null));
+		assertTrue(interceptor(false).permits("OTHER", null));
+		assertEquals(List.of("ROOM/alice", "OTHER/alice"), checks);
+	}
+
+	@Test
+	void passesFramesWithoutARoomAndEverythingWhenNotEnforced() {
+		RoomMembershipChannelInterceptor interceptor = interceptor(true);
+		Message<byte[]> connect = frame(StompCommand.CONNECT, null, "mallory", "");
+		Message<byte[]> mailbox = frame(StompCommand.SUBSCRIBE, "/user/queue/mailbox", "mallory", "");
+		assertSame(connect, interceptor.preSend(connect, null));
+		assertSame(mailbox, interceptor.preSend(mailbox, null));
+		assertEquals(0L, interceptor.getStats().get("checked"));
+
+		Message<byte[]> send = frame(StompCommand.SEND, "/app/sendMessage/ROOM", "mallory", "{}");
+		assertSame(send, interceptor(false).preSend(send, null));
+		assertTrue(checks.isEmpty());
+	}
+}
@@ -0,0 +1,50 @@
+package com.substring.chat.repositories;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentMessageStoreTests {
+
+	// Never connects: finds are recorded and answered empty
+	private final MongoClient client = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=200");
+	private final List<Query> finds = new ArrayList<>();
+	private final MongoTemplate mongoTemplate = new MongoTemplate(client, "chatdb") {
+		@Override
+		public <T> List<T> find(Query query, Class<T> entityClass) {
+			finds.add(query);
+			return List.of();
+		}
+	};
+
+	@AfterEach
+	void close() {
+		client.close();
+	}
+
+	@Test
+	void threadPagesAreLimitedToTheRoom() {
+		DocumentMessageStore store = new DocumentMessageStore(null, mongoTemplate);
+
+		store.findThreadPage("ROOM", "root", null, 20);
+		store.findThreadPage("ROOM", "root", 40L, 20);
+
+		Document first = finds.get(0).getQueryObject();
+		assertEquals("root", first.get("threadRootId"));
+		assertEquals("ROOM", first.get("roomId"));
+		Document second = finds.get(1).getQueryObject();
+		assertEquals("ROOM", second.get("roomId"));
+		assertEquals(new Document("$lt", 40L), second.get("sequence"));
+		assertEquals(new Document("sequence", -1), finds.get(1).getSortObject());
+		assertEquals(20, finds.get(1).getLimit());
+	}
+}
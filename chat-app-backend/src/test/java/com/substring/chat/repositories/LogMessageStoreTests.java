@@ -0,0 +1,83 @@
+package com.substring.chat.repositories;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogMessageStoreTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+	private static Message message(String roomId, long sequence) {
+		Message message = new Message("alice", "hello " + sequence, roomId, null);
+		message.setId(roomId + "-" + sequence);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	@Test
+	void groupCommitAcrossRoomsAndRecovery(@TempDir Path dir) throws Exception {
+		LogMessageStore store = new LogMessageStore(objectMapper, dir.toString(), 4096, 8, "group", 10, 30);
+		List<Thread> writers = new ArrayList<>();
+		for (int room = 0; room < 4; room++) {
+			String roomId = "room" + room;
+			writers.add(Thread.ofVirtual().start(() -> {
+				for (long sequence = 1; sequence <= 100; sequence++) {
+					store.insert(message(roomId, sequence));
+				}
+			}));
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertThrows(DuplicateKeyException.class, () -> store.insert(message("room0", 1)));
+		store.update(message("room1", 7), Map.of("content", "edited"));
+		store.deleteByIds(List.of("room2-100"));
+		store.close();
+
+		LogMessageStore reopened = new LogMessageStore(objectMapper, dir.toString(), 4096, 8, "group", 10, 30);
+		assertEquals(100, reopened.findByRoom("room0").size());
+		assertEquals("edited", reopened.findAllById(List.of("room1-7")).get(0).getContent());
+		assertEquals(99L, reopened.findLatest("room2").getSequence());
+		assertEquals(List.of(41L, 42L), reopened.findPage("room3", 43L, 2).stream().map(Message::getSequence).toList());
+		assertEquals(399, reopened.getStats().get("messages"));
+		reopened.close();
+	}
+
+	@Test
+	void threadPagesAndRootIncrements(@TempDir Path dir) throws Exception {
+		LogMessageStore store = new LogMessageStore(objectMapper, dir.toString(), 4096, 8, "always", 10, 30);
+		store.insert(message("room", 1));
+		for (long sequence = 2; sequence <= 10; sequence++) {
+			Message message = message("room", sequence);
+			// Odd sequences reply in the thread of message 1, even ones are top-level
+			if (sequence % 2 == 1) {
+				message.setParentId("room-1");
+				message.setThreadRootId("room-1");
+			}
+			store.insert(message);
+		}
+
+		assertEquals(List.of(5L, 7L, 9L), store.findThreadPage("room", "room-1", null, 3).stream().map(Message::getSequence).toList());
+		assertEquals(List.of(3L), store.findThreadPage("room", "room-1", 5L, 3).stream().map(Message::getSequence).toList());
+
+		Message root = message("room", 1);
+		store.increment(root, Map.of("replyCount", 3L), Map.of("lastReplyId", "room-7"));
+		store.increment(root, Map.of("replyCount", 1L), Map.of("lastReplyId", "room-9"));
+		Message updated = store.findAllById(List.of("room-1")).get(0);
+		assertEquals(4, updated.getReplyCount());
+		assertEquals("room-9", updated.getLastReplyId());
+		assertEquals("hello 1", updated.getContent());
+		store.close();
+	}
+
+}
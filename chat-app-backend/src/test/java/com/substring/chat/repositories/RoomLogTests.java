@@ -0,0 +1,107 @@
+package com.substring.chat.repositories;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomLogTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+	private static Message message(long sequence) {
+		Message message = new Message("alice", "message " + sequence, "ROOM", null);
+		message.setId("m" + sequence);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	private static List<Long> sequences(List<Message> messages) {
+		return messages.stream().map(Message::getSequence).toList();
+	}
+
+	private RoomLog open(Path dir, Map<String, Long> live) throws Exception {
+		RoomLog log = new RoomLog("ROOM", dir, objectMapper, 1024, 4);
+		log.recover(live::put, live::remove);
+		return log;
+	}
+
+	@Test
+	void seeksBySequenceAcrossSegments(@TempDir Path dir) throws Exception {
+		RoomLog log = open(dir, new HashMap<>());
+		for (long sequence = 1; sequence <= 50; sequence++) {
+			log.append(message(sequence));
+		}
+
+		assertTrue(log.getStats().get("segments") > 1);
+		assertEquals("message 37", log.get(37).getContent());
+		assertEquals(List.of(46L, 47L, 48L, 49L, 50L), sequences(log.readBefore(null, 5)));
+		assertEquals(List.of(18L, 19L, 20L), sequences(log.readBefore(21L, 3)));
+		assertEquals(List.of(49L, 50L), sequences(log.readFrom(49)));
+	}
+
+	@Test
+	void editsAndDeletesSurviveRecoveryAndCompaction(@TempDir Path dir) throws Exception {
+		RoomLog log = open(dir, new HashMap<>());
+		for (long sequence = 1; sequence <= 40; sequence++) {
+			log.append(message(sequence));
+		}
+		log.replace(3, Map.of("content", "edited"));
+		log.delete(4, "m4");
+		for (long sequence = 5; sequence <= 12; sequence++) {
+			log.delete(sequence, "m" + sequence);
+		}
+
+		Map<String, Long> live = new HashMap<>();
+		RoomLog reopened = open(dir, live);
+		assertEquals("edited", reopened.get(3).getContent());
+		assertNull(reopened.get(4));
+		assertEquals(31, live.size());
+
+		assertTrue(reopened.compact(30) > 0);
+		assertEquals("edited", reopened.get(3).getContent());
+		assertEquals(List.of(1L, 2L, 3L, 13L), sequences(reopened.readBefore(14L, 10)));
+
+		RoomLog afterCompaction = open(dir, new HashMap<>());
+		assertEquals("edited", afterCompaction.get(3).getContent());
+		assertEquals(31, afterCompaction.readFrom(0).size());
+	}
+
+	@Test
+	void recoveryStopsAtTornRecord(@TempDir Path dir) throws Exception {
+		RoomLog log = open(dir, new HashMap<>());
+		for (long sequence = 1; sequence <= 3; sequence++) {
+			log.append(message(sequence));
+		}
+		Path segment;
+		try (var files = Files.list(dir)) {
+			segment = files.filter(p -> p.toString().endsWith(".log")).findFirst().orElseThrow();
+		}
+		int tail = log.getStats().get("bytes").intValue();
+		// A record whose length made it to disk but whose body did not
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4).putInt(0, 200), tail);
+		}
+
+		List<String> ids = new ArrayList<>();
+		RoomLog reopened = new RoomLog("ROOM", dir, objectMapper, 1024, 4);
+		reopened.recover((id, sequence) -> ids.add(id), id -> { });
+		assertEquals(List.of("m1", "m2", "m3"), ids);
+
+		reopened.append(message(4));
+		assertEquals(List.of(3L, 4L), sequences(open(dir, new HashMap<>()).readBefore(null, 2)));
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AhoCorasickTests {
+
+	private static List<String> matches(AhoCorasick automaton, String text) {
+		List<String> found = new ArrayList<>();
+		automaton.scan(text, (pattern, start, end) -> {
+			found.add(automaton.pattern(pattern) + "@" + start);
+			return true;
+		});
+		return found;
+	}
+
+	@Test
+	void findsOverlappingMatchesInOnePass() {
+		AhoCorasick automaton = AhoCorasick.build(List.of("he", "she", "his", "hers"), false);
+
+		assertEquals(List.of("she@1", "he@2", "hers@2"), matches(automaton, "ushers"));
+		assertEquals(List.of("his@0"), matches(automaton, "his"));
+		assertTrue(matches(automaton, "xyz").isEmpty());
+	}
+
+	@Test
+	void foldsCaseAndSkipsEmptyAndDuplicatePatterns() {
+		AhoCorasick automaton = AhoCorasick.build(List.of("Spam", "", "spam", "ham"), true);
+
+		assertEquals(List.of("Spam@0", "ham@9"), matches(automaton, "SPAM and HAM"));
+		assertTrue(automaton.matches("no spam here"));
+		assertFalse(automaton.matches("clean"));
+	}
+
+	@Test
+	void stopsWhenTheHandlerSaysSo() {
+		AhoCorasick automaton = AhoCorasick.build(List.of("a"), false);
+
+		assertEquals(1, automaton.scan("aaaa", (pattern, start, end) -> false));
+		assertEquals(4, automaton.scan("aaaa", (pattern, start, end) -> true));
+	}
+}
@@ -0,0 +1,58 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttachmentServiceTests {
+
+	@TempDir
+	Path uploads;
+
+	@Test
+	void fingerprintsAndPrecompressesTextUploads() throws Exception {
+		Files.writeString(uploads.resolve("notes.txt"), "all work and no play ".repeat(500));
+		Files.write(uploads.resolve("photo.jpg"), new byte[4096]);
+		AttachmentService service = new AttachmentService(uploads.toString(), true, 1024, 1 << 20, 100, 10);
+
+		AttachmentService.Asset notes = service.register("notes.txt", "text/plain");
+		assertTrue(notes.url().matches("/files/[0-9a-f]{16}/notes\\.txt"));
+		assertEquals("\"" + notes.fingerprint(), notes.identity().etag().substring(0, 17));
+
+		// The gzip copy is written in the background and swapped into the map
+		for (int i = 0; i < 100 && service.resolve("notes.txt").gzip() == null; i++) {
+			Thread.sleep(20);
+		}
+		AttachmentService.Asset compressed = service.resolve("notes.txt");
+		assertEquals(notes.url(), compressed.url());
+		AttachmentService.Variant gzip = service.select(compressed, "br;q=1, gzip");
+		assertEquals("gzip", gzip.encoding());
+		assertTrue(gzip.length() < compressed.identity().length());
+		assertNotEquals(compressed.identity().etag(), gzip.etag());
+		assertNull(service.select(compressed, "gzip;q=0").encoding());
+
+		// Images are not compressible; older files are registered on first request
+		AttachmentService.Asset photo = service.resolve("photo.jpg");
+		assertFalse(photo.compressible());
+		assertEquals("image/jpeg", photo.contentType());
+		assertNull(service.resolve("missing.txt"));
+		assertNull(service.resolve("../notes.txt"));
+
+		service.forget("notes.txt");
+		assertFalse(Files.exists(uploads.resolve(".encoded/notes.txt.gz")));
+		service.shutdown();
+	}
+
+	@Test
+	void matchesIfNoneMatchWeakly() {
+		assertTrue(AttachmentService.notModified("\"abc\"", "\"abc\""));
+		assertTrue(AttachmentService.notModified("W/\"x\", W/\"abc\"", "\"abc\""));
+		assertTrue(AttachmentService.notModified("*", "\"abc\""));
+		assertFalse(AttachmentService.notModified("\"abd\"", "\"abc\""));
+		assertFalse(AttachmentService.notModified(null, "\"abc\""));
+	}
+}
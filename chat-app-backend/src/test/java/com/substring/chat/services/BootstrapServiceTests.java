@@ -0,0 +1,159 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.substring.chat.entities.Mailbox;
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.RoomMembership;
+import com.substring.chat.entities.User;
+import com.substring.chat.repositories.RoomMembershipRepository;
+import com.substring.chat.repositories.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BootstrapServiceTests {
+
+	@TempDir
+	Path dir;
+
+	// Never connects: the mailbox read is answered by the recording template
+	private final MongoClient client = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=200");
+	private final OfflineMailboxServiceTests.RecordingMongoTemplate mongoTemplate = new OfflineMailboxServiceTests.RecordingMongoTemplate(client);
+	private final RoomCacheTests.FakeRooms rooms = new RoomCacheTests.FakeRooms();
+	// Every call the service makes to a repository, by method name
+	private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+	private final List<RoomMembership> memberships = new ArrayList<>();
+	private final List<User> users = new ArrayList<>();
+
+	@AfterEach
+	void close() {
+		client.close();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T repository(Class<T> type) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			calls.add(method.getName());
+			return switch (method.getName()) {
+				case "findByUsernameOrderByRoomIdAsc" -> memberships;
+				case "findByUsernameIn" -> users.stream().filter(user -> ((Collection<?>) args[0]).contains(user.getUsername())).toList();
+				default -> throw new UnsupportedOperationException(method.getName());
+			};
+		});
+	}
+
+	private BootstrapService service(InMemoryMessageStore store, int parallelism) {
+		MessageArchiveService archive = new MessageArchiveService(store, new ObjectMapper().findAndRegisterModules(), false,
+				dir.resolve("archive").toString(), 90, 1000, 256, 1 << 20);
+		RoomCache roomCache = new RoomCache(rooms.repository(), 100, 60_000, 60_000, 60_000);
+		UserSessionRegistry sessions = new UserSessionRegistry(new DefaultSimpUserRegistry());
+		OfflineMailboxService mailboxes = new OfflineMailboxService(mongoTemplate,
+				new SimpMessagingTemplate((message, timeout) -> true), sessions, roomCache, 50, 20);
+		RoomMembershipService membership = new RoomMembershipService(repository(RoomMembershipRepository.class),
+				null, mongoTemplate, mailboxes, null, 100, 60_000);
+		return new BootstrapService(membership, mailboxes, new MessageHistoryService(store, archive), roomCache,
+				repository(UserRepository.class), sessions, parallelism);
+	}
+
+	private void member(String roomId, String roomName) {
+		rooms.add(roomId).setRoomName(roomName);
+		RoomMembership membership = new RoomMembership();
+		membership.setRoomId(roomId);
+		membership.setUsername("alice");
+		memberships.add(membership);
+	}
+
+	private static Message message(String roomId, String sender, long sequence) {
+		Message message = new Message(sender, "hello", roomId, null);
+		message.setId(roomId + sequence);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	@Test
+	void returnsRoomsWithLatestMessageUnreadCountsAndProfiles() {
+		InMemoryMessageStore store = new InMemoryMessageStore();
+		member("A", "General");
+		member("B", "Random");
+		member("DELETED", "Gone");
+		rooms.rooms.remove("DELETED");
+		store.insert(message("A", "bob", 1));
+		store.insert(message("A", "carol", 2));
+		users.add(new User("alice", "alice@example.com", "x", "Alice", null));
+		users.add(new User("carol", "carol@example.com", "x", "Carol", null));
+
+		Mailbox mailbox = new Mailbox();
+		Mailbox.RoomPointers unread = new Mailbox.RoomPointers();
+		unread.setRoomId("A");
+		unread.setCount(4);
+		mailbox.getRooms().put("A", unread);
+		mailbox.setDirectCount(2);
+		mongoTemplate.mailbox = mailbox;
+
+		BootstrapService service = service(store, 4);
+		Map<String, Object> result = service.bootstrap("alice");
+
+		List<?> roomList = (List<?>) result.get("rooms");
+		assertEquals(2, roomList.size());
+		Map<?, ?> general = (Map<?, ?>) roomList.get(0);
+		assertEquals("General", general.get("roomName"));
+		assertEquals("A2", ((Message) general.get("latestMessage")).getId());
+		assertEquals(4L, general.get("unreadCount"));
+		assertEquals(0, general.get("onlineCount"));
+		Map<?, ?> random = (Map<?, ?>) roomList.get(1);
+		assertNull(random.get("latestMessage"));
+		assertEquals(0L, random.get("unreadCount"));
+
+		assertEquals(List.of("alice", "carol"), List.copyOf(((Map<?, ?>) result.get("users")).keySet()));
+		assertEquals(Map.of("unreadCount", 2L), result.get("directMessages"));
+		assertEquals(1L, service.getStats().get("requests"));
+		assertEquals(4, service.getStats().get("availablePermits"));
+	}
+
+	@Test
+	void readsEveryRoomConcurrentlyAndTheRestOnce() {
+		int roomCount = 6;
+		CountDownLatch allReading = new CountDownLatch(roomCount);
+		InMemoryMessageStore store = new InMemoryMessageStore() {
+			@Override
+			public List<Message> findPage(String roomId, Long beforeSequence, int limit) {
+				// Only returns once every room's read has started: a sequential loop would stall here
+				allReading.countDown();
+				try {
+					assertTrue(allReading.await(5, TimeUnit.SECONDS), "room reads did not overlap");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.findPage(roomId, beforeSequence, limit);
+			}
+		};
+		for (int i = 0; i < roomCount; i++) {
+			member("R" + i, "Room " + i);
+			store.insert(message("R" + i, "user" + i, 1));
+		}
+
+		Map<String, Object> result = service(store, roomCount).bootstrap("alice");
+
+		assertEquals(roomCount, ((List<?>) result.get("rooms")).size());
+		assertEquals(0, allReading.getCount());
+		// One membership read and one profile read, whatever the room count: no per-room or per-sender lookups
+		assertEquals(List.of("findByUsernameOrderByRoomIdAsc", "findByUsernameIn"), calls);
+		assertEquals(roomCount, store.reads);
+	}
+}
@@ -0,0 +1,21 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectMessageServiceTests {
+
+	@Test
+	void conversationIdIgnoresParticipantOrder() {
+		assertEquals(DirectMessageService.conversationId("alice", "bob"),
+				DirectMessageService.conversationId("bob", "alice"));
+		assertEquals("5:alice:bob", DirectMessageService.conversationId("bob", "alice"));
+	}
+
+	@Test
+	void conversationIdSurvivesSeparatorInUsernames() {
+		assertNotEquals(DirectMessageService.conversationId("a:b", "c"),
+				DirectMessageService.conversationId("a", "b:c"));
+	}
+}
@@ -0,0 +1,153 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Map-backed MessageStore for service tests. Set {@code down} to make every call fail the way
+ * an unreachable database would; {@code reads} counts read calls. Partial updates are applied
+ * to the stored message by field name and kept in {@code updates}, in call order.
+ */
+class InMemoryMessageStore implements MessageStore {
+
+	final Map<String, Message> messages = new LinkedHashMap<>();
+	volatile boolean down;
+	volatile int reads;
+	final List<Map<String, Object>> updates = new ArrayList<>();
+
+	private void check() {
+		if (down) {
+			throw new DataAccessResourceFailureException("store down");
+		}
+	}
+
+	private Stream<Message> room(String roomId) {
+		check();
+		reads++;
+		return messages.values().stream()
+				.filter(m -> roomId.equals(m.getRoomId()))
+				.sorted(Comparator.comparing(m -> m.getSequence() != null ? m.getSequence() : 0L));
+	}
+
+	@Override
+	public synchronized Message insert(Message message) {
+		check();
+		messages.put(message.getId(), message);
+		return message;
+	}
+
+	@Override
+	public synchronized List<Message> findByRoom(String roomId) {
+		return room(roomId).toList();
+	}
+
+	@Override
+	public synchronized List<Message> findByRoomAfterSequence(String roomId, long sequence) {
+		return room(roomId).filter(m -> m.getSequence() != null && m.getSequence() > sequence).toList();
+	}
+
+	@Override
+	public synchronized Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) {
+		return room(roomId)
+				.filter(m -> m.getSequence() != null)
+				.filter(m -> from == null || !m.getCreatedAt().isBefore(from))
+				.filter(m -> to == null || m.getCreatedAt().isBefore(to))
+				.toList().stream();
+	}
+
+	@Override
+	public synchronized List<Message> findPage(String roomId, Long beforeSequence, int limit) {
+		List<Message> matching = room(roomId)
+				.filter(m -> m.getSequence() != null && (beforeSequence == null || m.getSequence() < beforeSequence))
+				.toList();
+		return matching.subList(Math.max(0, matching.size() - limit), matching.size());
+	}
+
+	@Override
+	public synchronized Message findLatest(String roomId) {
+		List<Message> all = room(roomId).filter(m -> m.getSequence() != null).toList();
+		return all.isEmpty() ? null : all.get(all.size() - 1);
+	}
+
+	@Override
+	public synchronized List<Message> findThreadPage(String roomId, String rootId, Long beforeSequence, int limit) {
+		List<Message> matching = room(roomId)
+				.filter(m -> rootId.equals(m.getThreadRootId()) && !rootId.equals(m.getId()))
+				.filter(m -> beforeSequence == null || m.getSequence() < beforeSequence)
+				.toList();
+		return matching.subList(Math.max(0, matching.size() - limit), matching.size());
+	}
+
+	@Override
+	public synchronized List<Message> findAllById(Collection<String> ids) {
+		check();
+		reads++;
+		return ids.stream().map(messages::get).filter(m -> m != null).toList();
+	}
+
+	@Override
+	public synchronized void update(Message message, Map<String, Object> changes) {
+		check();
+		updates.add(changes);
+		Message stored = messages.get(message.getId());
+		if (stored != null) {
+			BeanWrapperImpl fields = new BeanWrapperImpl(stored);
+			changes.forEach(fields::setPropertyValue);
+		}
+	}
+
+	@Override
+	public synchronized void increment(Message message, Map<String, Long> increments, Map<String, Object> changes) {
+		check();
+		updates.add(changes);
+		Message stored = messages.get(message.getId());
+		if (stored != null) {
+			BeanWrapperImpl fields = new BeanWrapperImpl(stored);
+			increments.forEach((field, delta) -> fields.setPropertyValue(field, (Long) fields.getPropertyValue(field) + delta));
+			changes.forEach(fields::setPropertyValue);
+		}
+	}
+
+	@Override
+	public synchronized List<String> findRoomsWithMessagesBefore(LocalDateTime cutoff) {
+		check();
+		return messages.values().stream()
+				.filter(m -> m.getSequence() != null && m.getCreatedAt().isBefore(cutoff))
+				.map(Message::getRoomId).distinct().toList();
+	}
+
+	@Override
+	public synchronized List<Message> findByRoomBefore(String roomId, LocalDateTime cutoff, int limit) {
+		return room(roomId).filter(m -> m.getSequence() != null && m.getCreatedAt().isBefore(cutoff)).limit(limit).toList();
+	}
+
+	@Override
+	public synchronized List<Message> findTombstones(LocalDateTime deletedBefore, int limit) {
+		check();
+		return messages.values().stream()
+				.filter(m -> m.isDeleted() && m.getPurgedAt() == null && m.getDeletedAt().isBefore(deletedBefore))
+				.limit(limit).toList();
+	}
+
+	@Override
+	public synchronized long deleteByIds(Collection<String> ids) {
+		check();
+		return ids.stream().filter(id -> messages.remove(id) != null).count();
+	}
+
+	@Override
+	public String getLayout() {
+		return "memory";
+	}
+}
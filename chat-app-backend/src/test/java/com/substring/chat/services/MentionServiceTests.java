@@ -0,0 +1,96 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.RoomMembership;
+import com.substring.chat.repositories.RoomMembershipRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MentionServiceTests {
+
+	private static final MentionService.RoomMentions ROOM =
+			MentionService.RoomMentions.of(List.of("alice", "al", "al.ex", "bob"), Long.MAX_VALUE);
+
+	private final List<String> members = new ArrayList<>(List.of("alice", "bob"));
+	private Runnable duringBuild = () -> { };
+
+	private final RoomMembershipRepository repository = (RoomMembershipRepository) Proxy.newProxyInstance(
+			RoomMembershipRepository.class.getClassLoader(), new Class<?>[]{RoomMembershipRepository.class}, (proxy, method, args) -> {
+				if (!method.getName().equals("findUsernamesByRoomId")) {
+					throw new UnsupportedOperationException(method.getName());
+				}
+				List<RoomMembership> found = members.stream().map(username -> {
+					RoomMembership membership = new RoomMembership();
+					membership.setUsername(username);
+					return membership;
+				}).toList();
+				duringBuild.run();
+				return found;
+			});
+
+	// Mentions are only queued here; nothing is flushed, so no Mongo is needed
+	private final MentionService service = new MentionService(repository, null,
+			new SimpMessagingTemplate((message, timeout) -> true), 20, 140, 100, 60_000, 100, 50);
+
+	private void send(String roomId, String content) {
+		Message message = new Message("carol", content, roomId, null);
+		message.setId("m1");
+		service.afterStage(IngestionStage.FAN_OUT, new IngestionContext(message, "test"));
+	}
+
+	private long builds() {
+		return (long) service.getStats().get("builds");
+	}
+
+	@Test
+	void findsMembersOnWordBoundaries() {
+		assertEquals(List.of("alice", "bob"), ROOM.find("@Alice can you ask @bob?", "carol", 20));
+		assertTrue(ROOM.find("mail bob@alice.com or @alicesmith", "carol", 20).isEmpty());
+		assertTrue(ROOM.find("@dave is not here", "carol", 20).isEmpty());
+	}
+
+	@Test
+	void prefersTheLongestNameAndDropsRepeatsAndTheSender() {
+		assertEquals(List.of("al", "al.ex"), ROOM.find("@al then @al.ex", "carol", 20));
+		assertEquals(List.of("al.ex"), ROOM.find("@al.ex", "carol", 20));
+		assertEquals(List.of("bob"), ROOM.find("@bob @bob @alice", "alice", 20));
+		assertEquals(List.of("alice"), ROOM.find("@alice @bob", "carol", 1));
+	}
+
+	@Test
+	void aBuildThatRacedAnInvalidationIsNotCached() {
+		duringBuild = () -> {
+			duringBuild = () -> { };
+			members.remove("bob");
+			service.invalidate("ROOM");
+		};
+
+		send("ROOM", "@bob hi");
+		assertEquals(1L, service.getStats().get("mentions"));
+		// The automaton that still knew bob was not kept: bob is no longer notified
+		send("ROOM", "@bob hi");
+		assertEquals(1L, service.getStats().get("mentions"));
+		assertEquals(2, builds());
+		send("ROOM", "@alice hi");
+		assertEquals(2, builds());
+	}
+
+	@Test
+	void anInvalidationOfAnotherRoomDoesNotStopABuildBeingCached() {
+		duringBuild = () -> {
+			duringBuild = () -> { };
+			service.invalidate("OTHER");
+		};
+
+		send("ROOM", "@alice hi");
+		send("ROOM", "@bob hi");
+		assertEquals(1, builds());
+		assertEquals(2L, service.getStats().get("mentions"));
+	}
+}
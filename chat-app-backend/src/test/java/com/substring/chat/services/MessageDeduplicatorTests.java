@@ -0,0 +1,65 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageDeduplicatorTests {
+
+	@Test
+	void dropsRetryAndReturnsOriginalIds() {
+		MessageDeduplicator deduplicator = new MessageDeduplicator(60000, 100);
+
+		IngestionContext first = send(deduplicator, "alice", "c-1");
+		assertFalse(first.isRejected());
+
+		IngestionContext retry = send(deduplicator, "alice", "c-1");
+		assertTrue(retry.isRejected());
+		assertEquals(new MessageDeduplicator.Ack("m-c-1", 7L), retry.getAttribute(MessageDeduplicator.DUPLICATE_OF));
+
+		assertFalse(send(deduplicator, "bob", "c-1").isRejected());
+		assertFalse(send(deduplicator, "alice", "c-2").isRejected());
+		assertEquals(1L, deduplicator.getStats().get("duplicatesDropped"));
+	}
+
+	@Test
+	void ignoresMessagesWithoutClientId() {
+		MessageDeduplicator deduplicator = new MessageDeduplicator(60000, 100);
+
+		assertFalse(send(deduplicator, "alice", null).isRejected());
+		assertFalse(send(deduplicator, "alice", null).isRejected());
+		assertEquals(0, deduplicator.getStats().get("entries"));
+	}
+
+	@Test
+	void windowExpiresAndStaysBounded() {
+		MessageDeduplicator.DedupeWindow window = new MessageDeduplicator.DedupeWindow(1000, 2);
+		MessageDeduplicator.Ack ack = new MessageDeduplicator.Ack("m", 1);
+
+		window.put("a", ack, 0);
+		window.put("b", ack, 500);
+		assertEquals(ack, window.find("a", 1000));
+		assertNull(window.find("a", 1001));
+		assertEquals(ack, window.find("b", 1001));
+
+		window.put("c", ack, 1100);
+		window.put("d", ack, 1200);
+		assertEquals(2, window.size());
+		assertNull(window.find("b", 1200));
+		assertTrue(window.expire(5000));
+	}
+
+	private static IngestionContext send(MessageDeduplicator deduplicator, String sender, String clientMessageId) {
+		Message message = new Message(sender, "hello", "room-1", null);
+		message.setClientMessageId(clientMessageId);
+		IngestionContext context = new IngestionContext(message, "test");
+		deduplicator.afterStage(IngestionStage.VALIDATE, context);
+		if (!context.isRejected()) {
+			message.setId("m-" + clientMessageId);
+			message.setSequence(7L);
+			deduplicator.afterStage(IngestionStage.PERSIST, context);
+		}
+		return context;
+	}
+}
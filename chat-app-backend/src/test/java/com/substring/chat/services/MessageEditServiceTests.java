@@ -0,0 +1,172 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.access.AccessDeniedException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageEditServiceTests {
+
+	@TempDir
+	Path uploads;
+
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final RoomCacheTests.FakeRooms rooms = new RoomCacheTests.FakeRooms();
+	private final RoomActorExecutor executor = new RoomActorExecutor(100, 2);
+	private final List<List<Object>> sent = new ArrayList<>();
+	private final SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> true) {
+		@Override
+		public void convertAndSend(String destination, Object payload) {
+			sent.add(List.of(destination, payload));
+		}
+	};
+	// Nothing is loaded, so reindex() has no shard to touch and needs no history
+	private final MessageSearchService search = new MessageSearchService(store, null, null, "unused", 100, 10, 1);
+	// "heck" is flagged, "darn" masked and "spam" rejected, like the rules a room would have
+	private final ModerationService moderation = new ModerationService(null, true, "mask", '*', 10) {
+		@Override
+		public Verdict check(String content) {
+			if (content.contains("spam")) {
+				return new Verdict(true, null, false);
+			}
+			return new Verdict(false, content.contains("darn") ? content.replace("darn", "****") : null, content.contains("heck"));
+		}
+	};
+	private AttachmentService attachments;
+
+	@AfterEach
+	void shutdown() {
+		executor.shutdown();
+		search.flush();
+		moderation.shutdown();
+		if (attachments != null) {
+			attachments.shutdown();
+		}
+	}
+
+	private MessageEditService service(long purgeAfterMillis, int purgeBatchSize) {
+		rooms.add("ROOM").setCreatedBy("owner");
+		attachments = new AttachmentService(uploads.toString(), false, 1024, 1 << 20, 100, 10);
+		RoomCache roomCache = new RoomCache(rooms.repository(), 100, 60_000, 60_000, 60_000);
+		return new MessageEditService(store, executor, messagingTemplate, search, roomCache, moderation, attachments,
+				uploads.toString(), purgeAfterMillis, purgeBatchSize);
+	}
+
+	private Message stored(String id, String sender, String content) {
+		Message message = new Message(sender, content, "ROOM", null);
+		message.setId(id);
+		message.setSequence((long) store.messages.size() + 1);
+		return store.insert(message);
+	}
+
+	private Map<?, ?> lastPatch() {
+		return (Map<?, ?>) sent.get(sent.size() - 1).get(1);
+	}
+
+	@Test
+	void onlyTheSenderCanEdit() {
+		MessageEditService service = service(60_000, 10);
+		stored("m1", "alice", "hello");
+
+		assertThrows(AccessDeniedException.class, () -> service.edit("ROOM", "m1", "owner", "hijacked"));
+		assertThrows(IllegalArgumentException.class, () -> service.edit("OTHER", "m1", "alice", "wrong room"));
+		assertThrows(IllegalArgumentException.class, () -> service.edit("ROOM", "m1", "alice", "  "));
+		assertThrows(IllegalArgumentException.class, () -> service.edit("ROOM", "m1", "alice", "buy spam"));
+		assertEquals("hello", store.messages.get("m1").getContent());
+		assertTrue(sent.isEmpty());
+
+		Message edited = service.edit("ROOM", "m1", "alice", "darn, what the heck");
+		assertEquals("****, what the heck", edited.getContent());
+		assertTrue(edited.isFlagged());
+		assertNotNull(edited.getEditedAt());
+
+		// Only the changed fields are written and sent, on the room topic
+		assertEquals(List.of("content", "editedAt", "flagged"), List.copyOf(store.updates.get(0).keySet()));
+		assertEquals(MessageIngestionPipeline.roomTopic("ROOM"), sent.get(0).get(0));
+		Map<?, ?> patch = lastPatch();
+		assertEquals(MessageEditService.PATCH_TYPE, patch.get("type"));
+		assertEquals("m1", patch.get("id"));
+		assertEquals("****, what the heck", ((Map<?, ?>) patch.get("changes")).get("content"));
+
+		// Unchanged content is not written again
+		service.edit("ROOM", "m1", "alice", "****, what the heck");
+		assertEquals(1, store.updates.size());
+		assertEquals(1L, service.getStats().get("edits"));
+	}
+
+	@Test
+	void theSenderOrTheRoomOwnerCanDeleteAndTheTombstoneIsCleared() {
+		MessageEditService service = service(60_000, 10);
+		Message photo = stored("m1", "alice", "look");
+		photo.setFileName("photo.png");
+		photo.setFileUrl("/files/abc/photo.png");
+		photo.setVariants(Map.of("thumb", "/files/abc/photo_thumb.jpg"));
+		photo.setAttachment(Map.of("name", "photo.png"));
+		Message reply = stored("m2", "bob", "nice");
+		reply.setThreadRootId("m1");
+
+		assertThrows(AccessDeniedException.class, () -> service.delete("ROOM", "m1", "bob"));
+
+		Message tombstone = service.delete("ROOM", "m1", "owner");
+		assertTrue(tombstone.isDeleted());
+		assertNotNull(tombstone.getDeletedAt());
+		assertNull(tombstone.getContent());
+		assertNull(tombstone.getFileUrl());
+		assertNull(tombstone.getVariants());
+		assertNull(tombstone.getAttachment());
+		// The id and sequence stay, and the file itself waits for the purge
+		assertEquals(1L, tombstone.getSequence());
+		assertEquals("photo.png", tombstone.getFileName());
+		Map<?, ?> changes = (Map<?, ?>) lastPatch().get("changes");
+		assertTrue(changes.containsKey("content"));
+		assertNull(changes.get("content"));
+
+		assertThrows(IllegalArgumentException.class, () -> service.edit("ROOM", "m1", "alice", "back again"));
+		service.delete("ROOM", "m1", "alice");
+		assertEquals(1, store.updates.size());
+
+		// Patches to replies follow the replies onto the thread topic
+		service.delete("ROOM", "m2", "bob");
+		assertEquals(MessageIngestionPipeline.threadTopic("ROOM", "m1"), sent.get(sent.size() - 1).get(0));
+		assertEquals(2L, service.getStats().get("deletes"));
+	}
+
+	@Test
+	void purgeRemovesTheFilesOfOldTombstonesInBatches() throws Exception {
+		MessageEditService service = service(60_000, 1);
+		for (String id : List.of("m1", "m2", "m3")) {
+			Message message = stored(id, "alice", null);
+			message.setFileName(id + ".png");
+			message.setDeleted(true);
+			message.setDeletedAt(LocalDateTime.now().minusMinutes(id.equals("m3") ? 0 : 5));
+			Files.writeString(uploads.resolve(id + ".png"), id);
+			Files.writeString(uploads.resolve(ThumbnailService.variantFileName(id + ".png", "thumb")), id);
+		}
+		stored("m4", "alice", "still here");
+
+		Map<String, Object> result = service.purgeTombstones();
+
+		assertEquals(2L, result.get("purged"));
+		assertEquals(4L, result.get("filesRemoved"));
+		assertFalse(Files.exists(uploads.resolve("m1.png")));
+		assertFalse(Files.exists(uploads.resolve("m2_thumb.jpg")));
+		assertNull(store.messages.get("m1").getFileName());
+		assertNotNull(store.messages.get("m1").getPurgedAt());
+		// Too recent to purge yet
+		assertTrue(Files.exists(uploads.resolve("m3.png")));
+		assertEquals("m3.png", store.messages.get("m3").getFileName());
+
+		assertEquals(0L, service.purgeTombstones().get("purged"));
+	}
+}
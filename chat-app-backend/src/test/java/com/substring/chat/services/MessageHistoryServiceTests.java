@@ -0,0 +1,97 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageHistoryServiceTests {
+
+	private static final LocalDateTime OLD = LocalDateTime.now().minusDays(60).withNano(0);
+
+	@TempDir
+	Path dir;
+
+	private final AtomicBoolean hotClosed = new AtomicBoolean();
+	private final InMemoryMessageStore store = new InMemoryMessageStore() {
+		@Override
+		public synchronized Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) {
+			return super.streamByRoom(roomId, from, to, batchSize).onClose(() -> hotClosed.set(true));
+		}
+	};
+	private MessageHistoryService history;
+
+	// Sequences 1-4 are archived, 5 and 6 stay in the hot store
+	@BeforeEach
+	void seed() {
+		MessageArchiveService archive = new MessageArchiveService(store, new ObjectMapper().findAndRegisterModules(), false,
+				dir.resolve("archive").toString(), 30, 100, 4, 1 << 20);
+		for (long sequence = 1; sequence <= 6; sequence++) {
+			store.insert(message(sequence, sequence <= 4 ? OLD.plusMinutes(sequence) : LocalDateTime.now()));
+		}
+		assertEquals(4L, archive.archiveOldMessages().get("messages"));
+		history = new MessageHistoryService(store, archive);
+	}
+
+	private static Message message(long sequence, LocalDateTime createdAt) {
+		Message message = new Message("alice", "message " + sequence, "ROOM", null);
+		message.setId("m" + sequence);
+		message.setSequence(sequence);
+		message.setCreatedAt(createdAt);
+		return message;
+	}
+
+	private static List<Long> sequences(Stream<Message> messages) {
+		try (messages) {
+			return messages.map(Message::getSequence).toList();
+		}
+	}
+
+	@Test
+	void streamsTheArchiveThenTheHotStoreInOrder() {
+		assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), sequences(history.stream("ROOM", null, null, 2)));
+		assertTrue(hotClosed.get());
+	}
+
+	@Test
+	void appliesTheTimeWindowToBothTiers() {
+		assertEquals(List.of(3L, 4L, 5L, 6L), sequences(history.stream("ROOM", OLD.plusMinutes(3), null, 2)));
+		// The upper bound is exclusive
+		assertEquals(List.of(1L, 2L), sequences(history.stream("ROOM", null, OLD.plusMinutes(3), 2)));
+		assertEquals(List.of(), sequences(history.stream("EMPTY", null, null, 2)));
+	}
+
+	@Test
+	void opensTheHotCursorOnlyOnceTheArchiveIsExhausted() {
+		int reads = store.reads;
+		try (Stream<Message> messages = history.stream("ROOM", null, null, 2)) {
+			Iterator<Message> iterator = messages.iterator();
+			for (long sequence = 1; sequence <= 4; sequence++) {
+				assertEquals(sequence, iterator.next().getSequence());
+			}
+			assertEquals(reads, store.reads);
+
+			assertEquals(5L, iterator.next().getSequence());
+			assertEquals(reads + 1, store.reads);
+		}
+		assertTrue(hotClosed.get());
+	}
+
+	@Test
+	void skipsMessagesSeenInBothTiers() {
+		// As if an archive run had copied 4 but not yet deleted it from the hot store
+		store.insert(message(4, OLD.plusMinutes(4)));
+
+		assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), sequences(history.stream("ROOM", null, null, 3)));
+	}
+}
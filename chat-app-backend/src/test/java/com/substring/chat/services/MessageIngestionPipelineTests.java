@@ -0,0 +1,200 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import com.substring.chat.payload.MessageRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageIngestionPipelineTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final List<String> broadcasts = new ArrayList<>();
+	private final List<String> calls = new ArrayList<>();
+
+	@TempDir
+	Path dir;
+
+	private SpillJournal journal;
+
+	@BeforeEach
+	void openJournal() throws Exception {
+		journal = new SpillJournal(store, objectMapper, dir.resolve("journal").toString(), 1 << 20, 100, 2000);
+	}
+
+	@AfterEach
+	void closeJournal() throws Exception {
+		journal.close();
+	}
+
+	private MessageIngestionPipeline pipeline(IngestionInterceptor... interceptors) throws Exception {
+		SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> {
+			broadcasts.add(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+			return true;
+		});
+		MessageArchiveService archive = new MessageArchiveService(store, objectMapper, false,
+				dir.resolve("archive").toString(), 90, 1000, 256, 1 << 20);
+		AtomicLong ids = new AtomicLong();
+		return new MessageIngestionPipeline(template, new RoomSequencer(store, archive, journal, dir.resolve("sequences").toString(), 1000),
+				new RoomActorExecutor(100, 16), ids::incrementAndGet, journal, provider(List.of(interceptors)));
+	}
+
+	private static ObjectProvider<IngestionInterceptor> provider(List<IngestionInterceptor> interceptors) {
+		return new ObjectProvider<>() {
+			@Override
+			public IngestionInterceptor getObject(Object... args) { throw new UnsupportedOperationException(); }
+
+			@Override
+			public IngestionInterceptor getObject() { throw new UnsupportedOperationException(); }
+
+			@Override
+			public IngestionInterceptor getIfAvailable() { return null; }
+
+			@Override
+			public IngestionInterceptor getIfUnique() { return null; }
+
+			@Override
+			public Stream<IngestionInterceptor> orderedStream() {
+				return interceptors.stream().sorted(AnnotationAwareOrderComparator.INSTANCE);
+			}
+		};
+	}
+
+	private static Message message(String content) {
+		Message message = new Message();
+		message.setSender("alice");
+		message.setRoomId("ROOM");
+		message.setContent(content);
+		return message;
+	}
+
+	@Test
+	void runsInterceptorsInOrderAroundEveryStage() throws Exception {
+		MessageIngestionPipeline pipeline = pipeline(new Late(calls), new Early(calls));
+
+		IngestionContext context = pipeline.ingest(message("hello"), "test");
+
+		assertFalse(context.isRejected());
+		List<String> expected = new ArrayList<>();
+		for (IngestionStage stage : IngestionStage.values()) {
+			expected.addAll(List.of("early before " + stage, "late before " + stage,
+					"early after " + stage, "late after " + stage));
+		}
+		assertEquals(expected, calls);
+		assertEquals(1L, context.getMessage().getSequence());
+		assertTrue(store.messages.containsKey(context.getMessage().getId()));
+		assertEquals(List.of("/topic/room/ROOM"), broadcasts);
+	}
+
+	@Test
+	void rejectionStopsLaterInterceptorsAndStages() throws Exception {
+		MessageIngestionPipeline pipeline = pipeline(new Rejecting(IngestionStage.ENRICH), new Late(calls));
+
+		IngestionContext context = pipeline.ingest(message("hello"), "test");
+
+		assertTrue(context.isRejected());
+		assertEquals("nope", context.getRejectReason());
+		assertEquals(List.of("late before VALIDATE", "late after VALIDATE"), calls);
+		assertTrue(store.messages.isEmpty());
+		assertTrue(broadcasts.isEmpty());
+	}
+
+	@Test
+	void failureBeforePersistAborts() throws Exception {
+		MessageIngestionPipeline pipeline = pipeline(new Failing(IngestionStage.ENRICH, false));
+
+		assertThrows(IllegalStateException.class, () -> pipeline.ingest(message("hello"), "test"));
+		assertTrue(store.messages.isEmpty());
+		assertTrue(broadcasts.isEmpty());
+	}
+
+	@Test
+	void failureAfterPersistStillFansOut() throws Exception {
+		MessageIngestionPipeline pipeline = pipeline(new Failing(IngestionStage.PERSIST, true), new Late(calls));
+
+		IngestionContext context = pipeline.ingest(message("hello"), "test");
+
+		assertFalse(context.isRejected());
+		assertTrue(store.messages.containsKey(context.getMessage().getId()));
+		assertEquals(List.of("/topic/room/ROOM"), broadcasts);
+		// The failing hook does not keep the ones after it from running
+		assertTrue(calls.contains("late after PERSIST"));
+		assertTrue(calls.contains("late after FAN_OUT"));
+		assertEquals(1L, pipeline.getStats().get("interceptorFailures"));
+		assertEquals(1L, pipeline.getStats().get("accepted"));
+	}
+
+	@Test
+	void theSenderIsThePrincipalNotThePayload() throws Exception {
+		MessageIngestionPipeline pipeline = pipeline();
+		MessageRequest request = new MessageRequest("mallory", "hello", "ROOM", null, null);
+		Principal alice = () -> "alice";
+
+		assertEquals("alice", pipeline.fromRequest(request, null, alice).getSender());
+		IngestionContext anonymous = pipeline.ingest(pipeline.fromRequest(request, "ROOM", null), "test");
+		assertEquals("Sender is required", anonymous.getRejectReason());
+		assertTrue(store.messages.isEmpty());
+	}
+
+	@Order(1)
+	private record Early(List<String> calls) implements IngestionInterceptor {
+		@Override
+		public void beforeStage(IngestionStage stage, IngestionContext context) { calls.add("early before " + stage); }
+
+		@Override
+		public void afterStage(IngestionStage stage, IngestionContext context) { calls.add("early after " + stage); }
+	}
+
+	@Order(2)
+	private record Late(List<String> calls) implements IngestionInterceptor {
+		@Override
+		public void beforeStage(IngestionStage stage, IngestionContext context) { calls.add("late before " + stage); }
+
+		@Override
+		public void afterStage(IngestionStage stage, IngestionContext context) { calls.add("late after " + stage); }
+	}
+
+	@Order(0)
+	private record Rejecting(IngestionStage stage) implements IngestionInterceptor {
+		@Override
+		public void beforeStage(IngestionStage stage, IngestionContext context) {
+			if (stage == this.stage) {
+				context.reject("nope");
+			}
+		}
+	}
+
+	@Order(0)
+	private record Failing(IngestionStage stage, boolean after) implements IngestionInterceptor {
+		@Override
+		public void beforeStage(IngestionStage stage, IngestionContext context) {
+			if (!after && stage == this.stage) {
+				throw new IllegalStateException("boom");
+			}
+		}
+
+		@Override
+		public void afterStage(IngestionStage stage, IngestionContext context) {
+			if (after && stage == this.stage) {
+				throw new IllegalStateException("boom");
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageReactionServiceTests {
+
+	@Test
+	void togglesCountAndNetOutBetweenFlushes() {
+		MessageReactionService.MessageState state = new MessageReactionService.MessageState("ROOM", null);
+
+		assertTrue(state.toggle("👍", "alice", 20));
+		assertTrue(state.toggle("👍", "bob", 20));
+		assertTrue(state.toggle("🎉", "carol", 20));
+		assertTrue(state.toggle("🎉", "carol", 20)); // un-react before the flush
+		assertEquals(Map.of("👍", 2L), state.counts());
+
+		MessageReactionService.Drained drained = state.drain("m1");
+		assertEquals(Map.of("👍", 2L), drained.deltas);
+		assertEquals(List.of("alice", "bob"), drained.added.get("👍").stream().sorted().toList());
+		assertTrue(drained.removed.isEmpty());
+		assertFalse(drained.added.containsKey("🎉"));
+		assertFalse(state.hasPending());
+
+		assertTrue(state.toggle("👍", "alice", 20));
+		MessageReactionService.Drained second = state.drain("m1");
+		assertEquals(Map.of("👍", -1L), second.deltas);
+		assertEquals(List.of("alice"), second.removed.get("👍"));
+		assertEquals(Map.of("👍", 1L), state.counts());
+	}
+
+	@Test
+	void restoresFailedFlushAndCapsEmojis() {
+		MessageReactionService.MessageState state = new MessageReactionService.MessageState("ROOM", null);
+		state.toggle("a", "alice", 2);
+		state.toggle("b", "alice", 2);
+		assertFalse(state.toggle("c", "alice", 2));
+
+		MessageReactionService.Drained drained = state.drain("m1");
+		assertFalse(state.hasPending());
+		state.restore(drained);
+		assertTrue(state.hasPending());
+		assertEquals(2, state.drain("m1").added.size());
+
+		assertFalse(MessageReactionService.isValidEmoji("a.b"));
+		assertFalse(MessageReactionService.isValidEmoji("$set"));
+		assertTrue(MessageReactionService.isValidEmoji("❤️"));
+	}
+}
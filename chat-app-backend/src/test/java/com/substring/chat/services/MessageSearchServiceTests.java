@@ -0,0 +1,135 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageSearchServiceTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+	@TempDir
+	Path dir;
+
+	private MessageSearchService service;
+
+	@AfterEach
+	void shutdown() {
+		if (service != null) {
+			service.flush();
+		}
+	}
+
+	private MessageSearchService service(InMemoryMessageStore store, MessageArchiveService archive) {
+		service = new MessageSearchService(store, archive, new MessageHistoryService(store, archive),
+				dir.resolve("index").toString(), 100, 2, 1);
+		return service;
+	}
+
+	private MessageArchiveService archive(InMemoryMessageStore store) {
+		return new MessageArchiveService(store, objectMapper, false, dir.resolve("archive").toString(), 30, 100, 4, 1 << 20);
+	}
+
+	private static Message message(long sequence, String content, LocalDateTime createdAt) {
+		Message message = new Message("alice", content, "ROOM", null);
+		message.setId("m" + sequence);
+		message.setSequence(sequence);
+		message.setCreatedAt(createdAt);
+		return message;
+	}
+
+	private static void persisted(MessageSearchService service, InMemoryMessageStore store, Message message) {
+		store.insert(message);
+		service.afterStage(IngestionStage.PERSIST, new IngestionContext(message, "test"));
+	}
+
+	private static List<String> ids(MessageSearchService.SearchResult result) {
+		return result.hits().stream().map(hit -> ((Message) hit.get("message")).getId()).toList();
+	}
+
+	@Test
+	void indexingNeverWaitsForTheShardToLoad() throws Exception {
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		InMemoryMessageStore store = new InMemoryMessageStore() {
+			@Override
+			public List<Message> findByRoom(String roomId) {
+				// Reads history as it is now, then stalls like a slow query
+				List<Message> history = super.findByRoom(roomId);
+				loading.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return history;
+			}
+		};
+		store.insert(message(1, "deploy started", LocalDateTime.now()));
+		MessageSearchService service = service(store, archive(store));
+
+		persisted(service, store, message(2, "deploy finished", LocalDateTime.now()));
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+		// Not in the history being read; must come from the queued change
+		persisted(service, store, message(3, "deploy rolled back", LocalDateTime.now()));
+		assertEquals(1, service.getStats().get("loading"));
+		release.countDown();
+
+		assertEquals(List.of("m1", "m2", "m3"), ids(service.search("ROOM", "deploy", 10, null)).stream().sorted().toList());
+		assertEquals(0, service.getStats().get("loading"));
+	}
+
+	@Test
+	void aFailedLoadDoesNotReachTheCallerAndIsRetried() throws Exception {
+		InMemoryMessageStore store = new InMemoryMessageStore();
+		MessageSearchService service = service(store, archive(store));
+		store.down = true;
+
+		Message message = message(1, "hello", LocalDateTime.now());
+		service.afterStage(IngestionStage.PERSIST, new IngestionContext(message, "test"));
+		assertThrows(RuntimeException.class, () -> service.search("ROOM", "hello", 10, null));
+		assertTrue((long) service.getStats().get("loadFailures") >= 1);
+
+		store.down = false;
+		store.insert(message);
+		assertEquals(List.of("m1"), ids(service.search("ROOM", "hello", 10, null)));
+	}
+
+	@Test
+	void resolvesHitsThatHaveMovedToTheArchive() throws Exception {
+		InMemoryMessageStore store = new InMemoryMessageStore();
+		MessageArchiveService archive = archive(store);
+		MessageSearchService service = service(store, archive);
+		LocalDateTime old = LocalDateTime.now().minusDays(60);
+		for (long sequence = 1; sequence <= 6; sequence++) {
+			persisted(service, store, message(sequence, "release notes " + sequence, old));
+		}
+		persisted(service, store, message(7, "release today", LocalDateTime.now()));
+		assertEquals(7, ids(service.search("ROOM", "release", 10, null)).size());
+
+		Map<String, Object> run = archive.archiveOldMessages();
+		assertEquals(6L, run.get("messages"));
+		assertEquals(1, store.messages.size());
+
+		assertEquals(List.of("m5"), ids(service.search("ROOM", "5", 10, null)));
+		assertEquals(7, ids(service.search("ROOM", "release", 10, null)).size());
+
+		// A shard rebuilt from scratch indexes the archive as well
+		service.flush();
+		Files.deleteIfExists(dir.resolve("index").resolve("ROOM.idx.gz"));
+		MessageSearchService rebuilt = service(store, archive);
+		assertEquals(7, ids(rebuilt.search("ROOM", "release", 10, null)).size());
+	}
+}
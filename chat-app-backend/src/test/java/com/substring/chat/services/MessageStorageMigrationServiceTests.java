@@ -0,0 +1,198 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.substring.chat.entities.Message;
+import com.substring.chat.entities.MessageBucket;
+import com.substring.chat.repositories.BucketedMessageStore;
+import com.substring.chat.repositories.DocumentMessageStore;
+import com.substring.chat.repositories.LogMessageStore;
+import com.substring.chat.repositories.MessageRepository;
+import com.substring.chat.repositories.MessageStore;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageStorageMigrationServiceTests {
+
+	// Never connects: nothing here may reach the server
+	private final MongoClient client = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=200");
+	private final MongoTemplate mongoTemplate = new MongoTemplate(client, "chatdb");
+	private final MessageRepository repository = (MessageRepository) Proxy.newProxyInstance(
+			MessageRepository.class.getClassLoader(), new Class<?>[]{MessageRepository.class}, (proxy, method, args) -> {
+				throw new UnsupportedOperationException(method.getName());
+			});
+
+	@AfterEach
+	void close() {
+		client.close();
+	}
+
+	private static Message message(String roomId, long sequence, LocalDateTime createdAt) {
+		Message message = new Message("alice", "message " + sequence, roomId, null);
+		message.setId(roomId + sequence);
+		message.setSequence(sequence);
+		message.setCreatedAt(createdAt);
+		return message;
+	}
+
+	@Test
+	void refusesToRunUnlessTheDocumentLayoutIsLive() {
+		for (String layout : List.of("bucketed", "log")) {
+			MessageStore live = new InMemoryMessageStore() {
+				@Override
+				public String getLayout() {
+					return layout;
+				}
+			};
+			MessageStorageMigrationService service = new MessageStorageMigrationService(
+					mongoTemplate, live, 60, 200);
+
+			IllegalStateException e = assertThrows(IllegalStateException.class, service::migrateToBuckets);
+			assertTrue(e.getMessage().contains(layout));
+		}
+	}
+
+	@Test
+	void packsMessagesByRoomWindowAndCapacity() {
+		BucketedMessageStore layout = new BucketedMessageStore(mongoTemplate, 60, 3);
+		List<List<MessageBucket>> batches = new ArrayList<>();
+		MessageStorageMigrationService.BucketBuilder builder = new MessageStorageMigrationService.BucketBuilder(layout, 2, batches::add);
+		LocalDateTime nine = LocalDateTime.of(2025, 3, 1, 9, 0);
+
+		// Room A: four messages in the 09:00 window (capacity 3), one at 10:15; room B: one
+		for (long sequence = 1; sequence <= 4; sequence++) {
+			builder.add(message("A", sequence, nine.plusMinutes(sequence)));
+		}
+		builder.add(message("A", 5, nine.plusMinutes(75)));
+		builder.add(message("B", 1, nine.plusMinutes(5)));
+		builder.finish();
+
+		List<MessageBucket> buckets = batches.stream().flatMap(List::stream).toList();
+		assertEquals(6, builder.getMessages());
+		assertEquals(4, builder.getBuckets());
+		assertEquals(4, buckets.size());
+
+		assertEquals(List.of("A1", "A2", "A3"), buckets.get(0).getMessageIds());
+		assertEquals(1, buckets.get(0).getFirstSequence());
+		assertEquals(3, buckets.get(0).getLastSequence());
+		assertEquals(nine, buckets.get(0).getWindowStart());
+		assertEquals(List.of("A4"), buckets.get(1).getMessageIds());
+		assertEquals(nine, buckets.get(1).getWindowStart());
+		assertEquals(List.of("A5"), buckets.get(2).getMessageIds());
+		assertEquals(nine.plusHours(1), buckets.get(2).getWindowStart());
+		assertEquals("B", buckets.get(3).getRoomId());
+
+		// Full batches are flushed, but never with the bucket still being filled
+		for (List<MessageBucket> batch : batches.subList(0, batches.size() - 1)) {
+			assertTrue(batch.size() <= 2);
+		}
+		assertEquals(3, buckets.get(0).getCount());
+		// Where the catch-up pass resumes each room
+		assertEquals(Map.of("A", 5L, "B", 1L), builder.getHighWater());
+	}
+
+	private long bsonBytes(Object entity) {
+		Document document = new Document();
+		mongoTemplate.getConverter().write(entity, document);
+		return new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+	}
+
+	@Test
+	void ordinaryMessagesCarryNoFlagsOrCounters() throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+		Message plain = message("A", 1, LocalDateTime.of(2025, 3, 1, 9, 0));
+		Document stored = new Document();
+		mongoTemplate.getConverter().write(plain, stored);
+
+		for (String field : List.of("deleted", "replyCount", "flagged")) {
+			assertFalse(stored.containsKey(field), field);
+			assertFalse(objectMapper.readTree(objectMapper.writeValueAsBytes(plain)).has(field), field);
+		}
+
+		plain.setDeleted(true);
+		plain.setReplyCount(2);
+		Document tombstone = new Document();
+		mongoTemplate.getConverter().write(plain, tombstone);
+		assertEquals(true, tombstone.get("deleted"));
+		assertEquals(2L, tombstone.get("replyCount"));
+		assertTrue(objectMapper.readTree(objectMapper.writeValueAsBytes(plain)).get("deleted").asBoolean());
+		assertFalse(objectMapper.readValue("{\"id\":\"A1\"}", Message.class).isFlagged());
+	}
+
+	// The layout comparison, on fixtures rather than the live collections
+	@Test
+	void layoutsHoldTheSameHistory(@TempDir Path dir) throws Exception {
+		BucketedMessageStore layout = new BucketedMessageStore(mongoTemplate, 60, 200);
+		List<MessageBucket> buckets = new ArrayList<>();
+		MessageStorageMigrationService.BucketBuilder builder = new MessageStorageMigrationService.BucketBuilder(layout, 500, buckets::addAll);
+		LogMessageStore log = new LogMessageStore(new ObjectMapper().findAndRegisterModules(), dir.toString(), 1 << 20, 64, "interval", 10, 30);
+		LocalDateTime nine = LocalDateTime.of(2025, 3, 1, 9, 0);
+
+		// Five rooms of 2,000 messages, one every two seconds: 1,800 in the 09:00 window, 200 after
+		long documentBytes = 0;
+		List<String> ids = new ArrayList<>();
+		try {
+			for (String roomId : List.of("A", "B", "C", "D", "E")) {
+				for (long sequence = 1; sequence <= 2000; sequence++) {
+					Message message = message(roomId, sequence, nine.plusSeconds(2 * (sequence - 1)));
+					builder.add(message);
+					// The log layout is kept to one room's first 500: it is the same append path for every room
+					if (roomId.equals("C") && sequence <= 500) {
+						log.insert(message);
+					}
+					ids.add(message.getId());
+					documentBytes += bsonBytes(message);
+				}
+			}
+			builder.finish();
+
+			// One document and index entry per 200 messages instead of one per message
+			assertEquals(50, buckets.size());
+			assertEquals(ids, buckets.stream().flatMap(bucket -> bucket.getMessageIds().stream()).toList());
+			long bucketBytes = buckets.stream().mapToLong(this::bsonBytes).sum();
+			// Embedded messages carry no per-document type hint, which outweighs the id list
+			assertTrue(bucketBytes < documentBytes,
+					"documents " + documentBytes + " bytes, buckets " + bucketBytes + " bytes");
+
+			assertEquals(500, log.findByRoom("C").size());
+			List<Message> page = log.findPage("C", null, 50);
+			assertEquals(List.of(451L, 500L), List.of(page.get(0).getSequence(), page.get(49).getSequence()));
+		} finally {
+			log.close();
+		}
+	}
+
+	@Test
+	void layoutPropertySelectsExactlyOneStore(@TempDir Path dir) {
+		ApplicationContextRunner runner = new ApplicationContextRunner()
+				.withBean(MongoTemplate.class, () -> mongoTemplate)
+				.withBean(MessageRepository.class, () -> repository)
+				.withBean(ObjectMapper.class, () -> new ObjectMapper().findAndRegisterModules())
+				.withPropertyValues("chat.storage.log.dir=" + dir)
+				.withUserConfiguration(DocumentMessageStore.class, BucketedMessageStore.class, LogMessageStore.class);
+
+		runner.run(context -> assertEquals("document", context.getBean(MessageStore.class).getLayout()));
+		runner.withPropertyValues("chat.storage.layout=document")
+				.run(context -> assertEquals("document", context.getBean(MessageStore.class).getLayout()));
+		runner.withPropertyValues("chat.storage.layout=bucketed")
+				.run(context -> assertEquals("bucketed", context.getBean(MessageStore.class).getLayout()));
+		runner.withPropertyValues("chat.storage.layout=log")
+				.run(context -> assertEquals("log", context.getBean(MessageStore.class).getLayout()));
+	}
+}
@@ -0,0 +1,237 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageStreamServiceTests {
+
+	/**
+	 * Emitter that keeps each flush as one string instead of writing to a response.
+	 */
+	interface Recording {
+		List<String> chunks();
+
+		CountDownLatch done();
+
+		default void await() throws InterruptedException {
+			assertTrue(done().await(5, TimeUnit.SECONDS), "stream did not finish");
+		}
+	}
+
+	static class RecordingEmitter extends ResponseBodyEmitter implements Recording {
+		final List<String> chunks = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Throwable error;
+
+		@Override
+		public void send(Object object, MediaType mediaType) {
+			chunks.add(String.valueOf(object));
+		}
+
+		@Override
+		public void complete() {
+			done.countDown();
+		}
+
+		@Override
+		public void completeWithError(Throwable ex) {
+			error = ex;
+			done.countDown();
+		}
+
+		public List<String> chunks() { return chunks; }
+
+		public CountDownLatch done() { return done; }
+	}
+
+	static class RecordingSseEmitter extends SseEmitter implements Recording {
+		final List<String> chunks = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(1);
+
+		@Override
+		public void send(Set<DataWithMediaType> items) {
+			StringBuilder chunk = new StringBuilder();
+			items.forEach(item -> chunk.append(item.getData()));
+			chunks.add(chunk.toString());
+		}
+
+		@Override
+		public void send(SseEventBuilder builder) {
+			send(builder.build());
+		}
+
+		@Override
+		public void complete() {
+			done.countDown();
+		}
+
+		@Override
+		public void completeWithError(Throwable ex) {
+			done.countDown();
+		}
+
+		public List<String> chunks() { return chunks; }
+
+		public CountDownLatch done() { return done; }
+	}
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+	private final MongoClient client = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=200");
+	private final List<Recording> emitters = new ArrayList<>();
+
+	@TempDir
+	Path dir;
+
+	private MessageStreamService service;
+
+	@AfterEach
+	void close() {
+		if (service != null) {
+			service.shutdown();
+		}
+		client.close();
+	}
+
+	private MessageStreamService service(InMemoryMessageStore store, int batchSize, int maxConcurrent) {
+		MessageArchiveService archive = new MessageArchiveService(store, objectMapper, false,
+				dir.resolve("archive").toString(), 30, 100, 4, 1 << 20);
+		MessageHistoryService history = new MessageHistoryService(store, archive);
+		MessageSearchService search = new MessageSearchService(store, archive, history, dir.resolve("index").toString(), 100, 100, 1);
+		// Reactions are looked up for every batch; none are stored
+		MessageReactionService reactions = new MessageReactionService(new OfflineMailboxServiceTests.RecordingMongoTemplate(client),
+				store, new SimpMessagingTemplate((message, timeout) -> true), 20, 60_000);
+		service = new MessageStreamService(history, search, reactions, objectMapper, batchSize, 60_000, maxConcurrent) {
+			@Override
+			ResponseBodyEmitter emitter(boolean sse) {
+				Recording emitter = sse ? new RecordingSseEmitter() : new RecordingEmitter();
+				emitters.add(emitter);
+				return (ResponseBodyEmitter) emitter;
+			}
+		};
+		return service;
+	}
+
+	private static InMemoryMessageStore storeWith(int count) {
+		InMemoryMessageStore store = new InMemoryMessageStore();
+		for (long sequence = 1; sequence <= count; sequence++) {
+			Message message = new Message("alice", "deploy step " + sequence, "ROOM", null);
+			message.setId("m" + sequence);
+			message.setSequence(sequence);
+			message.setCreatedAt(LocalDateTime.now());
+			store.insert(message);
+		}
+		return store;
+	}
+
+	@Test
+	void ndjsonFlushesTheFirstMessageAloneThenWholeBatches() throws Exception {
+		MessageStreamService service = service(storeWith(5), 2, 4);
+
+		assertNotNull(service.streamHistory("ROOM", null, null, false));
+		Recording emitter = emitters.get(0);
+		emitter.await();
+
+		List<Integer> linesPerChunk = emitter.chunks().stream().map(chunk -> chunk.split("\n").length).toList();
+		assertEquals(List.of(1, 2, 2), linesPerChunk);
+		assertEquals("m1", objectMapper.readTree(emitter.chunks().get(0)).get("id").asText());
+		assertEquals(1L, service.getStats().get("completed"));
+		assertEquals(5L, service.getStats().get("itemsStreamed"));
+		assertEquals(0, service.getStats().get("active"));
+	}
+
+	@Test
+	void sseEventsCarryTheSequenceAndEndWithACount() throws Exception {
+		MessageStreamService service = service(storeWith(3), 10, 4);
+
+		service.streamHistory("ROOM", null, null, true);
+		Recording emitter = emitters.get(0);
+		emitter.await();
+
+		assertEquals(3, emitter.chunks().size());
+		assertTrue(emitter.chunks().get(0).startsWith("event:message\ndata:{\"id\":\"m1\""));
+		assertTrue(emitter.chunks().get(0).endsWith("\nid:1\n\n"));
+		assertTrue(emitter.chunks().get(1).contains("id:2\n"));
+		assertTrue(emitter.chunks().get(1).contains("id:3\n"));
+		// The count map is left for the message converter to serialize
+		assertEquals("event:end\ndata:{count=3}\n\n", emitter.chunks().get(2));
+	}
+
+	@Test
+	void streamsSearchHits() throws Exception {
+		InMemoryMessageStore store = storeWith(4);
+		MessageStreamService service = service(store, 10, 4);
+
+		service.streamSearch("ROOM", "deploy", 3, false);
+		Recording emitter = emitters.get(0);
+		emitter.await();
+
+		assertEquals(3, String.join("", emitter.chunks()).split("\n").length);
+		assertThrows(IllegalArgumentException.class, () -> service.streamSearch("ROOM", " ", 3, false));
+	}
+
+	@Test
+	void rejectsStreamsPastTheCapUntilASlotFrees() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		InMemoryMessageStore store = new InMemoryMessageStore() {
+			@Override
+			public Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.streamByRoom(roomId, from, to, batchSize);
+			}
+		};
+		MessageStreamService service = service(store, 10, 1);
+
+		assertNotNull(service.streamHistory("ROOM", null, null, false));
+		assertNull(service.streamHistory("ROOM", null, null, false));
+		assertEquals(1L, service.getStats().get("rejected"));
+
+		release.countDown();
+		emitters.get(0).await();
+		// The slot is released just after completion
+		for (int i = 0; i < 100 && (int) service.getStats().get("active") > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertNotNull(service.streamHistory("ROOM", null, null, false));
+	}
+
+	@Test
+	void aFailedReadEndsTheStreamWithAnError() throws Exception {
+		InMemoryMessageStore store = storeWith(1);
+		MessageStreamService service = service(store, 10, 4);
+		store.down = true;
+
+		service.streamHistory("ROOM", null, null, false);
+		RecordingEmitter emitter = (RecordingEmitter) emitters.get(0);
+		emitter.await();
+
+		assertNotNull(emitter.error);
+		assertEquals(1L, service.getStats().get("aborted"));
+		LocalDateTime now = LocalDateTime.now();
+		assertThrows(IllegalArgumentException.class, () -> service.streamHistory("ROOM", now, now, false));
+	}
+}
@@ -0,0 +1,94 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.ModerationRule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModerationServiceTests {
+
+	private static ModerationRule rule(String kind, String pattern, String action) {
+		ModerationRule rule = new ModerationRule();
+		rule.setKind(kind);
+		rule.setPattern(pattern);
+		rule.setAction(action);
+		return rule;
+	}
+
+	private static final ModerationService.RuleSet RULES = ModerationService.RuleSet.of(List.of(
+			rule(ModerationRule.KIND_WORD, "darn", null),
+			rule(ModerationRule.KIND_WORD, "heck", ModerationRule.ACTION_FLAG),
+			rule(ModerationRule.KIND_DOMAIN, "evil.com", ModerationRule.ACTION_REJECT),
+			rule(ModerationRule.KIND_WORD, "evil.com", ModerationRule.ACTION_MASK)), ModerationRule.ACTION_MASK, '*', 1);
+
+	@Test
+	void leavesCleanContentAlone() {
+		assertSame(ModerationService.Verdict.CLEAN, RULES.check("darning socks, checking notevil.com"));
+	}
+
+	@Test
+	void masksFlagsAndRejects() {
+		ModerationService.Verdict masked = RULES.check("Oh DARN it, heck");
+		assertFalse(masked.reject());
+		assertEquals("Oh **** it, heck", masked.content());
+		assertTrue(masked.flag());
+
+		ModerationService.Verdict flagged = RULES.check("what the heck");
+		assertNull(flagged.content());
+		assertTrue(flagged.flag());
+
+		// The same pattern as a mask word and a rejected domain keeps the stricter action
+		assertTrue(RULES.check("darn, see https://www.evil.com/page").reject());
+		assertTrue(RULES.check("mirror at cdn.evil.com").reject());
+	}
+
+	private static String randomWord(Random random, int minLength, int maxLength) {
+		char[] word = new char[minLength + random.nextInt(maxLength - minLength + 1)];
+		for (int i = 0; i < word.length; i++) {
+			word[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(word);
+	}
+
+	@Test
+	void agreesWithAPerRuleRegexScanOnALargeRuleSet() {
+		// Rules are 6-12 letters and the filler words 2-5, so only planted rules can match
+		Random random = new Random(42);
+		List<ModerationRule> rules = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			boolean domain = i % 10 == 0;
+			rules.add(rule(domain ? ModerationRule.KIND_DOMAIN : ModerationRule.KIND_WORD,
+					randomWord(random, 6, 12) + (domain ? ".com" : ""),
+					domain ? ModerationRule.ACTION_REJECT : ModerationRule.ACTION_MASK));
+		}
+		ModerationService.RuleSet set = ModerationService.RuleSet.of(rules, ModerationRule.ACTION_MASK, '*', 1);
+		// The approach the automaton replaced: one regex per rule, tried in turn
+		List<Pattern> regexes = rules.stream().map(rule -> Pattern.compile(
+				"\\b" + Pattern.quote(rule.getPattern()) + "\\b", Pattern.CASE_INSENSITIVE)).toList();
+
+		int planted = 0;
+		for (int i = 0; i < 2_000; i++) {
+			StringBuilder text = new StringBuilder();
+			for (int w = 0; w < 20; w++) {
+				text.append(randomWord(random, 2, 5)).append(' ');
+			}
+			if (i % 50 == 0) {
+				text.append("see ").append(rules.get(random.nextInt(rules.size())).getPattern().toUpperCase());
+				planted++;
+			}
+			String message = text.toString();
+
+			boolean matched = set.check(message) != ModerationService.Verdict.CLEAN;
+			assertEquals(i % 50 == 0, matched, message);
+			if (i % 5 == 0) {
+				assertEquals(regexes.stream().anyMatch(regex -> regex.matcher(message).find()), matched, message);
+			}
+		}
+		assertEquals(40, planted);
+	}
+}
@@ -0,0 +1,223 @@
+package com.substring.chat.services;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.result.UpdateResult;
+import com.substring.chat.entities.Mailbox;
+import com.substring.chat.entities.Message;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OfflineMailboxServiceTests {
+
+	/**
+	 * MongoTemplate that records the writes the service issues instead of sending them.
+	 */
+	static class RecordingMongoTemplate extends MongoTemplate {
+		final List<Document> queries = new ArrayList<>();
+		final List<Document> updates = new ArrayList<>();
+		Mailbox mailbox;
+		boolean down;
+
+		RecordingMongoTemplate(MongoClient client) {
+			super(client, "chatdb");
+		}
+
+		private UpdateResult record(Query query, UpdateDefinition update) {
+			if (down) {
+				throw new IllegalStateException("mongo down");
+			}
+			queries.add(query.getQueryObject());
+			updates.add(update.getUpdateObject());
+			return UpdateResult.acknowledged(1, 1L, null);
+		}
+
+		@Override
+		public UpdateResult updateMulti(Query query, UpdateDefinition update, Class<?> entityClass) {
+			return record(query, update);
+		}
+
+		@Override
+		public UpdateResult updateFirst(Query query, UpdateDefinition update, Class<?> entityClass) {
+			return record(query, update);
+		}
+
+		@Override
+		public UpdateResult upsert(Query query, UpdateDefinition update, Class<?> entityClass) {
+			return record(query, update);
+		}
+
+		@Override
+		public <T> List<T> find(Query query, Class<T> entityClass) {
+			if (down) {
+				throw new IllegalStateException("mongo down");
+			}
+			queries.add(query.getQueryObject());
+			return List.of();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T findById(Object id, Class<T> entityClass) {
+			if (down) {
+				throw new IllegalStateException("mongo down");
+			}
+			return (T) mailbox;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T findAndModify(Query query, UpdateDefinition update, FindAndModifyOptions options, Class<T> entityClass) {
+			record(query, update);
+			return (T) mailbox;
+		}
+	}
+
+	// Never connects: every call the service makes is overridden above
+	private final MongoClient client = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=200");
+	private final RecordingMongoTemplate mongoTemplate = new RecordingMongoTemplate(client);
+	private final List<Object> sent = new ArrayList<>();
+	private final SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> true) {
+		@Override
+		public void convertAndSendToUser(String user, String destination, Object payload) {
+			sent.add(List.of(user, destination, payload));
+		}
+	};
+	private final RoomCacheTests.FakeRooms rooms = new RoomCacheTests.FakeRooms();
+
+	@AfterEach
+	void close() {
+		client.close();
+	}
+
+	private OfflineMailboxService service(int maxPointers) {
+		RoomCache roomCache = new RoomCache(rooms.repository(), 100, 60_000, 60_000, 60_000);
+		return new OfflineMailboxService(mongoTemplate, messagingTemplate,
+				new UserSessionRegistry(new DefaultSimpUserRegistry()), roomCache, maxPointers, 20);
+	}
+
+	private static IngestionContext fannedOut(String sender, String roomId, long sequence) {
+		Message message = new Message(sender, "hi", roomId, null);
+		message.setSequence(sequence);
+		return new IngestionContext(message, "test");
+	}
+
+	@Test
+	void roomsThatSanitizeAlikeKeepTheirOwnMailboxEntries() {
+		assertEquals("1234-abc", OfflineMailboxService.roomKey("1234-abc"));
+		List<String> keys = List.of("a.b", "a_b", "a$b", "a_2e_b").stream().map(OfflineMailboxService::roomKey).toList();
+		assertEquals(keys.size(), Set.copyOf(keys).size());
+		assertTrue(keys.stream().noneMatch(key -> key.contains(".") || key.contains("$")));
+	}
+
+	@Test
+	void coalescesARoomIntoOneUpdatePerFlush() {
+		OfflineMailboxService service = service(2);
+		for (long sequence = 1; sequence <= 3; sequence++) {
+			service.afterStage(IngestionStage.FAN_OUT, fannedOut("alice", "ROOM", sequence));
+		}
+		service.afterStage(IngestionStage.PERSIST, fannedOut("alice", "ROOM", 9));
+		service.afterStage(IngestionStage.FAN_OUT, fannedOut(MessageIngestionPipeline.SYSTEM_SENDER, "ROOM", 10));
+		assertEquals(1, service.getStats().get("pendingRooms"));
+
+		service.flush();
+
+		assertEquals(1, mongoTemplate.updates.size());
+		Document query = mongoTemplate.queries.get(0);
+		assertEquals("ROOM", query.get("watching"));
+		assertEquals(false, query.get("online"));
+		Document update = mongoTemplate.updates.get(0);
+		assertEquals(3L, ((Document) update.get("$inc")).get("rooms.ROOM.count"));
+		Map<String, Object> push = new HashMap<>();
+		((Update.Modifiers) ((Document) update.get("$push")).get("rooms.ROOM.sequences")).getModifiers()
+				.forEach(modifier -> push.put(modifier.getKey(), modifier.getValue()));
+		// Only the newest pointers are kept
+		assertEquals(List.of(2L, 3L), List.of((Object[]) push.get("$each")));
+		assertEquals(-2, push.get("$slice"));
+
+		service.flush();
+		assertEquals(1, mongoTemplate.updates.size());
+		assertEquals(0, service.getStats().get("pendingRooms"));
+	}
+
+	@Test
+	void deliverySummarizesAndCollapsesRoomsPastThePointerLimit() {
+		rooms.add("ROOM").setRoomName("General");
+		Mailbox mailbox = new Mailbox();
+		Mailbox.RoomPointers kept = new Mailbox.RoomPointers();
+		kept.setRoomId("ROOM");
+		kept.setCount(2);
+		kept.setSequences(List.of(7L, 8L));
+		Mailbox.RoomPointers collapsed = new Mailbox.RoomPointers();
+		collapsed.setRoomId("GONE");
+		collapsed.setCount(120);
+		collapsed.setSequences(List.of(200L, 201L));
+		mailbox.getRooms().put("ROOM", kept);
+		mailbox.getRooms().put("GONE", collapsed);
+		mailbox.setDirectCount(3);
+		mailbox.setDirectSenders(List.of("bob", "carol", "bob"));
+		mongoTemplate.mailbox = mailbox;
+
+		service(50).deliver("alice");
+
+		assertEquals(1, sent.size());
+		List<?> delivery = (List<?>) sent.get(0);
+		assertEquals("alice", delivery.get(0));
+		assertEquals(OfflineMailboxService.MAILBOX_DESTINATION, delivery.get(1));
+		Map<?, ?> summary = (Map<?, ?>) delivery.get(2);
+		List<?> roomSummaries = (List<?>) summary.get("rooms");
+
+		Map<?, ?> room = (Map<?, ?>) roomSummaries.get(0);
+		assertEquals("General", room.get("roomName"));
+		assertEquals(false, room.get("collapsed"));
+		assertEquals(List.of(7L, 8L), room.get("sequences"));
+		assertEquals(8L, room.get("lastSequence"));
+
+		Map<?, ?> gone = (Map<?, ?>) roomSummaries.get(1);
+		assertEquals(true, gone.get("collapsed"));
+		assertEquals("120 new messages in GONE", gone.get("summary"));
+		assertEquals(201L, gone.get("lastSequence"));
+
+		assertEquals(Map.of("count", 3L, "from", List.of("bob", "carol")), summary.get("directMessages"));
+		// Claimed and cleared in the same call
+		assertTrue(mongoTemplate.updates.get(0).get("$unset", Document.class).containsKey("rooms"));
+	}
+
+	@Test
+	void aUserWithNoMailboxGetsAnEmptySummary() {
+		service(50).deliver("newcomer");
+
+		Map<?, ?> summary = (Map<?, ?>) ((List<?>) sent.get(0)).get(2);
+		assertEquals(List.of(), summary.get("rooms"));
+		assertEquals(0L, ((Map<?, ?>) summary.get("directMessages")).get("count"));
+	}
+
+	@Test
+	void flushFailuresAreLoggedNotThrown() {
+		OfflineMailboxService service = service(50);
+		service.afterStage(IngestionStage.FAN_OUT, fannedOut("alice", "ROOM", 1));
+		mongoTemplate.down = true;
+
+		service.flush();
+		service.recordDirectMessage("bob", "alice");
+
+		assertEquals(0L, service.getStats().get("flushes"));
+		assertEquals(0L, service.getStats().get("directRecorded"));
+	}
+}
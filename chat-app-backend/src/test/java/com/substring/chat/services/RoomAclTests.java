@@ -0,0 +1,45 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomAclTests {
+
+	@Test
+	void changesCopyAndLeaveOriginalUntouched() {
+		RoomMembershipService.RoomAcl empty = new RoomMembershipService.RoomAcl(new BitSet(), 1000);
+
+		RoomMembershipService.RoomAcl joined = empty.with(3, 700);
+		assertTrue(joined.contains(3));
+		assertTrue(joined.contains(700));
+		assertFalse(joined.contains(4));
+		assertEquals(2, joined.size());
+		assertFalse(empty.contains(3));
+
+		RoomMembershipService.RoomAcl left = joined.without(3);
+		assertFalse(left.contains(3));
+		assertTrue(left.contains(700));
+		assertTrue(joined.contains(3));
+		assertEquals(1000, left.expiresAt);
+	}
+
+	@Test
+	void largeRoomStaysCompact() {
+		BitSet members = new BitSet();
+		for (int i = 0; i < 100_000; i += 2) {
+			members.set(i);
+		}
+		RoomMembershipService.RoomAcl acl = new RoomMembershipService.RoomAcl(members, Long.MAX_VALUE);
+
+		int granted = 0;
+		for (int i = 0; i < 1_000_000; i++) {
+			granted += acl.contains(i % 100_000) ? 1 : 0;
+		}
+		assertEquals(500_000, granted);
+		// One bit per interned user; BitSet may over-allocate up to 2x while growing
+		assertTrue(acl.sizeInBytes() <= 2 * 100_000 / 8 + 8);
+	}
+}
@@ -0,0 +1,123 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomActorExecutorTests {
+
+	private final RoomActorExecutor executor = new RoomActorExecutor(4, 3);
+
+	@AfterEach
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void runsOneRoomsTasksInSubmissionOrder() throws Exception {
+		RoomActorExecutor roomy = new RoomActorExecutor(10_000, 3);
+		List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			int n = i;
+			futures.add(roomy.submit("ROOM", () -> {
+				seen.add(n);
+				return n;
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			assertEquals(i, futures.get(i).get(5, TimeUnit.SECONDS));
+		}
+		for (int i = 0; i < seen.size(); i++) {
+			assertEquals(i, seen.get(i));
+		}
+		assertEquals(1000L, roomy.getStats(1).get("processed"));
+		roomy.shutdown();
+	}
+
+	@Test
+	void aBusyRoomDoesNotBlockOthers() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<Boolean> busy = executor.submit("A", () -> await(release));
+
+		assertEquals("done", executor.submit("B", () -> "done").get(5, TimeUnit.SECONDS));
+		assertFalse(busy.isDone());
+		release.countDown();
+		assertTrue(busy.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void rejectsWhenTheMailboxIsFull() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.submit("ROOM", () -> {
+			started.countDown();
+			return await(release);
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		List<CompletableFuture<Integer>> queued = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			int n = i;
+			queued.add(executor.submit("ROOM", () -> n));
+		}
+		CompletableFuture<Integer> overflow = executor.submit("ROOM", () -> 99);
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> overflow.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(RejectedExecutionException.class, e.getCause());
+		assertEquals(1L, executor.getStats(1).get("rejected"));
+		List<Map<String, Object>> hot = executor.getHotRooms(1);
+		assertEquals("ROOM", hot.get(0).get("roomId"));
+		assertEquals(4, hot.get(0).get("depth"));
+
+		release.countDown();
+		for (int i = 0; i < queued.size(); i++) {
+			assertEquals(i, queued.get(i).get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	void aFailedTaskDoesNotStopTheRoom() throws Exception {
+		CompletableFuture<String> failing = executor.submit("ROOM", () -> {
+			throw new IllegalStateException("boom");
+		});
+		CompletableFuture<String> next = executor.submit("ROOM", () -> "still running");
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(IllegalStateException.class, e.getCause());
+		assertEquals("still running", next.get(5, TimeUnit.SECONDS));
+		assertEquals(1L, executor.getStats(1).get("failed"));
+	}
+
+	@Test
+	void sweepsIdleMailboxes() throws Exception {
+		executor.submit("ROOM", () -> 1).get(5, TimeUnit.SECONDS);
+		// The worker clears its scheduled flag just after completing the future
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((int) executor.getStats(1).get("mailboxes") > 0 && System.nanoTime() < deadline) {
+			executor.removeIdleMailboxes();
+			Thread.sleep(1);
+		}
+		assertEquals(0, executor.getStats(1).get("mailboxes"));
+	}
+
+	private static boolean await(CountDownLatch latch) {
+		try {
+			return latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomArchiveTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+	private static List<Message> messages(long from, long to) {
+		List<Message> messages = new ArrayList<>();
+		for (long sequence = from; sequence <= to; sequence++) {
+			Message message = new Message("alice", "message " + sequence, "ROOM", null);
+			message.setId("m" + sequence);
+			message.setSequence(sequence);
+			messages.add(message);
+		}
+		return messages;
+	}
+
+	private static List<Long> sequences(List<Message> messages) {
+		return messages.stream().map(Message::getSequence).toList();
+	}
+
+	@Test
+	void pagesBackwardsAcrossBlocksAndSegments(@TempDir Path dir) throws Exception {
+		RoomArchive archive = new RoomArchive(dir, objectMapper, 4, 64);
+		archive.append(messages(1, 10));
+		archive.append(messages(11, 20));
+
+		assertEquals(20, archive.getMessageCount());
+		assertTrue(archive.getSegmentCount() > 1);
+		assertEquals(List.of(16L, 17L, 18L, 19L, 20L), sequences(archive.readBefore(null, 5)));
+		assertEquals(List.of(9L, 10L, 11L), sequences(archive.readBefore(12L, 3)));
+		assertEquals(List.of(1L, 2L), sequences(archive.readBefore(3L, 10)));
+		assertEquals(20, archive.readAll().size());
+		assertEquals("message 7", archive.readAll().get(6).getContent());
+	}
+
+	@Test
+	void readsForwardInKeysetPages(@TempDir Path dir) throws Exception {
+		RoomArchive archive = new RoomArchive(dir, objectMapper, 4, 64);
+		archive.append(messages(1, 10));
+		archive.append(messages(11, 20));
+
+		assertEquals(List.of(6L, 7L, 8L), sequences(archive.readFrom(6, 3)));
+		assertEquals(List.of(19L, 20L), sequences(archive.readFrom(19, 10)));
+		assertTrue(archive.readFrom(21, 10).isEmpty());
+
+		List<Long> all = MessageStore.paged(last -> {
+			try {
+				return archive.readFrom(last + 1, 3);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}).map(Message::getSequence).toList();
+		assertEquals(sequences(messages(1, 20)), all);
+	}
+
+	@Test
+	void reopenDropsTornTail(@TempDir Path dir) throws Exception {
+		RoomArchive archive = new RoomArchive(dir, objectMapper, 4, 1 << 20);
+		archive.append(messages(1, 8));
+		Path segment;
+		try (var files = Files.list(dir)) {
+			segment = files.filter(p -> p.toString().endsWith(".seg")).findFirst().orElseThrow();
+		}
+		// A block that was being written when the process died, with no index entry
+		Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+		RoomArchive reopened = new RoomArchive(dir, objectMapper, 4, 1 << 20);
+		assertEquals(8, reopened.getLastSequence());
+		assertEquals(8, reopened.readAll().size());
+
+		reopened.append(messages(9, 9));
+		assertEquals(List.of(7L, 8L, 9L), sequences(new RoomArchive(dir, objectMapper, 4, 1 << 20).readBefore(null, 3)));
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Room;
+import com.substring.chat.repositories.RoomRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomCacheTests {
+
+	/**
+	 * RoomRepository that only answers findByRoomId, counting calls.
+	 */
+	static class FakeRooms {
+		final Map<String, Room> rooms = new HashMap<>();
+		int lookups;
+		boolean down;
+
+		RoomRepository repository() {
+			return (RoomRepository) Proxy.newProxyInstance(RoomRepository.class.getClassLoader(),
+					new Class<?>[]{RoomRepository.class}, (proxy, method, args) -> {
+						if (!method.getName().equals("findByRoomId")) {
+							throw new UnsupportedOperationException(method.getName());
+						}
+						lookups++;
+						if (down) {
+							throw new DataAccessResourceFailureException("mongo down");
+						}
+						return rooms.get((String) args[0]);
+					});
+		}
+
+		Room add(String roomId) {
+			Room room = new Room();
+			room.setRoomId(roomId);
+			rooms.put(roomId, room);
+			return room;
+		}
+	}
+
+	private final FakeRooms fake = new FakeRooms();
+
+	@Test
+	void cachesHitsUntilTheyExpire() throws Exception {
+		Room room = fake.add("ROOM");
+		RoomCache cache = new RoomCache(fake.repository(), 100, 50, 10, 60_000);
+
+		assertSame(room, cache.get("ROOM"));
+		assertSame(room, cache.get("ROOM"));
+		assertTrue(cache.exists("ROOM"));
+		assertEquals(1, fake.lookups);
+		assertEquals(2L, cache.getStats().get("hits"));
+
+		Thread.sleep(60);
+		assertSame(room, cache.get("ROOM"));
+		assertEquals(2, fake.lookups);
+	}
+
+	@Test
+	void cachesMissesForTheShorterTtl() throws Exception {
+		RoomCache cache = new RoomCache(fake.repository(), 100, 60_000, 30, 60_000);
+
+		assertNull(cache.get("NOPE"));
+		assertFalse(cache.exists("NOPE"));
+		assertEquals(1, fake.lookups);
+		assertEquals(1L, cache.getStats().get("negativeHits"));
+
+		fake.add("NOPE");
+		Thread.sleep(40);
+		assertNotNull(cache.get("NOPE"));
+		assertEquals(2, fake.lookups);
+		assertNull(cache.get(null));
+	}
+
+	@Test
+	void putReplacesACachedMissAndInvalidateForgets() {
+		RoomCache cache = new RoomCache(fake.repository(), 100, 60_000, 60_000, 60_000);
+		assertNull(cache.get("ROOM"));
+
+		Room created = fake.add("ROOM");
+		cache.put(created);
+		assertSame(created, cache.get("ROOM"));
+		assertEquals(1, fake.lookups);
+
+		cache.invalidate("ROOM");
+		assertSame(created, cache.get("ROOM"));
+		assertEquals(2, fake.lookups);
+	}
+
+	@Test
+	void staysWithinMaxSizeEvictingMissesFirst() {
+		RoomCache cache = new RoomCache(fake.repository(), 3, 60_000, 60_000, 60_000);
+		fake.add("A");
+		fake.add("B");
+		cache.get("A");
+		cache.get("B");
+		cache.get("MISSING");
+
+		fake.add("C");
+		cache.get("C");
+		assertEquals(3, cache.getStats().get("size"));
+		int before = fake.lookups;
+		cache.get("A");
+		cache.get("B");
+		cache.get("C");
+		assertEquals(before, fake.lookups);
+
+		cache.get("D");
+		cache.get("E");
+		assertEquals(3, cache.getStats().get("size"));
+	}
+
+	@Test
+	void servesAStaleEntryWhenTheReloadFails() throws Exception {
+		Room room = fake.add("ROOM");
+		RoomCache cache = new RoomCache(fake.repository(), 100, 20, 50, 60_000);
+		assertSame(room, cache.get("ROOM"));
+
+		Thread.sleep(30);
+		fake.down = true;
+		assertSame(room, cache.get("ROOM"));
+		assertTrue(cache.exists("ROOM"));
+		// Retried only after the negative TTL
+		assertEquals(2, fake.lookups);
+		assertEquals(1L, cache.getStats().get("staleHits"));
+
+		// Nothing cached to fall back on
+		assertThrows(DataAccessResourceFailureException.class, () -> cache.get("OTHER"));
+	}
+}
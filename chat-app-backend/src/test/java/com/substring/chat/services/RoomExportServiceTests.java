@@ -0,0 +1,136 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomExportServiceTests {
+
+	private static final LocalDateTime OLD = LocalDateTime.now().minusDays(60).withNano(0);
+
+	@TempDir
+	Path dir;
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private RoomExportService service;
+
+	// Sequences 1-4 are archived, 5 and 6 stay in the hot store; both hot ones had a file
+	@BeforeEach
+	void seed() {
+		MessageArchiveService archive = new MessageArchiveService(store, objectMapper, false,
+				dir.resolve("archive").toString(), 30, 100, 4, 1 << 20);
+		for (long sequence = 1; sequence <= 6; sequence++) {
+			Message message = new Message("alice", "message " + sequence, "ROOM", null);
+			message.setId("m" + sequence);
+			message.setSequence(sequence);
+			message.setCreatedAt(sequence <= 4 ? OLD.plusMinutes(sequence) : LocalDateTime.now());
+			if (sequence >= 5) {
+				message.setFileName("file" + sequence + ".pdf");
+				message.setFileUrl("/files/abc/file" + sequence + ".pdf");
+			}
+			store.insert(message);
+		}
+		store.messages.get("m6").setDeleted(true);
+		assertEquals(4L, archive.archiveOldMessages().get("messages"));
+		// One export thread and one queued: the third concurrent export is turned away
+		service = new RoomExportService(new MessageHistoryService(store, archive), objectMapper, 1, 1, 2, 60_000);
+	}
+
+	@AfterEach
+	void shutdown() {
+		service.shutdown();
+	}
+
+	private List<JsonNode> lines(byte[] export) throws IOException {
+		List<JsonNode> lines = new ArrayList<>();
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(export))) {
+			for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+				lines.add(objectMapper.readTree(line));
+			}
+		}
+		return lines;
+	}
+
+	@Test
+	void writesTheArchiveThenTheHotStoreAndATrailer() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		service.export("ROOM", null, null, true).writeTo(out);
+
+		List<JsonNode> lines = lines(out.toByteArray());
+		assertEquals("export", lines.get(0).get("type").asText());
+		assertEquals("ROOM", lines.get(0).get("roomId").asText());
+		List<String> body = lines.subList(1, lines.size() - 1).stream()
+				.map(line -> line.get("type").asText() + ":" + (line.has("sequence") ? line.get("sequence").asText() : line.get("messageId").asText()))
+				.toList();
+		// Only files that are still there get a manifest entry
+		assertEquals(List.of("message:1", "message:2", "message:3", "message:4", "message:5", "attachment:m5", "message:6"), body);
+
+		JsonNode trailer = lines.get(lines.size() - 1);
+		assertEquals("end", trailer.get("type").asText());
+		assertEquals(6, trailer.get("messages").asLong());
+		assertEquals(1, trailer.get("attachments").asLong());
+
+		assertEquals(6L, service.getStats().get("messagesExported"));
+		assertEquals((long) out.size(), service.getStats().get("bytesWritten"));
+		assertEquals(0, service.getStats().get("active"));
+	}
+
+	@Test
+	void appliesTheTimeWindowAndLeavesAttachmentsOutUnlessAsked() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		service.export("ROOM", OLD.plusMinutes(3), null, false).writeTo(out);
+
+		List<JsonNode> lines = lines(out.toByteArray());
+		assertEquals(List.of(3L, 4L, 5L, 6L), lines.subList(1, lines.size() - 1).stream().map(line -> line.get("sequence").asLong()).toList());
+		assertEquals(0, lines.get(lines.size() - 1).get("attachments").asLong());
+		assertThrows(IllegalArgumentException.class, () -> service.export("ROOM", OLD, OLD, false));
+	}
+
+	@Test
+	void turnsExportsAwayPastCapacityAndFreesTheSlotWhenTheBodyEnds() throws Exception {
+		StreamingResponseBody first = service.export("ROOM", null, null, false);
+		StreamingResponseBody second = service.export("ROOM", null, null, false);
+		assertNotNull(first);
+		assertNotNull(second);
+		// The controller answers this with 429
+		assertNull(service.export("ROOM", null, null, false));
+		assertEquals(1L, service.getStats().get("rejected"));
+		assertEquals(2, service.getStats().get("active"));
+
+		first.writeTo(new ByteArrayOutputStream());
+		assertEquals(1, service.getStats().get("active"));
+
+		// A client that goes away mid-export frees its slot too
+		OutputStream gone = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Broken pipe");
+			}
+		};
+		assertThrows(IOException.class, () -> second.writeTo(gone));
+		assertEquals(0, service.getStats().get("active"));
+		assertEquals(1L, service.getStats().get("failed"));
+		assertEquals(1L, service.getStats().get("completed"));
+
+		assertNotNull(service.export("ROOM", null, null, false));
+	}
+}
@@ -0,0 +1,181 @@
+package com.substring.chat.services;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.result.UpdateResult;
+import com.substring.chat.entities.RoomMembership;
+import com.substring.chat.repositories.RoomMembershipRepository;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomMembershipServiceTests {
+
+	// "roomId/username" pairs standing in for room_memberships
+	private final Set<String> memberships = new LinkedHashSet<>();
+	private Runnable duringLoad = () -> { };
+
+	// Never connects: membership upserts land in the set above, mailbox writes are recorded
+	private final MongoClient client = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=200");
+	private final OfflineMailboxServiceTests.RecordingMongoTemplate mongoTemplate = new OfflineMailboxServiceTests.RecordingMongoTemplate(client) {
+		@Override
+		public UpdateResult upsert(Query query, UpdateDefinition update, Class<?> entityClass) {
+			if (entityClass != RoomMembership.class) {
+				return super.upsert(query, update, entityClass);
+			}
+			Document criteria = query.getQueryObject();
+			boolean added = memberships.add(criteria.getString("roomId") + "/" + criteria.getString("username"));
+			return UpdateResult.acknowledged(added ? 0 : 1, 0L, added ? new BsonString("new") : null);
+		}
+	};
+
+	private final RoomMembershipRepository repository = (RoomMembershipRepository) Proxy.newProxyInstance(
+			RoomMembershipRepository.class.getClassLoader(), new Class<?>[]{RoomMembershipRepository.class}, (proxy, method, args) -> {
+				String roomId = (String) args[0];
+				switch (method.getName()) {
+					case "findUsernamesByRoomId":
+						List<RoomMembership> members = memberships.stream()
+								.filter(pair -> pair.startsWith(roomId + "/"))
+								.map(pair -> membership(pair.substring(roomId.length() + 1)))
+								.toList();
+						duringLoad.run();
+						return members;
+					case "deleteByRoomIdAndUsername":
+						return memberships.remove(roomId + "/" + args[1]) ? 1L : 0L;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			});
+
+	@AfterEach
+	void close() {
+		client.close();
+	}
+
+	private static RoomMembership membership(String username) {
+		RoomMembership membership = new RoomMembership();
+		membership.setUsername(username);
+		return membership;
+	}
+
+	private RoomMembershipService service(long ttlMillis) {
+		SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> true);
+		UserSessionRegistry sessions = new UserSessionRegistry(new DefaultSimpUserRegistry());
+		RoomCache roomCache = new RoomCache(new RoomCacheTests.FakeRooms().repository(), 100, 60_000, 60_000, 60_000);
+		OfflineMailboxService mailboxes = new OfflineMailboxService(mongoTemplate, messagingTemplate, sessions, roomCache, 50, 20);
+		MentionService mentions = new MentionService(repository, mongoTemplate, messagingTemplate, 20, 140, 100, 60_000, 100, 50);
+		return new RoomMembershipService(repository, null, mongoTemplate, mailboxes, mentions, 100, ttlMillis);
+	}
+
+	private long loads(RoomMembershipService service) {
+		return (long) service.getStats().get("loads");
+	}
+
+	@Test
+	void loadsARoomOnceAndAnswersFromTheCache() {
+		memberships.add("ROOM/alice");
+		RoomMembershipService service = service(60_000);
+
+		assertTrue(service.isMember("ROOM", "alice"));
+		assertFalse(service.isMember("ROOM", "bob"));
+		assertFalse(service.isMember("ROOM", null));
+		assertFalse(service.isMember(null, "alice"));
+		assertEquals(1, loads(service));
+		assertEquals(1L, service.getStats().get("hits"));
+		assertEquals(1L, service.getStats().get("cachedMembers"));
+	}
+
+	@Test
+	void joinAndLeaveAreVisibleToTheNextCheckWithoutAReload() {
+		RoomMembershipService service = service(60_000);
+		assertFalse(service.isMember("ROOM", "alice"));
+
+		assertTrue(service.join("ROOM", "alice", RoomMembership.ROLE_MEMBER));
+		assertFalse(service.join("ROOM", "alice", RoomMembership.ROLE_MEMBER));
+		assertTrue(service.isMember("ROOM", "alice"));
+
+		assertTrue(service.leave("ROOM", "alice"));
+		assertFalse(service.isMember("ROOM", "alice"));
+		assertEquals(1, loads(service));
+
+		// Joining follows the room in the mailbox, leaving unfollows it
+		List<String> mailboxWrites = mongoTemplate.updates.stream().map(update -> update.keySet().toString()).toList();
+		assertEquals(List.of("[$addToSet, $setOnInsert]", "[$addToSet, $setOnInsert]", "[$pull, $unset]"), mailboxWrites);
+	}
+
+	@Test
+	void aLoadThatRacedAChangeIsNotCached() {
+		memberships.add("ROOM/alice");
+		RoomMembershipService service = service(60_000);
+		duringLoad = () -> {
+			duringLoad = () -> { };
+			service.leave("ROOM", "alice");
+		};
+
+		// The racing load saw alice; the next check must reload rather than trust it
+		service.isMember("ROOM", "alice");
+		assertFalse(service.isMember("ROOM", "alice"));
+		assertEquals(2, loads(service));
+	}
+
+	@Test
+	void aChangeToAnotherRoomDoesNotStopALoadBeingCached() {
+		memberships.add("ROOM/alice");
+		RoomMembershipService service = service(60_000);
+		duringLoad = () -> {
+			duringLoad = () -> { };
+			service.join("OTHER", "bob", RoomMembership.ROLE_MEMBER);
+		};
+
+		assertTrue(service.isMember("ROOM", "alice"));
+		assertTrue(service.isMember("ROOM", "alice"));
+		assertEquals(1, loads(service));
+	}
+
+	@Test
+	void checksAgainstACachedRoomNeverGoBackToTheStore() {
+		for (int i = 0; i < 1000; i++) {
+			memberships.add("ROOM/user" + i);
+		}
+		RoomMembershipService service = service(60_000);
+
+		// The per-frame hot path of the STOMP interceptor: a member and a stranger in turn
+		int granted = 0;
+		for (int i = 0; i < 200_000; i++) {
+			granted += service.isMember("ROOM", (i & 1) == 0 ? "user" + (i % 1000) : "stranger") ? 1 : 0;
+		}
+
+		assertEquals(100_000, granted);
+		assertEquals(1, loads(service));
+		assertEquals(1000L, service.getStats().get("cachedMembers"));
+	}
+
+	@Test
+	void expiredRoomsAreReloadedAndSwept() throws Exception {
+		memberships.add("ROOM/alice");
+		RoomMembershipService service = service(20);
+		assertTrue(service.isMember("ROOM", "alice"));
+
+		// Someone else's instance removed alice
+		memberships.remove("ROOM/alice");
+		Thread.sleep(30);
+		assertFalse(service.isMember("ROOM", "alice"));
+		assertEquals(2, loads(service));
+
+		Thread.sleep(30);
+		service.sweep();
+		assertEquals(0, service.getStats().get("cachedRooms"));
+	}
+}
@@ -0,0 +1,75 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomSearchShardTests {
+
+	private static Message message(long sequence, String sender, String content) {
+		Message message = new Message(sender, content, "ROOM", null);
+		message.setId("m" + sequence);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	@Test
+	void ranksAndPagesWithCursor() {
+		RoomSearchShard shard = new RoomSearchShard("ROOM");
+		shard.add(message(1, "alice", "deploy the build"));
+		shard.add(message(2, "bob", "lunch anyone?"));
+		shard.add(message(3, "carol", "build build build is green"));
+		shard.add(message(4, "dave", "the build failed"));
+		assertFalse(shard.add(message(4, "dave", "duplicate replay")));
+
+		RoomSearchShard.SearchPage first = shard.search("build", 2, null);
+		assertEquals(List.of("m3", "m4"), first.hits().stream().map(RoomSearchShard.Hit::messageId).toList());
+		assertNotNull(first.nextCursor());
+
+		RoomSearchShard.SearchPage second = shard.search("build", 2, first.nextCursor());
+		assertEquals(List.of("m1"), second.hits().stream().map(RoomSearchShard.Hit::messageId).toList());
+		assertNull(second.nextCursor());
+	}
+
+	@Test
+	void editsAndDeletesReplaceIndexedContent() {
+		RoomSearchShard shard = new RoomSearchShard("ROOM");
+		shard.add(message(1, "alice", "meet at noon"));
+		shard.add(message(2, "bob", "noon works"));
+
+		Message edited = message(1, "alice", "meet at five");
+		assertTrue(shard.replace(edited));
+		assertEquals(List.of("m2"), shard.search("noon", 10, null).hits().stream().map(RoomSearchShard.Hit::messageId).toList());
+		assertEquals(List.of("m1"), shard.search("five", 10, null).hits().stream().map(RoomSearchShard.Hit::messageId).toList());
+
+		Message deleted = message(2, "bob", null);
+		deleted.setDeleted(true);
+		assertTrue(shard.replace(deleted));
+		assertTrue(shard.search("noon", 10, null).hits().isEmpty());
+		assertFalse(shard.replace(message(9, "eve", "never indexed")));
+	}
+
+	@Test
+	void snapshotRoundTrip() throws Exception {
+		RoomSearchShard shard = new RoomSearchShard("ROOM");
+		shard.add(message(1, "alice", "hello world"));
+		shard.add(message(2, "bob", "world peace"));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		shard.writeSnapshot(new DataOutputStream(bytes));
+		RoomSearchShard restored = RoomSearchShard.readSnapshot(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(2, restored.getLastSequence());
+		assertEquals(2, restored.search("world", 10, null).hits().size());
+		assertEquals("m1", restored.search("alice", 10, null).hits().get(0).messageId());
+		assertEquals(1L, restored.search("alice", 10, null).hits().get(0).sequence());
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomSequencerTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+
+	@TempDir
+	Path dir;
+
+	private SpillJournal journal;
+	private MessageArchiveService archive;
+
+	@BeforeEach
+	void open() throws Exception {
+		journal = new SpillJournal(store, objectMapper, dir.resolve("journal").toString(), 1 << 20, 100, 2000);
+		archive = new MessageArchiveService(store, objectMapper, false, dir.resolve("archive").toString(), 90, 1000, 256, 1 << 20);
+	}
+
+	@AfterEach
+	void close() throws Exception {
+		journal.close();
+	}
+
+	private RoomSequencer sequencer(long reserve) throws Exception {
+		return new RoomSequencer(store, archive, journal, dir.resolve("sequences").toString(), reserve);
+	}
+
+	private static Message message(String roomId, long sequence) {
+		Message message = new Message("alice", "hello", roomId, null);
+		message.setId(roomId + sequence);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	@Test
+	void seedsAnUnknownRoomFromTheStoreOnce() throws Exception {
+		store.insert(message("ROOM", 41));
+		RoomSequencer sequencer = sequencer(10);
+
+		assertEquals(42, sequencer.next("ROOM"));
+		assertEquals(43, sequencer.next("ROOM"));
+		assertEquals(1, sequencer.next("OTHER"));
+		assertEquals(43, sequencer.current("ROOM"));
+	}
+
+	@Test
+	void restartResumesAfterTheReservationWithoutTheStore() throws Exception {
+		RoomSequencer sequencer = sequencer(10);
+		for (int i = 0; i < 12; i++) {
+			sequencer.next("ROOM");
+		}
+		assertTrue(Files.readString(dir.resolve("sequences")).contains("ROOM 20"));
+
+		int reads = store.reads;
+		store.down = true;
+		RoomSequencer restarted = sequencer(10);
+		// Skips the unused part of the block rather than risk reusing a number
+		assertEquals(21, restarted.next("ROOM"));
+		assertEquals(reads, store.reads);
+	}
+
+	@Test
+	void journaledSequencesWinOverAnOlderReservation() throws Exception {
+		sequencer(10).next("ROOM");
+		store.down = true;
+		for (long sequence = 1; sequence <= 15; sequence++) {
+			journal.persist(message("ROOM", sequence));
+		}
+
+		assertEquals(16, sequencer(10).next("ROOM"));
+	}
+}
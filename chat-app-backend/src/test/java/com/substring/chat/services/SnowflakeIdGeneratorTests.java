@@ -0,0 +1,46 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnowflakeIdGeneratorTests {
+
+	@Test
+	void idsAreUniqueAndOrdered() {
+		SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7, 1);
+		Set<String> seen = new HashSet<>();
+		String previous = "";
+
+		for (int i = 0; i < 50_000; i++) {
+			String id = generator.nextIdString();
+			assertEquals(13, id.length());
+			assertTrue(id.compareTo(previous) > 0, "ids must sort in issue order");
+			assertTrue(seen.add(id));
+			previous = id;
+		}
+	}
+
+	@Test
+	void nodeIdIsEmbedded() {
+		long id = new SnowflakeIdGenerator(513, 3).nextId();
+		assertEquals(513, (id >>> 12) & 1023);
+	}
+
+	@Test
+	void rejectsNodeIdsOutOfRange() {
+		assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(1024, 1));
+		assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(-2, 1));
+	}
+
+	@Test
+	void requiresAnExplicitNodeIdWithSeveralInstances() {
+		assertThrows(IllegalStateException.class, () -> new SnowflakeIdGenerator(-1, 2));
+		assertEquals(0, new SnowflakeIdGenerator(-1, 1).getNode());
+		assertEquals(1023, new SnowflakeIdGenerator(1023, 2).getNode());
+	}
+
+}
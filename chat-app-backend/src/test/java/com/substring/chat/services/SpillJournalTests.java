@@ -0,0 +1,171 @@
+package com.substring.chat.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.substring.chat.entities.Message;
+import com.substring.chat.repositories.MessageStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillJournalTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+	private static Message message(long sequence) {
+		Message message = new Message("alice", "hello " + sequence, "ROOM", null);
+		message.setId("m" + sequence);
+		message.setSequence(sequence);
+		return message;
+	}
+
+	@Test
+	void journalsWhileDownAndReplaysOnceWithoutDuplicates(@TempDir Path dir) throws Exception {
+		FlakyStore store = new FlakyStore();
+		store.down = true;
+		SpillJournal journal = new SpillJournal(store, objectMapper, dir.toString(), 256, 2, 2000);
+
+		assertFalse(journal.isDegraded());
+		for (long sequence = 1; sequence <= 5; sequence++) {
+			assertTrue(journal.persist(message(sequence)));
+		}
+		assertTrue(journal.isDegraded());
+		assertEquals(5L, journal.getHealth().get("pendingMessages"));
+		assertEquals(5L, journal.pendingSequence("ROOM"));
+
+		journal.replay();
+		assertTrue(journal.isDegraded());
+		journal.close();
+
+		// Restart: the backlog survives, and one message already made it to the store
+		store.down = false;
+		store.messages.put("m2", message(2));
+		SpillJournal reopened = new SpillJournal(store, objectMapper, dir.toString(), 256, 2, 2000);
+		assertTrue(reopened.isDegraded());
+		assertEquals(5L, reopened.getHealth().get("pendingMessages"));
+
+		reopened.replay();
+		assertFalse(reopened.isDegraded());
+		assertEquals(List.of("m2", "m1", "m3", "m4", "m5"), new ArrayList<>(store.messages.keySet()));
+		assertFalse(reopened.persist(message(6)));
+		reopened.close();
+	}
+
+	@Test
+	void replayStopsAtACorruptRecordInsteadOfSpinning(@TempDir Path dir) throws Exception {
+		FlakyStore store = new FlakyStore();
+		store.down = true;
+		SpillJournal journal = new SpillJournal(store, objectMapper, dir.toString(), 1 << 20, 10, 2000);
+		for (long sequence = 1; sequence <= 3; sequence++) {
+			journal.persist(message(sequence));
+		}
+
+		// Flip a payload byte of the second record so its CRC no longer matches
+		Path segment;
+		try (Stream<Path> files = Files.list(dir)) {
+			segment = files.filter(file -> file.toString().endsWith(".wal")).findFirst().orElseThrow();
+		}
+		try (FileChannel file = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer length = ByteBuffer.allocate(4);
+			file.read(length, 0);
+			long second = 16 + length.getInt(0);
+			ByteBuffer payload = ByteBuffer.allocate(1);
+			file.read(payload, second + 20);
+			file.write(ByteBuffer.wrap(new byte[]{(byte) (payload.get(0) ^ 0x7f)}), second + 20);
+		}
+
+		store.down = false;
+		journal.replay();
+		assertEquals(List.of("m1"), new ArrayList<>(store.messages.keySet()));
+		assertTrue(journal.isDegraded());
+		assertEquals(2L, journal.getHealth().get("pendingMessages"));
+		assertTrue(((String) journal.getHealth().get("lastReplayError")).startsWith("Corrupt journal record"));
+
+		// Stays stopped, and keeps reporting why
+		journal.replay();
+		assertEquals(1, store.messages.size());
+		assertNotNull(journal.getHealth().get("lastReplayError"));
+		journal.close();
+	}
+
+	private static class FlakyStore implements MessageStore {
+		final Map<String, Message> messages = new LinkedHashMap<>();
+		boolean down;
+
+		private void check() {
+			if (down) {
+				throw new DataAccessResourceFailureException("store down");
+			}
+		}
+
+		@Override
+		public Message insert(Message message) {
+			check();
+			messages.put(message.getId(), message);
+			return message;
+		}
+
+		@Override
+		public List<Message> findAllById(Collection<String> ids) {
+			check();
+			return ids.stream().map(messages::get).filter(m -> m != null).toList();
+		}
+
+		@Override
+		public Stream<Message> streamByRoom(String roomId, LocalDateTime from, LocalDateTime to, int batchSize) { return Stream.empty(); }
+
+		@Override
+		public List<Message> findThreadPage(String roomId, String rootId, Long beforeSequence, int limit) { return List.of(); }
+
+		@Override
+		public Message findLatest(String roomId) {
+			check();
+			return null;
+		}
+
+		@Override
+		public List<Message> findByRoom(String roomId) { return List.of(); }
+
+		@Override
+		public List<Message> findByRoomAfterSequence(String roomId, long sequence) { return List.of(); }
+
+		@Override
+		public List<Message> findPage(String roomId, Long beforeSequence, int limit) { return List.of(); }
+
+		@Override
+		public void update(Message message, Map<String, Object> changes) { }
+
+		@Override
+		public void increment(Message message, Map<String, Long> increments, Map<String, Object> changes) { }
+
+		@Override
+		public List<String> findRoomsWithMessagesBefore(LocalDateTime cutoff) { return List.of(); }
+
+		@Override
+		public List<Message> findByRoomBefore(String roomId, LocalDateTime cutoff, int limit) { return List.of(); }
+
+		@Override
+		public List<Message> findTombstones(LocalDateTime deletedBefore, int limit) { return List.of(); }
+
+		@Override
+		public long deleteByIds(Collection<String> ids) { return 0; }
+
+		@Override
+		public String getLayout() { return "test"; }
+	}
+
+}
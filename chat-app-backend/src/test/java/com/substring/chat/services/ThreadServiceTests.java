@@ -0,0 +1,155 @@
+package com.substring.chat.services;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadServiceTests {
+
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final List<List<Object>> sent = new ArrayList<>();
+	private final SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> true) {
+		@Override
+		public void convertAndSend(String destination, Object payload) {
+			sent.add(List.of(destination, payload));
+		}
+	};
+	// Never connects: reactions are looked up through find(), which returns nothing
+	private final MongoClient client = MongoClients.create("mongodb://localhost:1/?serverSelectionTimeoutMS=200");
+	private final ThreadService service = new ThreadService(store, messagingTemplate,
+			new MessageReactionService(new OfflineMailboxServiceTests.RecordingMongoTemplate(client), store, messagingTemplate, 20, 60_000), 2);
+
+	@AfterEach
+	void close() {
+		client.close();
+	}
+
+	private Message stored(String id, String roomId, long sequence) {
+		Message message = new Message("alice", "message " + sequence, roomId, null);
+		message.setId(id);
+		message.setSequence(sequence);
+		message.setCreatedAt(LocalDateTime.now());
+		return store.insert(message);
+	}
+
+	private IngestionContext validated(String parentId) {
+		Message reply = new Message("bob", "reply", "ROOM", null);
+		reply.setParentId(parentId);
+		IngestionContext context = new IngestionContext(reply, "test");
+		service.afterStage(IngestionStage.VALIDATE, context);
+		return context;
+	}
+
+	private void persisted(String id, String rootId, long sequence, String sender) {
+		Message reply = stored(id, "ROOM", sequence);
+		reply.setSender(sender);
+		reply.setThreadRootId(rootId);
+		service.afterStage(IngestionStage.PERSIST, new IngestionContext(reply, "test"));
+	}
+
+	@Test
+	void repliesAreCheckedAgainstTheirParentAndRoutedToTheThreadTopic() {
+		stored("root", "ROOM", 1);
+		stored("reply", "ROOM", 2).setThreadRootId("root");
+		stored("elsewhere", "OTHER", 1);
+		stored("gone", "ROOM", 3).setDeleted(true);
+
+		assertEquals("Parent message not found", validated("missing").getRejectReason());
+		assertEquals("Parent message not found", validated("elsewhere").getRejectReason());
+		assertEquals("Cannot reply to a deleted message", validated("gone").getRejectReason());
+		store.down = true;
+		assertEquals("Thread is unavailable", validated("root").getRejectReason());
+		store.down = false;
+		assertEquals(4L, service.getStats().get("rejectedReplies"));
+
+		Message plain = validated(" ").getMessage();
+		assertNull(plain.getParentId());
+		assertEquals(MessageIngestionPipeline.roomTopic("ROOM"), MessageIngestionPipeline.topicFor(plain));
+
+		Message reply = validated("root").getMessage();
+		assertEquals("root", reply.getThreadRootId());
+		assertEquals(MessageIngestionPipeline.threadTopic("ROOM", "root"), MessageIngestionPipeline.topicFor(reply));
+		// Replies to replies join the same thread
+		IngestionContext nested = validated("reply");
+		assertFalse(nested.isRejected());
+		assertEquals("root", nested.getMessage().getThreadRootId());
+	}
+
+	@Test
+	void foldsRepliesIntoOneUpdatePerRootPerFlush() {
+		Message root = stored("root", "ROOM", 1);
+		persisted("r1", "root", 2, "bob");
+		persisted("r3", "root", 4, "carol");
+		persisted("r2", "root", 3, "dave");
+		stored("other", "ROOM", 5);
+		persisted("o1", "other", 6, "bob");
+		assertEquals(2, service.getStats().get("pendingRoots"));
+
+		service.flush();
+
+		assertEquals(2, store.updates.size());
+		assertEquals(3L, root.getReplyCount());
+		// The newest reply by sequence, not by arrival
+		assertEquals("r3", root.getLastReplyId());
+		assertEquals("carol", root.getLastReplySender());
+		assertEquals(1L, store.messages.get("other").getReplyCount());
+
+		Map<?, ?> summary = sent.stream()
+				.filter(s -> ((Map<?, ?>) s.get(1)).get("rootId").equals("root"))
+				.map(s -> {
+					assertEquals(MessageIngestionPipeline.roomTopic("ROOM"), s.get(0));
+					return (Map<?, ?>) s.get(1);
+				})
+				.findFirst().orElseThrow();
+		assertEquals(ThreadService.THREAD_TYPE, summary.get("type"));
+		assertEquals(3L, summary.get("newReplies"));
+		assertEquals("r3", summary.get("lastReplyId"));
+
+		service.flush();
+		assertEquals(2, store.updates.size());
+		assertEquals(0, service.getStats().get("pendingRoots"));
+
+		// Replies not folded in yet already count when the thread is opened
+		persisted("r4", "root", 7, "bob");
+		Map<String, Object> page = service.page("ROOM", "root", null, null);
+		assertEquals(4L, page.get("replyCount"));
+		assertSame(root, page.get("root"));
+		assertEquals(List.of("r3", "r4"), ((List<?>) page.get("replies")).stream().map(m -> ((Message) m).getId()).toList());
+		assertEquals(4L, page.get("next"));
+		assertNull(service.page("ROOM", "root", 4L, null).get("root"));
+		assertThrows(IllegalArgumentException.class, () -> service.page("OTHER", "root", null, null));
+		assertThrows(IllegalArgumentException.class, () -> service.page("ROOM", "r1", null, null));
+	}
+
+	@Test
+	void aFailedFlushKeepsTheCountsForTheNextOne() {
+		Message root = stored("root", "ROOM", 1);
+		persisted("r1", "root", 2, "bob");
+		store.down = true;
+
+		service.flush();
+
+		assertEquals(1L, service.getStats().get("flushFailures"));
+		assertEquals(1, service.getStats().get("pendingRoots"));
+		assertTrue(sent.isEmpty());
+
+		store.down = false;
+		persisted("r2", "root", 3, "carol");
+		service.flush();
+
+		assertEquals(1, store.updates.size());
+		assertEquals(2L, root.getReplyCount());
+		assertEquals("r2", root.getLastReplyId());
+		assertEquals(1L, service.getStats().get("rootsUpdated"));
+	}
+}
@@ -0,0 +1,109 @@
+package com.substring.chat.services;
+
+import com.substring.chat.entities.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailServiceTests {
+
+	@TempDir
+	Path uploads;
+
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+
+	private ThumbnailService service(long maxPixels) {
+		AttachmentService attachments = new AttachmentService(uploads.toString(), false, 1024, 1 << 20, 100, 10);
+		return new ThumbnailService(store, attachments, true, 64, 256, 1, 10, maxPixels);
+	}
+
+	private Path image(String name, int width, int height) throws Exception {
+		Path file = uploads.resolve(name);
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", file.toFile());
+		return file;
+	}
+
+	private static Message message(String fileName) {
+		Message message = new Message("alice", null, "ROOM", null);
+		message.setId("m1");
+		message.setFileName(fileName);
+		return message;
+	}
+
+	// Shutting down waits for queued jobs
+	private static void drain(ThumbnailService service) throws Exception {
+		service.shutdown();
+	}
+
+	@Test
+	void scalesWithinTheBoundingBoxAndRecordsVariants() throws Exception {
+		ThumbnailService service = service(40_000_000);
+		Path original = image("wide.png", 800, 200);
+		Message message = message("wide.png");
+
+		service.submit(message, original);
+		drain(service);
+
+		BufferedImage thumb = ImageIO.read(uploads.resolve("wide_thumb.jpg").toFile());
+		assertEquals(64, thumb.getWidth());
+		assertEquals(16, thumb.getHeight());
+		BufferedImage preview = ImageIO.read(uploads.resolve("wide_preview.jpg").toFile());
+		assertEquals(256, preview.getWidth());
+		assertEquals(64, preview.getHeight());
+
+		Map<String, String> variants = message.getVariants();
+		assertEquals(List.of("thumb", "preview"), new ArrayList<>(variants.keySet()));
+		assertTrue(variants.get("thumb").matches("/files/[0-9a-f]{16}/wide_thumb\\.jpg"));
+		assertEquals(List.of(Map.of("variants", variants)), store.updates);
+		assertEquals(1L, service.getStats().get("generated"));
+	}
+
+	@Test
+	void neverUpscalesSmallImages() throws Exception {
+		ThumbnailService service = service(40_000_000);
+		service.submit(message("tiny.png"), image("tiny.png", 10, 5));
+		drain(service);
+
+		BufferedImage thumb = ImageIO.read(uploads.resolve("tiny_thumb.jpg").toFile());
+		assertEquals(10, thumb.getWidth());
+		assertEquals(5, thumb.getHeight());
+	}
+
+	@Test
+	void skipsImagesOverThePixelLimitWithoutDecoding() throws Exception {
+		ThumbnailService service = service(10_000);
+		Message message = message("big.png");
+
+		service.submit(message, image("big.png", 200, 100));
+		drain(service);
+
+		assertNull(message.getVariants());
+		assertTrue(store.updates.isEmpty());
+		assertFalse(Files.exists(uploads.resolve("big_thumb.jpg")));
+		assertEquals(1L, service.getStats().get("oversized"));
+		assertEquals(0L, service.getStats().get("failed"));
+	}
+
+	@Test
+	void ignoresFilesImageIoCannotDecode() throws Exception {
+		ThumbnailService service = service(40_000_000);
+		Path svg = uploads.resolve("logo.svg");
+		Files.writeString(svg, "<svg xmlns=\"http://www.w3.org/2000/svg\"/>");
+		Message message = message("logo.svg");
+
+		service.submit(message, svg);
+		drain(service);
+
+		assertNull(message.getVariants());
+		assertEquals(0L, service.getStats().get("failed"));
+	}
+}
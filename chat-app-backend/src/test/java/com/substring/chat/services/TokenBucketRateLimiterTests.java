@@ -0,0 +1,29 @@
+package com.substring.chat.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketRateLimiterTests {
+
+	@Test
+	void allowsBurstThenThrottles() {
+		TokenBucketRateLimiter limiter = new TokenBucketRateLimiter("test", 3, 1, 60000);
+
+		assertTrue(limiter.tryAcquire("alice"));
+		assertTrue(limiter.tryAcquire("alice"));
+		assertTrue(limiter.tryAcquire("alice"));
+		assertFalse(limiter.tryAcquire("alice"));
+		assertTrue(limiter.tryAcquire("bob"));
+
+		assertEquals(4, limiter.getGranted());
+		assertEquals(1, limiter.getThrottled());
+		assertEquals(2, limiter.size());
+	}
+
+	@Test
+	void rejectsBurstThatDoesNotFitInState() {
+		assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter("test", 100_000, 1, 0));
+	}
+
+}
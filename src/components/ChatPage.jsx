@@ -6,6 +6,9 @@ import SockJS from "sockjs-client";
 import { Client } from "@stomp/stompjs";
 import { toast } from "react-hot-toast";
 import { getCurrentUser, logout } from "../services/AuthService";
+import { editMessage, deleteMessage, getThread, exportRoomHistory, streamRoomMessages } from "../services/RoomService";
+
+const QUICK_REACTIONS = ["👍", "❤️", "😂"];
 
 const ChatPage = () => {
   const messageRef = useRef();
@@ -19,6 +22,11 @@ const ChatPage = () => {
   const [roomName, setRoomName] = useState("Loading...");
   const fileInputRef = useRef(null);
   const [userCache, setUserCache] = useState(new Map()); // Cache for user full names
+  // Open thread: its root, the replies loaded so far and our subscription to its topic
+  const [activeThread, setActiveThread] = useState(null);
+  const [threadReplies, setThreadReplies] = useState([]);
+  const [threadInput, setThreadInput] = useState("");
+  const threadSubscription = useRef(null);
 
   useEffect(() => {
     // Check authentication
@@ -75,12 +83,47 @@ const ChatPage = () => {
           const receivedMessage = JSON.parse(message.body);
           console.log("Received message:", receivedMessage);
 
+          // Edits and deletes arrive as patches: merge the changed fields into our copy
+          if (receivedMessage.type === "patch") {
+            setMessages((prev) => prev.map(msg =>
+              msg.id === receivedMessage.id ? { ...msg, ...receivedMessage.changes } : msg
+            ));
+            return;
+          }
+
+          // Reaction counts arrive coalesced, several messages per event
+          if (receivedMessage.type === "reactions") {
+            const counts = new Map(receivedMessage.messages.map(entry => [entry.id, entry.reactions]));
+            setMessages((prev) => prev.map(msg =>
+              counts.has(msg.id) ? { ...msg, reactions: counts.get(msg.id) } : msg
+            ));
+            setThreadReplies((prev) => prev.map(msg =>
+              counts.has(msg.id) ? { ...msg, reactions: counts.get(msg.id) } : msg
+            ));
+            return;
+          }
+
+          // Replies go to the thread topic; the room only gets batched reply counts
+          if (receivedMessage.type === "thread") {
+            const update = (msg) => msg.id === receivedMessage.rootId ? {
+              ...msg,
+              replyCount: (msg.replyCount || 0) + receivedMessage.newReplies,
+              lastReplySender: receivedMessage.lastReplySender,
+              lastReplyAt: receivedMessage.lastReplyAt,
+            } : msg;
+            setMessages((prev) => prev.map(update));
+            setActiveThread((prev) => prev ? update(prev) : prev);
+            return;
+          }
+
           setMessages((prev) => {
             // Check for duplicates
-            const isDuplicate = prev.some(msg => 
-              msg.timeStamp === receivedMessage.timeStamp &&
-              msg.sender === receivedMessage.sender &&
-              msg.content === receivedMessage.content
+            const isDuplicate = prev.some(msg =>
+              (receivedMessage.id && msg.id === receivedMessage.id) || (
+                msg.timeStamp === receivedMessage.timeStamp &&
+                msg.sender === receivedMessage.sender &&
+                msg.content === receivedMessage.content
+              )
             );
 
             if (!isDuplicate) {
@@ -94,28 +137,30 @@ const ChatPage = () => {
           });
         });
 
-        // Subscribe to messages from the file upload endpoint
-        client.subscribe(`/topic/messages/${roomId}`, (message) => {
-          const receivedMessage = JSON.parse(message.body);
-          console.log("Received file message:", receivedMessage);
+        // Acks for our own sends; a "duplicate" means a retry was dropped server-side
+        client.subscribe(`/user/queue/acks`, (message) => {
+          const ack = JSON.parse(message.body);
+          if (ack.status === "rejected" || ack.status === "failed") {
+            toast.error(ack.reason || "Message was not sent");
+          }
+        });
 
-          setMessages((prev) => {
-            // Check for duplicates
-            const isDuplicate = prev.some(msg => 
-              msg.timeStamp === receivedMessage.timeStamp &&
-              msg.sender === receivedMessage.sender &&
-              msg.content === receivedMessage.content
-            );
+        // One summary of what we missed while offline, sent once per connect
+        client.subscribe(`/user/queue/mailbox`, (message) => {
+          const mailbox = JSON.parse(message.body);
+          const missed = mailbox.rooms.filter(room => room.roomId !== roomId && room.count > 0);
+          if (missed.length > 0) {
+            toast(missed.map(room => `${room.count} new messages in ${room.roomName}`).join("\n"));
+          }
+          if (mailbox.directMessages.count > 0) {
+            toast(`${mailbox.directMessages.count} new direct messages`);
+          }
+        });
 
-            if (!isDuplicate) {
-              // Fetch sender's full name if not already cached and not current user
-              if (receivedMessage.sender !== currentUser && !userCache.has(receivedMessage.sender)) {
-                fetchUserFullName(receivedMessage.sender);
-              }
-              return [...prev, receivedMessage];
-            }
-            return prev;
-          });
+        // Someone @mentioned us, in this room or another one
+        client.subscribe(`/user/queue/mentions`, (message) => {
+          const mention = JSON.parse(message.body);
+          toast(`${mention.sender} mentioned you${mention.roomId !== roomId ? ` in ${mention.roomId}` : ""}: ${mention.excerpt}`);
         });
 
         // Subscribe to online users count for real-time updates
@@ -167,7 +212,27 @@ const ChatPage = () => {
     }
   };
 
+  // History streams in as NDJSON batches, merged with anything that arrived live meanwhile
   const loadMessages = async () => {
+    try {
+      await streamRoomMessages(roomId, (batch) => {
+        const ids = new Set(batch.map(msg => msg.id));
+        setMessages((prev) => [...prev.filter(msg => !ids.has(msg.id)), ...batch]
+          .sort((a, b) => (a.sequence ?? Infinity) - (b.sequence ?? Infinity)));
+        [...new Set(batch.map(msg => msg.sender))].forEach(sender => {
+          if (sender !== currentUser && !userCache.has(sender)) {
+            fetchUserFullName(sender);
+          }
+        });
+      });
+    } catch (error) {
+      // Streams are capped server-side; fall back to the one-shot endpoint
+      console.error("Failed to stream messages:", error);
+      await loadAllMessages();
+    }
+  };
+
+  const loadAllMessages = async () => {
     try {
       const token = localStorage.getItem("jwt");
       const response = await fetch(`http://localhost:8080/api/v1/rooms/${roomId}/messages`, {
@@ -216,6 +281,92 @@ const ChatPage = () => {
     }
   };
 
+  const handleEdit = async (message) => {
+    const content = window.prompt("Edit message", message.content);
+    if (content === null || content.trim() === "" || content === message.content) {
+      return;
+    }
+    try {
+      await editMessage(roomId, message.id, content);
+    } catch (error) {
+      toast.error(error.message || "Failed to edit message");
+    }
+  };
+
+  const handleDelete = async (message) => {
+    if (!window.confirm("Delete this message?")) {
+      return;
+    }
+    try {
+      await deleteMessage(roomId, message.id);
+    } catch (error) {
+      toast.error(error.message || "Failed to delete message");
+    }
+  };
+
+  const toggleReaction = (message, emoji) => {
+    if (!stompClient || !connected || !message.id) {
+      return;
+    }
+    stompClient.publish({
+      destination: "/app/reaction.toggle",
+      body: JSON.stringify({ roomId, messageId: message.id, emoji }),
+    });
+  };
+
+  const openThread = async (root) => {
+    if (!stompClient || !root.id) {
+      return;
+    }
+    closeThread();
+    setActiveThread(root);
+    try {
+      const page = await getThread(roomId, root.id);
+      setActiveThread(page.root || root);
+      setThreadReplies(page.replies || []);
+    } catch (error) {
+      toast.error(error.message || "Failed to load thread");
+    }
+    threadSubscription.current = stompClient.subscribe(`/topic/room/${roomId}/thread/${root.id}`, (message) => {
+      const received = JSON.parse(message.body);
+      if (received.type === "patch") {
+        setThreadReplies((prev) => prev.map(msg =>
+          msg.id === received.id ? { ...msg, ...received.changes } : msg
+        ));
+        return;
+      }
+      setThreadReplies((prev) => prev.some(msg => msg.id === received.id) ? prev : [...prev, received]);
+    });
+  };
+
+  const closeThread = () => {
+    if (threadSubscription.current) {
+      threadSubscription.current.unsubscribe();
+      threadSubscription.current = null;
+    }
+    setActiveThread(null);
+    setThreadReplies([]);
+  };
+
+  const sendReply = () => {
+    if (threadInput.trim() && connected && stompClient && activeThread) {
+      stompClient.publish({
+        destination: "/app/chat.sendMessage",
+        body: JSON.stringify({
+          sender: currentUser,
+          content: threadInput,
+          roomId: roomId,
+          parentId: activeThread.id,
+          clientMessageId: crypto.randomUUID()
+        })
+      });
+      setThreadInput("");
+    }
+  };
+
+  // History pages include replies; the room view only shows top-level messages
+  const roomMessages = messages.filter(message => !message.threadRootId);
+
   const sendMessage = () => {
     if (inputMessage.trim() && connected && stompClient) {
       const messageData = {
@@ -223,7 +374,8 @@ const ChatPage = () => {
         content: inputMessage,
         roomId: roomId,
         timeStamp: new Date().toISOString(),
-        senderFullName: user?.fullName || currentUser  // Include sender's full name
+        senderFullName: user?.fullName || currentUser,  // Include sender's full name
+        clientMessageId: crypto.randomUUID()  // Lets the server drop retries of this send
       };
 
       stompClient.publish({
@@ -267,6 +419,7 @@ const ChatPage = () => {
     formData.append("sender", currentUser);
     formData.append("senderFullName", user?.fullName || currentUser);
     formData.append("roomId", roomId);
+    formData.append("clientMessageId", crypto.randomUUID());
 
     try {
       toast.loading("Uploading file...", { id: "upload" });
@@ -309,6 +462,19 @@ const ChatPage = () => {
     navigate("/signin");
   };
 
+  const handleExport = async () => {
+    try {
+      const blob = await exportRoomHistory(roomId);
+      const link = document.createElement("a");
+      link.href = URL.createObjectURL(blob);
+      link.download = `room-${roomId}-export.ndjson.gz`;
+      link.click();
+      URL.revokeObjectURL(link.href);
+    } catch (error) {
+      toast.error(error.message || "Export failed");
+    }
+  };
+
   const handleLeaveRoom = () => {
     if (stompClient) {
       stompClient.deactivate();
@@ -354,16 +520,24 @@ const ChatPage = () => {
   // Render message content based on type
   const renderMessageContent = (message) => {
     const isCurrentUser = message.sender === currentUser;
+
+    if (message.deleted) {
+      return <p className="italic opacity-60">This message was deleted</p>;
+    }
     
     if (message.fileUrl) {
       const filename = message.fileName || message.originalFileName || message.content;
       const fileUrl = `http://localhost:8080${message.fileUrl}`;
 
       if (isImage(message.fileType) || (message.messageType === 'image')) {
+        // Use the server-generated preview when available; the original opens on click
+        const previewUrl = message.variants?.preview
+          ? `http://localhost:8080${message.variants.preview}`
+          : fileUrl;
         return (
           <div className="mt-2">
             <img 
-              src={fileUrl} 
+              src={previewUrl} 
               alt={message.originalFileName || filename}
               className="max-w-xs max-h-64 rounded-lg cursor-pointer hover:opacity-90 transition-opacity"
               onClick={() => window.open(fileUrl, '_blank')}
@@ -485,6 +659,12 @@ const ChatPage = () => {
               </div>
             </div>
           )}
+          <button
+            onClick={handleExport}
+            className="bg-slate-600 hover:bg-slate-500 text-white px-4 py-2 rounded-lg transition-colors"
+          >
+            Export
+          </button>
           <button
             onClick={handleLogout}
             className="bg-red-600 hover:bg-red-700 text-white px-4 py-2 rounded-lg transition-colors"
@@ -496,8 +676,8 @@ const ChatPage = () => {
 
       {/* Messages Area with white message bubbles for current user */}
       <div className="flex-1 overflow-y-auto px-6 py-4" ref={messageRef}>
-        {messages.map((message, index) => {
-          const showDate = index === 0 || formatDate(message.timeStamp) !== formatDate(messages[index - 1].timeStamp);
+        {roomMessages.map((message, index) => {
+          const showDate = index === 0 || formatDate(message.timeStamp) !== formatDate(roomMessages[index - 1].timeStamp);
           const isCurrentUser = message.sender === currentUser;
           
           return (
@@ -542,11 +722,48 @@ const ChatPage = () => {
                     }`}>
                       {renderMessageContent(message)}
                     </div>
+
+                    {!message.deleted && message.id && (
+                      <div className={`flex flex-wrap gap-1 mt-1 ${isCurrentUser ? 'justify-end' : 'justify-start'}`}>
+                        {Object.entries(message.reactions || {}).map(([emoji, count]) => (
+                          <button
+                            key={emoji}
+                            className="text-xs bg-slate-600 text-white rounded-full px-2 py-0.5 hover:bg-slate-500"
+                            onClick={() => toggleReaction(message, emoji)}
+                          >
+                            {emoji} {count}
+                          </button>
+                        ))}
+                        {QUICK_REACTIONS.filter(emoji => !(message.reactions || {})[emoji]).map(emoji => (
+                          <button
+                            key={emoji}
+                            className="text-xs opacity-40 hover:opacity-100"
+                            onClick={() => toggleReaction(message, emoji)}
+                          >
+                            {emoji}
+                          </button>
+                        ))}
+                      </div>
+                    )}
                     
                     <div className={`text-xs mt-1 ${
                       isCurrentUser ? 'text-right text-gray-500' : 'text-left text-gray-400'
                     }`}>
                       {formatTime(message.timeStamp)}
+                      {message.editedAt && !message.deleted && <span className="ml-1">(edited)</span>}
+                      {message.id && message.sender !== "System" && (
+                        <button className="ml-2 hover:underline" onClick={() => openThread(message)}>
+                          {message.replyCount > 0 ? `${message.replyCount} ${message.replyCount === 1 ? "reply" : "replies"}` : "Reply"}
+                        </button>
+                      )}
+                      {isCurrentUser && message.id && !message.deleted && (
+                        <>
+                          {!message.fileUrl && (
+                            <button className="ml-2 hover:underline" onClick={() => handleEdit(message)}>Edit</button>
+                          )}
+                          <button className="ml-2 hover:underline" onClick={() => handleDelete(message)}>Delete</button>
+                        </>
+                      )}
                     </div>
                   </div>
                   
@@ -603,6 +820,47 @@ const ChatPage = () => {
         )}
       </div>
 
+      {/* Thread panel: replies of the open thread, live from its own topic */}
+      {activeThread && (
+        <div className="fixed right-0 top-0 h-full w-96 bg-slate-700 border-l border-slate-600 flex flex-col">
+          <div className="px-4 py-3 border-b border-slate-600 flex items-center justify-between">
+            <span className="text-white font-semibold">Thread</span>
+            <button className="text-gray-300 hover:text-white" onClick={closeThread}>✕</button>
+          </div>
+          <div className="flex-1 overflow-y-auto px-4 py-3 space-y-3">
+            {[activeThread, ...threadReplies].map((message, index) => (
+              <div key={message.id || index} className={index === 0 ? "pb-3 border-b border-slate-600" : ""}>
+                <div className="text-gray-300 text-sm font-medium mb-1">
+                  {message.senderFullName || userCache.get(message.sender) || message.sender}
+                  <span className="ml-2 text-xs text-gray-400">{formatTime(message.timeStamp)}</span>
+                </div>
+                <div className="rounded-2xl px-4 py-2 bg-slate-600 text-white">
+                  {renderMessageContent(message)}
+                </div>
+              </div>
+            ))}
+          </div>
+          <div className="px-4 py-3 border-t border-slate-600 flex items-center space-x-2">
+            <input
+              type="text"
+              placeholder="Reply in thread..."
+              value={threadInput}
+              onChange={(e) => setThreadInput(e.target.value)}
+              onKeyPress={(e) => e.key === "Enter" && sendReply()}
+              className="flex-1 bg-slate-600 text-white placeholder-gray-400 px-4 py-2 rounded-full focus:outline-none focus:ring-2 focus:ring-purple-500 border-none"
+              disabled={!connected}
+            />
+            <button
+              onClick={sendReply}
+              disabled={!connected || !threadInput.trim()}
+              className="w-10 h-10 bg-purple-600 hover:bg-purple-700 disabled:bg-slate-600 text-white rounded-full flex items-center justify-center"
+            >
+              <VscSend size={16} />
+            </button>
+          </div>
+        </div>
+      )}
+
       {/* Hidden file input */}
       <input
         ref={fileInputRef}
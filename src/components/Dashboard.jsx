@@ -3,7 +3,7 @@ import { useNavigate } from "react-router-dom";
 import { toast } from "react-hot-toast";
 import useChatContext from "../context/ChatContext";
 import { getCurrentUser, logout } from "../services/AuthService";
-import { createRoom, joinRoom } from "../services/RoomService";
+import { createRoom, joinRoom, getBootstrap } from "../services/RoomService";
 
 const Dashboard = () => {
   const [activeTab, setActiveTab] = useState("join");
@@ -16,6 +16,7 @@ const Dashboard = () => {
     password: "",
   });
   const [loading, setLoading] = useState(false);
+  const [bootstrap, setBootstrap] = useState(null);
 
   const { currentUser, user, setRoomId, setCurrentUser, setUser, setIsAuthenticated } = useChatContext();
   const navigate = useNavigate();
@@ -24,9 +25,18 @@ const Dashboard = () => {
     const userData = getCurrentUser();
     if (!userData) {
       navigate("/signin");
+      return;
     }
+    getBootstrap()
+      .then(setBootstrap)
+      .catch((error) => console.error("Failed to load rooms:", error));
   }, [navigate]);
 
+  const openRoom = (roomId) => {
+    setRoomId(roomId);
+    navigate("/chat");
+  };
+
   const handleLogout = async () => {
     try {
       const result = logout();
@@ -319,6 +329,44 @@ const Dashboard = () => {
           </div>
         </div>
 
+        {/* Your rooms, from the single bootstrap request */}
+        {bootstrap && bootstrap.rooms.length > 0 && (
+          <div className="mt-8 bg-gray-800 rounded-2xl shadow-xl overflow-hidden">
+            <h2 className="text-lg font-bold text-white px-6 pt-6 pb-2">Your Rooms</h2>
+            <ul className="divide-y divide-gray-700">
+              {bootstrap.rooms.map((room) => {
+                const latest = room.latestMessage;
+                const senderName = latest ? (bootstrap.users[latest.sender]?.fullName || latest.sender) : null;
+                return (
+                  <li key={room.roomId}>
+                    <button
+                      onClick={() => openRoom(room.roomId)}
+                      className="w-full text-left px-6 py-4 hover:bg-gray-700 transition-colors"
+                    >
+                      <div className="flex justify-between items-center">
+                        <span className="text-white font-medium">{room.roomName}</span>
+                        <span className="text-xs text-gray-400">
+                          {room.onlineCount} online
+                          {room.unreadCount > 0 && (
+                            <span className="ml-2 px-2 py-0.5 rounded-full text-white" style={{ backgroundColor: '#a847ed' }}>
+                              {room.unreadCount}
+                            </span>
+                          )}
+                        </span>
+                      </div>
+                      {latest && (
+                        <p className="text-sm text-gray-400 truncate">
+                          {senderName}: {latest.content}
+                        </p>
+                      )}
+                    </button>
+                  </li>
+                );
+              })}
+            </ul>
+          </div>
+        )}
+
         {/* Instructions */}
         <div className="mt-8 text-center text-gray-400">
           <p className="text-sm">
@@ -120,4 +120,123 @@ export const getRooms = async () => {
     console.error("Error fetching rooms:", error);
     throw error;
   }
-};
\ No newline at end of file
+};
+
+// One request for the startup screen: the user's rooms with latest message, unread and
+// online counts, plus profiles for every sender shown. Replaces the per-room waterfall.
+export const getBootstrap = async () => {
+  const token = localStorage.getItem("jwt") || localStorage.getItem("authToken");
+  if (!token) {
+    throw new Error("No authentication token found");
+  }
+
+  const response = await fetch(`${baseURL}/api/v1/sync`, {
+    method: "GET",
+    headers: {
+      "Authorization": `Bearer ${token}`
+    }
+  });
+
+  const data = await response.json();
+  if (!response.ok) {
+    throw new Error(data.error || `HTTP error! status: ${response.status}`);
+  }
+
+  return data;
+};
+
+// One page of a thread: the root (first page only), replies oldest first and a "next"
+// cursor to pass as before= for older replies.
+export const getThread = async (roomId, rootId, before) => {
+  const token = localStorage.getItem("jwt") || localStorage.getItem("authToken");
+  const query = before != null ? `?before=${before}` : "";
+  const response = await fetch(`${baseURL}/api/v1/rooms/${roomId}/threads/${rootId}${query}`, {
+    headers: token ? { "Authorization": `Bearer ${token}` } : {}
+  });
+
+  const data = await response.json();
+  if (!response.ok) {
+    throw new Error(data.error || `HTTP error! status: ${response.status}`);
+  }
+
+  return data;
+};
+
+// Reads the room's history as NDJSON and hands it over in batches as they arrive, so the
+// first messages can render before the whole history has been read.
+export const streamRoomMessages = async (roomId, onBatch) => {
+  const token = localStorage.getItem("jwt") || localStorage.getItem("authToken");
+  const response = await fetch(`${baseURL}/api/v1/rooms/${roomId}/messages/stream`, {
+    headers: token ? { "Authorization": `Bearer ${token}` } : {}
+  });
+  if (!response.ok) {
+    throw new Error(`HTTP error! status: ${response.status}`);
+  }
+
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffered = "";
+  for (;;) {
+    const { done, value } = await reader.read();
+    buffered += decoder.decode(value || new Uint8Array(), { stream: !done });
+    const lines = buffered.split("\n");
+    buffered = lines.pop();
+    const batch = lines.filter(line => line.trim()).map(line => JSON.parse(line));
+    if (batch.length > 0) {
+      onBatch(batch);
+    }
+    if (done) {
+      return;
+    }
+  }
+};
+
+// Streams the room's history as a gzip NDJSON file; the server answers 429 while all
+// export slots are busy.
+export const exportRoomHistory = async (roomId) => {
+  const token = localStorage.getItem("jwt") || localStorage.getItem("authToken");
+  const response = await fetch(`${baseURL}/api/v1/rooms/${roomId}/export`, {
+    headers: token ? { "Authorization": `Bearer ${token}` } : {}
+  });
+  if (response.status === 429) {
+    throw new Error("Too many exports in progress, try again shortly");
+  }
+  if (!response.ok) {
+    throw new Error(`Export failed (status ${response.status})`);
+  }
+
+  return response.blob();
+};
+
+// Edits and deletes are broadcast to the room as small patches, so callers need not
+// update local state from the response.
+export const editMessage = async (roomId, messageId, content) => {
+  return changeMessage(roomId, messageId, "PATCH", { content });
+};
+
+export const deleteMessage = async (roomId, messageId) => {
+  return changeMessage(roomId, messageId, "DELETE");
+};
+
+const changeMessage = async (roomId, messageId, method, body) => {
+  const token = localStorage.getItem("jwt") || localStorage.getItem("authToken");
+  if (!token) {
+    throw new Error("No authentication token found");
+  }
+
+  const response = await fetch(`${baseURL}/api/v1/rooms/${roomId}/messages/${messageId}`, {
+    method,
+    headers: {
+      "Content-Type": "application/json",
+      "Authorization": `Bearer ${token}`
+    },
+    body: body ? JSON.stringify(body) : undefined
+  });
+
+  const data = await response.json();
+  if (!response.ok) {
+    throw new Error(data.error || `HTTP error! status: ${response.status}`);
+  }
+
+  return data;
+};